@@ -0,0 +1,154 @@
+package webServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures writing a response with each kind of body into a channel which discards the bytes, so only the work of the
+ * server is measured: the head and an in-memory body in one gathering write, a heap or direct buffer, a file region and
+ * a file compressed while it is written. Writing to a socket adds the system calls on top, and lets file regions go
+ * through sendfile, which a discarding channel cannot show:
+ * java -jar target/benchmarks.jar BodyWriteBenchmark
+ *  * @author Oguzhan Yigit
+ *  * @email yigit@adobe.com
+ *  * @version 0.1
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BodyWriteBenchmark {
+    @Param({"4096", "262144"})
+    private int size;
+    private final ResponseHead head = new ResponseHead();
+    private final DiscardChannel channel = new DiscardChannel();
+    private ByteBuffer heapContent;
+    private ByteBuffer directContent;
+    private Path directory;
+    private Path path;
+    private FileChannel file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        byte[] content = Fixtures.text(new Random(Fixtures.SEED), size);
+        heapContent = ByteBuffer.wrap(content);
+        directContent = ByteBuffer.allocateDirect(size);
+        directContent.put(content).flip();
+        directory = Files.createTempDirectory("body-benchmark");
+        path = directory.resolve("page.html");
+        Files.write(path, content);
+        file = FileChannel.open(path, StandardOpenOption.READ);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        file.close();
+        Files.deleteIfExists(path);
+        Files.deleteIfExists(directory);
+    }
+
+    private ByteBuffer head() {
+        return head.status(ResponseHead.OK)
+                .add(ResponseHead.CONTENT_LENGTH, size)
+                .add(ResponseHead.SERVER)
+                .end(true);
+    }
+
+    @Benchmark
+    public long heapBuffer() throws IOException {
+        return write(new Response.BufferBody(heapContent.duplicate()));
+    }
+
+    @Benchmark
+    public long directBuffer() throws IOException {
+        return write(new Response.BufferBody(directContent.duplicate()));
+    }
+
+    /**
+     * The body is not closed, it would close the file shared by all invocations.
+     */
+    @Benchmark
+    public long fileRegion() throws IOException {
+        return write(new Response.FileBody(file, 0, size));
+    }
+
+    /**
+     * Opens the file per response like Request does, as the body closes it along with its deflater.
+     */
+    @Benchmark
+    public long gzipStream() throws IOException {
+        Response.GzipBody body = new Response.GzipBody(FileChannel.open(path, StandardOpenOption.READ), true);
+        try {
+            return write(body);
+        }
+        finally {
+            body.close();
+        }
+    }
+
+    private long write(Response.Body body) throws IOException {
+        Response response = new Response(200, head(), body, true);
+        while (!response.writeTo(channel)) {
+            // The discarding channel takes every byte at once.
+        }
+        return response.getBytesSent();
+    }
+
+    /**
+     * A channel accepting and discarding everything, like a socket with an infinitely fast client.
+     */
+    private static class DiscardChannel implements GatheringByteChannel {
+        @Override
+        public int write(ByteBuffer source) {
+            int count = source.remaining();
+            source.position(source.limit());
+            return count;
+        }
+
+        @Override
+        public long write(ByteBuffer[] sources, int offset, int length) {
+            long count = 0;
+            for (int i = offset; i < offset + length; i++) {
+                count += write(sources[i]);
+            }
+            return count;
+        }
+
+        @Override
+        public long write(ByteBuffer[] sources) {
+            return write(sources, 0, sources.length);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package webServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Measures what compressing a text file costs at request time, at the default and the highest level, and what serving
+ * it from the compression cache costs instead:
+ * java -jar target/benchmarks.jar CompressionBenchmark
+ *  * @author Oguzhan Yigit
+ *  * @email yigit@adobe.com
+ *  * @version 0.1
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressionBenchmark {
+    @Param({"4096", "65536", "1048576"})
+    private int size;
+    private byte[] content;
+    private Path directory;
+    private FileMetadata.Entry metadata;
+    private CompressionCache cache;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        content = Fixtures.text(new Random(Fixtures.SEED), size);
+        directory = Files.createTempDirectory("compression-benchmark");
+        File file = directory.resolve("page.html").toFile();
+        Files.write(file.toPath(), content);
+        metadata = FileMetadata.stat(file);
+        cache = new CompressionCache(64L * 1024 * 1024, 8 * 1024 * 1024, false);
+        cache.get(metadata);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(metadata.getFile().toPath());
+        Files.deleteIfExists(directory);
+    }
+
+    @Benchmark
+    public byte[] gzipDefault() throws IOException {
+        return gzip(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    @Benchmark
+    public byte[] gzipBest() throws IOException {
+        return gzip(Deflater.BEST_COMPRESSION);
+    }
+
+    /**
+     * A hot file, compressed once and served from the cache afterwards.
+     */
+    @Benchmark
+    public ByteBuffer cacheHit() throws IOException {
+        return cache.get(metadata);
+    }
+
+    private byte[] gzip(final int level) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(content.length / 2);
+        try (GZIPOutputStream zipStream = new GZIPOutputStream(out, Request.TRANSFER_CHUNK) {
+            {
+                def.setLevel(level);
+            }
+        }) {
+            zipStream.write(content);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,76 @@
+package webServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the Etag modes: tags derived from the metadata, content digests served from their cache, and content
+ * digests computed on every request, which is what a cache too small for the working set amounts to:
+ * java -jar target/benchmarks.jar EntityTagsBenchmark
+ *  * @author Oguzhan Yigit
+ *  * @email yigit@adobe.com
+ *  * @version 0.1
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EntityTagsBenchmark {
+    @Param({"4096", "1048576"})
+    private int size;
+    private Path directory;
+    private File file;
+    private long lastModified;
+    private final EntityTags metadataTags = new EntityTags(EntityTags.Mode.METADATA, 16);
+    private final EntityTags cachedDigests = new EntityTags(EntityTags.Mode.CONTENT, 16);
+    private final EntityTags uncachedDigests = new EntityTags(EntityTags.Mode.CONTENT, 0);
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("etag-benchmark");
+        file = directory.resolve("photo.jpg").toFile();
+        Files.write(file.toPath(), Fixtures.binary(new Random(Fixtures.SEED), size));
+        lastModified = file.lastModified();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file.toPath());
+        Files.deleteIfExists(directory);
+    }
+
+    @Benchmark
+    public String metadata() throws IOException {
+        return metadataTags.of(file, size, lastModified);
+    }
+
+    @Benchmark
+    public String cachedDigest() throws IOException {
+        return cachedDigests.of(file, size, lastModified);
+    }
+
+    @Benchmark
+    public String uncachedDigest() throws IOException {
+        return uncachedDigests.of(file, size, lastModified);
+    }
+}
@@ -0,0 +1,93 @@
+package webServer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates the files the benchmarks and the load test are run against. The content is derived from a fixed seed, so
+ * every run on every machine serves the same bytes and the results stay comparable. The tree mixes what a static site
+ * serves: small HTML pages and documents, mid-sized scripts and stylesheets, incompressible images, one large download
+ * and a directory with many entries.
+ *  * @author Oguzhan Yigit
+ *  * @email yigit@adobe.com
+ *  * @version 0.1
+ */
+public final class Fixtures {
+    static final long SEED = 20240502L;
+    private static final String[] WORDS = {"server", "request", "response", "header", "body", "socket", "thread",
+            "buffer", "cache", "file", "directory", "compress", "range", "etag", "client", "connection", "latency",
+            "throughput", "the", "a", "of", "and", "to", "in", "is", "for", "with", "on", "that", "by"};
+
+    private Fixtures() {
+    }
+
+    /**
+     * Generates readable, compressible text.
+     * @param random The source of the words
+     * @param size The number of bytes
+     * @return The text encoded as US-ASCII
+     */
+    public static byte[] text(Random random, int size) {
+        StringBuilder text = new StringBuilder(size + 16);
+        while (text.length() < size) {
+            text.append(WORDS[random.nextInt(WORDS.length)]).append(random.nextInt(12) == 0 ? ".\n" : " ");
+        }
+        text.setLength(size);
+        return text.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Generates incompressible bytes, like those of images or archives.
+     * @param random The source of the bytes
+     * @param size The number of bytes
+     * @return The bytes
+     */
+    public static byte[] binary(Random random, int size) {
+        byte[] bytes = new byte[size];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * Writes the fixture tree below a directory.
+     * @param root The directory, created if it does not exist
+     * @return The request paths of the files, in a fixed order and weighted by how often a site serves them
+     * @throws IOException We throw an IOException if a file cannot be written
+     */
+    public static List<String> create(Path root) throws IOException {
+        Random random = new Random(SEED);
+        List<String> paths = new ArrayList<>();
+        write(root, "index.html", text(random, 4 * 1024));
+        Collections.addAll(paths, "/index.html", "/index.html", "/index.html", "/index.html");
+        write(root, "static/app.js", text(random, 96 * 1024));
+        write(root, "static/style.css", text(random, 24 * 1024));
+        Collections.addAll(paths, "/static/app.js", "/static/app.js", "/static/style.css", "/static/style.css");
+        for (int i = 0; i < 64; i++) {
+            write(root, "docs/page-" + i + ".html", text(random, 1024 + random.nextInt(15 * 1024)));
+            paths.add("/docs/page-" + i + ".html");
+        }
+        for (int i = 0; i < 16; i++) {
+            write(root, "images/photo-" + i + ".jpg", binary(random, 32 * 1024 + random.nextInt(224 * 1024)));
+            paths.add("/images/photo-" + i + ".jpg");
+        }
+        for (int i = 0; i < 500; i++) {
+            write(root, "archive/entry-" + i + ".txt", text(random, 256));
+        }
+        paths.add("/archive/");
+        write(root, "downloads/large.bin", binary(random, 8 * 1024 * 1024));
+        paths.add("/downloads/large.bin");
+        return paths;
+    }
+
+    private static void write(Path root, String name, byte[] content) throws IOException {
+        Path path = root.resolve(name);
+        Files.createDirectories(path.getParent());
+        Files.write(path, content);
+    }
+}
@@ -0,0 +1,86 @@
+package webServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the byte-level request parser with the line-based parsing the server used before. Run it with the GC
+ * profiler to see the allocations per request in gc.alloc.rate.norm:
+ * java -jar target/benchmarks.jar HttpParserBenchmark -prof gc
+ *  * @author Oguzhan Yigit
+ *  * @email yigit@adobe.com
+ *  * @version 0.1
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HttpParserBenchmark {
+    /**
+     * A request as a browser sends it when revalidating a cached file.
+     */
+    private static final byte[] REQUEST = ("GET /New%20folder/index.html HTTP/1.1\r\n"
+            + "Host: localhost:1337\r\n"
+            + "Connection: keep-alive\r\n"
+            + "User-Agent: Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/118.0 Safari/537.36\r\n"
+            + "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,image/avif,image/webp,*/*;q=0.8\r\n"
+            + "Accept-Encoding: gzip, deflate, br\r\n"
+            + "Accept-Language: en-US,en;q=0.9\r\n"
+            + "If-Modified-Since: Fri Oct 16 20:36:44 UTC 2026\r\n"
+            + "\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    private final HttpParser parser = new HttpParser();
+    private final ByteBuffer buffer = ByteBuffer.allocate(HttpParser.MAX_HEAD_SIZE);
+
+    /**
+     * Parses the request out of the reused connection buffer, as both engines do.
+     */
+    @Benchmark
+    public Date byteParser() throws ParseException {
+        buffer.clear();
+        buffer.put(REQUEST);
+        buffer.flip();
+        HttpRequest request = parser.parse(buffer);
+        return HttpDates.parse(request.getHeader("if-modified-since"));
+    }
+
+    /**
+     * The former parseHttp(): decode the stream into lines, match headers with contains and create a date format per
+     * request. Printing every line to System.out is left out, it would dominate the measurement.
+     */
+    @Benchmark
+    public Date legacyReadLine() throws IOException, ParseException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(REQUEST)));
+        String[] requestLine = reader.readLine().split(" ");
+        String path = java.net.URLDecoder.decode(requestLine[1], "UTF-8");
+        Date threshold = null;
+        String line;
+        while ((line = reader.readLine()) != null && !line.isEmpty()) {
+            if (line.contains("If-Modified-Since:")) {
+                SimpleDateFormat format = new SimpleDateFormat("E MMM d HH:mm:ss z yyyy");
+                threshold = format.parse(line.substring(line.indexOf(':') + 2));
+            }
+        }
+        return path.isEmpty() ? null : threshold;
+    }
+}
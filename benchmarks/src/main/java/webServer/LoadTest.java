@@ -0,0 +1,336 @@
+package webServer;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Level;
+
+/**
+ * Drives a server in this JVM with keep-alive clients and reports throughput and latency percentiles per concurrency
+ * level. The server listens on a free port and serves the generated fixture tree, every client requests its own
+ * seeded sequence of paths, so two runs with the same options send the same requests:
+ * java -cp target/benchmarks.jar webServer.LoadTest --engine NIO --concurrency 1,16,64 --duration 10 --warmup 3
+ * Further tunables are taken from the system properties, as when the server is started on its own.
+ *  * @author Oguzhan Yigit
+ *  * @email yigit@adobe.com
+ *  * @version 0.1
+ */
+public final class LoadTest {
+    private static final int MAX_HEAD = 16 * 1024;
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        ServerConfig config = ServerConfig.fromSystemProperties();
+        int[] concurrencies = {1, 16, 64};
+        int durationSeconds = 10;
+        int warmupSeconds = 3;
+        boolean gzip = false;
+        for (int i = 0; i < args.length; i++) {
+            String value = i + 1 < args.length ? args[i + 1] : "";
+            switch (args[i]) {
+                case "--engine":
+                    config.setEngine(Server.Engine.valueOf(value.toUpperCase(Locale.ROOT)));
+                    i++;
+                    break;
+                case "--concurrency":
+                    String[] levels = value.split(",");
+                    concurrencies = new int[levels.length];
+                    for (int j = 0; j < levels.length; j++) {
+                        concurrencies[j] = Integer.parseInt(levels[j].trim());
+                    }
+                    i++;
+                    break;
+                case "--duration":
+                    durationSeconds = Integer.parseInt(value);
+                    i++;
+                    break;
+                case "--warmup":
+                    warmupSeconds = Integer.parseInt(value);
+                    i++;
+                    break;
+                case "--gzip":
+                    gzip = true;
+                    break;
+                default:
+                    System.err.println("Usage: LoadTest [--engine BLOCKING|NIO] [--concurrency 1,16,64]"
+                            + " [--duration seconds] [--warmup seconds] [--gzip]");
+                    System.exit(2);
+            }
+        }
+
+        Path root = Files.createTempDirectory("webserver-load");
+        List<String> paths = Fixtures.create(root);
+        Server server = new Server(root.toString(), 0, Level.WARNING, config);
+        Thread serve = new Thread(server, "server");
+        // The blocking engine does not leave accept() on stop, the thread must not keep the JVM alive.
+        serve.setDaemon(true);
+        serve.start();
+        int port = server.awaitListening(10000);
+        System.out.println("engine " + config.getEngine() + ", " + paths.size() + " paths, gzip " + gzip
+                + ", serving " + root + " on port " + port);
+        System.out.println(String.format(Locale.ROOT, "%11s %10s %9s %7s %9s %9s %9s %9s %9s",
+                "concurrency", "req/s", "MB/s", "errors", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms"));
+        try {
+            for (int concurrency : concurrencies) {
+                run(port, paths, concurrency, warmupSeconds, gzip);
+                Result result = run(port, paths, concurrency, durationSeconds, gzip);
+                System.out.println(result.format(concurrency, durationSeconds));
+            }
+        }
+        finally {
+            server.stop();
+            delete(root);
+        }
+    }
+
+    /**
+     * Runs one level and collects the latencies of all clients.
+     */
+    private static Result run(int port, List<String> paths, int concurrency, int seconds, boolean gzip)
+            throws InterruptedException {
+        Client[] clients = new Client[concurrency];
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[concurrency];
+        for (int i = 0; i < concurrency; i++) {
+            clients[i] = new Client(port, paths, new Random(Fixtures.SEED + i), gzip, start);
+            threads[i] = new Thread(clients[i], "client-" + i);
+            threads[i].start();
+        }
+        long deadline = System.nanoTime() + seconds * 1000000000L;
+        for (Client client : clients) {
+            client.deadline = deadline;
+        }
+        start.countDown();
+        Result result = new Result();
+        for (int i = 0; i < concurrency; i++) {
+            threads[i].join();
+            result.add(clients[i]);
+        }
+        return result;
+    }
+
+    private static void delete(Path root) throws IOException {
+        List<Path> files = new ArrayList<>();
+        Files.walk(root).forEach(files::add);
+        for (int i = files.size() - 1; i >= 0; i--) {
+            Files.deleteIfExists(files.get(i));
+        }
+    }
+
+    /**
+     * One keep-alive connection sending its requests one after another, reconnecting when the server closes it.
+     */
+    private static class Client implements Runnable {
+        private final int port;
+        private final List<String> paths;
+        private final Random random;
+        private final boolean gzip;
+        private final CountDownLatch start;
+        private final byte[] discard = new byte[64 * 1024];
+        private volatile long deadline;
+        private long[] latencies = new long[1024];
+        private int count;
+        private long bytes;
+        private int errors;
+        private Socket socket;
+        private InputStream in;
+        private OutputStream out;
+
+        Client(int port, List<String> paths, Random random, boolean gzip, CountDownLatch start) {
+            this.port = port;
+            this.paths = paths;
+            this.random = random;
+            this.gzip = gzip;
+            this.start = start;
+        }
+
+        @Override
+        public void run() {
+            try {
+                start.await();
+            }
+            catch (InterruptedException e) {
+                return;
+            }
+            while (System.nanoTime() < deadline) {
+                String path = paths.get(random.nextInt(paths.size()));
+                long started = System.nanoTime();
+                try {
+                    if (socket == null) {
+                        connect();
+                    }
+                    boolean ok = exchange(path);
+                    long elapsed = System.nanoTime() - started;
+                    if (ok) {
+                        if (count == latencies.length) {
+                            latencies = Arrays.copyOf(latencies, count * 2);
+                        }
+                        latencies[count++] = elapsed;
+                    }
+                    else {
+                        errors++;
+                    }
+                }
+                catch (IOException e) {
+                    errors++;
+                    disconnect();
+                }
+            }
+            disconnect();
+        }
+
+        private void connect() throws IOException {
+            socket = new Socket();
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress("127.0.0.1", port));
+            in = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+            out = socket.getOutputStream();
+        }
+
+        private void disconnect() {
+            if (socket != null) {
+                try {
+                    socket.close();
+                }
+                catch (IOException e) {
+                    // Nothing left to release.
+                }
+                socket = null;
+            }
+        }
+
+        /**
+         * Sends one request and reads its response completely.
+         * @return true if the status was 200
+         */
+        private boolean exchange(String path) throws IOException {
+            String request = "GET " + path + " HTTP/1.1\r\nHost: localhost\r\n"
+                    + (gzip ? "Accept-Encoding: gzip\r\n" : "") + "\r\n";
+            out.write(request.getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+
+            String statusLine = readLine();
+            int status = Integer.parseInt(statusLine.substring(9, 12));
+            long contentLength = -1;
+            boolean chunked = false;
+            boolean close = false;
+            String line;
+            while (!(line = readLine()).isEmpty()) {
+                int colon = line.indexOf(':');
+                String name = line.substring(0, colon).trim();
+                String value = line.substring(colon + 1).trim();
+                if (name.equalsIgnoreCase("Content-Length")) {
+                    contentLength = Long.parseLong(value);
+                }
+                else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+                    chunked = value.equalsIgnoreCase("chunked");
+                }
+                else if (name.equalsIgnoreCase("Connection")) {
+                    close = value.equalsIgnoreCase("close");
+                }
+            }
+            if (chunked) {
+                long size;
+                while ((size = Long.parseLong(readLine().trim(), 16)) > 0) {
+                    skip(size);
+                    readLine();
+                }
+                readLine();
+            }
+            else if (contentLength >= 0) {
+                skip(contentLength);
+            }
+            else {
+                // The body ends with the connection.
+                while (skip(Long.MAX_VALUE) > 0) {
+                    // Keeps reading until the server closes.
+                }
+                close = true;
+            }
+            if (close) {
+                disconnect();
+            }
+            return status == 200;
+        }
+
+        private String readLine() throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+            int b;
+            while ((b = in.read()) != '\n') {
+                if (b < 0) {
+                    throw new IOException("Connection closed by the server");
+                }
+                if (line.size() > MAX_HEAD) {
+                    throw new IOException("Line exceeds " + MAX_HEAD + " bytes");
+                }
+                if (b != '\r') {
+                    line.write(b);
+                }
+            }
+            return new String(line.toByteArray(), StandardCharsets.ISO_8859_1);
+        }
+
+        private long skip(long length) throws IOException {
+            long remaining = length;
+            while (remaining > 0) {
+                int read = in.read(discard, 0, (int) Math.min(discard.length, remaining));
+                if (read < 0) {
+                    if (length == Long.MAX_VALUE) {
+                        break;
+                    }
+                    throw new IOException("Connection closed by the server");
+                }
+                remaining -= read;
+                bytes += read;
+            }
+            return length - remaining;
+        }
+    }
+
+    /**
+     * The merged latencies of all clients of one level.
+     */
+    private static class Result {
+        private long[] latencies = new long[0];
+        private long bytes;
+        private int errors;
+
+        void add(Client client) {
+            int offset = latencies.length;
+            latencies = Arrays.copyOf(latencies, offset + client.count);
+            System.arraycopy(client.latencies, 0, latencies, offset, client.count);
+            bytes += client.bytes;
+            errors += client.errors;
+        }
+
+        String format(int concurrency, int seconds) {
+            Arrays.sort(latencies);
+            return String.format(Locale.ROOT, "%11d %10.0f %9.1f %7d %9.3f %9.3f %9.3f %9.3f %9.3f", concurrency,
+                    latencies.length / (double) seconds, bytes / (double) seconds / (1024 * 1024), errors,
+                    percentile(0.5), percentile(0.9), percentile(0.99), percentile(0.999), percentile(1));
+        }
+
+        private double percentile(double fraction) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(fraction * latencies.length) - 1;
+            return latencies[Math.max(0, index)] / 1e6;
+        }
+    }
+}
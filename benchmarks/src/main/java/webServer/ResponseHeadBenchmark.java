@@ -0,0 +1,70 @@
+package webServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares building the head of a 200 response from pre-encoded fields with concatenating it as a String, the way the
+ * server built its heads before:
+ * java -jar target/benchmarks.jar ResponseHeadBenchmark -prof gc
+ *  * @author Oguzhan Yigit
+ *  * @email yigit@adobe.com
+ *  * @version 0.1
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseHeadBenchmark {
+    private static final long LAST_MODIFIED = 1714641243000L;
+    private final ResponseHead head = new ResponseHead();
+
+    /**
+     * The head of a file response as Request builds it, reusing the array of the connection.
+     */
+    @Benchmark
+    public ByteBuffer responseHead() {
+        return head.status(ResponseHead.OK)
+                .add(ResponseHead.LAST_MODIFIED, HttpDates.format(LAST_MODIFIED))
+                .add(ResponseHead.ACCEPT_RANGES_BYTES)
+                .add(ResponseHead.VARY_ACCEPT_ENCODING)
+                .add(ResponseHead.CONTENT_LENGTH, 98304)
+                .add(ResponseHead.CONTENT_TYPE_HTML_UTF8)
+                .date()
+                .add(ResponseHead.ETAG, "\"18f3a1b2c38-18000\"")
+                .add(ResponseHead.SERVER)
+                .end(true);
+    }
+
+    /**
+     * The same head concatenated into a String and encoded afterwards, with the date formatted per response.
+     */
+    @Benchmark
+    public ByteBuffer concatenated() {
+        String text = "HTTP/1.1 200 OK\r\n"
+                + "Last-Modified: " + new Date(LAST_MODIFIED) + "\r\n"
+                + "Accept-Ranges: bytes\r\n"
+                + "Vary: Accept-Encoding\r\n"
+                + "Content-Length: " + 98304 + "\r\n"
+                + "Content-Type: text/html; charset=utf-8\r\n"
+                + "Date: " + new Date() + "\r\n"
+                + "Etag: " + "\"18f3a1b2c38-18000\"" + "\r\n"
+                + "Server: Custom Java Webserver\r\n"
+                + "Connection: keep-alive\r\n\r\n";
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.ISO_8859_1));
+    }
+}
@@ -0,0 +1,369 @@
+package webServer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * A structured access log, one JSON line per request with its timings. Serving threads only put a record into a
+ * bounded lock-free ring buffer, a dedicated writer thread formats the records and appends them to the file in batches,
+ * one write per batch. If the writer falls behind and the buffer is full, records are dropped and counted instead of
+ * blocking the request. The file is rolled when it reaches its size limit and at every multiple of the roll interval,
+ * e.g. daily at midnight UTC, the rolled file is renamed with the time it was rolled at.
+ *  * @author Oguzhan Yigit
+ *  * @email yigit@adobe.com
+ *  * @version 0.1
+ */
+public class AccessLog {
+    /**
+     * Most records formatted into one write.
+     */
+    static final int MAX_BATCH = 1024;
+    /**
+     * Time the writer waits for new records when the buffer is empty.
+     */
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private final File file;
+    private final long maxBytes;
+    private final long rollMillis;
+    private final int mask;
+    private final AtomicReferenceArray<Entry> slots;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private long head;
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong rolls = new AtomicLong();
+    private OutputStream out;
+    private long size;
+    private long nextRoll;
+    private Thread writer;
+    private volatile boolean running;
+    private final SimpleDateFormat timestamps = utc("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+    private final SimpleDateFormat suffixes = utc("yyyyMMdd-HHmmss");
+    private final StringBuilder batch = new StringBuilder(64 * 1024);
+    private final static Logger LOGGER = Logger.getLogger(Server.class.getName());
+
+    /**
+     * @param path The file of the log, or null to disable logging
+     * @param capacity Records the buffer holds, rounded up to a power of two
+     * @param maxBytes Size at which the file is rolled, 0 disables rolling by size
+     * @param rollMillis Interval at which the file is rolled, 0 disables rolling by time
+     */
+    public AccessLog(String path, int capacity, long maxBytes, long rollMillis) {
+        this.file = path == null ? null : new File(path);
+        int slotCount = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.mask = slotCount - 1;
+        this.slots = new AtomicReferenceArray<>(path == null ? 0 : slotCount);
+        this.sequences = new AtomicLongArray(path == null ? 0 : slotCount);
+        for (int i = 0; i < sequences.length(); i++) {
+            sequences.set(i, i);
+        }
+        this.maxBytes = maxBytes;
+        this.rollMillis = rollMillis;
+    }
+
+    private static SimpleDateFormat utc(String pattern) {
+        SimpleDateFormat format = new SimpleDateFormat(pattern);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format;
+    }
+
+    /**
+     * Opens the file and starts the writer thread. Does nothing if logging is disabled.
+     */
+    public synchronized void start() {
+        if (file == null || writer != null) {
+            return;
+        }
+        try {
+            open(System.currentTimeMillis());
+        }
+        catch (IOException e) {
+            LOGGER.warning("Could not open the access log " + file + ": " + e.getMessage());
+            return;
+        }
+        running = true;
+        writer = new Thread(this::write, "access-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Writes the records still in the buffer, stops the writer thread and closes the file.
+     */
+    public synchronized void stop() {
+        if (writer == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writer = null;
+    }
+
+    /**
+     * Hands a request to the writer. Never blocks, the record is dropped if the buffer is full.
+     * @param client The address of the client
+     * @param request The request, or null if it could not be parsed
+     * @param status The status code of the response
+     * @param bytes Number of bytes sent
+     * @param parseNanos Time spent parsing the head
+     * @param fileNanos Time spent accessing the file system
+     * @param compressNanos Time spent compressing
+     * @param writeNanos Time spent writing the response
+     */
+    public void log(String client, HttpRequest request, int status, long bytes, long parseNanos, long fileNanos,
+                    long compressNanos, long writeNanos) {
+        if (!running) {
+            return;
+        }
+        Entry entry = new Entry(System.currentTimeMillis(), client, request, status, bytes, parseNanos, fileNanos,
+                compressNanos, writeNanos);
+        if (!offer(entry)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Claims the next slot of the ring and publishes the entry in it. A slot is free when its sequence equals the
+     * position claiming it, the writer sets the sequence one lap ahead once it has taken the entry out.
+     * @param entry The entry
+     * @return false if the ring is full
+     */
+    boolean offer(Entry entry) {
+        long position = tail.get();
+        while (true) {
+            int index = (int) (position & mask);
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots.lazySet(index, entry);
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            }
+            else if (difference < 0) {
+                return false;
+            }
+            else {
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Takes the oldest published entry out of the ring. Only called by the writer thread.
+     * @return The entry, or null if there is none
+     */
+    Entry poll() {
+        int index = (int) (head & mask);
+        if (sequences.get(index) != head + 1) {
+            return null;
+        }
+        Entry entry = slots.get(index);
+        slots.lazySet(index, null);
+        sequences.set(index, head + mask + 1);
+        head++;
+        return entry;
+    }
+
+    /**
+     * The loop of the writer thread: formats up to a batch of records, writes them at once and waits if there are none.
+     */
+    private void write() {
+        try {
+            while (true) {
+                boolean stopping = !running;
+                int count = 0;
+                Entry entry;
+                while (count < MAX_BATCH && (entry = poll()) != null) {
+                    entry.appendTo(batch, timestamps);
+                    count++;
+                }
+                if (count > 0) {
+                    flush(count);
+                }
+                else if (stopping) {
+                    return;
+                }
+                else {
+                    LockSupport.parkNanos(IDLE_NANOS);
+                }
+            }
+        }
+        catch (IOException e) {
+            LOGGER.warning("Access log stopped, could not write " + file + ": " + e.getMessage());
+            running = false;
+        }
+        finally {
+            close();
+        }
+    }
+
+    /**
+     * Writes the formatted batch, rolling the file before if it is due.
+     * @param lines Number of records in the batch
+     * @throws IOException We throw an IOException if the file cannot be written or rolled
+     */
+    private void flush(int lines) throws IOException {
+        byte[] bytes = batch.toString().getBytes(StandardCharsets.UTF_8);
+        batch.setLength(0);
+        long now = System.currentTimeMillis();
+        if ((maxBytes > 0 && size > 0 && size + bytes.length > maxBytes) || (rollMillis > 0 && now >= nextRoll)) {
+            roll(now);
+        }
+        out.write(bytes);
+        size += bytes.length;
+        written.addAndGet(lines);
+    }
+
+    private void open(long now) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Cannot create " + parent);
+        }
+        out = new FileOutputStream(file, true);
+        size = file.length();
+        nextRoll = rollMillis > 0 ? (now / rollMillis + 1) * rollMillis : Long.MAX_VALUE;
+    }
+
+    /**
+     * Renames the current file with the time it is rolled at and opens a new one.
+     * @param now The current time
+     * @throws IOException We throw an IOException if the new file cannot be opened
+     */
+    private void roll(long now) throws IOException {
+        out.close();
+        String base = file.getPath() + "." + suffixes.format(new Date(now));
+        File rolled = new File(base);
+        for (int i = 1; rolled.exists(); i++) {
+            rolled = new File(base + "-" + i);
+        }
+        if (!file.renameTo(rolled)) {
+            LOGGER.warning("Could not roll the access log " + file);
+        }
+        rolls.incrementAndGet();
+        open(now);
+    }
+
+    private void close() {
+        try {
+            if (out != null) {
+                out.close();
+            }
+        }
+        catch (IOException e) {
+            LOGGER.info("Could not close the access log.");
+        }
+    }
+
+    /**
+     * @return true if a file is configured
+     */
+    public boolean isEnabled() {
+        return file != null;
+    }
+
+    /**
+     * @return Number of records written to the file
+     */
+    public long getWritten() {
+        return written.get();
+    }
+
+    /**
+     * @return Number of records dropped because the buffer was full
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return Number of times the file has been rolled
+     */
+    public long getRolls() {
+        return rolls.get();
+    }
+
+    /**
+     * One request as it is handed to the writer, formatted only by the writer thread.
+     */
+    static class Entry {
+        private final long time;
+        private final String client;
+        private final HttpRequest request;
+        private final int status;
+        private final long bytes;
+        private final long parseNanos;
+        private final long fileNanos;
+        private final long compressNanos;
+        private final long writeNanos;
+
+        Entry(long time, String client, HttpRequest request, int status, long bytes, long parseNanos, long fileNanos,
+              long compressNanos, long writeNanos) {
+            this.time = time;
+            this.client = client;
+            this.request = request;
+            this.status = status;
+            this.bytes = bytes;
+            this.parseNanos = parseNanos;
+            this.fileNanos = fileNanos;
+            this.compressNanos = compressNanos;
+            this.writeNanos = writeNanos;
+        }
+
+        /**
+         * Appends the entry as one line of JSON.
+         * @param out The batch being formatted
+         * @param timestamps The format of the time, only used by the writer thread
+         */
+        void appendTo(StringBuilder out, SimpleDateFormat timestamps) {
+            out.append("{\"time\":\"").append(timestamps.format(new Date(time))).append("\",\"client\":");
+            string(out, client);
+            out.append(",\"method\":");
+            string(out, request == null ? null : request.getMethod().name());
+            out.append(",\"path\":");
+            string(out, request == null ? null : request.getPath());
+            out.append(",\"query\":");
+            string(out, request == null ? null : request.getQuery());
+            out.append(",\"version\":");
+            string(out, request == null ? null : request.getVersion());
+            out.append(",\"status\":").append(status)
+                    .append(",\"bytes\":").append(bytes)
+                    .append(",\"duration_us\":").append((parseNanos + fileNanos + compressNanos + writeNanos) / 1000)
+                    .append(",\"parse_us\":").append(parseNanos / 1000)
+                    .append(",\"file_us\":").append(fileNanos / 1000)
+                    .append(",\"compress_us\":").append(compressNanos / 1000)
+                    .append(",\"write_us\":").append(writeNanos / 1000)
+                    .append("}\n");
+        }
+
+        private static void string(StringBuilder out, String value) {
+            if (value == null) {
+                out.append("null");
+                return;
+            }
+            out.append('"');
+            DirectoryListings.escapeJson(out, value);
+            out.append('"');
+        }
+    }
+}
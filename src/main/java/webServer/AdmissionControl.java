@@ -0,0 +1,366 @@
+package webServer;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides which clients are served, before a connection takes a worker or an event loop and before a request is
+ * answered. Clients are told apart by their address. Every limit is optional:
+ * + Concurrent connections per client, further connections are answered with 429 Too Many Requests right away.
+ * + Requests per client, a token bucket which allows bursts and refills at a steady rate.
+ * + Bandwidth per client, a token bucket charged with the bytes of every response once it has been written. A client
+ *   in debt has its next requests answered with 429 until the bucket has refilled.
+ * + Overload: once the server holds more connections than configured, new connections are shed with 503 Service
+ *   Unavailable until a tenth of them has closed, so the clients already connected keep their latency.
+ * Every refusal carries a Retry-After telling the client when to come back. The state of the clients is kept in a
+ * concurrent map, each client is locked on its own. The map is bounded: clients without connections are dropped
+ * once they have been quiet longer than the expiry, or earlier if the map is full. A forgotten client starts over
+ * with full buckets, which is at most as generous as the buckets it had.
+ *  * @author Oguzhan Yigit
+ *  * @email yigit@adobe.com
+ *  * @version 0.1
+ */
+public class AdmissionControl {
+    /**
+     * Reasons a connection or a request is refused.
+     */
+    public enum Reason{CONNECTIONS, REQUESTS, BANDWIDTH, OVERLOAD}
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    private final int maxConnectionsPerClient;
+    private final double requestsPerNano;
+    private final int requestBurst;
+    private final double bytesPerNano;
+    private final long byteBurst;
+    private final int overloadConnections;
+    private final int maxClients;
+    private final long expiryNanos;
+    private final boolean enabled;
+    private final ConcurrentHashMap<String, Client> clients = new ConcurrentHashMap<>();
+    private final AtomicInteger connections = new AtomicInteger();
+    private volatile boolean overloaded;
+    private final LongAdder[] refused = new LongAdder[Reason.values().length];
+
+    /**
+     * @param config The limits, see the admission settings of ServerConfig
+     */
+    public AdmissionControl(ServerConfig config) {
+        this.maxConnectionsPerClient = config.getMaxConnectionsPerClient();
+        this.requestsPerNano = (double) config.getRequestsPerSecond() / NANOS_PER_SECOND;
+        this.requestBurst = Math.max(1, config.getRequestBurst());
+        this.bytesPerNano = (double) config.getBytesPerSecond() / NANOS_PER_SECOND;
+        this.byteBurst = config.getByteBurst();
+        this.overloadConnections = config.getOverloadConnections();
+        this.maxClients = config.getAdmissionMaxClients();
+        this.expiryNanos = TimeUnit.MILLISECONDS.toNanos(config.getAdmissionExpiryMillis());
+        this.enabled = maxConnectionsPerClient > 0 || requestsPerNano > 0 || bytesPerNano > 0
+                || overloadConnections > 0;
+        for (int i = 0; i < refused.length; i++) {
+            refused[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Admits a new connection, see connect(String, long).
+     * @param client The address of the client
+     * @return null if the connection is admitted, the refusal otherwise
+     */
+    public Refusal connect(String client) {
+        return connect(client, System.nanoTime());
+    }
+
+    /**
+     * Admits a new connection unless the server is overloaded or the client holds as many connections as permitted.
+     * An admitted connection has to be released with disconnect(String) once it is closed.
+     * @param client The address of the client
+     * @param now The current time of System.nanoTime()
+     * @return null if the connection is admitted, the refusal otherwise
+     */
+    Refusal connect(String client, long now) {
+        if (!enabled) {
+            return null;
+        }
+        if (overloadConnections > 0 && isShedding(connections.get() + 1)) {
+            return refuse(Reason.OVERLOAD, 503, 1);
+        }
+        while (true) {
+            Client state = clients.get(client);
+            if (state == null) {
+                if (clients.size() >= maxClients) {
+                    evict(now);
+                }
+                if (clients.size() >= maxClients) {
+                    // Every known client holds a connection, a new one would not be accounted for.
+                    return refuse(Reason.OVERLOAD, 503, 1);
+                }
+                Client created = new Client(now);
+                state = clients.putIfAbsent(client, created);
+                if (state == null) {
+                    state = created;
+                }
+            }
+            synchronized (state) {
+                if (state.evicted) {
+                    continue;
+                }
+                if (maxConnectionsPerClient > 0 && state.connections >= maxConnectionsPerClient) {
+                    return refuse(Reason.CONNECTIONS, 429, 1);
+                }
+                state.connections++;
+                state.lastSeen = now;
+            }
+            connections.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * Enters the overload mode once the connections exceed the threshold and leaves it once a tenth of them has closed,
+     * so the server does not flip between shedding and admitting with every connection.
+     * @param total The connections including the new one
+     * @return true if the new connection is shed
+     */
+    private boolean isShedding(int total) {
+        if (total > overloadConnections) {
+            overloaded = true;
+        }
+        else if (overloaded && total <= overloadConnections - Math.max(1, overloadConnections / 10)) {
+            overloaded = false;
+        }
+        return overloaded;
+    }
+
+    /**
+     * Releases a connection admitted by connect(String).
+     * @param client The address of the client
+     */
+    public void disconnect(String client) {
+        disconnect(client, System.nanoTime());
+    }
+
+    /**
+     * Releases a connection admitted by connect(String), the client counts as quiet from now on.
+     * @param client The address of the client
+     * @param now The current time of System.nanoTime()
+     */
+    void disconnect(String client, long now) {
+        if (!enabled) {
+            return;
+        }
+        Client state = clients.get(client);
+        if (state == null) {
+            return;
+        }
+        synchronized (state) {
+            if (state.connections == 0) {
+                return;
+            }
+            state.connections--;
+            state.lastSeen = now;
+        }
+        connections.decrementAndGet();
+    }
+
+    /**
+     * Admits a request, see request(String, long).
+     * @param client The address of the client
+     * @return null if the request is admitted, the refusal otherwise
+     */
+    public Refusal request(String client) {
+        return request(client, System.nanoTime());
+    }
+
+    /**
+     * Admits a request if the client is not in debt with its bandwidth and has a request token left, which is taken.
+     * @param client The address of the client
+     * @param now The current time of System.nanoTime()
+     * @return null if the request is admitted, the refusal otherwise
+     */
+    Refusal request(String client, long now) {
+        if (requestsPerNano <= 0 && bytesPerNano <= 0) {
+            return null;
+        }
+        Client state = clients.get(client);
+        if (state == null) {
+            return null;
+        }
+        synchronized (state) {
+            state.refill(now);
+            if (bytesPerNano > 0 && state.byteTokens < 0) {
+                return refuse(Reason.BANDWIDTH, 429, seconds(-state.byteTokens / bytesPerNano));
+            }
+            if (requestsPerNano > 0) {
+                if (state.requestTokens < 1) {
+                    return refuse(Reason.REQUESTS, 429, seconds((1 - state.requestTokens) / requestsPerNano));
+                }
+                state.requestTokens--;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Charges the bandwidth of a client with a written response, see sent(String, long, long).
+     * @param client The address of the client
+     * @param bytes Number of bytes written
+     */
+    public void sent(String client, long bytes) {
+        sent(client, bytes, System.nanoTime());
+    }
+
+    /**
+     * Charges the bandwidth of a client with a written response. The bucket may go into debt, a single response is
+     * never cut short.
+     * @param client The address of the client
+     * @param bytes Number of bytes written
+     * @param now The current time of System.nanoTime()
+     */
+    void sent(String client, long bytes, long now) {
+        if (bytesPerNano <= 0) {
+            return;
+        }
+        Client state = clients.get(client);
+        if (state == null) {
+            return;
+        }
+        synchronized (state) {
+            state.refill(now);
+            state.byteTokens -= bytes;
+        }
+    }
+
+    /**
+     * Makes room for new clients. Clients quiet for longer than the expiry are dropped first, if that is not enough,
+     * any without connections are. A tenth of the capacity is freed at once, so a full map is not scanned for every
+     * new client.
+     * @param now The current time of System.nanoTime()
+     */
+    private void evict(long now) {
+        int target = maxClients - Math.max(1, maxClients / 10);
+        for (boolean expiredOnly : new boolean[]{true, false}) {
+            Iterator<Map.Entry<String, Client>> entries = clients.entrySet().iterator();
+            while (clients.size() > target && entries.hasNext()) {
+                Client state = entries.next().getValue();
+                synchronized (state) {
+                    if (state.connections == 0 && (!expiredOnly || now - state.lastSeen >= expiryNanos)) {
+                        state.evicted = true;
+                        entries.remove();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @param nanos A time to wait
+     * @return The time in whole seconds for Retry-After, at least one
+     */
+    private static long seconds(double nanos) {
+        return Math.max(1, (long) Math.ceil(nanos / NANOS_PER_SECOND));
+    }
+
+    private Refusal refuse(Reason reason, int status, long retryAfterSeconds) {
+        refused[reason.ordinal()].increment();
+        return new Refusal(reason, status, retryAfterSeconds);
+    }
+
+    /**
+     * @return false if no limit is configured and every client is admitted
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return true while new connections are shed because the server holds too many
+     */
+    public boolean isOverloaded() {
+        return overloaded;
+    }
+
+    /**
+     * @return Number of admitted connections still open
+     */
+    public int getConnections() {
+        return connections.get();
+    }
+
+    /**
+     * @return Number of clients whose state is kept
+     */
+    public int getClientCount() {
+        return clients.size();
+    }
+
+    /**
+     * @param reason The reason
+     * @return Number of connections or requests refused for the reason
+     */
+    public long getRefused(Reason reason) {
+        return refused[reason.ordinal()].sum();
+    }
+
+    /**
+     * The answer to a connection or a request which is not admitted.
+     */
+    public static final class Refusal {
+        private final Reason reason;
+        private final int status;
+        private final long retryAfterSeconds;
+
+        Refusal(Reason reason, int status, long retryAfterSeconds) {
+            this.reason = reason;
+            this.status = status;
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+
+        public Reason getReason() {
+            return reason;
+        }
+
+        /**
+         * @return 429 if the client exceeded a limit of its own, 503 if the server is overloaded
+         */
+        public int getStatus() {
+            return status;
+        }
+
+        /**
+         * @return Seconds after which the client may try again
+         */
+        public long getRetryAfterSeconds() {
+            return retryAfterSeconds;
+        }
+    }
+
+    /**
+     * The connections and buckets of one client, guarded by its own monitor.
+     */
+    private class Client {
+        private int connections;
+        private double requestTokens = requestBurst;
+        private double byteTokens = byteBurst;
+        private long refilled;
+        private long lastSeen;
+        private boolean evicted;
+
+        Client(long now) {
+            this.refilled = now;
+            this.lastSeen = now;
+        }
+
+        void refill(long now) {
+            long elapsed = now - refilled;
+            if (elapsed <= 0) {
+                return;
+            }
+            refilled = now;
+            lastSeen = now;
+            requestTokens = Math.min(requestBurst, requestTokens + elapsed * requestsPerNano);
+            byteTokens = Math.min(byteBurst, byteTokens + elapsed * bytesPerNano);
+        }
+    }
+}
@@ -0,0 +1,464 @@
+package webServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * An immutable in-memory copy of a small, frequently requested subtree of the served directory, e.g. the static assets
+ * of a web application. The subtree is loaded when the server starts, every file together with its compressed forms and
+ * the ready-made header fields of its responses. Requests for these paths are answered from memory without a stat call,
+ * a file open or compression. The content lives outside of the heap, either copied into direct buffers or mapped from
+ * the files. A watcher thread compares the files with the store periodically and replaces the whole store at once when
+ * one of them has changed, so a request never sees a mix of old and new files.
+ * Mapped files must not be truncated in place while they are served, deploy them by renaming new files over them.
+ *  * @author Oguzhan Yigit
+ *  * @email yigit@adobe.com
+ *  * @version 0.1
+ */
+public class AssetStore {
+    private final String servedDirectory;
+    private final String prefix;
+    private final long maxBytes;
+    private final boolean mapped;
+    private final long checkMillis;
+    private final EntityTags entityTags;
+    private final ContentTypes contentTypes;
+    private volatile Snapshot snapshot = new Snapshot(Collections.emptyMap(), 0);
+    private final AtomicLong reloads = new AtomicLong();
+    private Thread watcher;
+    private String servedRoot;
+    private volatile boolean stopped;
+    private final static Logger LOGGER = Logger.getLogger(Server.class.getName());
+
+    /**
+     * @param servedDirectory The directory served by the server
+     * @param path The request path of the subtree, e.g. /static, or null to disable the store
+     * @param maxBytes Most bytes held in total, files which do not fit anymore are served from disk
+     * @param mapped true to map the files instead of copying them into direct buffers
+     * @param checkMillis Interval in which the files are compared with the store, 0 disables reloading
+     * @param entityTags The source of the Etags, so stored files carry the same tags as files served from disk
+     * @param contentTypes The content types, so stored files carry the same type as files served from disk
+     */
+    public AssetStore(String servedDirectory, String path, long maxBytes, boolean mapped, long checkMillis,
+                      EntityTags entityTags, ContentTypes contentTypes) {
+        this.servedDirectory = servedDirectory;
+        this.prefix = path == null ? null : normalize(path);
+        this.maxBytes = maxBytes;
+        this.mapped = mapped;
+        this.checkMillis = checkMillis;
+        this.entityTags = entityTags;
+        this.contentTypes = contentTypes;
+    }
+
+    private static String normalize(String path) {
+        String normalized = path.replace('\\', '/');
+        if (!normalized.startsWith("/")) {
+            normalized = "/" + normalized;
+        }
+        while (normalized.endsWith("/")) {
+            normalized = normalized.substring(0, normalized.length() - 1);
+        }
+        return normalized;
+    }
+
+    /**
+     * Loads the subtree and starts watching it. Does nothing if the store is disabled.
+     */
+    public synchronized void start() {
+        if (prefix == null || watcher != null) {
+            return;
+        }
+        stopped = false;
+        try {
+            reload();
+        }
+        catch (IOException e) {
+            LOGGER.warning("Could not preload " + prefix + ": " + e.getMessage());
+        }
+        if (checkMillis > 0) {
+            watcher = new Thread(this::watch, "asset-store");
+            watcher.setDaemon(true);
+            watcher.start();
+        }
+    }
+
+    /**
+     * Stops watching the subtree, the loaded files are still served.
+     */
+    public synchronized void stop() {
+        stopped = true;
+        if (watcher != null) {
+            watcher.interrupt();
+            watcher = null;
+        }
+    }
+
+    private void watch() {
+        while (!stopped) {
+            try {
+                Thread.sleep(checkMillis);
+                reload();
+            }
+            catch (InterruptedException e) {
+                return;
+            }
+            catch (IOException | RuntimeException e) {
+                LOGGER.warning("Could not reload " + prefix + ": " + e);
+            }
+        }
+    }
+
+    /**
+     * Compares the files of the subtree with the store and replaces the store if any of them has been added, changed
+     * or removed. Files which have not changed are taken over from the current store without being read again.
+     * @return true if the store has been replaced
+     * @throws IOException We throw an IOException if the subtree cannot be walked or a changed file cannot be read
+     */
+    synchronized boolean reload() throws IOException {
+        Path root = new File(servedDirectory + prefix).toPath();
+        servedRoot = new File(servedDirectory).getCanonicalPath();
+        List<Path> files;
+        if (!Files.isDirectory(root)) {
+            files = Collections.emptyList();
+        }
+        else {
+            try (Stream<Path> walk = Files.walk(root)) {
+                // Links are followed when files are read, so a link leading out of the served directory is left out.
+                files = walk.filter(Files::isRegularFile).filter(path -> isServed(path.toFile())).sorted()
+                        .collect(Collectors.toList());
+            }
+        }
+        Snapshot current = snapshot;
+        Map<String, Asset> assets = new HashMap<>();
+        long residentBytes = 0;
+        boolean changed = false;
+        for (Path path : files) {
+            File file = path.toFile();
+            if (isSidecar(file)) {
+                // Sidecars are stored along with their file, only orphans are served as files of their own.
+                continue;
+            }
+            String key = prefix + "/" + root.relativize(path).toString().replace(File.separatorChar, '/');
+            FileMetadata.Entry metadata = FileMetadata.stat(file);
+            Asset asset = current.assets.get(key);
+            if (asset == null || !asset.isCurrent(metadata)) {
+                if (residentBytes + metadata.getSize() > maxBytes) {
+                    continue;
+                }
+                asset = load(metadata);
+                changed = true;
+            }
+            if (residentBytes + asset.residentBytes > maxBytes) {
+                continue;
+            }
+            assets.put(key, asset);
+            residentBytes += asset.residentBytes;
+        }
+        if (!changed && assets.size() == current.assets.size()) {
+            return false;
+        }
+        snapshot = new Snapshot(Collections.unmodifiableMap(assets), residentBytes);
+        reloads.incrementAndGet();
+        LOGGER.info("Preloaded " + assets.size() + " files below " + prefix + ", " + residentBytes + " bytes");
+        return true;
+    }
+
+    /**
+     * @param file A file of the subtree
+     * @return true if the file lies within the served directory once symbolic links are resolved, like the files
+     * served from disk, see Request
+     */
+    private boolean isServed(File file) {
+        try {
+            return FileMetadata.isWithin(file.getCanonicalPath(), servedRoot);
+        }
+        catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param file A file of the subtree
+     * @return true if the file is the sidecar of another file of the subtree
+     */
+    private static boolean isSidecar(File file) {
+        for (ContentCodings.Coding coding : ContentCodings.Coding.values()) {
+            String path = file.getPath();
+            if (path.endsWith(coding.getSuffix())
+                    && new File(path.substring(0, path.length() - coding.getSuffix().length())).isFile()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads a file and its representations. Fresh sidecars are stored as they are, compressible files without a gzip
+     * sidecar are gzipped once while loading.
+     * @param metadata The metadata of the file
+     * @return The stored file
+     * @throws IOException We throw an IOException if the file or one of its sidecars cannot be read
+     */
+    private Asset load(FileMetadata.Entry metadata) throws IOException {
+        File file = metadata.getFile();
+        String name = file.getName();
+        String fileEnding = name.substring(name.lastIndexOf('.') + 1).toLowerCase();
+        boolean compressible = ContentCodings.isCompressible(fileEnding);
+        String identityTag = entityTags.of(file, metadata.getSize(), metadata.getLastModified());
+        ByteBuffer identityContent = read(file);
+        // Every representation carries the type of the identity content, also if it had to be sniffed.
+        byte[] contentType = contentTypes.field(fileEnding, identityContent);
+        Representation identity = new Representation(identityContent, null, identityTag, metadata, contentType,
+                compressible);
+        Map<ContentCodings.Coding, Representation> encoded = new EnumMap<>(ContentCodings.Coding.class);
+        if (compressible) {
+            for (ContentCodings.Coding coding : ContentCodings.Coding.values()) {
+                FileMetadata.Entry sidecar = ContentCodings.sidecar(FileMetadata.UNCACHED, file,
+                        metadata.getLastModified(), coding);
+                if (sidecar != null && !isServed(sidecar.getFile())) {
+                    sidecar = null;
+                }
+                ByteBuffer content = sidecar != null ? read(sidecar.getFile())
+                        : coding == ContentCodings.Coding.GZIP ? gzip(identity.content) : null;
+                if (content != null && content.capacity() < identity.content.capacity()) {
+                    encoded.put(coding, new Representation(content, coding,
+                            EntityTags.forEncoding(identityTag, coding.getToken()), metadata, contentType, true));
+                }
+            }
+        }
+        return new Asset(metadata.getSize(), metadata.getLastModified(), identity, encoded);
+    }
+
+    /**
+     * @param file The file to be read
+     * @return A read-only buffer outside of the heap holding the content of the file
+     * @throws IOException We throw an IOException if the file cannot be read
+     */
+    private ByteBuffer read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large to be preloaded");
+            }
+            if (mapped) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, size).asReadOnlyBuffer();
+            }
+            ByteBuffer content = ByteBuffer.allocateDirect((int) size);
+            while (content.hasRemaining() && channel.read(content) >= 0) {
+                // The file is read until the buffer is full or the file ends early.
+            }
+            content.flip();
+            return content.asReadOnlyBuffer();
+        }
+    }
+
+    /**
+     * @param identity The uncompressed content
+     * @return A read-only buffer outside of the heap holding the gzipped content
+     * @throws IOException We throw an IOException if compression fails
+     */
+    private static ByteBuffer gzip(ByteBuffer identity) throws IOException {
+        ByteBuffer source = identity.duplicate();
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream(Math.max(32, source.remaining() / 2));
+        try (GZIPOutputStream zipStream = new GZIPOutputStream(byteStream, Request.TRANSFER_CHUNK) {
+            {
+                def.setLevel(Deflater.BEST_COMPRESSION);
+            }
+        }) {
+            byte[] chunk = new byte[Request.TRANSFER_CHUNK];
+            while (source.hasRemaining()) {
+                int length = Math.min(chunk.length, source.remaining());
+                source.get(chunk, 0, length);
+                zipStream.write(chunk, 0, length);
+            }
+        }
+        byte[] compressed = byteStream.toByteArray();
+        ByteBuffer content = ByteBuffer.allocateDirect(compressed.length);
+        content.put(compressed);
+        content.flip();
+        return content.asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns a stored file. The lookup does not touch the file system.
+     * @param requestPath The decoded request path
+     * @return The stored file, or null if the path is not below the subtree or the file is not stored
+     */
+    public Asset get(String requestPath) {
+        return snapshot.assets.get(requestPath);
+    }
+
+    /**
+     * @return true if a subtree is configured
+     */
+    public boolean isEnabled() {
+        return prefix != null;
+    }
+
+    /**
+     * @return Number of bytes held by the stored files and their compressed forms
+     */
+    public long getResidentBytes() {
+        return snapshot.residentBytes;
+    }
+
+    /**
+     * @return Number of files currently stored
+     */
+    public int getAssetCount() {
+        return snapshot.assets.size();
+    }
+
+    /**
+     * @return Number of times the store has been loaded or replaced
+     */
+    public long getReloads() {
+        return reloads.get();
+    }
+
+    /**
+     * The stored files of one version of the subtree, replaced as a whole.
+     */
+    private static class Snapshot {
+        private final Map<String, Asset> assets;
+        private final long residentBytes;
+
+        Snapshot(Map<String, Asset> assets, long residentBytes) {
+            this.assets = assets;
+            this.residentBytes = residentBytes;
+        }
+    }
+
+    /**
+     * A stored file with all of its representations.
+     */
+    public static class Asset {
+        private final long size;
+        private final long lastModified;
+        private final Representation identity;
+        private final Map<ContentCodings.Coding, Representation> encoded;
+        private final long residentBytes;
+
+        Asset(long size, long lastModified, Representation identity,
+              Map<ContentCodings.Coding, Representation> encoded) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.identity = identity;
+            this.encoded = encoded;
+            long bytes = identity.content.capacity();
+            for (Representation representation : encoded.values()) {
+                bytes += representation.content.capacity();
+            }
+            this.residentBytes = bytes;
+        }
+
+        private boolean isCurrent(FileMetadata.Entry metadata) {
+            return metadata.isFile() && metadata.getSize() == size && metadata.getLastModified() == lastModified;
+        }
+
+        /**
+         * @param codings The codings the client accepts, in the order it prefers them
+         * @return The first stored representation the client accepts, the identity if there is none
+         */
+        public Representation select(List<ContentCodings.Coding> codings) {
+            for (ContentCodings.Coding coding : codings) {
+                Representation representation = encoded.get(coding);
+                if (representation != null) {
+                    return representation;
+                }
+            }
+            return identity;
+        }
+    }
+
+    /**
+     * One representation of a stored file, its content and the header fields of the responses sending it.
+     */
+    public static class Representation {
+        private final ByteBuffer content;
+        private final ContentCodings.Coding coding;
+        private final String etag;
+        private final byte[] okHead;
+        private final byte[] notModifiedHead;
+
+        Representation(ByteBuffer content, ContentCodings.Coding coding, String etag, FileMetadata.Entry metadata,
+                       byte[] contentType, boolean compressible) {
+            this.content = content;
+            this.coding = coding;
+            this.etag = etag;
+            String name = metadata.getFile().getName();
+            // The same fields as Request sends for the file from disk, without Date and Connection.
+            ResponseHead head = new ResponseHead().status(ResponseHead.OK)
+                    .add(ResponseHead.LAST_MODIFIED, HttpDates.format(metadata.getLastModified()))
+                    .add(ResponseHead.ACCEPT_RANGES_BYTES);
+            if (compressible) {
+                head.add(ResponseHead.VARY_ACCEPT_ENCODING);
+            }
+            if (coding != null) {
+                head.add(coding.getHeader());
+            }
+            head.add(ResponseHead.CONTENT_LENGTH, content.capacity());
+            Request.addContentType(head, name, contentType);
+            this.okHead = head.add(ResponseHead.ETAG, etag)
+                    .add(ResponseHead.SERVER)
+                    .toByteArray();
+            head.status(ResponseHead.NOT_MODIFIED)
+                    .add(ResponseHead.SERVER)
+                    .add(ResponseHead.ETAG, etag);
+            if (compressible) {
+                head.add(ResponseHead.VARY_ACCEPT_ENCODING);
+            }
+            Request.addContentType(head, name, contentType);
+            this.notModifiedHead = head.toByteArray();
+        }
+
+        /**
+         * @return A new read-only view of the content, positioned at its start
+         */
+        public ByteBuffer content() {
+            return content.duplicate();
+        }
+
+        /**
+         * @return The coding of the content, null for the identity
+         */
+        public ContentCodings.Coding getCoding() {
+            return coding;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        /**
+         * @return The status line and header fields of a 200 response, without Date and Connection
+         */
+        byte[] getOkHead() {
+            return okHead;
+        }
+
+        /**
+         * @return The status line and header fields of a 304 response, without Connection
+         */
+        byte[] getNotModifiedHead() {
+            return notModifiedHead;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package webServer;
+
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses the Range and If-Range headers of a request, see RFC 7233. Ranges are only served from the identity
+ * representation of a file, so a seek or resume reads just the requested bytes and never compresses anything.
+ *  * @author Oguzhan Yigit
+ *  * @email yigit@adobe.com
+ *  * @version 0.1
+ */
+final class ByteRanges {
+    /**
+     * Most ranges served in one multipart response, requests asking for more receive the whole file.
+     */
+    static final int MAX_RANGES = 16;
+    /**
+     * Separates the parts of multipart/byteranges responses, random so it does not turn up in the served files.
+     */
+    static final String BOUNDARY = "BYTERANGES" + Long.toHexString(new SecureRandom().nextLong());
+    static final byte[] CONTENT_TYPE_MULTIPART = ResponseHead.line("Content-Type: multipart/byteranges; boundary=" + BOUNDARY);
+    static final byte[] END_OF_PARTS = ("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    private ByteRanges() {
+    }
+
+    /**
+     * Parses a Range header. Overlapping and adjacent ranges are merged.
+     * @param range The Range header or null
+     * @param length The length of the file
+     * @return The first and last byte of every range in ascending order, an empty list if no range is satisfiable, or
+     * null if the header is absent, invalid or asks for too many ranges, in which case the whole file is sent
+     */
+    static List<long[]> parse(String range, long length) {
+        if (range == null || !range.regionMatches(true, 0, "bytes=", 0, 6)) {
+            return null;
+        }
+        String[] specs = range.substring(6).split(",");
+        if (specs.length > MAX_RANGES) {
+            return null;
+        }
+        List<long[]> ranges = new ArrayList<>(specs.length);
+        try {
+            for (String spec : specs) {
+                long[] parsed = parseSpec(spec.trim(), length);
+                if (parsed != null) {
+                    ranges.add(parsed);
+                }
+            }
+        }
+        catch (ParseException e) {
+            return null;
+        }
+        ranges.sort((a, b) -> Long.compare(a[0], b[0]));
+        List<long[]> merged = new ArrayList<>(ranges.size());
+        for (long[] next : ranges) {
+            long[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (last != null && next[0] <= last[1] + 1) {
+                last[1] = Math.max(last[1], next[1]);
+            }
+            else {
+                merged.add(next);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * @param spec One range, e.g. 0-499, 500- or -500
+     * @param length The length of the file
+     * @return The first and last byte, or null if the range lies behind the end of the file
+     * @throws ParseException We throw a ParseException if the range is malformed
+     */
+    private static long[] parseSpec(String spec, long length) throws ParseException {
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            throw new ParseException("Missing dash in range " + spec, 0);
+        }
+        try {
+            if (dash == 0) {
+                long suffix = Long.parseLong(spec.substring(1));
+                if (suffix < 0) {
+                    throw new ParseException("Invalid suffix range " + spec, 0);
+                }
+                return suffix == 0 || length == 0 ? null : new long[]{Math.max(0, length - suffix), length - 1};
+            }
+            long first = Long.parseLong(spec.substring(0, dash));
+            long last = dash == spec.length() - 1 ? Long.MAX_VALUE : Long.parseLong(spec.substring(dash + 1));
+            if (first < 0 || last < first) {
+                throw new ParseException("Invalid range " + spec, 0);
+            }
+            return first >= length ? null : new long[]{first, Math.min(last, length - 1)};
+        }
+        catch (NumberFormatException e) {
+            throw new ParseException("Invalid range " + spec, 0);
+        }
+    }
+
+    /**
+     * Checks whether the representation the client holds a part of is still current, see If-Range.
+     * @param ifRange The If-Range header or null
+     * @param etag The strong Etag of the identity representation
+     * @param lastModified The modification time of the file
+     * @return true if the ranges may be served, false if the whole file has to be sent
+     */
+    static boolean ifRangeMatches(String ifRange, String etag, long lastModified) {
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            // Only strong tags are compared, a weak tag never matches.
+            return ifRange.equals(etag);
+        }
+        try {
+            return HttpDates.parse(ifRange).getTime() == lastModified / 1000 * 1000;
+        }
+        catch (ParseException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param first The first byte
+     * @param last The last byte
+     * @param length The length of the file
+     * @return The value of the Content-Range header, e.g. 0-499/1234
+     */
+    static String contentRange(long first, long last, long length) {
+        return first + "-" + last + "/" + length;
+    }
+
+    /**
+     * @param contentType The encoded Content-Type header field of the file
+     * @param range The first and last byte of the part
+     * @param length The length of the file
+     * @param first true for the first part, which is not preceded by a line break
+     * @return The encoded boundary and header fields preceding a part of a multipart/byteranges body
+     */
+    static byte[] partHead(byte[] contentType, long[] range, long length, boolean first) {
+        return ((first ? "" : "\r\n") + "--" + BOUNDARY + "\r\n"
+                + new String(contentType, StandardCharsets.US_ASCII)
+                + "Content-Range: bytes " + contentRange(range[0], range[1], length) + "\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,216 @@
+package webServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A size bounded LRU cache of gzipped files. Entries are keyed by the canonical path of the file and remember the
+ * modification time and size the file had when it was compressed, so a file changed on disk is compressed again on
+ * its next request. Hot assets are therefore compressed once, later requests only pay for writing them. The cache is
+ * bounded by the total number of compressed bytes, which can be held on or off the heap.
+ *  * @author Oguzhan Yigit
+ *  * @email yigit@adobe.com
+ *  * @version 0.1
+ */
+public class CompressionCache {
+    private final long capacityBytes;
+    private final long maxEntryBytes;
+    private final boolean offHeap;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long residentBytes;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * @param capacityBytes Total number of compressed bytes the cache may hold, 0 disables the cache
+     * @param maxEntryBytes Files larger than this are not cached but streamed
+     * @param offHeap true to keep the compressed bytes in direct buffers outside of the heap
+     */
+    public CompressionCache(long capacityBytes, long maxEntryBytes, boolean offHeap) {
+        this.capacityBytes = capacityBytes;
+        this.maxEntryBytes = Math.min(maxEntryBytes, capacityBytes);
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * Returns the gzipped content of a file, compressing it if it is not cached or has changed on disk.
+     * @param file The file to be sent
+     * @return A read-only buffer of the compressed content, or null if the file is too large to be cached
+     * @throws IOException We throw an IOException if the file cannot be read
+     */
+    public ByteBuffer get(File file) throws IOException {
+        return get(FileMetadata.stat(file));
+    }
+
+    /**
+     * Returns the gzipped content of a file, see get(File).
+     * @param metadata The metadata of the file to be sent
+     * @return A read-only buffer of the compressed content, or null if the file is too large to be cached
+     * @throws IOException We throw an IOException if the file cannot be read
+     */
+    public ByteBuffer get(FileMetadata.Entry metadata) throws IOException {
+        long size = metadata.getSize();
+        if (size > maxEntryBytes) {
+            return null;
+        }
+        File file = metadata.getFile();
+        String key = metadata.getCanonicalPath();
+        long lastModified = metadata.getLastModified();
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                if (entry.lastModified == lastModified && entry.size == size) {
+                    hits.incrementAndGet();
+                    return entry.content.duplicate();
+                }
+                remove(key);
+                invalidations.incrementAndGet();
+            }
+        }
+        misses.incrementAndGet();
+        ByteBuffer content = compress(file);
+        if (content.capacity() > maxEntryBytes) {
+            return content;
+        }
+        synchronized (this) {
+            Entry previous = entries.put(key, new Entry(lastModified, size, content));
+            residentBytes += content.capacity();
+            if (previous != null) {
+                residentBytes -= previous.content.capacity();
+            }
+            evict();
+        }
+        return content.duplicate();
+    }
+
+    /**
+     * Checks whether get() answers without reading the file: it is cached in its current version, or too large to be
+     * cached and compressed while it is sent. Neither counts as a hit nor as a miss.
+     * @param metadata The metadata of the file to be sent
+     * @return true if the file does not have to be compressed up front
+     * @throws IOException We throw an IOException if the path of the file cannot be resolved
+     */
+    public boolean isCompressed(FileMetadata.Entry metadata) throws IOException {
+        if (metadata.getSize() > maxEntryBytes) {
+            return true;
+        }
+        synchronized (this) {
+            Entry entry = entries.get(metadata.getCanonicalPath());
+            return entry != null && entry.lastModified == metadata.getLastModified()
+                    && entry.size == metadata.getSize();
+        }
+    }
+
+    /**
+     * Removes the least recently used entries until the cache fits into its capacity.
+     */
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while (residentBytes > capacityBytes && eldest.hasNext()) {
+            residentBytes -= eldest.next().getValue().content.capacity();
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private void remove(String key) {
+        Entry removed = entries.remove(key);
+        if (removed != null) {
+            residentBytes -= removed.content.capacity();
+        }
+    }
+
+    /**
+     * Compresses a file into GZIP.
+     * @param file The file to be compressed
+     * @return A read-only buffer of the compressed content
+     * @throws IOException We throw an IOException if the file cannot be read
+     */
+    private ByteBuffer compress(File file) throws IOException {
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream((int) Math.max(32, file.length() / 2));
+        try (FileInputStream fis = new FileInputStream(file);
+             GZIPOutputStream zipStream = new GZIPOutputStream(byteStream, Request.TRANSFER_CHUNK)) {
+            byte[] chunk = new byte[Request.TRANSFER_CHUNK];
+            int read;
+            while ((read = fis.read(chunk)) != -1) {
+                zipStream.write(chunk, 0, read);
+            }
+        }
+        byte[] compressed = byteStream.toByteArray();
+        ByteBuffer content = offHeap ? ByteBuffer.allocateDirect(compressed.length) : ByteBuffer.allocate(compressed.length);
+        content.put(compressed);
+        content.flip();
+        return content.asReadOnlyBuffer();
+    }
+
+    /**
+     * @return Number of requests answered from the cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return Number of requests which had to compress the file
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return Number of entries removed to stay within the capacity
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return Number of entries dropped because the file changed on disk
+     */
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    /**
+     * @return Number of compressed bytes currently held
+     */
+    public synchronized long getResidentBytes() {
+        return residentBytes;
+    }
+
+    /**
+     * @return Number of files currently cached
+     */
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    public long getCapacityBytes() {
+        return capacityBytes;
+    }
+
+    /**
+     * A compressed file together with the version of the file it was compressed from.
+     */
+    private static class Entry {
+        private final long lastModified;
+        private final long size;
+        private final ByteBuffer content;
+
+        Entry(long lastModified, long size, ByteBuffer content) {
+            this.lastModified = lastModified;
+            this.size = size;
+            this.content = content;
+        }
+    }
+}
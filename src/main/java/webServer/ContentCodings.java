@@ -0,0 +1,157 @@
+package webServer;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Negotiates the content coding of a response from the Accept-Encoding header of the request. Formats which are
+ * compressed already are always sent as they are. Files may be accompanied by precompressed sidecars next to them,
+ * e.g. style.css.br, which are sent instead of compressing the file at request time, see Precompressor.
+ *  * @author Oguzhan Yigit
+ *  * @email yigit@adobe.com
+ *  * @version 0.1
+ */
+final class ContentCodings {
+    /**
+     * Supported content codings in the order the server prefers them. Brotli and Zstandard are only sent from sidecars,
+     * gzip is also compressed on the fly.
+     */
+    enum Coding {
+        BR("br", ".br"),
+        ZSTD("zstd", ".zst"),
+        GZIP("gzip", ".gz");
+
+        private final String token;
+        private final String suffix;
+        private final byte[] header;
+
+        Coding(String token, String suffix) {
+            this.token = token;
+            this.suffix = suffix;
+            this.header = ResponseHead.line("Content-Encoding: " + token);
+        }
+
+        /**
+         * @return The token of the coding, e.g. br
+         */
+        String getToken() {
+            return token;
+        }
+
+        /**
+         * @return The file ending of the sidecars, e.g. .br
+         */
+        String getSuffix() {
+            return suffix;
+        }
+
+        /**
+         * @return The encoded Content-Encoding header field
+         */
+        byte[] getHeader() {
+            return header;
+        }
+    }
+
+    /**
+     * File endings of formats which are compressed already, compressing them again costs CPU and gains nothing.
+     */
+    private static final Set<String> COMPRESSED = new HashSet<>(Arrays.asList(
+            "png", "jpg", "jpeg", "gif", "webp", "zip", "7z", "gz", "br", "zst", "bz2", "xz", "mp4", "mpeg", "webm",
+            "mp3", "woff2"));
+
+    private ContentCodings() {
+    }
+
+    /**
+     * @param fileEnding The lower case file ending
+     * @return false if the format is compressed already
+     */
+    static boolean isCompressible(String fileEnding) {
+        return !COMPRESSED.contains(fileEnding);
+    }
+
+    /**
+     * Lists the codings the client accepts, the most preferred first. Codings with the same quality are ordered by the
+     * preference of the server, codings with a quality of 0 or which the server does not know are left out.
+     * @param acceptEncoding The Accept-Encoding header or null
+     * @return The accepted codings, empty if only the identity is acceptable
+     */
+    static List<Coding> accepted(String acceptEncoding) {
+        if (acceptEncoding == null || acceptEncoding.isEmpty()) {
+            return Collections.emptyList();
+        }
+        float[] quality = new float[Coding.values().length];
+        boolean[] listed = new boolean[quality.length];
+        float wildcard = 0;
+        for (String element : acceptEncoding.split(",")) {
+            int semicolon = element.indexOf(';');
+            String token = (semicolon < 0 ? element : element.substring(0, semicolon)).trim().toLowerCase();
+            float q = semicolon < 0 ? 1 : quality(element.substring(semicolon + 1));
+            if (token.equals("*")) {
+                wildcard = q;
+                continue;
+            }
+            if (token.equals("x-gzip")) {
+                token = "gzip";
+            }
+            for (Coding coding : Coding.values()) {
+                if (coding.token.equals(token)) {
+                    quality[coding.ordinal()] = Math.max(quality[coding.ordinal()], q);
+                    listed[coding.ordinal()] = true;
+                }
+            }
+        }
+        List<Coding> accepted = new ArrayList<>(quality.length);
+        for (Coding coding : Coding.values()) {
+            // The wildcard stands for all codings which are not listed explicitly
+            if (!listed[coding.ordinal()]) {
+                quality[coding.ordinal()] = wildcard;
+            }
+            if (quality[coding.ordinal()] > 0) {
+                accepted.add(coding);
+            }
+        }
+        // Stable, so equal qualities keep the order of the server
+        accepted.sort((a, b) -> Float.compare(quality[b.ordinal()], quality[a.ordinal()]));
+        return accepted;
+    }
+
+    /**
+     * @param parameters The parameters of a coding, e.g. q=0.5
+     * @return The quality, 1 if none or an invalid one is given
+     */
+    private static float quality(String parameters) {
+        for (String parameter : parameters.split(";")) {
+            parameter = parameter.trim();
+            if (parameter.startsWith("q=") || parameter.startsWith("Q=")) {
+                try {
+                    float q = Float.parseFloat(parameter.substring(2).trim());
+                    return q < 0 ? 0 : Math.min(q, 1);
+                }
+                catch (NumberFormatException e) {
+                    return 1;
+                }
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Looks up the precompressed sidecar of a file. A sidecar older than the file is stale and ignored.
+     * @param files The metadata cache the sidecar is looked up in
+     * @param file The requested file
+     * @param lastModified The modification time of the file
+     * @param coding The coding of the sidecar
+     * @return The metadata of the sidecar or null if there is no fresh one
+     */
+    static FileMetadata.Entry sidecar(FileMetadata files, File file, long lastModified, Coding coding) {
+        FileMetadata.Entry sidecar = files.get(new File(file.getPath() + coding.suffix));
+        return sidecar.isFile() && sidecar.getLastModified() >= lastModified ? sidecar : null;
+    }
+}
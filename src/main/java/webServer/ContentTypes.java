@@ -0,0 +1,393 @@
+package webServer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * The content types of served files, looked up by file ending in a hash map. The table is read in the format of
+ * /etc/mime.types, a media type followed by its endings: first the table shipped with the server, then optionally a
+ * file of the operator whose lines override it. The header fields are encoded once while loading, text types carry the
+ * default charset.
+ * Files whose ending is not listed are served as downloads, unless sniffing is enabled. Then the first SNIFF_BYTES of
+ * the file are matched against the signatures of common formats and checked for markup and plain text, once per
+ * version of the file: results are kept in a bounded LRU map keyed by the canonical path, along with the size and
+ * modification time they were sniffed for. Sniffing never overrides a listed ending, a file served as text does not
+ * become HTML because of its content.
+ *  * @author Oguzhan Yigit
+ *  * @email yigit@adobe.com
+ *  * @version 0.1
+ */
+public class ContentTypes {
+    /**
+     * The table shipped with the server, next to this class.
+     */
+    static final String RESOURCE = "mime.types";
+    /**
+     * Number of leading bytes a file is sniffed from.
+     */
+    static final int SNIFF_BYTES = 512;
+    /**
+     * Signatures of binary formats, in hex with ?? for any byte.
+     */
+    private static final Magic[] MAGIC = {
+            new Magic("89 50 4E 47 0D 0A 1A 0A", "image/png"),
+            new Magic("FF D8 FF", "image/jpeg"),
+            new Magic("47 49 46 38 37 61", "image/gif"),
+            new Magic("47 49 46 38 39 61", "image/gif"),
+            new Magic("52 49 46 46 ?? ?? ?? ?? 57 45 42 50 56 50", "image/webp"),
+            new Magic("00 00 01 00", "image/x-icon"),
+            new Magic("42 4D", "image/bmp"),
+            new Magic("25 50 44 46 2D", "application/pdf"),
+            new Magic("25 21 50 53 2D 41 64 6F 62 65 2D", "application/postscript"),
+            new Magic("50 4B 03 04", "application/zip"),
+            new Magic("1F 8B 08", "application/gzip"),
+            new Magic("37 7A BC AF 27 1C", "application/x-7z-compressed"),
+            new Magic("42 5A 68", "application/x-bzip2"),
+            new Magic("FD 37 7A 58 5A 00", "application/x-xz"),
+            new Magic("28 B5 2F FD", "application/zstd"),
+            new Magic("00 61 73 6D", "application/wasm"),
+            new Magic("49 44 33", "audio/mpeg"),
+            new Magic("4F 67 67 53 00", "audio/ogg"),
+            new Magic("66 4C 61 43", "audio/flac"),
+            new Magic("52 49 46 46 ?? ?? ?? ?? 57 41 56 45", "audio/wav"),
+            new Magic("1A 45 DF A3", "video/webm"),
+            new Magic("?? ?? ?? ?? 66 74 79 70", "video/mp4"),
+            new Magic("77 4F 46 46", "font/woff"),
+            new Magic("77 4F 46 32", "font/woff2"),
+    };
+    /**
+     * Leading tags of markup, compared without case after leading white space.
+     */
+    private static final String[][] MARKUP = {
+            {"<!doctype html", "text/html"}, {"<html", "text/html"}, {"<head", "text/html"}, {"<body", "text/html"},
+            {"<script", "text/html"}, {"<svg", "image/svg+xml"}, {"<?xml", "text/xml"},
+    };
+    /**
+     * Marks a file which was sniffed without a result.
+     */
+    private static final byte[] UNKNOWN = new byte[0];
+    private final static Logger LOGGER = Logger.getLogger(Server.class.getName());
+    private final String charset;
+    private final Map<String, String> types = new HashMap<>();
+    private final Map<String, byte[]> fields = new HashMap<>();
+    private final boolean sniffing;
+    private final int maxEntries;
+    private final LinkedHashMap<String, Sniffed> sniffed = new LinkedHashMap<>(64, 0.75f, true);
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Loads the table shipped with the server.
+     */
+    public ContentTypes() {
+        this(null, "utf-8", false, 0);
+    }
+
+    /**
+     * @param path A file in the format of /etc/mime.types whose lines override the shipped table, or null
+     * @param charset The charset text types are sent with, or null to send them without
+     * @param sniffing true to sniff files whose ending is not listed
+     * @param maxEntries Number of files whose sniffed type is remembered, 0 sniffs on every request
+     */
+    public ContentTypes(String path, String charset, boolean sniffing, int maxEntries) {
+        this.charset = charset == null || charset.isEmpty() ? null : charset;
+        this.sniffing = sniffing;
+        this.maxEntries = maxEntries;
+        try (InputStream table = ContentTypes.class.getResourceAsStream(RESOURCE)) {
+            if (table == null) {
+                throw new IllegalStateException("The content type table " + RESOURCE + " is missing");
+            }
+            read(new BufferedReader(new InputStreamReader(table, StandardCharsets.UTF_8)));
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (path != null) {
+            try (BufferedReader table = Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8)) {
+                read(table);
+            }
+            catch (IOException e) {
+                LOGGER.warning("Could not read the content types " + path + ", serving the shipped table: "
+                        + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Reads a table in the format of /etc/mime.types, later lines override earlier ones.
+     * @param table The lines of the table
+     * @throws IOException We throw an IOException if the table cannot be read
+     */
+    private void read(BufferedReader table) throws IOException {
+        String line;
+        while ((line = table.readLine()) != null) {
+            int comment = line.indexOf('#');
+            String[] words = (comment < 0 ? line : line.substring(0, comment)).trim().split("\\s+");
+            if (words.length < 2 || words[0].indexOf('/') <= 0) {
+                continue;
+            }
+            String type = withCharset(words[0].toLowerCase(Locale.ROOT));
+            byte[] field = ResponseHead.line("Content-Type: " + type);
+            for (int i = 1; i < words.length; i++) {
+                String fileEnding = words[i].toLowerCase(Locale.ROOT);
+                types.put(fileEnding, type);
+                fields.put(fileEnding, field);
+            }
+        }
+    }
+
+    private String withCharset(String type) {
+        return charset != null && type.startsWith("text/") && type.indexOf(';') < 0
+                ? type + "; charset=" + charset : type;
+    }
+
+    /**
+     * @param fileEnding The lower case file ending
+     * @return The content type including its charset, or null if the ending is not listed
+     */
+    public String get(String fileEnding) {
+        return types.get(fileEnding);
+    }
+
+    /**
+     * @param fileEnding The lower case file ending
+     * @return The encoded Content-Type header field, or null if the ending is not listed
+     */
+    byte[] field(String fileEnding) {
+        return fields.get(fileEnding);
+    }
+
+    /**
+     * Looks up the type of a file on disk, sniffing it if its ending is not listed.
+     * @param fileEnding The lower case file ending
+     * @param metadata The metadata of the file
+     * @return The encoded Content-Type header field, or null if the type is unknown
+     */
+    byte[] field(String fileEnding, FileMetadata.Entry metadata) {
+        byte[] field = fields.get(fileEnding);
+        return field != null || !sniffing ? field : sniff(metadata);
+    }
+
+    /**
+     * Looks up the type of a file held in memory, sniffing its content if its ending is not listed.
+     * @param fileEnding The lower case file ending
+     * @param content The content of the file, its position is left as it is
+     * @return The encoded Content-Type header field, or null if the type is unknown
+     */
+    byte[] field(String fileEnding, ByteBuffer content) {
+        byte[] field = fields.get(fileEnding);
+        if (field != null || !sniffing) {
+            return field;
+        }
+        ByteBuffer window = content.duplicate();
+        window.limit(window.position() + Math.min(window.remaining(), SNIFF_BYTES));
+        String type = sniff(window);
+        return type == null ? null : ResponseHead.line("Content-Type: " + withCharset(type));
+    }
+
+    /**
+     * Sniffs a file once per version.
+     * @param metadata The metadata of the file
+     * @return The encoded Content-Type header field, or null if the type is unknown
+     */
+    private byte[] sniff(FileMetadata.Entry metadata) {
+        String key;
+        try {
+            key = metadata.getCanonicalPath();
+        }
+        catch (IOException e) {
+            return null;
+        }
+        synchronized (sniffed) {
+            Sniffed known = sniffed.get(key);
+            if (known != null && known.size == metadata.getSize() && known.lastModified == metadata.getLastModified()) {
+                hits.incrementAndGet();
+                return known.field == UNKNOWN ? null : known.field;
+            }
+        }
+        misses.incrementAndGet();
+        ByteBuffer window = ByteBuffer.allocate((int) Math.min(SNIFF_BYTES, metadata.getSize()));
+        try (FileChannel file = FileChannel.open(metadata.getFile().toPath(), StandardOpenOption.READ)) {
+            while (window.hasRemaining() && file.read(window, window.position()) > 0) {
+                continue;
+            }
+        }
+        catch (IOException e) {
+            // The request itself fails on the same file, nothing to remember.
+            return null;
+        }
+        window.flip();
+        String type = sniff(window);
+        byte[] field = type == null ? UNKNOWN : ResponseHead.line("Content-Type: " + withCharset(type));
+        if (maxEntries > 0) {
+            synchronized (sniffed) {
+                sniffed.put(key, new Sniffed(metadata.getSize(), metadata.getLastModified(), field));
+                if (sniffed.size() > maxEntries) {
+                    sniffed.remove(sniffed.keySet().iterator().next());
+                }
+            }
+        }
+        return field == UNKNOWN ? null : field;
+    }
+
+    /**
+     * Determines the type of content from its first bytes: signatures of binary formats first, then markup, then
+     * text marked by a byte order mark, then text without any byte which does not occur in text.
+     * @param window The first bytes of the content, between position and limit
+     * @return The content type, or null if the content is binary of an unknown format or empty
+     */
+    static String sniff(ByteBuffer window) {
+        if (!window.hasRemaining()) {
+            return null;
+        }
+        for (Magic magic : MAGIC) {
+            if (magic.matches(window)) {
+                return magic.type;
+            }
+        }
+        int start = window.position();
+        while (start < window.limit() && isWhiteSpace(window.get(start))) {
+            start++;
+        }
+        for (String[] markup : MARKUP) {
+            if (startsWithIgnoreCase(window, start, markup[0])) {
+                return markup[1];
+            }
+        }
+        if (startsWith(window, 0xEF, 0xBB, 0xBF)) {
+            return "text/plain; charset=utf-8";
+        }
+        if (startsWith(window, 0xFE, 0xFF)) {
+            return "text/plain; charset=utf-16be";
+        }
+        if (startsWith(window, 0xFF, 0xFE)) {
+            return "text/plain; charset=utf-16le";
+        }
+        for (int i = window.position(); i < window.limit(); i++) {
+            if (isBinary(window.get(i))) {
+                return null;
+            }
+        }
+        return "text/plain";
+    }
+
+    private static boolean isWhiteSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '\f';
+    }
+
+    /**
+     * @param b A byte of the content
+     * @return true for control characters which do not occur in text, see the binary data bytes of the WHATWG MIME
+     * Sniffing standard
+     */
+    private static boolean isBinary(byte b) {
+        return b >= 0 && b < 0x20 && b != '\t' && b != '\n' && b != '\f' && b != '\r' && b != 0x1B;
+    }
+
+    private static boolean startsWith(ByteBuffer window, int... bytes) {
+        if (window.remaining() < bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if ((window.get(window.position() + i) & 0xFF) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param window The content
+     * @param start Index of the first byte to compare
+     * @param tag The lower case tag
+     * @return true if the content continues with the tag, followed by a space or the end of the tag
+     */
+    private static boolean startsWithIgnoreCase(ByteBuffer window, int start, String tag) {
+        if (window.limit() - start <= tag.length()) {
+            return false;
+        }
+        for (int i = 0; i < tag.length(); i++) {
+            if (Character.toLowerCase((char) window.get(start + i)) != tag.charAt(i)) {
+                return false;
+            }
+        }
+        byte end = window.get(start + tag.length());
+        return end == '>' || isWhiteSpace(end);
+    }
+
+    /**
+     * @return Number of lookups answered with a remembered sniffed type
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return Number of files read for sniffing
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * A signature of a binary format at the start of the content.
+     */
+    private static final class Magic {
+        private final byte[] pattern;
+        private final boolean[] any;
+        private final String type;
+
+        Magic(String hex, String type) {
+            String[] bytes = hex.split(" ");
+            this.pattern = new byte[bytes.length];
+            this.any = new boolean[bytes.length];
+            for (int i = 0; i < bytes.length; i++) {
+                any[i] = bytes[i].equals("??");
+                pattern[i] = any[i] ? 0 : (byte) Integer.parseInt(bytes[i], 16);
+            }
+            this.type = type;
+        }
+
+        boolean matches(ByteBuffer window) {
+            if (window.remaining() < pattern.length) {
+                return false;
+            }
+            for (int i = 0; i < pattern.length; i++) {
+                if (!any[i] && window.get(window.position() + i) != pattern[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * The type sniffed for one version of a file.
+     */
+    private static final class Sniffed {
+        private final long size;
+        private final long lastModified;
+        private final byte[] field;
+
+        Sniffed(long size, long lastModified, byte[] field) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.field = field;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package webServer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The deadlines of one connection, which keep a slow client from holding a worker or a socket for free. The thread
+ * serving the connection marks the phase it is in, a sweeping thread checks the phase against its limits:
+ * + HEAD: the whole head of a request has to arrive within the head timeout after its first byte, so a client
+ *   trickling header fields (Slowloris) is closed no matter how often it sends a byte.
+ * + BODY and WRITE: a body has to be read, and a response written, at no less than the minimum transfer rate, measured
+ *   over windows of RATE_WINDOW_MILLIS. A client which stops reading its response is closed once a window passes
+ *   without progress, even though its socket would block the writer forever.
+ * An HTTP/2 connection has deadlines of its own for its writer, which is in the WRITE phase while it has frames to send.
+ * Waiting for the next request is no phase, it is limited by the keep-alive timeout. The pause between two reads of a
+ * body is limited by the body timeout, set as the timeout of the socket while the body is read.
+ *  * @author Oguzhan Yigit
+ *  * @email yigit@adobe.com
+ *  * @version 0.1
+ */
+final class Deadlines {
+    /**
+     * Phases of a connection in which it waits for the client.
+     */
+    enum Phase{HEAD, BODY, WRITE}
+    /**
+     * Length of the windows the transfer rate is measured over, short stalls within a window are tolerated.
+     */
+    static final long RATE_WINDOW_MILLIS = 10000;
+    private static final long RATE_WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(RATE_WINDOW_MILLIS);
+    private final long headNanos;
+    private final long minBytesPerWindow;
+    private volatile long started;
+    private volatile Phase phase;
+    /**
+     * The window of the rate, only touched by the checking thread.
+     */
+    private long windowPhaseStarted = -1;
+    private long windowStart;
+    private long windowBytes;
+
+    /**
+     * @param config The head timeout and the minimum transfer rate
+     */
+    Deadlines(ServerConfig config) {
+        this.headNanos = TimeUnit.MILLISECONDS.toNanos(config.getHeadTimeoutMillis());
+        this.minBytesPerWindow = config.getMinTransferRate() * RATE_WINDOW_MILLIS / 1000;
+    }
+
+    /**
+     * Enters a phase, a transfer starts counting its bytes from zero.
+     * @param phase The phase
+     * @param now The current time of System.nanoTime()
+     */
+    void start(Phase phase, long now) {
+        started = now;
+        this.phase = phase;
+    }
+
+    /**
+     * Leaves the current phase, e.g. once the response has been written.
+     */
+    void stop() {
+        phase = null;
+    }
+
+    /**
+     * @return The current phase, null while no phase has a deadline
+     */
+    Phase getPhase() {
+        return phase;
+    }
+
+    /**
+     * Checks the current phase against its limits. Called periodically by one thread only.
+     * @param now The current time of System.nanoTime()
+     * @param transferred The bytes read or written in the current phase so far
+     * @return The phase the client has stalled in, or null if it keeps up
+     */
+    Phase check(long now, long transferred) {
+        Phase current = phase;
+        if (current == null) {
+            return null;
+        }
+        long since = started;
+        if (current == Phase.HEAD) {
+            return now - since > headNanos ? Phase.HEAD : null;
+        }
+        if (minBytesPerWindow <= 0) {
+            return null;
+        }
+        if (since != windowPhaseStarted) {
+            windowPhaseStarted = since;
+            windowStart = since;
+            windowBytes = 0;
+        }
+        if (now - windowStart < RATE_WINDOW_NANOS) {
+            return null;
+        }
+        if (transferred - windowBytes < minBytesPerWindow) {
+            return current;
+        }
+        windowStart = now;
+        windowBytes = transferred;
+        return null;
+    }
+}
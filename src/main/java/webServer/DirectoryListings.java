@@ -0,0 +1,575 @@
+package webServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded LRU cache of directory listings. A directory is read once per version: entries are keyed by the canonical
+ * path and remember the modification time of the directory, which changes whenever an entry is added, removed or
+ * renamed. A listing holds the names and attributes of the entries already encoded, sorted orders are computed once on
+ * first use. A file which is written in place keeps its directory unchanged, so a page which shows sizes or
+ * modification times, or is sorted by them, first checks the entries against the file metadata cache. Listings are
+ * sent in pages which are rendered row by row while writing, so a directory with many entries is never built up as
+ * one string, and the length of a page is known without rendering it. Pages are offered as HTML and as JSON for
+ * tooling.
+ *  * @author Oguzhan Yigit
+ *  * @email yigit@adobe.com
+ *  * @version 0.1
+ */
+public class DirectoryListings {
+    /**
+     * Sort keys of a listing
+     */
+    public enum Sort{NAME, SIZE, MODIFIED}
+    /**
+     * Largest page a client may ask for.
+     */
+    static final int MAX_PAGE_SIZE = 10000;
+    static final byte[] CONTENT_TYPE_JSON = ResponseHead.line("Content-Type: application/json");
+    private static final byte[] HTML_START = "<html><a href='..'>> ..</a><br>\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] HTML_ROW_START = "> <a href='".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] HTML_FILE_HREF_END = "'><i>".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] HTML_DIRECTORY_HREF_END = "/'><i>".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] HTML_ROW_END = "</i></a><br>\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] JSON_SEPARATOR = {','};
+    private final int pageSize;
+    private final int maxEntries;
+    private final LinkedHashMap<String, Listing> listings = new LinkedHashMap<>(64, 0.75f, true);
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * @param pageSize Number of entries per page if the client does not ask for another size
+     * @param maxEntries Number of directories whose listings are cached, 0 disables the cache
+     */
+    public DirectoryListings(int pageSize, int maxEntries) {
+        this.pageSize = Math.max(1, Math.min(pageSize, MAX_PAGE_SIZE));
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Returns the listing of a directory, reading it if it is not cached or has changed on disk.
+     * @param directory The directory
+     * @return The listing
+     * @throws IOException We throw an IOException if the directory cannot be read
+     */
+    public Listing get(File directory) throws IOException {
+        return get(FileMetadata.stat(directory));
+    }
+
+    /**
+     * Returns the listing of a directory, see get(File).
+     * @param metadata The metadata of the directory
+     * @return The listing
+     * @throws IOException We throw an IOException if the directory cannot be read
+     */
+    public Listing get(FileMetadata.Entry metadata) throws IOException {
+        return get(metadata, FileMetadata.UNCACHED, false);
+    }
+
+    /**
+     * Returns the listing of a directory, reading it if it is not cached, the directory has changed on disk or, if the
+     * attributes of the entries are shown, one of them has changed.
+     * @param metadata The metadata of the directory
+     * @param files The metadata of the entries is read through this cache, so a listing is as fresh as the files
+     *              served next to it
+     * @param attributes true if the page shows the sizes or modification times of the entries, see showsAttributes()
+     * @return The listing
+     * @throws IOException We throw an IOException if the directory cannot be read
+     */
+    public Listing get(FileMetadata.Entry metadata, FileMetadata files, boolean attributes) throws IOException {
+        File directory = metadata.getFile();
+        String key = metadata.getCanonicalPath();
+        long lastModified = metadata.getLastModified();
+        Listing listing;
+        synchronized (listings) {
+            listing = listings.get(key);
+        }
+        if (listing != null) {
+            if (listing.lastModified == lastModified && (!attributes || listing.isCurrent(files))) {
+                hits.incrementAndGet();
+                return listing;
+            }
+            synchronized (listings) {
+                listings.remove(key, listing);
+            }
+            invalidations.incrementAndGet();
+        }
+        misses.incrementAndGet();
+        listing = read(directory, lastModified, files);
+        if (maxEntries > 0) {
+            synchronized (listings) {
+                listings.put(key, listing);
+                if (listings.size() > maxEntries) {
+                    listings.remove(listings.keySet().iterator().next());
+                }
+            }
+        }
+        return listing;
+    }
+
+    /**
+     * Reads the names and attributes of the entries of a directory. Entries removed while reading are left out.
+     * @param directory The directory
+     * @param lastModified The modification time of the directory before it was read
+     * @param files The cache the attributes of the entries are read through
+     * @return The listing
+     * @throws IOException We throw an IOException if the directory cannot be read
+     */
+    private static Listing read(File directory, long lastModified, FileMetadata files) throws IOException {
+        List<String> names = new ArrayList<>();
+        List<FileMetadata.Entry> attributes = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory.toPath())) {
+            for (Path entry : entries) {
+                String name = entry.getFileName().toString();
+                FileMetadata.Entry attribute = files.get(new File(directory, name));
+                // The entry is gone or not accessible, it is not listed.
+                if (attribute.exists()) {
+                    attributes.add(attribute);
+                    names.add(name);
+                }
+            }
+        }
+        Listing listing = new Listing(directory, lastModified, names.size());
+        for (int i = 0; i < names.size(); i++) {
+            FileMetadata.Entry attribute = attributes.get(i);
+            listing.names[i] = names.get(i);
+            listing.directory[i] = attribute.isDirectory();
+            listing.sizes[i] = attribute.isDirectory() ? 0 : attribute.getSize();
+            listing.modified[i] = attribute.getLastModified();
+            listing.hrefs[i] = percentEncode(names.get(i)).getBytes(StandardCharsets.US_ASCII);
+            listing.labels[i] = escapeHtml(names.get(i)).getBytes(StandardCharsets.UTF_8);
+        }
+        return listing;
+    }
+
+    /**
+     * Builds the requested page of a listing. The parameters are taken from the query string of the request:
+     * page (starting at 1), size, sort (name, size or modified), order (asc or desc) and format (html or json).
+     * Missing or invalid parameters fall back to the first page sorted by name in ascending order.
+     * @param listing The listing of the directory
+     * @param request The request for the directory
+     * @return The page, a body whose length is known in advance
+     */
+    public Page page(Listing listing, HttpRequest request) {
+        int size = Math.max(1, Math.min(intParameter(request, "size", pageSize), MAX_PAGE_SIZE));
+        int pages = Math.max(1, (listing.size() + size - 1) / size);
+        int page = Math.max(1, Math.min(intParameter(request, "page", 1), pages));
+        Sort sort = sort(request);
+        boolean descending = "desc".equalsIgnoreCase(request.getParameter("order"));
+        boolean json = "json".equalsIgnoreCase(request.getParameter("format"));
+        int from = (page - 1) * size;
+        int to = Math.min(from + size, listing.size());
+        String path = request.getPath();
+        String offset = path.endsWith("/") ? path : path + "/";
+        byte[] prologue;
+        byte[] epilogue;
+        if (json) {
+            prologue = ("{\"path\":\"" + escapeJson(path) + "\",\"page\":" + page + ",\"pages\":" + pages
+                    + ",\"pageSize\":" + size + ",\"total\":" + listing.size() + ",\"entries\":[")
+                    .getBytes(StandardCharsets.UTF_8);
+            epilogue = "]}\n".getBytes(StandardCharsets.UTF_8);
+        }
+        else {
+            prologue = HTML_START;
+            StringBuilder navigation = new StringBuilder();
+            String parameters = "&size=" + size + "&sort=" + sort.name().toLowerCase()
+                    + (descending ? "&order=desc" : "");
+            if (page > 1) {
+                navigation.append("<a href='?page=").append(page - 1).append(parameters).append("'>&lt; previous</a> ");
+            }
+            if (pages > 1) {
+                navigation.append("page ").append(page).append(" of ").append(pages);
+            }
+            if (page < pages) {
+                navigation.append(" <a href='?page=").append(page + 1).append(parameters).append("'>next &gt;</a>");
+            }
+            epilogue = (navigation.length() > 0 ? navigation + "<br>\n</html>\n" : "</html>\n")
+                    .getBytes(StandardCharsets.UTF_8);
+        }
+        return new Page(listing, listing.order(sort), descending, from, to, json,
+                percentEncode(offset).replace("%2F", "/").getBytes(StandardCharsets.US_ASCII), prologue, epilogue);
+    }
+
+    /**
+     * @param request The request for the directory
+     * @return true if the page shows the sizes and modification times of the entries, as JSON does, or is sorted by
+     * them
+     */
+    public static boolean showsAttributes(HttpRequest request) {
+        return "json".equalsIgnoreCase(request.getParameter("format")) || sort(request) != Sort.NAME;
+    }
+
+    private static Sort sort(HttpRequest request) {
+        String requested = request.getParameter("sort");
+        for (Sort candidate : Sort.values()) {
+            if (candidate.name().equalsIgnoreCase(requested)) {
+                return candidate;
+            }
+        }
+        return Sort.NAME;
+    }
+
+    private static int intParameter(HttpRequest request, String name, int fallback) {
+        String value = request.getParameter(name);
+        if (value == null) {
+            return fallback;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        }
+        catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    /**
+     * Percent encodes every byte of the UTF-8 encoded value except the unreserved characters of RFC 3986.
+     */
+    static String percentEncode(String value) {
+        StringBuilder encoded = new StringBuilder(value.length());
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            if (b >= 'a' && b <= 'z' || b >= 'A' && b <= 'Z' || b >= '0' && b <= '9'
+                    || b == '-' || b == '.' || b == '_' || b == '~') {
+                encoded.append((char) b);
+            }
+            else {
+                encoded.append('%').append(Character.toUpperCase(Character.forDigit(b >> 4 & 0xf, 16)))
+                        .append(Character.toUpperCase(Character.forDigit(b & 0xf, 16)));
+            }
+        }
+        return encoded.toString();
+    }
+
+    static String escapeHtml(String value) {
+        StringBuilder escaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '<': escaped.append("&lt;"); break;
+                case '>': escaped.append("&gt;"); break;
+                case '&': escaped.append("&amp;"); break;
+                case '\'': escaped.append("&#39;"); break;
+                case '"': escaped.append("&quot;"); break;
+                default: escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    static String escapeJson(String value) {
+        StringBuilder escaped = new StringBuilder(value.length());
+        escapeJson(escaped, value);
+        return escaped.toString();
+    }
+
+    /**
+     * Appends a value escaped for a JSON string, without the quotes. Shared with the JSON records of the access log.
+     * @param out The text being built
+     * @param value The value to escape
+     */
+    static void escapeJson(StringBuilder out, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            }
+            else if (c < 0x20) {
+                out.append(String.format("\\u%04x", (int) c));
+            }
+            else {
+                out.append(c);
+            }
+        }
+    }
+
+    /**
+     * @return Number of requests answered from the cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return Number of requests which had to read the directory
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return Number of listings dropped because the directory changed on disk
+     */
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    /**
+     * @return Number of directories currently cached
+     */
+    public int getEntryCount() {
+        synchronized (listings) {
+            return listings.size();
+        }
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * The entries of one version of a directory, in the order the file system returned them.
+     */
+    public static class Listing {
+        private final File path;
+        private final long lastModified;
+        private final String[] names;
+        private final boolean[] directory;
+        private final long[] sizes;
+        private final long[] modified;
+        private final byte[][] hrefs;
+        private final byte[][] labels;
+        private final int[][] orders = new int[Sort.values().length][];
+        private byte[][] jsonRows;
+
+        Listing(File path, long lastModified, int size) {
+            this.path = path;
+            this.lastModified = lastModified;
+            this.names = new String[size];
+            this.directory = new boolean[size];
+            this.sizes = new long[size];
+            this.modified = new long[size];
+            this.hrefs = new byte[size][];
+            this.labels = new byte[size][];
+        }
+
+        /**
+         * @return Number of entries
+         */
+        public int size() {
+            return names.length;
+        }
+
+        /**
+         * Checks the attributes of the entries against the metadata cache they were read through. Within the validity
+         * window of the cache the entries are not read again.
+         * @param files The metadata cache
+         * @return false if an entry was removed or changed its type, size or modification time
+         */
+        boolean isCurrent(FileMetadata files) {
+            for (int i = 0; i < names.length; i++) {
+                FileMetadata.Entry entry = files.get(new File(path, names[i]));
+                if (!entry.exists() || entry.isDirectory() != directory[i]
+                        || (entry.isDirectory() ? 0 : entry.getSize()) != sizes[i]
+                        || entry.getLastModified() != modified[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Returns the indices of the entries in ascending order of a sort key, ties are ordered by name. Each order
+         * is computed once per listing.
+         * @param sort The sort key
+         * @return The sorted indices, must not be modified
+         */
+        synchronized int[] order(Sort sort) {
+            int[] order = orders[sort.ordinal()];
+            if (order == null) {
+                Comparator<Integer> byName = (a, b) -> {
+                    int compared = String.CASE_INSENSITIVE_ORDER.compare(names[a], names[b]);
+                    return compared != 0 ? compared : names[a].compareTo(names[b]);
+                };
+                Comparator<Integer> comparator = sort == Sort.SIZE
+                        ? Comparator.<Integer>comparingLong(i -> sizes[i]).thenComparing(byName)
+                        : sort == Sort.MODIFIED
+                        ? Comparator.<Integer>comparingLong(i -> modified[i]).thenComparing(byName)
+                        : byName;
+                Integer[] boxed = new Integer[names.length];
+                for (int i = 0; i < boxed.length; i++) {
+                    boxed[i] = i;
+                }
+                Arrays.sort(boxed, comparator);
+                order = new int[boxed.length];
+                for (int i = 0; i < boxed.length; i++) {
+                    order[i] = boxed[i];
+                }
+                orders[sort.ordinal()] = order;
+            }
+            return order;
+        }
+
+        /**
+         * Returns the JSON objects of the entries, encoded on the first request for JSON.
+         * @return The encoded objects by index
+         */
+        synchronized byte[][] jsonRows() {
+            if (jsonRows == null) {
+                jsonRows = new byte[names.length][];
+                for (int i = 0; i < names.length; i++) {
+                    jsonRows[i] = ("{\"name\":\"" + escapeJson(names[i]) + "\",\"directory\":" + directory[i]
+                            + ",\"size\":" + sizes[i] + ",\"modified\":" + modified[i] + "}")
+                            .getBytes(StandardCharsets.UTF_8);
+                }
+            }
+            return jsonRows;
+        }
+    }
+
+    /**
+     * A page of a listing, rendered into a reused buffer row by row as the client takes the bytes.
+     */
+    public static class Page implements Response.Body {
+        private final Listing listing;
+        private final int[] order;
+        private final boolean descending;
+        private final int from;
+        private final int to;
+        private final byte[][] jsonRows;
+        private final byte[] offset;
+        private final byte[] prologue;
+        private final byte[] epilogue;
+        private final long length;
+        private ByteBuffer pending;
+        private int next;
+        private boolean prologueWritten;
+        private boolean epilogueWritten;
+        private long written;
+
+        Page(Listing listing, int[] order, boolean descending, int from, int to, boolean json, byte[] offset,
+             byte[] prologue, byte[] epilogue) {
+            this.listing = listing;
+            this.order = order;
+            this.descending = descending;
+            this.from = from;
+            this.to = to;
+            this.jsonRows = json ? listing.jsonRows() : null;
+            this.offset = offset;
+            this.prologue = prologue;
+            this.epilogue = epilogue;
+            this.next = from;
+            long length = prologue.length + epilogue.length;
+            for (int i = from; i < to; i++) {
+                length += rowLength(index(i));
+            }
+            this.length = length;
+        }
+
+        /**
+         * @return The number of bytes of the page
+         */
+        public long length() {
+            return length;
+        }
+
+        /**
+         * @param position The position of the entry in the page order
+         * @return The index of the entry in the listing
+         */
+        private int index(int position) {
+            return order[descending ? order.length - 1 - position : position];
+        }
+
+        private int rowLength(int index) {
+            if (jsonRows != null) {
+                return jsonRows[index].length + (index == index(from) ? 0 : JSON_SEPARATOR.length);
+            }
+            return HTML_ROW_START.length + offset.length + listing.hrefs[index].length
+                    + (listing.directory[index] ? HTML_DIRECTORY_HREF_END : HTML_FILE_HREF_END).length
+                    + listing.labels[index].length + HTML_ROW_END.length;
+        }
+
+        @Override
+        public boolean writeTo(WritableByteChannel channel) throws IOException {
+            while (true) {
+                if (pending != null && pending.hasRemaining()) {
+                    int count = channel.write(pending);
+                    if (count == 0) {
+                        return false;
+                    }
+                    written += count;
+                }
+                else if (!fill()) {
+                    return true;
+                }
+            }
+        }
+
+        @Override
+        public long getBytesWritten() {
+            return written;
+        }
+
+        /**
+         * Renders the following rows into the buffer until it is full.
+         * @return false if the whole page has been handed out already
+         */
+        private boolean fill() {
+            if (epilogueWritten) {
+                return false;
+            }
+            if (pending == null) {
+                pending = ByteBuffer.allocate((int) Math.min(length, Request.TRANSFER_CHUNK));
+            }
+            pending.clear();
+            if (!prologueWritten) {
+                put(prologue);
+                prologueWritten = true;
+            }
+            while (next < to && fits(rowLength(index(next)))) {
+                int index = index(next);
+                if (jsonRows != null) {
+                    if (next != from) {
+                        pending.put(JSON_SEPARATOR);
+                    }
+                    pending.put(jsonRows[index]);
+                }
+                else {
+                    pending.put(HTML_ROW_START).put(offset).put(listing.hrefs[index])
+                            .put(listing.directory[index] ? HTML_DIRECTORY_HREF_END : HTML_FILE_HREF_END)
+                            .put(listing.labels[index]).put(HTML_ROW_END);
+                }
+                next++;
+            }
+            if (next == to && fits(epilogue.length)) {
+                pending.put(epilogue);
+                epilogueWritten = true;
+            }
+            pending.flip();
+            return true;
+        }
+
+        /**
+         * Checks whether a piece fits into the buffer, growing the buffer if it is empty and still too small.
+         */
+        private boolean fits(int size) {
+            if (pending.remaining() >= size) {
+                return true;
+            }
+            if (pending.position() == 0) {
+                pending = ByteBuffer.allocate(size);
+                return true;
+            }
+            return false;
+        }
+
+        private void put(byte[] bytes) {
+            fits(bytes.length);
+            pending.put(bytes);
+        }
+    }
+}
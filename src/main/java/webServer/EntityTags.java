@@ -0,0 +1,148 @@
+package webServer;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Computes the Etags of the served files. Two modes are supported:
+ * + METADATA: the tag is derived from the modification time and the size of the file, like nginx does. Answering a
+ *   conditional request never touches the content of the file.
+ * + CONTENT: the tag is the MD5 of the file content. It is computed once per version of the file and cached, keyed by
+ *   the canonical path, modification time and size.
+ *  * @author Oguzhan Yigit
+ *  * @email yigit@adobe.com
+ *  * @version 0.1
+ */
+public class EntityTags {
+    /**
+     * Etag modes
+     */
+    public enum Mode{METADATA, CONTENT}
+    private final Mode mode;
+    private final Map<String, Digest> digests;
+
+    /**
+     * @param mode How the tags are computed
+     * @param maxEntries Number of content digests remembered in CONTENT mode
+     */
+    public EntityTags(Mode mode, final int maxEntries) {
+        this.mode = mode;
+        this.digests = new LinkedHashMap<String, Digest>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Digest> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the Etag of the identity representation of a file.
+     * @param file The file
+     * @param size The size of the file
+     * @param lastModified The modification time of the file
+     * @return The quoted Etag
+     * @throws IOException We throw an IOException if the content has to be hashed and cannot be read
+     */
+    public String of(File file, long size, long lastModified) throws IOException {
+        if (mode == Mode.METADATA) {
+            return "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(size) + "\"";
+        }
+        String key = file.getCanonicalPath();
+        synchronized (digests) {
+            Digest digest = digests.get(key);
+            if (digest != null && digest.size == size && digest.lastModified == lastModified) {
+                return digest.tag;
+            }
+        }
+        String tag;
+        try (InputStream fis = new BufferedInputStream(new FileInputStream(file), Request.TRANSFER_CHUNK)) {
+            tag = "\"" + DigestUtils.md5Hex(fis) + "\"";
+        }
+        synchronized (digests) {
+            digests.put(key, new Digest(size, lastModified, tag));
+        }
+        return tag;
+    }
+
+    /**
+     * Checks whether of() answers without reading the content of a file: always in METADATA mode, in CONTENT mode if
+     * the digest of the current version of the file is cached.
+     * @param metadata The metadata of the file
+     * @return true if the tag is known without hashing the file
+     * @throws IOException We throw an IOException if the path of the file cannot be resolved
+     */
+    public boolean isKnown(FileMetadata.Entry metadata) throws IOException {
+        if (mode == Mode.METADATA) {
+            return true;
+        }
+        synchronized (digests) {
+            Digest digest = digests.get(metadata.getCanonicalPath());
+            return digest != null && digest.size == metadata.getSize()
+                    && digest.lastModified == metadata.getLastModified();
+        }
+    }
+
+    /**
+     * Derives the Etag of an encoded representation, as every representation needs a tag of its own.
+     * @param tag The quoted Etag of the identity representation
+     * @param encoding The content coding, e.g. gzip
+     * @return The quoted Etag of the encoded representation
+     */
+    public static String forEncoding(String tag, String encoding) {
+        return tag.substring(0, tag.length() - 1) + "-" + encoding + "\"";
+    }
+
+    /**
+     * Checks whether an If-Match or If-None-Match header lists the given tag. Weak tags sent by the client are
+     * compared by their opaque value, surrounding quotes are optional.
+     * @param header The list of tags the client sent
+     * @param tag The quoted Etag of the representation
+     * @return true if one of the listed tags matches
+     */
+    public static boolean matches(String header, String tag) {
+        String opaque = unquote(tag);
+        for (String candidate : header.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (unquote(candidate).equals(opaque)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String unquote(String tag) {
+        if (tag.length() >= 2 && tag.startsWith("\"") && tag.endsWith("\"")) {
+            return tag.substring(1, tag.length() - 1);
+        }
+        return tag;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * The content digest of one version of a file.
+     */
+    private static class Digest {
+        private final long size;
+        private final long lastModified;
+        private final String tag;
+
+        Digest(long size, long lastModified, String tag) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.tag = tag;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package webServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of file metadata, similar to the open_file_cache of nginx. A lookup reads existence, type, size and
+ * modification time of a path with a single stat call and remembers them for a short validity window, missing paths
+ * included. Hot files and repeated requests for missing files therefore do not touch the file system on every request.
+ * Changes on disk are picked up once the window has passed. Entries are keyed by the path as requested, the canonical
+ * path is resolved on first use and remembered along with the entry.
+ *  * @author Oguzhan Yigit
+ *  * @email yigit@adobe.com
+ *  * @version 0.1
+ */
+public class FileMetadata {
+    /**
+     * Reads the metadata on every lookup, for callers which must not see stale values.
+     */
+    static final FileMetadata UNCACHED = new FileMetadata(0, 0);
+    private final long validityMillis;
+    private final int maxEntries;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param validityMillis Time the metadata of a path is reused before it is read again
+     * @param maxEntries Number of paths remembered, 0 disables the cache
+     */
+    public FileMetadata(long validityMillis, int maxEntries) {
+        this.validityMillis = validityMillis;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Returns the metadata of a file, reading it if it is not cached or its validity window has passed.
+     * @param file The file or directory
+     * @return The metadata, also for files which do not exist
+     */
+    public Entry get(File file) {
+        if (maxEntries == 0 || validityMillis <= 0) {
+            return stat(file);
+        }
+        long now = System.currentTimeMillis();
+        String key = file.getPath();
+        Entry entry = entries.get(key);
+        if (entry != null && now < entry.validUntil) {
+            hits.incrementAndGet();
+            return entry;
+        }
+        misses.incrementAndGet();
+        entry = stat(file);
+        entry.validUntil = now + validityMillis;
+        if (entries.size() >= maxEntries) {
+            evict(now);
+        }
+        entries.put(key, entry);
+        return entry;
+    }
+
+    /**
+     * Forgets the metadata of a path, e.g. after the server itself has replaced or deleted the file, so the next lookup
+     * sees the change without waiting for the validity window.
+     * @param file The file or directory, named the same way as on lookup
+     */
+    public void invalidate(File file) {
+        entries.remove(file.getPath());
+    }
+
+    /**
+     * Makes room for new entries. Expired entries are removed first, if that is not enough, arbitrary entries are.
+     * A tenth of the capacity is freed at once, so a full cache is not scanned on every miss.
+     * @param now The current time
+     */
+    private void evict(long now) {
+        int target = maxEntries - Math.max(1, maxEntries / 10);
+        entries.values().removeIf(entry -> now >= entry.validUntil);
+        Iterator<Entry> any = entries.values().iterator();
+        while (entries.size() > target && any.hasNext()) {
+            any.next();
+            any.remove();
+        }
+    }
+
+    /**
+     * Reads the metadata of a file without caching it.
+     * @param file The file or directory
+     * @return The metadata, also for files which do not exist
+     */
+    static Entry stat(File file) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            return new Entry(file, true, attributes.isDirectory(), attributes.isRegularFile(), attributes.size(),
+                    attributes.lastModifiedTime().toMillis());
+        }
+        catch (IOException | RuntimeException e) {
+            // Inaccessible and invalid paths are treated like missing ones.
+            return new Entry(file, false, false, false, 0, 0);
+        }
+    }
+
+    /**
+     * Checks whether a path lies within a directory once symbolic links and parent segments are resolved.
+     * @param canonicalPath The canonical path of a file
+     * @param root The canonical path of the directory
+     * @return true for the directory itself and everything below it
+     */
+    static boolean isWithin(String canonicalPath, String root) {
+        return canonicalPath.equals(root) || canonicalPath.startsWith(root.endsWith(File.separator)
+                ? root : root + File.separator);
+    }
+
+    /**
+     * @return Number of lookups answered from the cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return Number of lookups which had to read the file system
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return Number of paths currently cached
+     */
+    public int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * The metadata of one path at the time it was read.
+     */
+    public static class Entry {
+        private final File file;
+        private final boolean exists;
+        private final boolean directory;
+        private final boolean regularFile;
+        private final long size;
+        private final long lastModified;
+        private volatile long validUntil;
+        private volatile String canonicalPath;
+
+        Entry(File file, boolean exists, boolean directory, boolean regularFile, long size, long lastModified) {
+            this.file = file;
+            this.exists = exists;
+            this.directory = directory;
+            this.regularFile = regularFile;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public boolean exists() {
+            return exists;
+        }
+
+        public boolean isDirectory() {
+            return directory;
+        }
+
+        public boolean isFile() {
+            return regularFile;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * @return The canonical path, resolved once per entry
+         * @throws IOException We throw an IOException if the path cannot be resolved
+         */
+        public String getCanonicalPath() throws IOException {
+            String resolved = canonicalPath;
+            if (resolved == null) {
+                resolved = file.getCanonicalPath();
+                canonicalPath = resolved;
+            }
+            return resolved;
+        }
+    }
+}
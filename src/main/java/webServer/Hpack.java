@@ -0,0 +1,535 @@
+package webServer;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * HPACK, the header compression of HTTP/2 (RFC 7541). Both ends keep a table of recently sent header fields, a field
+ * found in the table is sent as its index, others as literals which are Huffman coded if that makes them shorter.
+ * The decoder reads the header blocks of one connection in the order they arrive, the encoder writes the header blocks
+ * of the responses in the order they are sent, so each connection owns one of each.
+ * Names and values are handled as ISO-8859-1, so every byte on the wire maps to one char and back.
+ *  * @author Oguzhan Yigit
+ *  * @email yigit@adobe.com
+ *  * @version 0.1
+ */
+final class Hpack {
+    /**
+     * Size of the dynamic table both ends start with, the server never asks for a larger one.
+     */
+    static final int DEFAULT_TABLE_SIZE = 4096;
+    /**
+     * Overhead per table entry on top of the lengths of name and value, see RFC 7541 4.1.
+     */
+    private static final int ENTRY_OVERHEAD = 32;
+    private static final String[][] STATIC_TABLE = {
+            {":authority", ""}, {":method", "GET"}, {":method", "POST"}, {":path", "/"}, {":path", "/index.html"},
+            {":scheme", "http"}, {":scheme", "https"}, {":status", "200"}, {":status", "204"}, {":status", "206"},
+            {":status", "304"}, {":status", "400"}, {":status", "404"}, {":status", "500"}, {"accept-charset", ""},
+            {"accept-encoding", "gzip, deflate"}, {"accept-language", ""}, {"accept-ranges", ""}, {"accept", ""},
+            {"access-control-allow-origin", ""}, {"age", ""}, {"allow", ""}, {"authorization", ""},
+            {"cache-control", ""}, {"content-disposition", ""}, {"content-encoding", ""}, {"content-language", ""},
+            {"content-length", ""}, {"content-location", ""}, {"content-range", ""}, {"content-type", ""},
+            {"cookie", ""}, {"date", ""}, {"etag", ""}, {"expect", ""}, {"expires", ""}, {"from", ""}, {"host", ""},
+            {"if-match", ""}, {"if-modified-since", ""}, {"if-none-match", ""}, {"if-range", ""},
+            {"if-unmodified-since", ""}, {"last-modified", ""}, {"link", ""}, {"location", ""}, {"max-forwards", ""},
+            {"proxy-authenticate", ""}, {"proxy-authorization", ""}, {"range", ""}, {"referer", ""}, {"refresh", ""},
+            {"retry-after", ""}, {"server", ""}, {"set-cookie", ""}, {"strict-transport-security", ""},
+            {"transfer-encoding", ""}, {"user-agent", ""}, {"vary", ""}, {"via", ""}, {"www-authenticate", ""}
+    };
+    /**
+     * The lowest static index by name, and by name and value for the entries which have one.
+     */
+    private static final Map<String, Integer> STATIC_NAMES = new HashMap<>();
+    private static final Map<String, Integer> STATIC_FIELDS = new HashMap<>();
+    /**
+     * The Huffman codes by symbol, right aligned, and their lengths in bits. Symbol 256 is the end of string.
+     */
+    private static final int[] CODES = {
+            0x1ff8, 0x7fffd8, 0xfffffe2, 0xfffffe3, 0xfffffe4, 0xfffffe5, 0xfffffe6, 0xfffffe7,
+            0xfffffe8, 0xffffea, 0x3ffffffc, 0xfffffe9, 0xfffffea, 0x3ffffffd, 0xfffffeb, 0xfffffec,
+            0xfffffed, 0xfffffee, 0xfffffef, 0xffffff0, 0xffffff1, 0xffffff2, 0x3ffffffe, 0xffffff3,
+            0xffffff4, 0xffffff5, 0xffffff6, 0xffffff7, 0xffffff8, 0xffffff9, 0xffffffa, 0xffffffb,
+            0x14, 0x3f8, 0x3f9, 0xffa, 0x1ff9, 0x15, 0xf8, 0x7fa,
+            0x3fa, 0x3fb, 0xf9, 0x7fb, 0xfa, 0x16, 0x17, 0x18,
+            0x0, 0x1, 0x2, 0x19, 0x1a, 0x1b, 0x1c, 0x1d,
+            0x1e, 0x1f, 0x5c, 0xfb, 0x7ffc, 0x20, 0xffb, 0x3fc,
+            0x1ffa, 0x21, 0x5d, 0x5e, 0x5f, 0x60, 0x61, 0x62,
+            0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69, 0x6a,
+            0x6b, 0x6c, 0x6d, 0x6e, 0x6f, 0x70, 0x71, 0x72,
+            0xfc, 0x73, 0xfd, 0x1ffb, 0x7fff0, 0x1ffc, 0x3ffc, 0x22,
+            0x7ffd, 0x3, 0x23, 0x4, 0x24, 0x5, 0x25, 0x26,
+            0x27, 0x6, 0x74, 0x75, 0x28, 0x29, 0x2a, 0x7,
+            0x2b, 0x76, 0x2c, 0x8, 0x9, 0x2d, 0x77, 0x78,
+            0x79, 0x7a, 0x7b, 0x7ffe, 0x7fc, 0x3ffd, 0x1ffd, 0xffffffc,
+            0xfffe6, 0x3fffd2, 0xfffe7, 0xfffe8, 0x3fffd3, 0x3fffd4, 0x3fffd5, 0x7fffd9,
+            0x3fffd6, 0x7fffda, 0x7fffdb, 0x7fffdc, 0x7fffdd, 0x7fffde, 0xffffeb, 0x7fffdf,
+            0xffffec, 0xffffed, 0x3fffd7, 0x7fffe0, 0xffffee, 0x7fffe1, 0x7fffe2, 0x7fffe3,
+            0x7fffe4, 0x1fffdc, 0x3fffd8, 0x7fffe5, 0x3fffd9, 0x7fffe6, 0x7fffe7, 0xffffef,
+            0x3fffda, 0x1fffdd, 0xfffe9, 0x3fffdb, 0x3fffdc, 0x7fffe8, 0x7fffe9, 0x1fffde,
+            0x7fffea, 0x3fffdd, 0x3fffde, 0xfffff0, 0x1fffdf, 0x3fffdf, 0x7fffeb, 0x7fffec,
+            0x1fffe0, 0x1fffe1, 0x3fffe0, 0x1fffe2, 0x7fffed, 0x3fffe1, 0x7fffee, 0x7fffef,
+            0xfffea, 0x3fffe2, 0x3fffe3, 0x3fffe4, 0x7ffff0, 0x3fffe5, 0x3fffe6, 0x7ffff1,
+            0x3ffffe0, 0x3ffffe1, 0xfffeb, 0x7fff1, 0x3fffe7, 0x7ffff2, 0x3fffe8, 0x1ffffec,
+            0x3ffffe2, 0x3ffffe3, 0x3ffffe4, 0x7ffffde, 0x7ffffdf, 0x3ffffe5, 0xfffff1, 0x1ffffed,
+            0x7fff2, 0x1fffe3, 0x3ffffe6, 0x7ffffe0, 0x7ffffe1, 0x3ffffe7, 0x7ffffe2, 0xfffff2,
+            0x1fffe4, 0x1fffe5, 0x3ffffe8, 0x3ffffe9, 0xffffffd, 0x7ffffe3, 0x7ffffe4, 0x7ffffe5,
+            0xfffec, 0xfffff3, 0xfffed, 0x1fffe6, 0x3fffe9, 0x1fffe7, 0x1fffe8, 0x7ffff3,
+            0x3fffea, 0x3fffeb, 0x1ffffee, 0x1ffffef, 0xfffff4, 0xfffff5, 0x3ffffea, 0x7ffff4,
+            0x3ffffeb, 0x7ffffe6, 0x3ffffec, 0x3ffffed, 0x7ffffe7, 0x7ffffe8, 0x7ffffe9, 0x7ffffea,
+            0x7ffffeb, 0xffffffe, 0x7ffffec, 0x7ffffed, 0x7ffffee, 0x7ffffef, 0x7fffff0, 0x3ffffee,
+            0x3fffffff
+    };
+    private static final byte[] LENGTHS = {
+            13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28,
+            28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+            6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+            5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+            13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+            7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+            15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5,
+            6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+            20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+            24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+            22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+            21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+            26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+            19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+            20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+            26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26,
+            30
+    };
+    /**
+     * The Huffman codes as a binary tree: node n branches to TREE[2n] for a 0 bit and TREE[2n+1] for a 1 bit, a
+     * negative entry is the leaf of symbol -entry - 1.
+     */
+    private static final int[] TREE = new int[CODES.length * 4];
+    private static final int EOS = 256;
+    /**
+     * Fields which differ from response to response. Adding them to the table would only push out the stable ones.
+     */
+    private static final Set<String> UNINDEXED = new HashSet<>(Arrays.asList("date", "etag", "last-modified",
+            "content-length", "content-range", "content-disposition", ":path", "set-cookie"));
+
+    static {
+        for (int i = STATIC_TABLE.length - 1; i >= 0; i--) {
+            STATIC_NAMES.put(STATIC_TABLE[i][0], i + 1);
+            if (!STATIC_TABLE[i][1].isEmpty()) {
+                STATIC_FIELDS.put(STATIC_TABLE[i][0] + '\n' + STATIC_TABLE[i][1], i + 1);
+            }
+        }
+        int nodes = 1;
+        for (int symbol = 0; symbol < CODES.length; symbol++) {
+            int node = 0;
+            for (int bit = LENGTHS[symbol] - 1; bit > 0; bit--) {
+                int branch = 2 * node + (CODES[symbol] >>> bit & 1);
+                if (TREE[branch] == 0) {
+                    TREE[branch] = nodes++;
+                }
+                node = TREE[branch];
+            }
+            TREE[2 * node + (CODES[symbol] & 1)] = -symbol - 1;
+        }
+    }
+
+    private Hpack() {
+    }
+
+    /**
+     * The dynamic table: the most recent entry has index 1, entries are evicted from the oldest end once the size of
+     * the table would exceed its maximum.
+     */
+    static final class Table {
+        private final List<String[]> entries = new ArrayList<>();
+        private int size;
+        private int maxSize;
+
+        Table(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        /**
+         * @param index The index within the dynamic table, starting at 1
+         * @return The name and the value or null if the table has fewer entries
+         */
+        String[] get(int index) {
+            return index > entries.size() ? null : entries.get(entries.size() - index);
+        }
+
+        /**
+         * Looks up a field in the dynamic table.
+         * @param name The name of the field
+         * @param value The value of the field
+         * @return The index of the field, the negated index of the most recent entry with the name, or 0 if neither
+         */
+        int indexOf(String name, String value) {
+            int nameIndex = 0;
+            for (int i = entries.size() - 1; i >= 0; i--) {
+                String[] entry = entries.get(i);
+                if (entry[0].equals(name)) {
+                    if (entry[1].equals(value)) {
+                        return entries.size() - i;
+                    }
+                    if (nameIndex == 0) {
+                        nameIndex = -(entries.size() - i);
+                    }
+                }
+            }
+            return nameIndex;
+        }
+
+        void add(String name, String value) {
+            int entrySize = name.length() + value.length() + ENTRY_OVERHEAD;
+            evict(maxSize - entrySize);
+            // An entry larger than the whole table empties it and is not added.
+            if (entrySize <= maxSize) {
+                entries.add(new String[]{name, value});
+                size += entrySize;
+            }
+        }
+
+        void setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+            evict(maxSize);
+        }
+
+        int getMaxSize() {
+            return maxSize;
+        }
+
+        /**
+         * @return The size of all entries as defined by RFC 7541 4.1
+         */
+        int getSize() {
+            return size;
+        }
+
+        /**
+         * @return The number of entries
+         */
+        int length() {
+            return entries.size();
+        }
+
+        private void evict(int targetSize) {
+            while (size > Math.max(targetSize, 0) && !entries.isEmpty()) {
+                String[] oldest = entries.remove(0);
+                size -= oldest[0].length() + oldest[1].length() + ENTRY_OVERHEAD;
+            }
+        }
+    }
+
+    /**
+     * Decodes the header blocks a client sends on one connection.
+     */
+    static final class Decoder {
+        private final Table table = new Table(DEFAULT_TABLE_SIZE);
+        private final int maxListSize;
+
+        /**
+         * @param maxListSize Maximum size of the decoded fields of one block, counted like the entries of the table
+         */
+        Decoder(int maxListSize) {
+            this.maxListSize = maxListSize;
+        }
+
+        /**
+         * Decodes a complete header block. The whole block is decoded even if it turns out too large, so the table
+         * stays in step with the one of the client.
+         * @param block The header block, read up to its limit
+         * @param fields Receives the names and values in turns, in the order they were sent
+         * @throws ParseException We throw a ParseException if the block is malformed, the connection cannot be used any
+         * further then, or a HttpParser.LimitExceededException with 431 if the fields exceed the size limit
+         */
+        void decode(ByteBuffer block, List<String> fields) throws ParseException {
+            int listSize = 0;
+            boolean fieldSeen = false;
+            while (block.hasRemaining()) {
+                int first = block.get(block.position()) & 0xff;
+                String name;
+                String value;
+                if ((first & 0x80) != 0) {
+                    String[] field = field(decodeInteger(block, 7));
+                    name = field[0];
+                    value = field[1];
+                }
+                else if ((first & 0xe0) == 0x20) {
+                    if (fieldSeen) {
+                        throw new ParseException("Table size update after a header field", block.position());
+                    }
+                    int maxSize = decodeInteger(block, 5);
+                    if (maxSize > DEFAULT_TABLE_SIZE) {
+                        throw new ParseException("Table size update exceeds the settings", block.position());
+                    }
+                    table.setMaxSize(maxSize);
+                    continue;
+                }
+                else {
+                    boolean indexing = (first & 0xc0) == 0x40;
+                    int nameIndex = decodeInteger(block, indexing ? 6 : 4);
+                    name = nameIndex == 0 ? decodeString(block) : field(nameIndex)[0];
+                    value = decodeString(block);
+                    if (indexing) {
+                        table.add(name, value);
+                    }
+                }
+                fieldSeen = true;
+                listSize += name.length() + value.length() + ENTRY_OVERHEAD;
+                fields.add(name);
+                fields.add(value);
+            }
+            if (listSize > maxListSize) {
+                throw new HttpParser.LimitExceededException("Header fields exceed " + maxListSize + " bytes", 431);
+            }
+        }
+
+        private String[] field(int index) throws ParseException {
+            if (index <= 0) {
+                throw new ParseException("Header field index 0", 0);
+            }
+            if (index <= STATIC_TABLE.length) {
+                return STATIC_TABLE[index - 1];
+            }
+            String[] field = table.get(index - STATIC_TABLE.length);
+            if (field == null) {
+                throw new ParseException("Header field index " + index + " is beyond the table", 0);
+            }
+            return field;
+        }
+
+        /**
+         * @return The dynamic table, exposed for tests
+         */
+        Table getTable() {
+            return table;
+        }
+    }
+
+    /**
+     * Encodes the header blocks of the responses on one connection.
+     */
+    static final class Encoder {
+        private final Table table = new Table(DEFAULT_TABLE_SIZE);
+        private int smallestUpdate = -1;
+
+        /**
+         * Applies the table size the client allows. The server never uses more than the default size, a change is
+         * announced at the start of the next block.
+         * @param maxSize The value of SETTINGS_HEADER_TABLE_SIZE sent by the client
+         */
+        void setMaxTableSize(int maxSize) {
+            int size = Math.min(maxSize, DEFAULT_TABLE_SIZE);
+            if (size != table.getMaxSize()) {
+                table.setMaxSize(size);
+                smallestUpdate = smallestUpdate < 0 ? size : Math.min(smallestUpdate, size);
+            }
+        }
+
+        /**
+         * Starts a new header block, announcing a changed table size first.
+         * @param out The block being written
+         */
+        void start(ByteArrayOutputStream out) {
+            if (smallestUpdate >= 0) {
+                // If the size was lowered and raised again, the client has to see the lowest one.
+                encodeInteger(out, 0x20, 5, smallestUpdate);
+                if (smallestUpdate != table.getMaxSize()) {
+                    encodeInteger(out, 0x20, 5, table.getMaxSize());
+                }
+                smallestUpdate = -1;
+            }
+        }
+
+        /**
+         * Appends a header field to the block. Fields found in the tables are sent as their index, stable fields are
+         * added to the table, the others are sent as literals which reuse an indexed name if there is one.
+         * @param out The block being written
+         * @param name The lower case name
+         * @param value The value
+         */
+        void encode(ByteArrayOutputStream out, String name, String value) {
+            Integer fieldIndex = STATIC_FIELDS.get(name + '\n' + value);
+            if (fieldIndex != null) {
+                encodeInteger(out, 0x80, 7, fieldIndex);
+                return;
+            }
+            int dynamic = table.indexOf(name, value);
+            if (dynamic > 0) {
+                encodeInteger(out, 0x80, 7, STATIC_TABLE.length + dynamic);
+                return;
+            }
+            Integer staticName = STATIC_NAMES.get(name);
+            int nameIndex = staticName != null ? staticName : dynamic < 0 ? STATIC_TABLE.length - dynamic : 0;
+            boolean indexing = !UNINDEXED.contains(name);
+            if (indexing) {
+                encodeInteger(out, 0x40, 6, nameIndex);
+                table.add(name, value);
+            }
+            else {
+                encodeInteger(out, 0x00, 4, nameIndex);
+            }
+            if (nameIndex == 0) {
+                encodeString(out, name);
+            }
+            encodeString(out, value);
+        }
+
+        /**
+         * @return The dynamic table, exposed for tests
+         */
+        Table getTable() {
+            return table;
+        }
+    }
+
+    /**
+     * Decodes an integer with an N-bit prefix, see RFC 7541 5.1.
+     * @param block The block positioned at the first byte of the integer
+     * @param prefixBits Number of bits of the first byte belonging to the integer
+     * @return The integer
+     * @throws ParseException We throw a ParseException if the integer is truncated or exceeds 2^31-1
+     */
+    static int decodeInteger(ByteBuffer block, int prefixBits) throws ParseException {
+        int prefixMax = (1 << prefixBits) - 1;
+        int value = block.get() & prefixMax;
+        if (value < prefixMax) {
+            return value;
+        }
+        for (int shift = 0; ; shift += 7) {
+            if (!block.hasRemaining()) {
+                throw new ParseException("Truncated integer", block.position());
+            }
+            int next = block.get() & 0xff;
+            if (shift > 28 || (next & 0x7f) > (Integer.MAX_VALUE - value) >>> shift) {
+                throw new ParseException("Integer exceeds 2^31-1", block.position());
+            }
+            value += (next & 0x7f) << shift;
+            if ((next & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Encodes an integer with an N-bit prefix, see RFC 7541 5.1.
+     * @param out The block being written
+     * @param flags The bits of the first byte above the prefix
+     * @param prefixBits Number of bits of the first byte belonging to the integer
+     * @param value The non-negative integer
+     */
+    static void encodeInteger(ByteArrayOutputStream out, int flags, int prefixBits, int value) {
+        int prefixMax = (1 << prefixBits) - 1;
+        if (value < prefixMax) {
+            out.write(flags | value);
+            return;
+        }
+        out.write(flags | prefixMax);
+        value -= prefixMax;
+        while (value >= 0x80) {
+            out.write(value & 0x7f | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Decodes a string literal, Huffman coded or not, see RFC 7541 5.2.
+     * @param block The block positioned at the first byte of the string
+     * @return The string
+     * @throws ParseException We throw a ParseException if the string is truncated or its Huffman code is malformed
+     */
+    static String decodeString(ByteBuffer block) throws ParseException {
+        if (!block.hasRemaining()) {
+            throw new ParseException("Truncated string", block.position());
+        }
+        boolean huffman = (block.get(block.position()) & 0x80) != 0;
+        int length = decodeInteger(block, 7);
+        if (length > block.remaining()) {
+            throw new ParseException("Truncated string", block.position());
+        }
+        byte[] bytes = new byte[length];
+        block.get(bytes);
+        return huffman ? decodeHuffman(bytes) : new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    private static String decodeHuffman(byte[] bytes) throws ParseException {
+        StringBuilder decoded = new StringBuilder(bytes.length * 8 / 5);
+        int node = 0;
+        // Bits since the last symbol, they are padding if the string ends here and must be a prefix of EOS.
+        int pending = 0;
+        boolean allOnes = true;
+        for (byte b : bytes) {
+            for (int bit = 7; bit >= 0; bit--) {
+                int one = b >>> bit & 1;
+                int next = TREE[2 * node + one];
+                pending++;
+                allOnes &= one == 1;
+                if (next < 0) {
+                    int symbol = -next - 1;
+                    if (symbol == EOS) {
+                        throw new ParseException("Huffman code contains EOS", 0);
+                    }
+                    decoded.append((char) symbol);
+                    node = 0;
+                    pending = 0;
+                    allOnes = true;
+                }
+                else if (next == 0) {
+                    throw new ParseException("Invalid Huffman code", 0);
+                }
+                else {
+                    node = next;
+                }
+            }
+        }
+        if (pending > 7 || !allOnes) {
+            throw new ParseException("Invalid Huffman padding", 0);
+        }
+        return decoded.toString();
+    }
+
+    /**
+     * Encodes a string literal, Huffman coded if that is shorter.
+     * @param out The block being written
+     * @param value The string, chars above 0xff are not expected
+     */
+    static void encodeString(ByteArrayOutputStream out, String value) {
+        long bits = 0;
+        for (int i = 0; i < value.length(); i++) {
+            bits += LENGTHS[value.charAt(i) & 0xff];
+        }
+        int huffmanLength = (int) ((bits + 7) / 8);
+        if (huffmanLength >= value.length()) {
+            encodeInteger(out, 0x00, 7, value.length());
+            for (int i = 0; i < value.length(); i++) {
+                out.write(value.charAt(i));
+            }
+            return;
+        }
+        encodeInteger(out, 0x80, 7, huffmanLength);
+        long buffered = 0;
+        int count = 0;
+        for (int i = 0; i < value.length(); i++) {
+            int symbol = value.charAt(i) & 0xff;
+            buffered = buffered << LENGTHS[symbol] | CODES[symbol];
+            count += LENGTHS[symbol];
+            while (count >= 8) {
+                count -= 8;
+                out.write((int) (buffered >>> count));
+            }
+        }
+        if (count > 0) {
+            // Pads with the most significant bits of EOS, which are all ones.
+            out.write((int) (buffered << 8 - count | 0xff >>> count));
+        }
+    }
+}
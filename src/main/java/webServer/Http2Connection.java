@@ -0,0 +1,1075 @@
+package webServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Serves one connection in HTTP/2 over cleartext TCP (h2c, RFC 9113), reached either by sending the connection preface
+ * right away (prior knowledge) or by upgrading an HTTP/1.1 request. The requests are multiplexed over the connection
+ * as streams. The worker serving the connection reads the frames and answers every request through the same Request
+ * the HTTP/1.x path uses, a writer thread sends the answers:
+ * + The heads are compressed with HPACK, see Hpack.
+ * + The bodies are cut into DATA frames which are sent round robin over the streams, so a large file does not hold up
+ *   the small ones, and only as far as the flow control windows of the client allow.
+ * + Control frames and heads are sent before any further DATA frame.
+ * Request bodies are not read, their DATA frames are only counted against the windows. Server push is not used.
+ *  * @author Oguzhan Yigit
+ *  * @email yigit@adobe.com
+ *  * @version 0.1
+ */
+final class Http2Connection {
+    /**
+     * The connection preface a client sends first, see RFC 9113 3.4.
+     */
+    static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    /**
+     * Initial size of all flow control windows, see RFC 9113 6.9.2.
+     */
+    static final int DEFAULT_WINDOW = 65535;
+    /**
+     * The protocol version of the requests passed on to Request.
+     */
+    static final String VERSION = "HTTP/2.0";
+    private static final byte[] SWITCHING_PROTOCOLS = ("HTTP/1.1 101 Switching Protocols\r\n"
+            + "Connection: Upgrade\r\nUpgrade: h2c\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+    private static final int FRAME_HEADER = 9;
+    /**
+     * Largest frame payload both ends accept without asking, the server neither sends nor accepts larger ones.
+     */
+    private static final int MAX_FRAME_SIZE = 16384;
+    private static final int MAX_WINDOW = Integer.MAX_VALUE;
+
+    private static final int DATA = 0x0, HEADERS = 0x1, PRIORITY = 0x2, RST_STREAM = 0x3, SETTINGS = 0x4,
+            PUSH_PROMISE = 0x5, PING = 0x6, GOAWAY = 0x7, WINDOW_UPDATE = 0x8, CONTINUATION = 0x9;
+    private static final int END_STREAM = 0x1, ACK = 0x1, END_HEADERS = 0x4, PADDED = 0x8, PRIORITY_FLAG = 0x20;
+    private static final int SETTINGS_HEADER_TABLE_SIZE = 0x1, SETTINGS_ENABLE_PUSH = 0x2,
+            SETTINGS_MAX_CONCURRENT_STREAMS = 0x3, SETTINGS_INITIAL_WINDOW_SIZE = 0x4, SETTINGS_MAX_FRAME_SIZE = 0x5,
+            SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+    private static final int NO_ERROR = 0x0, PROTOCOL_ERROR = 0x1, INTERNAL_ERROR = 0x2, FLOW_CONTROL_ERROR = 0x3,
+            FRAME_SIZE_ERROR = 0x6, REFUSED_STREAM = 0x7, COMPRESSION_ERROR = 0x9;
+    /**
+     * Header fields which only make sense for a single HTTP/1.x connection, they are neither sent nor accepted.
+     */
+    private static final Set<String> CONNECTION_SPECIFIC = new HashSet<>(Arrays.asList("connection", "keep-alive",
+            "proxy-connection", "transfer-encoding", "upgrade"));
+    /**
+     * The pseudo-header fields of a request, in the order validate() reports them.
+     */
+    private static final List<String> PSEUDO_HEADERS = Arrays.asList(":method", ":path", ":scheme", ":authority");
+    private final static Logger LOGGER = Logger.getLogger(Server.class.getName());
+
+    private final Server server;
+    private final Request handler;
+    private final Socket socket;
+    private final ReadableByteChannel input;
+    private final WritableByteChannel output;
+    private final String client;
+    private final Hpack.Decoder decoder;
+    private final Hpack.Encoder encoder = new Hpack.Encoder();
+    private ByteBuffer buffer;
+    private final ByteArrayOutputStream headerBlock = new ByteArrayOutputStream();
+    private int headerStream;
+    private boolean headerEndStream;
+    private long receiveWindow = DEFAULT_WINDOW;
+    private volatile int lastStreamId;
+
+    // Shared by the reader and the writer, guarded by this.
+    private final Map<Integer, Stream> streams = new HashMap<>();
+    private final ArrayDeque<ByteBuffer> frames = new ArrayDeque<>();
+    private final ArrayDeque<Stream> ready = new ArrayDeque<>();
+    private long sendWindow = DEFAULT_WINDOW;
+    private long initialSendWindow = DEFAULT_WINDOW;
+    private boolean closing;
+    private boolean closed;
+
+    // The progress of the writer, checked against the minimum transfer rate by the watchdog.
+    private final Deadlines deadlines;
+    private volatile long written;
+    private volatile long writtenBeforePhase;
+    private long writtenAtTimeout = -1;
+
+    /**
+     * @param server The server which accepted the connection
+     * @param handler The request of the connection, answers the streams one after another
+     * @param socket The socket of the connection
+     * @param input The channel reading from the socket
+     * @param output The channel writing to the socket
+     * @param client The address of the client
+     */
+    Http2Connection(Server server, Request handler, Socket socket, ReadableByteChannel input,
+                    WritableByteChannel output, String client) {
+        this.server = server;
+        this.handler = handler;
+        this.socket = socket;
+        this.input = input;
+        this.output = output;
+        this.client = client;
+        this.decoder = new Hpack.Decoder(server.getParser().getMaxHeadSize());
+        this.deadlines = new Deadlines(server.getConfig());
+    }
+
+    /**
+     * Checks whether a connection starts with the HTTP/2 connection preface.
+     * @param received The bytes received so far in read mode
+     * @return 1 if the preface is complete, 0 if the bytes received so far may still become the preface, -1 if not
+     */
+    static int matchPreface(ByteBuffer received) {
+        int length = Math.min(received.remaining(), PREFACE.length);
+        for (int i = 0; i < length; i++) {
+            if (received.get(received.position() + i) != PREFACE[i]) {
+                return -1;
+            }
+        }
+        return length == PREFACE.length ? 1 : 0;
+    }
+
+    /**
+     * Checks whether an HTTP/1.1 request asks to continue in HTTP/2, see RFC 7540 3.2. Requests with a body keep
+     * HTTP/1.1, the body would have to be read before switching.
+     * @param request The parsed request head
+     * @return true if the connection can be upgraded after this request
+     */
+    static boolean isUpgrade(HttpRequest request) {
+        String upgrade = request.getHeader("upgrade");
+        String settings = request.getHeader("http2-settings");
+        if (upgrade == null || settings == null || !"HTTP/1.1".equals(request.getVersion())
+                || request.getHeader("transfer-encoding") != null
+                || request.getHeader("content-length") != null && !"0".equals(request.getHeader("content-length"))) {
+            return false;
+        }
+        boolean h2c = false;
+        for (String token : upgrade.split(",")) {
+            h2c |= token.trim().equalsIgnoreCase("h2c");
+        }
+        return h2c && decodeSettings(settings) != null;
+    }
+
+    /**
+     * @param settings The value of the HTTP2-Settings header field
+     * @return The decoded SETTINGS payload or null if it is malformed
+     */
+    private static ByteBuffer decodeSettings(String settings) {
+        try {
+            byte[] payload = Base64.getUrlDecoder().decode(settings.trim());
+            return payload.length % 6 == 0 ? ByteBuffer.wrap(payload) : null;
+        }
+        catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Serves the connection until the client closes it, the server shuts it down, or the client violates the
+     * protocol.
+     * @param received The bytes read already in read mode, the preface of the client or the bytes following the
+     *                 request asking for the upgrade
+     * @param upgraded The request which asked for the upgrade, answered as stream 1, or null for a client sending the
+     *                 preface right away
+     * @throws IOException We throw an IOException if the client has dropped the connection
+     */
+    void serve(ByteBuffer received, HttpRequest upgraded) throws IOException {
+        buffer = ByteBuffer.allocate(Math.max(FRAME_HEADER + MAX_FRAME_SIZE, received.remaining()));
+        buffer.put(received).flip();
+        if (upgraded != null) {
+            applySettings(decodeSettings(upgraded.getHeader("http2-settings")));
+            ByteBuffer switching = ByteBuffer.wrap(SWITCHING_PROTOCOLS);
+            while (switching.hasRemaining()) {
+                output.write(switching);
+            }
+        }
+        queue(settings());
+        int window = server.getConfig().getHttp2InitialWindowSize();
+        if (window > DEFAULT_WINDOW) {
+            // The window of the connection is raised along with the ones of the streams.
+            queue(windowUpdate(0, window - DEFAULT_WINDOW));
+            receiveWindow = window;
+        }
+        Thread writer = new Thread(this::write, "webserver-h2-writer");
+        writer.setDaemon(true);
+        writer.start();
+        try {
+            if (upgraded != null) {
+                lastStreamId = 1;
+                answer(1, upgraded, null, true, 0);
+            }
+            if (!fill(PREFACE.length) || matchPreface(buffer) < 1) {
+                throw new ProtocolError(PROTOCOL_ERROR, "Missing connection preface");
+            }
+            buffer.position(buffer.position() + PREFACE.length);
+            readFrames();
+        }
+        catch (ProtocolError e) {
+            LOGGER.info("HTTP/2 protocol error: " + e.getMessage());
+            goAway(e.code);
+        }
+        finally {
+            synchronized (this) {
+                closed = true;
+                notifyAll();
+            }
+            try {
+                writer.join(server.getConfig().getKeepAliveTimeoutMillis());
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Checks the writer against the minimum transfer rate, see Deadlines. The streams share the writer, so a client
+     * which reads none of them is as slow as one which reads a single response slowly. The writer is measured while it
+     * has frames to send, not while it waits for requests or for the client to open its flow control windows.
+     * Called periodically by the watchdog of the server.
+     * @param now The current time of System.nanoTime()
+     * @return The phase the client has stalled in, or null if it keeps up
+     */
+    Deadlines.Phase checkDeadlines(long now) {
+        return deadlines.check(now, written - writtenBeforePhase);
+    }
+
+    /**
+     * Asks the client to open no further streams, e.g. because the server is stopping. The connection is closed once
+     * the streams opened so far have been answered.
+     */
+    void shutdown() {
+        goAway(NO_ERROR);
+    }
+
+    private synchronized void goAway(int code) {
+        if (closing) {
+            return;
+        }
+        closing = true;
+        ByteBuffer frame = frame(GOAWAY, 0, 0, 8);
+        frame.putInt(lastStreamId).putInt(code).flip();
+        queue(frame);
+    }
+
+    /**
+     * Reads and handles frames until the client closes the connection.
+     * @throws IOException We throw an IOException if the client has dropped the connection
+     */
+    private void readFrames() throws IOException {
+        boolean settingsReceived = false;
+        while (fill(FRAME_HEADER)) {
+            int start = buffer.position();
+            int length = (buffer.get(start) & 0xff) << 16 | (buffer.get(start + 1) & 0xff) << 8
+                    | buffer.get(start + 2) & 0xff;
+            int type = buffer.get(start + 3) & 0xff;
+            int flags = buffer.get(start + 4) & 0xff;
+            int streamId = buffer.getInt(start + 5) & 0x7fffffff;
+            if (length > MAX_FRAME_SIZE) {
+                throw new ProtocolError(FRAME_SIZE_ERROR, "Frame of " + length + " bytes");
+            }
+            if (!fill(FRAME_HEADER + length)) {
+                return;
+            }
+            buffer.position(start + FRAME_HEADER);
+            ByteBuffer payload = buffer.slice();
+            payload.limit(length);
+            buffer.position(start + FRAME_HEADER + length);
+            if (!settingsReceived && (type != SETTINGS || (flags & ACK) != 0)) {
+                throw new ProtocolError(PROTOCOL_ERROR, "The first frame is not SETTINGS");
+            }
+            settingsReceived = true;
+            if (headerStream != 0 && type != CONTINUATION) {
+                throw new ProtocolError(PROTOCOL_ERROR, "Header block interrupted");
+            }
+            switch (type) {
+                case DATA:
+                    data(streamId, flags, payload);
+                    break;
+                case HEADERS:
+                    headers(streamId, flags, payload);
+                    break;
+                case CONTINUATION:
+                    continuation(streamId, flags, payload);
+                    break;
+                case PRIORITY:
+                    if (streamId == 0) {
+                        throw new ProtocolError(PROTOCOL_ERROR, "PRIORITY on stream 0");
+                    }
+                    if (length != 5) {
+                        throw new ProtocolError(FRAME_SIZE_ERROR, "PRIORITY of " + length + " bytes");
+                    }
+                    break;
+                case RST_STREAM:
+                    resetReceived(streamId, payload);
+                    break;
+                case SETTINGS:
+                    settings(streamId, flags, payload);
+                    break;
+                case PUSH_PROMISE:
+                    throw new ProtocolError(PROTOCOL_ERROR, "PUSH_PROMISE sent by the client");
+                case PING:
+                    ping(streamId, flags, payload);
+                    break;
+                case GOAWAY:
+                    if (streamId != 0) {
+                        throw new ProtocolError(PROTOCOL_ERROR, "GOAWAY on stream " + streamId);
+                    }
+                    // The client opens no further streams, the connection ends once the open ones are answered.
+                    synchronized (this) {
+                        closing = true;
+                        notifyAll();
+                    }
+                    break;
+                case WINDOW_UPDATE:
+                    windowUpdate(streamId, payload);
+                    break;
+                default:
+                    // Frames of unknown types are ignored, see RFC 9113 4.1.
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Reads until the buffer holds the given number of bytes.
+     * @param needed Number of bytes needed
+     * @return false if the client has closed the connection, or it has been idle longer than the keep-alive timeout
+     * @throws IOException We throw an IOException if the client has dropped the connection
+     */
+    private boolean fill(int needed) throws IOException {
+        while (buffer.remaining() < needed) {
+            buffer.compact();
+            int read;
+            try {
+                read = input.read(buffer);
+            }
+            catch (SocketTimeoutException e) {
+                boolean busy;
+                synchronized (this) {
+                    busy = !streams.isEmpty() || !frames.isEmpty();
+                }
+                // The client may be busy reading a large response, only a connection without streams is idle. If it
+                // has not taken a single byte since the previous timeout, it has stalled the responses instead.
+                long progress = written;
+                if (busy && progress != writtenAtTimeout) {
+                    writtenAtTimeout = progress;
+                    continue;
+                }
+                if (busy) {
+                    server.getMetrics().connectionStalled(Deadlines.Phase.WRITE);
+                    LOGGER.info("Closing stalled connection in phase " + Deadlines.Phase.WRITE);
+                }
+                else {
+                    LOGGER.info("Closing idle connection");
+                }
+                goAway(NO_ERROR);
+                return false;
+            }
+            finally {
+                buffer.flip();
+            }
+            if (read < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void data(int streamId, int flags, ByteBuffer payload) throws ProtocolError {
+        if (streamId == 0 || streamId > lastStreamId) {
+            throw new ProtocolError(PROTOCOL_ERROR, "DATA on idle stream " + streamId);
+        }
+        int length = payload.remaining();
+        unpad(flags, payload);
+        // The whole frame counts against the windows, padding included. The bytes are dropped right away, so the
+        // windows are opened again at once.
+        receiveWindow -= length;
+        if (receiveWindow < 0) {
+            throw new ProtocolError(FLOW_CONTROL_ERROR, "DATA exceeds the window of the connection");
+        }
+        if (length > 0) {
+            receiveWindow += length;
+            queue(windowUpdate(0, length));
+        }
+        synchronized (this) {
+            Stream stream = streams.get(streamId);
+            if (stream != null && !stream.remoteClosed) {
+                stream.remoteClosed = (flags & END_STREAM) != 0;
+                if (!stream.remoteClosed && length > 0) {
+                    queue(windowUpdate(streamId, length));
+                }
+            }
+        }
+    }
+
+    private void headers(int streamId, int flags, ByteBuffer payload) throws ProtocolError {
+        if (streamId == 0 || streamId % 2 == 0) {
+            throw new ProtocolError(PROTOCOL_ERROR, "HEADERS on stream " + streamId);
+        }
+        unpad(flags, payload);
+        if ((flags & PRIORITY_FLAG) != 0) {
+            if (payload.remaining() < 5) {
+                throw new ProtocolError(FRAME_SIZE_ERROR, "HEADERS too short for its priority");
+            }
+            payload.position(payload.position() + 5);
+        }
+        headerBlock.reset();
+        headerStream = streamId;
+        headerEndStream = (flags & END_STREAM) != 0;
+        continuation(streamId, flags, payload);
+    }
+
+    private void continuation(int streamId, int flags, ByteBuffer payload) throws ProtocolError {
+        if (streamId != headerStream || streamId == 0) {
+            throw new ProtocolError(PROTOCOL_ERROR, "CONTINUATION on stream " + streamId);
+        }
+        if (headerBlock.size() + payload.remaining() > server.getParser().getMaxHeadSize()) {
+            throw new ProtocolError(PROTOCOL_ERROR, "Header block exceeds "
+                    + server.getParser().getMaxHeadSize() + " bytes");
+        }
+        headerBlock.write(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining());
+        if ((flags & END_HEADERS) != 0) {
+            headerStream = 0;
+            headerBlockEnded(streamId, headerEndStream);
+        }
+    }
+
+    /**
+     * Decodes a complete header block and answers the request it opens.
+     * @param streamId The stream of the block
+     * @param endStream true if the client sends no body
+     * @throws ProtocolError We throw a ProtocolError if the block cannot be decoded
+     */
+    private void headerBlockEnded(int streamId, boolean endStream) throws ProtocolError {
+        long started = System.nanoTime();
+        List<String> fields = new ArrayList<>();
+        ParseException refused = null;
+        try {
+            // Every block is decoded, even one which is refused, so the table stays in step with the client.
+            decoder.decode(ByteBuffer.wrap(headerBlock.toByteArray()), fields);
+        }
+        catch (HttpParser.LimitExceededException e) {
+            refused = e;
+        }
+        catch (ParseException e) {
+            throw new ProtocolError(COMPRESSION_ERROR, e.getMessage());
+        }
+        if (streamId <= lastStreamId) {
+            // Trailers of a request body, which is not read anyway.
+            synchronized (this) {
+                Stream stream = streams.get(streamId);
+                if (stream != null && !endStream) {
+                    throw new ProtocolError(PROTOCOL_ERROR, "Trailers without END_STREAM");
+                }
+                if (stream != null) {
+                    stream.remoteClosed = true;
+                }
+            }
+            return;
+        }
+        lastStreamId = streamId;
+        synchronized (this) {
+            if (closing) {
+                // Streams after GOAWAY are ignored, the client retries them on a new connection.
+                return;
+            }
+            if (streams.size() >= server.getConfig().getHttp2MaxConcurrentStreams()) {
+                queue(reset(streamId, REFUSED_STREAM));
+                return;
+            }
+        }
+        HttpRequest request = null;
+        if (refused == null) {
+            List<String> regular = new ArrayList<>(fields.size());
+            String[] pseudo = new String[4];
+            try {
+                validate(fields, pseudo, regular);
+            }
+            catch (ParseException e) {
+                LOGGER.info("Malformed HTTP/2 request: " + e.getMessage());
+                queue(reset(streamId, PROTOCOL_ERROR));
+                return;
+            }
+            try {
+                request = server.getParser().request(pseudo[0], pseudo[1], VERSION, regular);
+            }
+            catch (ParseException e) {
+                LOGGER.info("Malformed request: " + e.getMessage());
+                refused = e;
+            }
+        }
+        answer(streamId, request, refused, endStream, System.nanoTime() - started);
+    }
+
+    /**
+     * Checks the fields of a request, see RFC 9113 8.3, and separates the pseudo-header fields from the others.
+     * @param fields The decoded names and values in turns
+     * @param pseudo Receives the method, path, scheme and authority
+     * @param regular Receives the other fields in turns, the authority is added as host
+     * @throws ParseException We throw a ParseException if the request is malformed
+     */
+    private static void validate(List<String> fields, String[] pseudo, List<String> regular) throws ParseException {
+        for (int i = 0; i < fields.size(); i += 2) {
+            String name = fields.get(i);
+            String value = fields.get(i + 1);
+            if (name.startsWith(":")) {
+                int index = PSEUDO_HEADERS.indexOf(name);
+                if (index < 0 || !regular.isEmpty() || pseudo[index] != null) {
+                    throw new ParseException("Misplaced pseudo-header field " + name, i);
+                }
+                pseudo[index] = value;
+                continue;
+            }
+            for (int c = 0; c < name.length(); c++) {
+                if (name.charAt(c) >= 'A' && name.charAt(c) <= 'Z') {
+                    throw new ParseException("Upper case header name " + name, i);
+                }
+            }
+            if (CONNECTION_SPECIFIC.contains(name) || name.equals("te") && !value.equals("trailers")) {
+                throw new ParseException("Connection-specific header field " + name, i);
+            }
+            regular.add(name);
+            regular.add(value);
+        }
+        if (pseudo[0] == null || pseudo[1] == null || pseudo[2] == null || pseudo[1].isEmpty()) {
+            throw new ParseException("Missing pseudo-header field", 0);
+        }
+        if (pseudo[3] != null && !hasField(regular, "host")) {
+            regular.add("host");
+            regular.add(pseudo[3]);
+        }
+    }
+
+    private static boolean hasField(List<String> fields, String name) {
+        for (int i = 0; i < fields.size(); i += 2) {
+            if (fields.get(i).equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Answers a request: its head is queued at once, its body is sent by the writer.
+     * @param streamId The stream of the request
+     * @param request The request or null if it has been refused
+     * @param refused The reason the request has been refused, or null
+     * @param remoteClosed true if the client sends no body
+     * @param parseNanos Time spent decoding the head
+     */
+    private void answer(int streamId, HttpRequest request, ParseException refused, boolean remoteClosed,
+                        long parseNanos) {
+        Response response;
+        try {
+            AdmissionControl.Refusal refusal = refused == null ? server.getAdmission().request(client) : null;
+            if (refused != null) {
+                response = Request.badRequest(refused);
+            }
+            else if (refusal != null) {
+                // Every stream counts as a request, the connection stays open for the streams admitted later.
+                response = Request.refused(request, refusal);
+            }
+            else {
+                response = handler.respond(request, true);
+            }
+        }
+        catch (IOException e) {
+            LOGGER.info("Failed to answer stream " + streamId + ": " + e.getMessage());
+            queue(reset(streamId, INTERNAL_ERROR));
+            return;
+        }
+        response.parsed(parseNanos);
+        ByteBuffer head = headers(streamId, response, !response.hasBody());
+        Stream stream = new Stream(streamId, response, remoteClosed);
+        synchronized (this) {
+            queue(head);
+            if (response.hasBody()) {
+                stream.window = initialSendWindow;
+                streams.put(streamId, stream);
+                schedule(stream);
+            }
+            else {
+                complete(stream);
+            }
+        }
+    }
+
+    /**
+     * Encodes the head of a response into a HEADERS frame, followed by CONTINUATION frames if it does not fit.
+     * The head built for HTTP/1.x is translated field by field, the connection-specific fields are left out.
+     */
+    private ByteBuffer headers(int streamId, Response response, boolean endStream) {
+        ByteArrayOutputStream block = new ByteArrayOutputStream(256);
+        encoder.start(block);
+        encoder.encode(block, ":status", Integer.toString(response.getStatus()));
+        ByteBuffer head = response.getHead();
+        int lineStart = head.position();
+        while (head.get(lineStart) != '\n') {
+            lineStart++;
+        }
+        lineStart++;
+        while (true) {
+            int lineEnd = lineStart;
+            while (head.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            int contentEnd = head.get(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+            if (contentEnd <= lineStart) {
+                break;
+            }
+            int colon = lineStart;
+            while (head.get(colon) != ':') {
+                colon++;
+            }
+            String name = latin1(head, lineStart, colon, true);
+            if (!CONNECTION_SPECIFIC.contains(name)) {
+                encoder.encode(block, name, latin1(head, colon + 1, contentEnd, false).trim());
+            }
+            lineStart = lineEnd + 1;
+        }
+        byte[] encoded = block.toByteArray();
+        int frameCount = Math.max(1, (encoded.length + MAX_FRAME_SIZE - 1) / MAX_FRAME_SIZE);
+        ByteBuffer frames = ByteBuffer.allocate(encoded.length + frameCount * FRAME_HEADER);
+        for (int i = 0; i < frameCount; i++) {
+            int offset = i * MAX_FRAME_SIZE;
+            int length = Math.min(MAX_FRAME_SIZE, encoded.length - offset);
+            int flags = (i == frameCount - 1 ? END_HEADERS : 0) | (i == 0 && endStream ? END_STREAM : 0);
+            putFrameHeader(frames, length, i == 0 ? HEADERS : CONTINUATION, flags, streamId);
+            frames.put(encoded, offset, length);
+        }
+        frames.flip();
+        return frames;
+    }
+
+    private static String latin1(ByteBuffer head, int from, int to, boolean lowerCase) {
+        char[] chars = new char[to - from];
+        for (int i = 0; i < chars.length; i++) {
+            int c = head.get(from + i) & 0xff;
+            chars[i] = (char) (lowerCase && c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c);
+        }
+        return new String(chars);
+    }
+
+    private void resetReceived(int streamId, ByteBuffer payload) throws ProtocolError {
+        if (payload.remaining() != 4) {
+            throw new ProtocolError(FRAME_SIZE_ERROR, "RST_STREAM of " + payload.remaining() + " bytes");
+        }
+        if (streamId == 0 || streamId > lastStreamId) {
+            throw new ProtocolError(PROTOCOL_ERROR, "RST_STREAM on idle stream " + streamId);
+        }
+        synchronized (this) {
+            Stream stream = streams.get(streamId);
+            if (stream != null) {
+                cancel(stream);
+            }
+        }
+    }
+
+    private void settings(int streamId, int flags, ByteBuffer payload) throws ProtocolError {
+        if (streamId != 0) {
+            throw new ProtocolError(PROTOCOL_ERROR, "SETTINGS on stream " + streamId);
+        }
+        if ((flags & ACK) != 0) {
+            if (payload.hasRemaining()) {
+                throw new ProtocolError(FRAME_SIZE_ERROR, "SETTINGS acknowledgement with a payload");
+            }
+            return;
+        }
+        if (payload.remaining() % 6 != 0) {
+            throw new ProtocolError(FRAME_SIZE_ERROR, "SETTINGS of " + payload.remaining() + " bytes");
+        }
+        applySettings(payload);
+        ByteBuffer acknowledgement = frame(SETTINGS, ACK, 0, 0);
+        acknowledgement.flip();
+        queue(acknowledgement);
+    }
+
+    /**
+     * Applies the settings of the client, sent in a SETTINGS frame or in the HTTP2-Settings header field.
+     * @param payload The settings, 6 bytes each
+     * @throws ProtocolError We throw a ProtocolError if a setting is out of range
+     */
+    private void applySettings(ByteBuffer payload) throws ProtocolError {
+        while (payload.remaining() >= 6) {
+            int id = payload.getShort() & 0xffff;
+            long value = payload.getInt() & 0xffffffffL;
+            switch (id) {
+                case SETTINGS_HEADER_TABLE_SIZE:
+                    encoder.setMaxTableSize((int) Math.min(value, Integer.MAX_VALUE));
+                    break;
+                case SETTINGS_ENABLE_PUSH:
+                    if (value > 1) {
+                        throw new ProtocolError(PROTOCOL_ERROR, "SETTINGS_ENABLE_PUSH of " + value);
+                    }
+                    break;
+                case SETTINGS_INITIAL_WINDOW_SIZE:
+                    if (value > MAX_WINDOW) {
+                        throw new ProtocolError(FLOW_CONTROL_ERROR, "SETTINGS_INITIAL_WINDOW_SIZE of " + value);
+                    }
+                    initialWindowChanged(value);
+                    break;
+                case SETTINGS_MAX_FRAME_SIZE:
+                    if (value < MAX_FRAME_SIZE || value > 0xffffff) {
+                        throw new ProtocolError(PROTOCOL_ERROR, "SETTINGS_MAX_FRAME_SIZE of " + value);
+                    }
+                    break;
+                default:
+                    // The limits on concurrent streams and header lists concern pushed streams and requests, the
+                    // server sends neither.
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Moves the windows of all streams by the change of the initial window size, see RFC 9113 6.9.2.
+     */
+    private synchronized void initialWindowChanged(long initialWindow) throws ProtocolError {
+        long delta = initialWindow - initialSendWindow;
+        initialSendWindow = initialWindow;
+        for (Stream stream : streams.values()) {
+            stream.window += delta;
+            if (stream.window > MAX_WINDOW) {
+                throw new ProtocolError(FLOW_CONTROL_ERROR, "Window of stream " + stream.id + " exceeds 2^31-1");
+            }
+            schedule(stream);
+        }
+    }
+
+    private void ping(int streamId, int flags, ByteBuffer payload) throws ProtocolError {
+        if (streamId != 0) {
+            throw new ProtocolError(PROTOCOL_ERROR, "PING on stream " + streamId);
+        }
+        if (payload.remaining() != 8) {
+            throw new ProtocolError(FRAME_SIZE_ERROR, "PING of " + payload.remaining() + " bytes");
+        }
+        if ((flags & ACK) == 0) {
+            ByteBuffer pong = frame(PING, ACK, 0, 8);
+            pong.put(payload).flip();
+            queue(pong);
+        }
+    }
+
+    private void windowUpdate(int streamId, ByteBuffer payload) throws ProtocolError {
+        if (payload.remaining() != 4) {
+            throw new ProtocolError(FRAME_SIZE_ERROR, "WINDOW_UPDATE of " + payload.remaining() + " bytes");
+        }
+        int increment = payload.getInt() & 0x7fffffff;
+        synchronized (this) {
+            if (streamId == 0) {
+                if (increment == 0 || sendWindow + increment > MAX_WINDOW) {
+                    throw new ProtocolError(increment == 0 ? PROTOCOL_ERROR : FLOW_CONTROL_ERROR,
+                            "WINDOW_UPDATE of " + increment + " for the connection");
+                }
+                sendWindow += increment;
+                notifyAll();
+                return;
+            }
+            Stream stream = streams.get(streamId);
+            if (stream == null) {
+                return;
+            }
+            if (increment == 0 || stream.window + increment > MAX_WINDOW) {
+                queue(reset(streamId, increment == 0 ? PROTOCOL_ERROR : FLOW_CONTROL_ERROR));
+                cancel(stream);
+                return;
+            }
+            stream.window += increment;
+            schedule(stream);
+        }
+    }
+
+    /**
+     * Strips the padding of a DATA or HEADERS frame.
+     */
+    private static void unpad(int flags, ByteBuffer payload) throws ProtocolError {
+        if ((flags & PADDED) == 0) {
+            return;
+        }
+        if (!payload.hasRemaining()) {
+            throw new ProtocolError(FRAME_SIZE_ERROR, "Padded frame without padding length");
+        }
+        int padding = payload.get() & 0xff;
+        if (padding > payload.remaining()) {
+            throw new ProtocolError(PROTOCOL_ERROR, "Padding exceeds the frame");
+        }
+        payload.limit(payload.limit() - padding);
+    }
+
+    /**
+     * Sends the queued frames and the bodies of the streams until the connection is closed. Runs on a thread of its
+     * own, so a client which is slow to read never stops the frames of the client from being read.
+     */
+    private void write() {
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER + MAX_FRAME_SIZE);
+        WritableByteChannel payload = new FrameChannel(frame);
+        try {
+            while (true) {
+                ByteBuffer control;
+                Stream stream = null;
+                int allowed = 0;
+                synchronized (this) {
+                    if (frames.isEmpty() && (ready.isEmpty() || sendWindow <= 0)) {
+                        // Nothing can be sent, the client is not holding up the writer meanwhile.
+                        deadlines.stop();
+                    }
+                    while (frames.isEmpty() && (ready.isEmpty() || sendWindow <= 0) && !closed
+                            && !(closing && streams.isEmpty())) {
+                        wait();
+                    }
+                    if (deadlines.getPhase() == null) {
+                        writtenBeforePhase = written;
+                        deadlines.start(Deadlines.Phase.WRITE, System.nanoTime());
+                    }
+                    control = frames.poll();
+                    if (control == null) {
+                        if (closed || closing && streams.isEmpty()) {
+                            break;
+                        }
+                        stream = ready.poll();
+                        stream.scheduled = false;
+                        // The window is taken before the body is read and whatever the frame leaves is given back.
+                        allowed = (int) Math.min(MAX_FRAME_SIZE, Math.min(sendWindow, stream.window));
+                        if (allowed <= 0) {
+                            // The client has shrunk the window meanwhile, WINDOW_UPDATE schedules the stream again.
+                            continue;
+                        }
+                        stream.writing = true;
+                        sendWindow -= allowed;
+                        stream.window -= allowed;
+                    }
+                }
+                if (control != null) {
+                    writeFully(control);
+                    continue;
+                }
+                frame.clear().position(FRAME_HEADER);
+                frame.limit(FRAME_HEADER + allowed);
+                boolean finished;
+                try {
+                    finished = stream.response.writeBodyTo(payload);
+                }
+                catch (IOException e) {
+                    LOGGER.info("Failed to send stream " + stream.id + ": " + e.getMessage());
+                    synchronized (this) {
+                        stream.writing = false;
+                        queue(reset(stream.id, INTERNAL_ERROR));
+                        cancel(stream);
+                    }
+                    continue;
+                }
+                int length = frame.position() - FRAME_HEADER;
+                synchronized (this) {
+                    sendWindow += allowed - length;
+                    stream.window += allowed - length;
+                }
+                if (length > 0 || finished) {
+                    frame.flip();
+                    putFrameHeader(frame.duplicate(), length, DATA, finished ? END_STREAM : 0, stream.id);
+                    writeFully(frame);
+                }
+                synchronized (this) {
+                    stream.writing = false;
+                    if (stream.cancelled) {
+                        stream.response.close();
+                    }
+                    else if (finished) {
+                        complete(stream);
+                    }
+                    else {
+                        schedule(stream);
+                    }
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (IOException e) {
+            LOGGER.info("Client has dropped the connection");
+        }
+        finally {
+            synchronized (this) {
+                closed = true;
+                for (Stream stream : streams.values()) {
+                    stream.response.close();
+                }
+                streams.clear();
+                ready.clear();
+            }
+            // Ends the read of the worker, the client gets no further answers anyway.
+            try {
+                socket.shutdownInput();
+            }
+            catch (IOException e) {
+                // Closed already
+            }
+        }
+    }
+
+    private void writeFully(ByteBuffer frame) throws IOException {
+        while (frame.hasRemaining()) {
+            written += output.write(frame);
+        }
+    }
+
+    /**
+     * Queues a stream for its next DATA frame if its window allows one. Called holding the lock.
+     */
+    private void schedule(Stream stream) {
+        if (!stream.scheduled && !stream.writing && !stream.cancelled && stream.window > 0) {
+            stream.scheduled = true;
+            ready.add(stream);
+            notifyAll();
+        }
+    }
+
+    /**
+     * Finishes a stream whose response has been sent completely. Called holding the lock.
+     */
+    private void complete(Stream stream) {
+        streams.remove(stream.id);
+        stream.response.record(server, client);
+        stream.response.close();
+        if (!stream.remoteClosed) {
+            // The answer is complete, the client can stop sending the body, see RFC 9113 8.1.
+            queue(reset(stream.id, NO_ERROR));
+        }
+        notifyAll();
+    }
+
+    /**
+     * Drops a stream before its response has been sent completely. Called holding the lock.
+     */
+    private void cancel(Stream stream) {
+        streams.remove(stream.id);
+        ready.remove(stream);
+        stream.cancelled = true;
+        stream.scheduled = false;
+        stream.response.record(server, client);
+        if (!stream.writing) {
+            stream.response.close();
+        }
+        notifyAll();
+    }
+
+    private synchronized void queue(ByteBuffer frame) {
+        frames.add(frame);
+        notifyAll();
+    }
+
+    /**
+     * @return The SETTINGS frame starting the connection on the side of the server
+     */
+    private ByteBuffer settings() {
+        int window = server.getConfig().getHttp2InitialWindowSize();
+        ByteBuffer frame = frame(SETTINGS, 0, 0, window != DEFAULT_WINDOW ? 18 : 12);
+        frame.putShort((short) SETTINGS_MAX_CONCURRENT_STREAMS)
+                .putInt(server.getConfig().getHttp2MaxConcurrentStreams());
+        frame.putShort((short) SETTINGS_MAX_HEADER_LIST_SIZE).putInt(server.getParser().getMaxHeadSize());
+        if (window != DEFAULT_WINDOW) {
+            frame.putShort((short) SETTINGS_INITIAL_WINDOW_SIZE).putInt(window);
+        }
+        frame.flip();
+        return frame;
+    }
+
+    private static ByteBuffer windowUpdate(int streamId, int increment) {
+        ByteBuffer frame = frame(WINDOW_UPDATE, 0, streamId, 4);
+        frame.putInt(increment).flip();
+        return frame;
+    }
+
+    private static ByteBuffer reset(int streamId, int code) {
+        ByteBuffer frame = frame(RST_STREAM, 0, streamId, 4);
+        frame.putInt(code).flip();
+        return frame;
+    }
+
+    /**
+     * @return A frame with its header written, positioned at the start of the payload
+     */
+    private static ByteBuffer frame(int type, int flags, int streamId, int length) {
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER + length);
+        putFrameHeader(frame, length, type, flags, streamId);
+        return frame;
+    }
+
+    private static void putFrameHeader(ByteBuffer frame, int length, int type, int flags, int streamId) {
+        frame.put((byte) (length >>> 16)).put((byte) (length >>> 8)).put((byte) length)
+                .put((byte) type).put((byte) flags).putInt(streamId);
+    }
+
+    /**
+     * A stream answering one request.
+     */
+    private static final class Stream {
+        private final int id;
+        private final Response response;
+        private long window;
+        private boolean remoteClosed;
+        private boolean scheduled;
+        private boolean writing;
+        private boolean cancelled;
+
+        Stream(int id, Response response, boolean remoteClosed) {
+            this.id = id;
+            this.response = response;
+            this.remoteClosed = remoteClosed;
+        }
+    }
+
+    /**
+     * Takes the bytes of a body into the payload of a DATA frame, as many as the frame has room for.
+     */
+    private static final class FrameChannel implements WritableByteChannel {
+        private final ByteBuffer frame;
+
+        FrameChannel(ByteBuffer frame) {
+            this.frame = frame;
+        }
+
+        @Override
+        public int write(ByteBuffer source) {
+            int count = Math.min(source.remaining(), frame.remaining());
+            ByteBuffer taken = source.duplicate();
+            taken.limit(taken.position() + count);
+            frame.put(taken);
+            source.position(source.position() + count);
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * A violation of the protocol which ends the connection with GOAWAY.
+     */
+    private static final class ProtocolError extends IOException {
+        private final int code;
+
+        ProtocolError(int code, String message) {
+            super(message);
+            this.code = code;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package webServer;
+
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Parses the dates clients send in conditional requests. SimpleDateFormat is expensive to create and not thread safe,
+ * so every thread keeps its own instances instead of creating them for every request.
+ * Accepted are the IMF-fixdate of RFC 7231 and the format of Date.toString(), which the Last-Modified header used.
+ * The Date header of the responses is formatted at most once per second and shared by all threads.
+ *  * @author Oguzhan Yigit
+ *  * @email yigit@adobe.com
+ *  * @version 0.1
+ */
+final class HttpDates {
+    private static final ThreadLocal<SimpleDateFormat> IMF_FIXDATE = ThreadLocal.withInitial(() -> {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format;
+    });
+    private static final ThreadLocal<SimpleDateFormat> DATE_TO_STRING = ThreadLocal.withInitial(() ->
+            new SimpleDateFormat("E MMM d HH:mm:ss z yyyy", Locale.US));
+
+    private static volatile Clock clock = new Clock(Long.MIN_VALUE, null);
+
+    private HttpDates() {
+    }
+
+    /**
+     * The encoded Date header field of one second.
+     */
+    private static final class Clock {
+        private final long second;
+        private final byte[] dateLine;
+
+        Clock(long second, byte[] dateLine) {
+            this.second = second;
+            this.dateLine = dateLine;
+        }
+    }
+
+    /**
+     * @param millis The point in time
+     * @return The IMF-fixdate, e.g. Sun, 06 Nov 1994 08:49:37 GMT
+     */
+    static String format(long millis) {
+        return IMF_FIXDATE.get().format(new Date(millis));
+    }
+
+    /**
+     * Returns the Date header field of the current second. Threads racing at the turn of a second may format it twice,
+     * the result is the same.
+     * @return The encoded header field including the line break, must not be modified
+     */
+    static byte[] dateLine() {
+        long second = System.currentTimeMillis() / 1000;
+        Clock current = clock;
+        if (current.second != second) {
+            current = new Clock(second, ("Date: " + format(second * 1000) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            clock = current;
+        }
+        return current.dateLine;
+    }
+
+    /**
+     * @param value The date sent by the client
+     * @return The parsed date
+     * @throws ParseException We throw a ParseException if the value matches none of the accepted formats
+     */
+    static Date parse(String value) throws ParseException {
+        SimpleDateFormat format = value.indexOf(',') > 0 ? IMF_FIXDATE.get() : DATE_TO_STRING.get();
+        return format.parse(value);
+    }
+}
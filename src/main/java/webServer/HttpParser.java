@@ -0,0 +1,429 @@
+package webServer;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Parses the head of an HTTP request out of a byte buffer. The parser never blocks, it reports an incomplete head so
+ * the caller can read more bytes into its buffer, no matter whether they come from a blocking socket or a selector.
+ * The head is parsed byte by byte without decoding it into lines first. Well-known header names are matched against
+ * interned constants, so only unknown header names and the values are allocated. The sizes of the request line, the
+ * whole head and the number of header fields are limited, so hostile input fails as soon as it crosses a limit.
+ * The parser holds no state, one instance is shared by all connections.
+ *  * @author Oguzhan Yigit
+ *  * @email yigit@adobe.com
+ *  * @version 0.1
+ */
+public class HttpParser {
+    /**
+     * Default maximum size of the request line and all header fields together.
+     */
+    public static final int MAX_HEAD_SIZE = 16 * 1024;
+    /**
+     * Default maximum size of the request line.
+     */
+    public static final int MAX_REQUEST_LINE = 8 * 1024;
+    /**
+     * Default maximum number of header fields.
+     */
+    public static final int MAX_HEADERS = 100;
+
+    private static final String HTTP_1_1 = "HTTP/1.1";
+    private static final String HTTP_1_0 = "HTTP/1.0";
+    private static final byte[] HTTP_1_1_BYTES = HTTP_1_1.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HTTP_1_0_BYTES = HTTP_1_0.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HTTP_PREFIX_BYTES = "HTTP/".getBytes(StandardCharsets.US_ASCII);
+    private static final Request.Type[] METHODS = Request.Type.values();
+    private static final byte[][] METHOD_NAMES = new byte[METHODS.length][];
+    /**
+     * Header names we look up, grouped by their length. The constants are string literals and therefore interned.
+     */
+    private static final String[][] KNOWN_HEADERS = new String[32][];
+
+    static {
+        for (int i = 0; i < METHODS.length; i++) {
+            METHOD_NAMES[i] = METHODS[i].name().getBytes(StandardCharsets.US_ASCII);
+        }
+        String[] known = {"host", "connection", "accept", "accept-encoding", "accept-language", "user-agent",
+                "content-length", "content-type", "transfer-encoding", "expect", "if-match", "if-none-match",
+                "if-modified-since", "if-unmodified-since", "if-range", "range", "upgrade", "http2-settings",
+                "cache-control", "pragma", "referer", "cookie", "te", "keep-alive", "x-forwarded-for"};
+        for (String name : known) {
+            String[] bucket = KNOWN_HEADERS[name.length()];
+            String[] grown = bucket == null ? new String[1] : Arrays.copyOf(bucket, bucket.length + 1);
+            grown[grown.length - 1] = name;
+            KNOWN_HEADERS[name.length()] = grown;
+        }
+    }
+
+    private final int maxRequestLine;
+    private final int maxHeadSize;
+    private final int maxHeaders;
+
+    /**
+     * Creates a parser with the default limits.
+     */
+    public HttpParser() {
+        this(MAX_REQUEST_LINE, MAX_HEAD_SIZE, MAX_HEADERS);
+    }
+
+    /**
+     * @param maxRequestLine Maximum size of the request line, longer lines are answered with 414
+     * @param maxHeadSize Maximum size of the whole head, larger heads are answered with 431
+     * @param maxHeaders Maximum number of header fields, more fields are answered with 431
+     */
+    public HttpParser(int maxRequestLine, int maxHeadSize, int maxHeaders) {
+        this.maxRequestLine = Math.min(maxRequestLine, maxHeadSize);
+        this.maxHeadSize = maxHeadSize;
+        this.maxHeaders = maxHeaders;
+    }
+
+    /**
+     * @return The size of the buffer a connection needs to hold the largest permitted head
+     */
+    public int getMaxHeadSize() {
+        return maxHeadSize;
+    }
+
+    /**
+     * A request which is well-formed but cannot be served, answered with a status code of its own instead of 400.
+     */
+    public static class RejectedException extends ParseException {
+        private final int status;
+
+        RejectedException(String message, int status) {
+            super(message, 0);
+            this.status = status;
+        }
+
+        /**
+         * @return The status code to answer with, e.g. 414, 431 or 505
+         */
+        public int getStatus() {
+            return status;
+        }
+    }
+
+    /**
+     * A request which crosses one of the limits of the parser, answered with 414 or 431.
+     */
+    public static class LimitExceededException extends RejectedException {
+        LimitExceededException(String message, int status) {
+            super(message, status);
+        }
+    }
+
+    /**
+     * Parses the request head at the position of the buffer. On success the position is moved past the head, so
+     * whatever follows (a body or the next request) stays in the buffer.
+     * @param buffer The buffer in read mode
+     * @return The parsed request or null if the head is not complete yet
+     * @throws ParseException We throw a ParseException if the head is malformed or exceeds one of the limits
+     */
+    public HttpRequest parse(ByteBuffer buffer) throws ParseException {
+        int start = buffer.position();
+        int limit = buffer.limit();
+
+        // Find the end of the request line and of the head, counting the header fields on the way.
+        // The buffer of a connection holds exactly maxHeadSize bytes. Once that many bytes are there without the end
+        // of the head, no more can be read, so the head is too large rather than incomplete.
+        int requestLineEnd = indexOf(buffer, start, limit, (byte) '\n');
+        if (requestLineEnd < 0) {
+            if (limit - start > maxRequestLine || limit - start >= maxHeadSize) {
+                throw new LimitExceededException("Request line exceeds " + maxRequestLine + " bytes", 414);
+            }
+            return null;
+        }
+        if (requestLineEnd - start > maxRequestLine) {
+            throw new LimitExceededException("Request line exceeds " + maxRequestLine + " bytes", 414);
+        }
+        int headerCount = 0;
+        int lineStart = requestLineEnd + 1;
+        int headEnd;
+        while (true) {
+            int lineEnd = indexOf(buffer, lineStart, limit, (byte) '\n');
+            if (lineEnd < 0) {
+                if (limit - start >= maxHeadSize) {
+                    throw new LimitExceededException("Request head exceeds " + maxHeadSize + " bytes", 431);
+                }
+                return null;
+            }
+            if (lineEnd + 1 - start > maxHeadSize) {
+                throw new LimitExceededException("Request head exceeds " + maxHeadSize + " bytes", 431);
+            }
+            if (trimEnd(buffer, lineStart, lineEnd) == lineStart) {
+                headEnd = lineEnd + 1;
+                break;
+            }
+            if (++headerCount > maxHeaders) {
+                throw new LimitExceededException("Request has more than " + maxHeaders + " header fields", 431);
+            }
+            lineStart = lineEnd + 1;
+        }
+
+        // The head is complete, parse it.
+        int firstSpace = indexOf(buffer, start, requestLineEnd, (byte) ' ');
+        int secondSpace = firstSpace < 0 ? -1 : indexOf(buffer, firstSpace + 1, requestLineEnd, (byte) ' ');
+        if (firstSpace <= start || secondSpace < 0) {
+            throw new ParseException("Malformed request line", 0);
+        }
+        Request.Type method = parseMethod(buffer, start, firstSpace);
+        int query = indexOf(buffer, firstSpace + 1, secondSpace, (byte) '?');
+        String path = decodeTarget(buffer, firstSpace + 1, query < 0 ? secondSpace : query);
+        String version = parseVersion(buffer, secondSpace + 1, trimEnd(buffer, secondSpace + 1, requestLineEnd));
+
+        String[] names = new String[headerCount];
+        String[] values = new String[headerCount];
+        int count = 0;
+        lineStart = requestLineEnd + 1;
+        for (int i = 0; i < headerCount; i++) {
+            int lineEnd = indexOf(buffer, lineStart, limit, (byte) '\n');
+            int contentEnd = trimEnd(buffer, lineStart, lineEnd);
+            int colon = indexOf(buffer, lineStart, contentEnd, (byte) ':');
+            byte first = buffer.get(lineStart);
+            if (colon <= lineStart || first == ' ' || first == '\t' || isWhitespace(buffer.get(colon - 1))) {
+                throw new ParseException("Malformed header field", lineStart - start);
+            }
+            String name = headerName(buffer, lineStart, colon);
+            int valueStart = colon + 1;
+            while (valueStart < contentEnd && isWhitespace(buffer.get(valueStart))) {
+                valueStart++;
+            }
+            int valueEnd = contentEnd;
+            while (valueEnd > valueStart && isWhitespace(buffer.get(valueEnd - 1))) {
+                valueEnd--;
+            }
+            String value = ascii(buffer, valueStart, valueEnd);
+            int existing = indexOfName(names, count, name);
+            if (existing >= 0) {
+                // Repeated fields are combined into one comma separated list.
+                values[existing] = values[existing] + ", " + value;
+            }
+            else {
+                names[count] = name;
+                values[count] = value;
+                count++;
+            }
+            lineStart = lineEnd + 1;
+        }
+        buffer.position(headEnd);
+        return new HttpRequest(method, path, query < 0 ? null : ascii(buffer, query + 1, secondSpace), version,
+                names, values, count);
+    }
+
+    /**
+     * Builds a request out of header fields which have been decoded already, e.g. from an HTTP/2 header block. The
+     * method and the target are checked and decoded like the ones of a request line, the same limits apply and
+     * repeated fields are combined.
+     * @param method The name of the method
+     * @param target The request target, the path and the query
+     * @param version The protocol version, e.g. HTTP/2.0
+     * @param fields The lower case names and the values of the header fields in turns
+     * @return The request
+     * @throws ParseException We throw a ParseException if the method or the target is malformed or exceeds one of the
+     * limits
+     */
+    public HttpRequest request(String method, String target, String version, List<String> fields)
+            throws ParseException {
+        if (target.length() > maxRequestLine) {
+            throw new LimitExceededException("Request target exceeds " + maxRequestLine + " bytes", 414);
+        }
+        if (fields.size() / 2 > maxHeaders) {
+            throw new LimitExceededException("Request has more than " + maxHeaders + " header fields", 431);
+        }
+        ByteBuffer line = ByteBuffer.wrap((method + ' ' + target).getBytes(StandardCharsets.ISO_8859_1));
+        int space = method.length();
+        int query = indexOf(line, space + 1, line.limit(), (byte) '?');
+        Request.Type type = parseMethod(line, 0, space);
+        String path = decodeTarget(line, space + 1, query < 0 ? line.limit() : query);
+
+        String[] names = new String[fields.size() / 2];
+        String[] values = new String[names.length];
+        int count = 0;
+        for (int i = 0; i < fields.size(); i += 2) {
+            byte[] encoded = fields.get(i).getBytes(StandardCharsets.ISO_8859_1);
+            String name = headerName(ByteBuffer.wrap(encoded), 0, encoded.length);
+            String value = fields.get(i + 1);
+            int existing = indexOfName(names, count, name);
+            if (existing >= 0) {
+                // HTTP/2 clients may split the cookies into several fields, they are joined like a single field.
+                values[existing] = values[existing] + (name == "cookie" ? "; " : ", ") + value;
+            }
+            else {
+                names[count] = name;
+                values[count] = value;
+                count++;
+            }
+        }
+        return new HttpRequest(type, path, query < 0 ? null : ascii(line, query + 1, line.limit()), version,
+                names, values, count);
+    }
+
+    private static int indexOf(ByteBuffer buffer, int from, int to, byte b) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return The index behind the last character of the line which is not a carriage return
+     */
+    private static int trimEnd(ByteBuffer buffer, int from, int lineEnd) {
+        return lineEnd > from && buffer.get(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    private static int indexOfName(String[] names, int count, String name) {
+        for (int i = 0; i < count; i++) {
+            if (names[i] == name || names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static Request.Type parseMethod(ByteBuffer buffer, int from, int to) throws ParseException {
+        for (int i = 0; i < METHOD_NAMES.length; i++) {
+            if (equals(buffer, from, to, METHOD_NAMES[i])) {
+                return METHODS[i];
+            }
+        }
+        throw new ParseException("Unknown method: " + ascii(buffer, from, to), 0);
+    }
+
+    private static String parseVersion(ByteBuffer buffer, int from, int to) throws ParseException {
+        if (equals(buffer, from, to, HTTP_1_1_BYTES)) {
+            return HTTP_1_1;
+        }
+        if (equals(buffer, from, to, HTTP_1_0_BYTES)) {
+            return HTTP_1_0;
+        }
+        // A version of the form HTTP/x.y is understood as one this server does not speak, anything else is malformed.
+        if (to - from == HTTP_1_1_BYTES.length && equals(buffer, from, from + 5, HTTP_PREFIX_BYTES)
+                && isDigit(buffer.get(from + 5)) && buffer.get(from + 6) == '.' && isDigit(buffer.get(from + 7))) {
+            throw new RejectedException("Unsupported protocol version: " + ascii(buffer, from, to), 505);
+        }
+        throw new ParseException("Malformed protocol version: " + ascii(buffer, from, to), from);
+    }
+
+    /**
+     * Returns the interned constant for a well-known header name, or a new lower case string for any other name.
+     */
+    private static String headerName(ByteBuffer buffer, int from, int to) {
+        int length = to - from;
+        String[] bucket = length < KNOWN_HEADERS.length ? KNOWN_HEADERS[length] : null;
+        if (bucket != null) {
+            for (String candidate : bucket) {
+                if (equalsIgnoreCase(buffer, from, to, candidate)) {
+                    return candidate;
+                }
+            }
+        }
+        char[] name = new char[length];
+        for (int i = 0; i < length; i++) {
+            name[i] = (char) toLowerCase(buffer.get(from + i));
+        }
+        return new String(name);
+    }
+
+    private static boolean equalsIgnoreCase(ByteBuffer buffer, int from, int to, String lowerCase) {
+        for (int i = 0; i < to - from; i++) {
+            if (toLowerCase(buffer.get(from + i)) != lowerCase.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean equals(ByteBuffer buffer, int from, int to, byte[] expected) {
+        if (to - from != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (buffer.get(from + i) != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static int toLowerCase(byte b) {
+        return b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b & 0xff;
+    }
+
+    private static String ascii(ByteBuffer buffer, int from, int to) {
+        return new String(bytes(buffer, from, to), StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Decodes the path of the request target, which has to be an absolute path without segments leading to a parent
+     * directory. Encoded dots are decoded before the segments are checked.
+     * @throws ParseException We throw a ParseException if the path is malformed or leaves the root
+     */
+    private static String decodeTarget(ByteBuffer buffer, int from, int to) throws ParseException {
+        if (to <= from || buffer.get(from) != '/') {
+            throw new ParseException("Request target is no absolute path", from);
+        }
+        String path = decodePath(buffer, from, to);
+        for (int segment = 0; segment < path.length(); ) {
+            int end = path.indexOf('/', segment);
+            end = end < 0 ? path.length() : end;
+            if (end - segment == 2 && path.startsWith("..", segment)) {
+                throw new ParseException("Request target leaves the root", from);
+            }
+            segment = end + 1;
+        }
+        return path;
+    }
+
+    /**
+     * Decodes the percent encoded path of the request target.
+     * @throws ParseException We throw a ParseException if an escape sequence is malformed
+     */
+    static String decodePath(ByteBuffer buffer, int from, int to) throws ParseException {
+        if (indexOf(buffer, from, to, (byte) '%') < 0) {
+            return new String(bytes(buffer, from, to), StandardCharsets.UTF_8);
+        }
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream(to - from);
+        for (int i = from; i < to; i++) {
+            byte b = buffer.get(i);
+            if (b != '%') {
+                decoded.write(b);
+                continue;
+            }
+            if (i + 2 >= to) {
+                throw new ParseException("Malformed escape sequence in path", i);
+            }
+            int high = Character.digit(buffer.get(i + 1), 16);
+            int low = Character.digit(buffer.get(i + 2), 16);
+            if (high < 0 || low < 0) {
+                throw new ParseException("Malformed escape sequence in path", i);
+            }
+            decoded.write(high << 4 | low);
+            i += 2;
+        }
+        return new String(decoded.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] bytes(ByteBuffer buffer, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(from + i);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,133 @@
+package webServer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+
+/**
+ * The parsed head of an inbound HTTP request: method, path, protocol version and header fields. It does not depend on
+ * the connection it was read from, so the blocking and the non-blocking engine can both hand it to a Request.
+ * The header fields are kept in two parallel arrays instead of a map, a request rarely has more than a dozen of them.
+ * Well-known header names are interned by the parser, so they are found by identity.
+ *  * @author Oguzhan Yigit
+ *  * @email yigit@adobe.com
+ *  * @version 0.1
+ */
+public class HttpRequest {
+    private final Request.Type method;
+    private final String path;
+    private final String query;
+    private final String version;
+    private final String[] names;
+    private final String[] values;
+    private final int headerCount;
+
+    /**
+     * @param method The HTTP method
+     * @param path The decoded path the client wants to retrieve
+     * @param query The query string without the question mark, or null if the target has none
+     * @param version The protocol version, e.g. HTTP/1.1
+     * @param names The lower case names of the header fields
+     * @param values The values of the header fields, in the same order as the names
+     * @param headerCount The number of header fields in the arrays
+     */
+    HttpRequest(Request.Type method, String path, String query, String version, String[] names, String[] values,
+                int headerCount) {
+        this.method = method;
+        this.path = path;
+        this.query = query;
+        this.version = version;
+        this.names = names;
+        this.values = values;
+        this.headerCount = headerCount;
+    }
+
+    public Request.Type getMethod() {
+        return method;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return The query string without the question mark, still percent encoded, or null if the target has none
+     */
+    public String getQuery() {
+        return query;
+    }
+
+    /**
+     * Looks up a parameter of the query string.
+     * @param name The name of the parameter
+     * @return The decoded value, an empty string if the parameter has no value, or null if it is missing or malformed
+     */
+    public String getParameter(String name) {
+        if (query == null) {
+            return null;
+        }
+        for (String parameter : query.split("&")) {
+            int equals = parameter.indexOf('=');
+            String key = equals < 0 ? parameter : parameter.substring(0, equals);
+            if (key.equals(name)) {
+                if (equals < 0) {
+                    return "";
+                }
+                byte[] value = parameter.substring(equals + 1).replace('+', ' ').getBytes(StandardCharsets.ISO_8859_1);
+                try {
+                    return HttpParser.decodePath(ByteBuffer.wrap(value), 0, value.length);
+                }
+                catch (ParseException e) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * Looks up a header field.
+     * @param name The lower case name of the header
+     * @return The value or null if the client did not send the header
+     */
+    public String getHeader(String name) {
+        for (int i = 0; i < headerCount; i++) {
+            if (names[i] == name) {
+                return values[i];
+            }
+        }
+        for (int i = 0; i < headerCount; i++) {
+            if (names[i].equals(name)) {
+                return values[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The number of header fields
+     */
+    public int getHeaderCount() {
+        return headerCount;
+    }
+
+    /**
+     * @param index The index of the header field
+     * @return The lower case name of the header field
+     */
+    public String getHeaderName(int index) {
+        return names[index];
+    }
+
+    /**
+     * @param index The index of the header field
+     * @return The value of the header field
+     */
+    public String getHeaderValue(int index) {
+        return values[index];
+    }
+}
@@ -0,0 +1,186 @@
+package webServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * The listening sockets of the server: one per address and acceptor. With several acceptors every acceptor binds its own
+ * socket to each address through SO_REUSEPORT, and the kernel spreads the incoming connections over them, so accepting
+ * scales with the number of acceptor threads instead of queueing them on one socket. Where SO_REUSEPORT is not
+ * available (Java 8, Windows) the acceptors share one socket per address instead.
+ * SO_REUSEADDR is always set, so a restarted server does not wait for connections of the previous one in TIME_WAIT.
+ *  * @author Oguzhan Yigit
+ *  * @email yigit@adobe.com
+ *  * @version 0.1
+ */
+final class Listeners implements Closeable {
+    private final ServerSocketChannel[][] channels;
+    private final List<InetSocketAddress> localAddresses;
+    private final boolean sharded;
+    private final static Logger LOGGER = Logger.getLogger(Server.class.getName());
+
+    private Listeners(ServerSocketChannel[][] channels, List<InetSocketAddress> localAddresses, boolean sharded) {
+        this.channels = channels;
+        this.localAddresses = localAddresses;
+        this.sharded = sharded;
+    }
+
+    /**
+     * Binds the addresses for the acceptors. The channels are in blocking mode.
+     * @param addresses The addresses to listen on, port 0 for one picked by the system
+     * @param acceptors Number of acceptor threads
+     * @param reusePort true to set SO_REUSEPORT even for a single acceptor, so another instance can bind the port
+     * @return The bound channels
+     * @throws IOException We throw an IOException if an address cannot be bound, nothing stays bound then
+     */
+    static Listeners open(List<InetSocketAddress> addresses, int acceptors, boolean reusePort) throws IOException {
+        SocketOption<Boolean> option = reusePortOption();
+        ServerSocketChannel[][] channels = new ServerSocketChannel[acceptors][addresses.size()];
+        List<InetSocketAddress> localAddresses = new ArrayList<>(addresses.size());
+        boolean sharded = acceptors > 1;
+        try {
+            for (int a = 0; a < addresses.size(); a++) {
+                InetSocketAddress address = addresses.get(a);
+                for (int i = 0; i < acceptors; i++) {
+                    if (i > 0 && !sharded) {
+                        channels[i][a] = channels[0][a];
+                        continue;
+                    }
+                    ServerSocketChannel channel = ServerSocketChannel.open();
+                    channels[i][a] = channel;
+                    channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+                    if (reusePort || sharded) {
+                        if (option != null && channel.supportedOptions().contains(option)) {
+                            channel.setOption(option, true);
+                        }
+                        else if (sharded) {
+                            LOGGER.warning("SO_REUSEPORT is not supported here, " + acceptors
+                                    + " acceptors share one socket per address.");
+                            sharded = false;
+                        }
+                        else {
+                            LOGGER.warning("SO_REUSEPORT is not supported here, binding " + address + " without it.");
+                        }
+                    }
+                    // The further sockets of an address bind the port the first one got, the system may have picked it.
+                    channel.bind(i == 0 ? address : localAddresses.get(a));
+                    if (i == 0) {
+                        localAddresses.add((InetSocketAddress) channel.getLocalAddress());
+                    }
+                }
+            }
+        }
+        catch (IOException e) {
+            new Listeners(channels, localAddresses, sharded).close();
+            throw e;
+        }
+        return new Listeners(channels, Collections.unmodifiableList(localAddresses), sharded);
+    }
+
+    /**
+     * Looks up StandardSocketOptions.SO_REUSEPORT reflectively, so the server still compiles for Java 8.
+     * @return The option or null if the runtime does not know it
+     */
+    @SuppressWarnings("unchecked")
+    private static SocketOption<Boolean> reusePortOption() {
+        try {
+            return (SocketOption<Boolean>) StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+        }
+        catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Parses a list of addresses to listen on, e.g. "8080,127.0.0.1:8081,[::1]:8082". An address without a host
+     * listens on all interfaces.
+     * @param list The comma separated addresses
+     * @return The addresses in the given order
+     * @throws IllegalArgumentException if an address is malformed or its host unknown
+     */
+    static List<InetSocketAddress> parse(String list) {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (String entry : list.split(",")) {
+            String address = entry.trim();
+            if (address.isEmpty()) {
+                continue;
+            }
+            int colon = address.lastIndexOf(':');
+            String host = colon < 0 ? null : address.substring(0, colon);
+            if (host != null && host.startsWith("[") && host.endsWith("]")) {
+                host = host.substring(1, host.length() - 1);
+            }
+            int port;
+            try {
+                port = Integer.parseInt(address.substring(colon + 1));
+            }
+            catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Malformed address to listen on: " + address);
+            }
+            if (port < 0 || port > 65535) {
+                throw new IllegalArgumentException("Port out of range: " + address);
+            }
+            InetSocketAddress parsed = host == null || host.isEmpty() || host.equals("*")
+                    ? new InetSocketAddress(port)
+                    : new InetSocketAddress(host, port);
+            if (parsed.isUnresolved()) {
+                throw new IllegalArgumentException("Unknown host to listen on: " + address);
+            }
+            addresses.add(parsed);
+        }
+        if (addresses.isEmpty()) {
+            throw new IllegalArgumentException("No address to listen on: " + list);
+        }
+        return addresses;
+    }
+
+    /**
+     * @param acceptor The index of the acceptor
+     * @return The channels the acceptor takes connections from, one per address
+     */
+    ServerSocketChannel[] get(int acceptor) {
+        return channels[acceptor];
+    }
+
+    /**
+     * @return The bound addresses in the configured order, with the ports picked by the system
+     */
+    List<InetSocketAddress> getLocalAddresses() {
+        return localAddresses;
+    }
+
+    /**
+     * @return true if every acceptor has sockets of its own, false if they share one socket per address
+     */
+    boolean isSharded() {
+        return sharded;
+    }
+
+    /**
+     * Closes all sockets, acceptors blocked on them return with an exception.
+     */
+    @Override
+    public void close() {
+        for (ServerSocketChannel[] acceptor : channels) {
+            for (ServerSocketChannel channel : acceptor) {
+                if (channel == null) {
+                    continue;
+                }
+                try {
+                    channel.close();
+                }
+                catch (IOException e) {
+                    LOGGER.info("Could not close the listening socket.");
+                }
+            }
+        }
+    }
+}
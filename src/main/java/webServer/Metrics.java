@@ -0,0 +1,338 @@
+package webServer;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of the server, exposed in the Prometheus text format on a reserved path. Recording
+ * is lock-free: counters are LongAdders, which spread contended increments over several cells, and the histograms
+ * have fixed buckets whose bounds grow exponentially, similar to HdrHistogram with one significant bit. Each request is
+ * recorded once its response has been written, with the time spent parsing its head, accessing the file system,
+ * compressing and writing. Gauges of the worker pool and the caches are read from the server when scraped.
+ *  * @author Oguzhan Yigit
+ *  * @email yigit@adobe.com
+ *  * @version 0.1
+ */
+public class Metrics {
+    /**
+     * Phases of a request, each with its own latency histogram.
+     */
+    public enum Phase{PARSE, FILE, COMPRESS, WRITE}
+    static final byte[] CONTENT_TYPE_PROMETHEUS = ResponseHead.line("Content-Type: text/plain; version=0.0.4; charset=utf-8");
+    private static final String METHOD_UNKNOWN = "UNKNOWN";
+    private final ConcurrentHashMap<Integer, LongAdder> requests = new ConcurrentHashMap<>();
+    private final Histogram[] phases = new Histogram[Phase.values().length];
+    private final Histogram duration = new Histogram();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder connectionsOpened = new LongAdder();
+    private final LongAdder connectionsClosed = new LongAdder();
+    private final LongAdder[] connectionsStalled = new LongAdder[Deadlines.Phase.values().length];
+
+    public Metrics() {
+        for (int i = 0; i < phases.length; i++) {
+            phases[i] = new Histogram();
+        }
+        for (int i = 0; i < connectionsStalled.length; i++) {
+            connectionsStalled[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records a request whose response has been written.
+     * @param method The method of the request, null if the request could not be parsed
+     * @param status The status code of the response
+     * @param parseNanos Time spent parsing the head
+     * @param fileNanos Time spent looking up and opening files and directories
+     * @param compressNanos Time spent compressing
+     * @param writeNanos Time spent writing the response, without compressing
+     * @param bytes Number of bytes written, head included
+     */
+    public void record(Request.Type method, int status, long parseNanos, long fileNanos, long compressNanos,
+                       long writeNanos, long bytes) {
+        int key = (method == null ? 0 : method.ordinal() + 1) * 1000 + status;
+        LongAdder counter = requests.get(key);
+        if (counter == null) {
+            // Only the first request of a method and status takes the lock of the map.
+            counter = requests.computeIfAbsent(key, k -> new LongAdder());
+        }
+        counter.increment();
+        phases[Phase.PARSE.ordinal()].record(parseNanos);
+        phases[Phase.FILE.ordinal()].record(fileNanos);
+        phases[Phase.COMPRESS.ordinal()].record(compressNanos);
+        phases[Phase.WRITE.ordinal()].record(writeNanos);
+        duration.record(parseNanos + fileNanos + compressNanos + writeNanos);
+        bytesSent.add(bytes);
+    }
+
+    public void connectionOpened() {
+        connectionsOpened.increment();
+    }
+
+    public void connectionClosed() {
+        connectionsClosed.increment();
+    }
+
+    /**
+     * Counts a connection closed because its client missed a deadline, see Deadlines.
+     * @param phase The phase the client stalled in
+     */
+    public void connectionStalled(Deadlines.Phase phase) {
+        connectionsStalled[phase.ordinal()].increment();
+    }
+
+    /**
+     * @param phase The phase
+     * @return Number of connections closed because their client stalled in the phase
+     */
+    public long getStalledConnections(Deadlines.Phase phase) {
+        return connectionsStalled[phase.ordinal()].sum();
+    }
+
+    /**
+     * @return Number of connections currently open
+     */
+    public long getActiveConnections() {
+        return connectionsOpened.sum() - connectionsClosed.sum();
+    }
+
+    /**
+     * @param method The method, null for requests which could not be parsed
+     * @param status The status code
+     * @return Number of requests answered with the status
+     */
+    public long getRequests(Request.Type method, int status) {
+        LongAdder counter = requests.get((method == null ? 0 : method.ordinal() + 1) * 1000 + status);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    /**
+     * @param phase The phase
+     * @return The latency histogram of the phase
+     */
+    public Histogram getHistogram(Phase phase) {
+        return phases[phase.ordinal()];
+    }
+
+    /**
+     * @return The latency histogram of whole requests, the sum of their phases
+     */
+    public Histogram getDuration() {
+        return duration;
+    }
+
+    /**
+     * Renders all metrics in the Prometheus text format.
+     * @param server The server whose pool and caches are reported
+     * @return The encoded text
+     */
+    public byte[] scrape(Server server) {
+        StringBuilder out = new StringBuilder(16 * 1024);
+        header(out, "webserver_requests_total", "counter", "Requests answered, by method and status.");
+        Map<Integer, LongAdder> sorted = new TreeMap<>(requests);
+        Request.Type[] methods = Request.Type.values();
+        for (Map.Entry<Integer, LongAdder> entry : sorted.entrySet()) {
+            int method = entry.getKey() / 1000;
+            out.append("webserver_requests_total{method=\"")
+                    .append(method == 0 ? METHOD_UNKNOWN : methods[method - 1].name())
+                    .append("\",status=\"").append(entry.getKey() % 1000).append("\"} ")
+                    .append(entry.getValue().sum()).append('\n');
+        }
+        header(out, "webserver_request_duration_seconds", "histogram",
+                "Time spent serving a request, from parsing its head to writing its last byte.");
+        duration.appendTo(out, "webserver_request_duration_seconds", "");
+        header(out, "webserver_request_phase_seconds", "histogram", "Time spent per phase of a request.");
+        for (Phase phase : Phase.values()) {
+            phases[phase.ordinal()].appendTo(out, "webserver_request_phase_seconds",
+                    "phase=\"" + phase.name().toLowerCase() + "\",");
+        }
+        sample(out, "webserver_sent_bytes_total", "counter", "Bytes written to clients.", bytesSent.sum());
+        sample(out, "webserver_connections_active", "gauge", "Client connections currently open.",
+                getActiveConnections());
+        sample(out, "webserver_connections_total", "counter", "Client connections accepted.",
+                connectionsOpened.sum());
+        header(out, "webserver_connections_stalled_total", "counter",
+                "Connections closed because the client was too slow, by the phase it stalled in.");
+        for (Deadlines.Phase phase : Deadlines.Phase.values()) {
+            out.append("webserver_connections_stalled_total{phase=\"").append(phase.name().toLowerCase())
+                    .append("\"} ").append(connectionsStalled[phase.ordinal()].sum()).append('\n');
+        }
+        WorkerPool workers = server.getWorkerPool();
+        sample(out, "webserver_workers_active", "gauge", "Workers serving a connection.", workers.getActiveWorkers());
+        sample(out, "webserver_workers_max", "gauge", "Most workers of the pool.", workers.getMaximumPoolSize());
+        sample(out, "webserver_worker_queue_depth", "gauge", "Connections waiting for a worker.",
+                workers.getQueueDepth());
+        sample(out, "webserver_worker_queue_capacity", "gauge", "Connections which may wait for a worker.",
+                workers.getQueueCapacity());
+        sample(out, "webserver_worker_rejections_total", "counter", "Connections refused with 503.",
+                workers.getRejectedCount());
+        AdmissionControl admission = server.getAdmission();
+        header(out, "webserver_admission_refused_total", "counter",
+                "Connections and requests refused by the admission control, by reason.");
+        for (AdmissionControl.Reason reason : AdmissionControl.Reason.values()) {
+            out.append("webserver_admission_refused_total{reason=\"").append(reason.name().toLowerCase())
+                    .append("\"} ").append(admission.getRefused(reason)).append('\n');
+        }
+        sample(out, "webserver_admission_clients", "gauge", "Client addresses tracked by the admission control.",
+                admission.getClientCount());
+        sample(out, "webserver_admission_overloaded", "gauge", "1 while new connections are shed, 0 otherwise.",
+                admission.isOverloaded() ? 1 : 0);
+        CompressionCache compression = server.getCompressionCache();
+        sample(out, "webserver_compression_cache_hits_total", "counter", "Compressed files served from the cache.",
+                compression.getHits());
+        sample(out, "webserver_compression_cache_misses_total", "counter", "Files compressed for the cache.",
+                compression.getMisses());
+        sample(out, "webserver_compression_cache_evictions_total", "counter",
+                "Compressed files dropped to make room for others.", compression.getEvictions());
+        sample(out, "webserver_compression_cache_invalidations_total", "counter",
+                "Compressed files dropped because the file changed on disk.", compression.getInvalidations());
+        sample(out, "webserver_compression_cache_resident_bytes", "gauge", "Compressed bytes held by the cache.",
+                compression.getResidentBytes());
+        FileMetadata files = server.getFileMetadata();
+        sample(out, "webserver_file_cache_hits_total", "counter", "File lookups answered from the cache.",
+                files.getHits());
+        sample(out, "webserver_file_cache_misses_total", "counter", "File lookups which read the file system.",
+                files.getMisses());
+        DirectoryListings listings = server.getDirectoryListings();
+        sample(out, "webserver_listing_cache_hits_total", "counter", "Directory listings served from the cache.",
+                listings.getHits());
+        sample(out, "webserver_listing_cache_misses_total", "counter", "Directories read for a listing.",
+                listings.getMisses());
+        ContentTypes contentTypes = server.getContentTypes();
+        sample(out, "webserver_sniff_cache_hits_total", "counter", "Sniffed content types served from the cache.",
+                contentTypes.getHits());
+        sample(out, "webserver_sniff_cache_misses_total", "counter", "Files read to sniff their content type.",
+                contentTypes.getMisses());
+        AccessLog accessLog = server.getAccessLog();
+        sample(out, "webserver_access_log_written_total", "counter", "Records written to the access log.",
+                accessLog.getWritten());
+        sample(out, "webserver_access_log_dropped_total", "counter", "Records dropped because the log fell behind.",
+                accessLog.getDropped());
+        AssetStore assets = server.getAssetStore();
+        sample(out, "webserver_asset_store_files", "gauge", "Files held by the asset store.", assets.getAssetCount());
+        sample(out, "webserver_asset_store_resident_bytes", "gauge", "Bytes held by the asset store.",
+                assets.getResidentBytes());
+        return out.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n')
+                .append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String type, String help, long value) {
+        header(out, name, type, help);
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    /**
+     * A latency histogram with fixed buckets from one microsecond to about a minute. Bucket bounds are the powers of
+     * two and the midpoints between them, so the relative error of a recorded value is at most a third.
+     */
+    public static class Histogram {
+        /**
+         * The inclusive upper bounds of the buckets in microseconds: 1, 2, 3, 4, 6, 8, 12, 16, ...
+         */
+        static final long[] BOUNDS = new long[53];
+        private static final String[] LABELS = new String[BOUNDS.length];
+        static {
+            BOUNDS[0] = 1;
+            for (int i = 1; i < BOUNDS.length; i++) {
+                long power = 1L << ((i - 1) / 2);
+                BOUNDS[i] = i % 2 == 1 ? power * 2 : power * 3;
+            }
+            for (int i = 0; i < BOUNDS.length; i++) {
+                LABELS[i] = BigDecimal.valueOf(BOUNDS[i], 6).stripTrailingZeros().toPlainString();
+            }
+        }
+        private final LongAdder[] counts = new LongAdder[BOUNDS.length + 1];
+        private final LongAdder sumNanos = new LongAdder();
+
+        Histogram() {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = new LongAdder();
+            }
+        }
+
+        /**
+         * @param nanos The recorded time
+         */
+        public void record(long nanos) {
+            long micros = (Math.max(0, nanos) + 999) / 1000;
+            counts[bucket(micros)].increment();
+            sumNanos.add(nanos);
+        }
+
+        /**
+         * @param micros A time in microseconds
+         * @return The index of the first bucket whose bound is not below the time, BOUNDS.length if there is none
+         */
+        static int bucket(long micros) {
+            int index = Arrays.binarySearch(BOUNDS, micros);
+            return index >= 0 ? index : -index - 1;
+        }
+
+        public long getCount() {
+            long count = 0;
+            for (LongAdder bucket : counts) {
+                count += bucket.sum();
+            }
+            return count;
+        }
+
+        /**
+         * @param percentile The percentile, e.g. 99
+         * @return The upper bound of the bucket holding the percentile in microseconds, Long.MAX_VALUE if it lies
+         * beyond the last bucket, 0 if nothing has been recorded
+         */
+        public long getPercentileMicros(double percentile) {
+            long[] snapshot = new long[counts.length];
+            long count = 0;
+            for (int i = 0; i < counts.length; i++) {
+                snapshot[i] = counts[i].sum();
+                count += snapshot[i];
+            }
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(count * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < BOUNDS.length; i++) {
+                seen += snapshot[i];
+                if (seen >= rank) {
+                    return BOUNDS[i];
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+
+        /**
+         * Appends the cumulative buckets, the sum and the count in the Prometheus text format.
+         * @param out The text
+         * @param name The name of the metric
+         * @param labels Further labels, each followed by a comma
+         */
+        void appendTo(StringBuilder out, String name, String labels) {
+            long cumulative = 0;
+            for (int i = 0; i < BOUNDS.length; i++) {
+                cumulative += counts[i].sum();
+                out.append(name).append("_bucket{").append(labels).append("le=\"").append(LABELS[i]).append("\"} ")
+                        .append(cumulative).append('\n');
+            }
+            cumulative += counts[BOUNDS.length].sum();
+            out.append(name).append("_bucket{").append(labels).append("le=\"+Inf\"} ").append(cumulative).append('\n');
+            String plain = labels.isEmpty() ? "" : "{" + labels.substring(0, labels.length() - 1) + "}";
+            out.append(name).append("_sum").append(plain).append(' ')
+                    .append(BigDecimal.valueOf(sumNanos.sum(), 9).toPlainString()).append('\n');
+            out.append(name).append("_count").append(plain).append(' ').append(cumulative).append('\n');
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package webServer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Generates the precompressed sidecars of a directory tree ahead of time, so the server spends no CPU on compression
+ * while serving them. Every compressible file gets a .gz sidecar compressed at the highest level. The .br and .zst
+ * sidecars are written by the brotli and zstd command line tools if they are installed, the JDK has no encoders for
+ * them. Sidecars which are up to date are kept, sidecars which are not smaller than their file are removed.
+ * Usage: java -cp uber-JavaWebServer-1.0-SNAPSHOT.jar webServer.Precompressor "/var/www" [minimum size in bytes]
+ *  * @author Oguzhan Yigit
+ *  * @email yigit@adobe.com
+ *  * @version 0.1
+ */
+public class Precompressor {
+    /**
+     * Files smaller than this fit into a single packet anyway.
+     */
+    static final long MIN_SIZE = 256;
+    private final long minSize;
+    private final static Logger LOGGER = Logger.getLogger(Server.class.getName());
+
+    /**
+     * @param minSize Files smaller than this are left alone
+     */
+    public Precompressor(long minSize) {
+        this.minSize = minSize;
+    }
+
+    /**
+     * Generates the missing and stale sidecars below a directory.
+     * @param root The served directory
+     * @return Number of sidecars written
+     * @throws IOException We throw an IOException if the directory cannot be walked
+     */
+    public int precompress(Path root) throws IOException {
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(root)) {
+            files = walk.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+        int written = 0;
+        for (Path path : files) {
+            File file = path.toFile();
+            String name = file.getName();
+            String fileEnding = name.substring(name.lastIndexOf('.') + 1).toLowerCase();
+            if (file.length() < minSize || !ContentCodings.isCompressible(fileEnding)) {
+                continue;
+            }
+            for (ContentCodings.Coding coding : ContentCodings.Coding.values()) {
+                if (ContentCodings.sidecar(FileMetadata.UNCACHED, file, file.lastModified(), coding) != null) {
+                    continue;
+                }
+                File sidecar = new File(file.getPath() + coding.getSuffix());
+                try {
+                    if (compress(file, sidecar, coding)) {
+                        written++;
+                    }
+                }
+                catch (IOException e) {
+                    LOGGER.warning("Could not compress " + file + " with " + coding.getToken() + ": " + e.getMessage());
+                    Files.deleteIfExists(sidecar.toPath());
+                }
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Writes one sidecar. It is compressed into a temporary file next to it and renamed into place once complete, so
+     * the server never sends a sidecar which is still being written.
+     * @param file The file to be compressed
+     * @param sidecar The sidecar to be written
+     * @param coding The coding of the sidecar
+     * @return true if the sidecar has been written and is smaller than the file
+     * @throws IOException We throw an IOException if the file cannot be read or the sidecar cannot be written
+     */
+    private boolean compress(File file, File sidecar, ContentCodings.Coding coding) throws IOException {
+        File temporary = File.createTempFile("." + sidecar.getName() + ".", ".tmp", sidecar.getParentFile());
+        try {
+            if (coding == ContentCodings.Coding.GZIP) {
+                try (OutputStream out = new FileOutputStream(temporary);
+                     GZIPOutputStream zipStream = new GZIPOutputStream(out, Request.TRANSFER_CHUNK) {
+                         {
+                             def.setLevel(Deflater.BEST_COMPRESSION);
+                         }
+                     }) {
+                    Files.copy(file.toPath(), zipStream);
+                }
+            }
+            else {
+                String[] command = coding == ContentCodings.Coding.BR
+                        ? new String[]{"brotli", "-q", "11", "-f", "-o", temporary.getPath(), file.getPath()}
+                        : new String[]{"zstd", "-19", "-q", "-f", "-o", temporary.getPath(), file.getPath()};
+                if (!run(command)) {
+                    return false;
+                }
+            }
+            if (temporary.length() >= file.length()) {
+                Files.deleteIfExists(sidecar.toPath());
+                return false;
+            }
+            Files.move(temporary.toPath(), sidecar.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        }
+        finally {
+            Files.deleteIfExists(temporary.toPath());
+        }
+    }
+
+    /**
+     * Runs a command line compressor.
+     * @param command The command and its arguments
+     * @return false if the tool is not installed or failed
+     * @throws IOException We throw an IOException if we are interrupted while waiting for the tool
+     */
+    private static boolean run(String[] command) throws IOException {
+        Process process;
+        try {
+            process = new ProcessBuilder(command).redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.INHERIT).start();
+        }
+        catch (IOException e) {
+            // The tool is not installed, the coding is simply not offered.
+            return false;
+        }
+        try {
+            return process.waitFor() == 0;
+        }
+        catch (InterruptedException e) {
+            process.destroy();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while running " + command[0]);
+        }
+    }
+
+    /**
+     * Precompresses the given directory.
+     * @param args The directory and optionally the minimum size of the files to be compressed
+     * @throws IOException We throw an IOException if the directory cannot be walked
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args[0].isEmpty()) {
+            System.err.println("Usage: webServer.Precompressor <directory> [minimum size in bytes]");
+            System.exit(1);
+        }
+        long minSize = args.length > 1 ? Long.parseLong(args[1]) : MIN_SIZE;
+        int written = new Precompressor(minSize).precompress(Paths.get(args[0]));
+        LOGGER.info("Wrote " + written + " sidecars below " + args[0]);
+    }
+}
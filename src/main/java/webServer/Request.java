@@ -1,123 +1,520 @@
 package webServer;
 
-import org.apache.commons.codec.digest.DigestUtils;
-import org.apache.commons.lang3.ArrayUtils;
-
 import java.io.*;
 import java.net.Socket;
-import java.net.URLDecoder;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
-import java.util.zip.GZIPOutputStream;
 
 /**
  * A simple Request class, which is spawned whenever a new request comes in. Enables the server to handle multiple clients
- * at once.
+ * at once. When created for a socket, the request reads and answers the client itself on a worker thread. The
+ * non-blocking engine reads the head on its own and only asks the request for the response, see respond().
  * Features:
- * + GZIP compression
- * + MIME Type guessing
+ * + Negotiated compression: precompressed gzip, Brotli or Zstandard sidecars, gzip on the fly otherwise
+ * + Zero-copy transfer of uncompressed files and sidecars
+ * + Range and If-Range requests, answered with 206 Partial Content or multipart/byteranges
+ * + Content types from a table of file endings, optionally sniffed from the first bytes, see ContentTypes
  * + Etag support for if-Match, if-None-Match, and if-Modified-Since
  * + Allow to discover subdirectories
  * + Multithreading
- * TODOs:
- * - improve file transfer speed, a socket sends approx. 100kb/s.
- * - introduce more robust parsing of the inbound request to prevent bad actors
- * - introduce MIME sniffing for more accurate results
+ * + HTTP/2 in cleartext, with prior knowledge or through an upgrade, see Http2Connection
+ * + Streaming uploads with PUT and POST, replacing files atomically, and DELETE
+ * + Per-client connection, request and bandwidth limits, see AdmissionControl
+ * + Strict parsing of the request head within limits on its size, see HttpParser
  *  * @author Oguzhan Yigit
  *  * @email yigit@adobe.com
  *  * @version 0.1
  */
 public class Request implements Runnable{
-    private OutputStream rawOutput = null;
-    private final StringBuilder header;
-    private final StringBuilder body;
-    private final BufferedReader in;
+    private final Socket socket;
+    private final ResponseHead head;
+    private Response response;
+    private List<ContentCodings.Coding> codings;
+    private String range;
+    private String ifRange;
+    private HttpRequest current;
+    private boolean chunked;
+    private boolean keepAlive;
+    private long compressNanos;
+    private final ByteBuffer received;
+    private final HttpRequest pending;
+    private final String client;
+    private final AtomicBoolean released = new AtomicBoolean();
+    private final Deadlines deadlines;
+    private volatile Response writing;
+    private volatile RequestBody receiving;
+    private volatile Http2Connection http2;
+    /**
+     * States of a connection served by the blocking engine. A draining server closes connections while they are IDLE,
+     * i.e. waiting for the first byte of their next request, and lets BUSY ones finish the request they are serving.
+     */
+    private static final int IDLE = 0, BUSY = 1, CLOSED = 2;
+    private final AtomicInteger state = new AtomicInteger(IDLE);
+    /**
+     * Size of the chunks files are read and compressed in.
+     */
+    static final int TRANSFER_CHUNK = 64 * 1024;
     /**
      * HTTP Methods
      **/
-    private enum Type{GET, HEAD, POST, PUT, DELETE, CONNECT, OPTIONS, TRACE, PATCH}
+    enum Type{GET, HEAD, POST, PUT, DELETE, CONNECT, OPTIONS, TRACE, PATCH}
     /**
      * Etag modes
      * */
-    private enum Mode{IfMatch, IfNoneMatch, IfModifiedSince}
-    private final String[] imageTypes = {"png", "jpg", "jpeg", "gif", "svg"};
-    private final String[] textTypes = {"txt", "html", "ics", "css", "csv", "rtf"};
-    private final String[] appTypes = {"pdf", "zip", "xml", "7z", "json", "csv", "rtf"};
-    private final String[] videoTypes = {"mp4", "mpeg", "webm"};
+    enum Mode{IfMatch, IfNoneMatch, IfModifiedSince}
+    private static final byte[] NOT_FOUND_BODY = "Requested URL does not exist".getBytes(StandardCharsets.ISO_8859_1);
     private final static Logger LOGGER = Logger.getLogger(Server.class.getName());
     private final Server server;
 
-    public Request(Server server, Socket accept) throws IOException, ParseException {
-        rawOutput = accept.getOutputStream();
-        in = new BufferedReader(new InputStreamReader(accept.getInputStream()));
-        header =  new StringBuilder();
-        body = new StringBuilder();
+    /**
+     * Binds the accepted socket to a new request. Nothing is read from the socket until the request is run by a worker.
+     * @param server The server which accepted the connection
+     * @param accept The accepted socket
+     */
+    public Request(Server server, Socket accept) {
+        this(server, accept, null, null);
+    }
+
+    /**
+     * Binds a connection taken over from the non-blocking engine, to switch it to HTTP/2, to receive an upload or to
+     * answer a request which reads the disk, see readsContent(). The socket has to be in blocking mode.
+     * @param server The server which accepted the connection
+     * @param accept The socket of the connection
+     * @param received The bytes read from the connection so far in read mode, or null
+     * @param pending The request read already and admitted, which asks for the upgrade to HTTP/2, carries a body to
+     *                store or reads the disk, or null if the client sent the HTTP/2 preface
+     */
+    Request(Server server, Socket accept, ByteBuffer received, HttpRequest pending) {
+        this.socket = accept;
+        head = new ResponseHead();
         this.server = server;
-        parseHttp();
-        rawOutput.close();
+        this.received = received;
+        this.pending = pending;
+        this.client = accept == null ? null : accept.getInetAddress().getHostAddress();
+        this.deadlines = new Deadlines(server.getConfig());
+    }
+
+    /**
+     * Creates a request which is not bound to a socket. Used by engines which read and write the connection themselves.
+     * @param server The server which accepted the connection
+     */
+    public Request(Server server) {
+        this(server, null);
     }
 
+    /**
+     * Reads the requests from the socket and answers them one after another, until the client or the server closes the
+     * connection. Pipelined requests are read from the buffer in the order they were sent.
+     */
     @Override
     public void run() {
-        LOGGER.info("New thread spawned for incoming request.");
+        Response answer = null;
+        boolean opened = false;
+        try {
+            // Reading through the stream keeps the socket timeouts working, writing through the channel of the
+            // socket (if there is one) lets the bodies use zero-copy transfers.
+            ReadableByteChannel input = Channels.newChannel(socket.getInputStream());
+            WritableByteChannel output = socket.getChannel() != null
+                    ? socket.getChannel()
+                    : Channels.newChannel(socket.getOutputStream());
+            ByteBuffer buffer = ByteBuffer.allocate(server.getParser().getMaxHeadSize());
+            if (received != null) {
+                buffer.put(received);
+            }
+            socket.setSoTimeout(server.getConfig().getKeepAliveTimeoutMillis());
+            server.getMetrics().connectionOpened();
+            server.opened(this);
+            opened = true;
+            // A connection which reaches a worker after the server started draining is closed like an idle one.
+            if (!waiting()) {
+                return;
+            }
+            boolean http2Enabled = server.getConfig().isHttp2();
+            HttpRequest handedOver = pending;
+            int served = 0;
+            boolean persistent = true;
+            while (persistent) {
+                HttpRequest request = handedOver;
+                // The non-blocking engine has admitted the request it handed over already.
+                boolean admitted = request != null;
+                handedOver = null;
+                answer = null;
+                long parseNanos = 0;
+                while (request == null) {
+                    buffer.flip();
+                    // A client with prior knowledge starts with the HTTP/2 preface instead of a request.
+                    int preface = http2Enabled && served == 0 ? Http2Connection.matchPreface(buffer) : -1;
+                    if (preface > 0) {
+                        serveHttp2(input, output, buffer, null, client);
+                        return;
+                    }
+                    long started = System.nanoTime();
+                    try {
+                        request = preface == 0 ? null : server.getParser().parse(buffer);
+                    }
+                    catch (ParseException e) {
+                        LOGGER.info("Malformed request: " + e.getMessage());
+                        answer = badRequest(e);
+                        break;
+                    }
+                    finally {
+                        buffer.compact();
+                        parseNanos += System.nanoTime() - started;
+                    }
+                    if (request == null && buffer.position() > 0 && deadlines.getPhase() != Deadlines.Phase.HEAD) {
+                        // The head has started, from now on it has to be complete within the head timeout.
+                        deadlines.start(Deadlines.Phase.HEAD, System.nanoTime());
+                    }
+                    if (request == null && (input.read(buffer) < 0 || !reading())) {
+                        return;
+                    }
+                }
+                deadlines.stop();
+                served++;
+                if (answer == null && !admitted) {
+                    AdmissionControl.Refusal refusal = server.getAdmission().request(client);
+                    if (refusal != null) {
+                        answer = refused(request, refusal);
+                    }
+                }
+                if (answer == null && http2Enabled && Http2Connection.isUpgrade(request)) {
+                    buffer.flip();
+                    serveHttp2(input, output, buffer, request, client);
+                    return;
+                }
+                boolean mayKeepAlive = served < server.getConfig().getKeepAliveMaxRequests();
+                if (answer == null && hasUpload(request)) {
+                    answer = receive(request, buffer, input, output, mayKeepAlive);
+                }
+                else if (answer == null) {
+                    answer = respond(request, mayKeepAlive);
+                }
+                answer.parsed(parseNanos);
+                writing = answer;
+                deadlines.start(Deadlines.Phase.WRITE, System.nanoTime());
+                // The channel is blocking, the write returns once the client has taken the whole response.
+                if (!answer.writeTo(output)) {
+                    throw new IOException("The response was not written completely");
+                }
+                deadlines.stop();
+                writing = null;
+                answer.record(server, client);
+                persistent = answer.isKeepAlive();
+                answer.close();
+                if (persistent && buffer.position() == 0 && !waiting()) {
+                    return;
+                }
+            }
+        }
+        catch (SocketTimeoutException e)
+        {
+            Deadlines.Phase stalled = deadlines.getPhase();
+            if (stalled != null) {
+                // The client paused longer than the socket timeout within a head or a body.
+                server.getMetrics().connectionStalled(stalled);
+                LOGGER.info("Closing stalled connection in phase " + stalled);
+            }
+            else {
+                LOGGER.info("Closing idle connection");
+            }
+        }
+        catch (IOException e)
+        {
+            LOGGER.info("Client has dropped the connection");
+        }
+        catch (RuntimeException e)
+        {
+            LOGGER.warning("Failed to serve the request: " + e);
+        }
+        finally {
+            if (answer != null) {
+                answer.close();
+            }
+            if (opened) {
+                server.getMetrics().connectionClosed();
+                server.closed(this);
+            }
+            close();
+        }
     }
 
+    /**
+     * Continues the connection in HTTP/2 until it is closed, see Http2Connection.
+     * @param input The channel reading from the socket
+     * @param output The channel writing to the socket
+     * @param received The bytes read already in read mode
+     * @param upgrade The request which asked for the upgrade, or null if the client sent the preface
+     * @param client The address of the client
+     * @throws IOException We throw an IOException if the client has dropped the connection
+     */
+    private void serveHttp2(ReadableByteChannel input, WritableByteChannel output, ByteBuffer received,
+                            HttpRequest upgrade, String client) throws IOException {
+        Http2Connection connection = new Http2Connection(server, this, socket, input, output, client);
+        // The preface may have arrived in pieces, the HTTP/2 connection keeps its own timeouts.
+        deadlines.stop();
+        state.set(BUSY);
+        http2 = connection;
+        // Either the draining server finds the connection through closeIfIdle() or the connection finds it draining.
+        if (server.isDraining()) {
+            connection.shutdown();
+        }
+        connection.serve(received, upgrade);
+    }
 
     /**
-     * Guesses the Mime type based on the file ending. Very fuzzy implementation, content sniffing is out of scope.
-     * @param filename The filename we want to guess
-     * @param fileEnding The file ending we use to guess
+     * Marks the connection busy once bytes of a request have arrived.
+     * @return false if a draining server has closed the connection meanwhile
+     */
+    private boolean reading() {
+        return state.compareAndSet(IDLE, BUSY) || state.get() == BUSY;
+    }
+
+    /**
+     * Marks the connection as waiting for its next request, from now on a draining server may close it.
+     * @return false if the server is draining and the connection has to be closed
      */
-    private void guessMimeType(String filename, String fileEnding) {
-        if(ArrayUtils.contains(imageTypes, fileEnding)){
-            header.append("Content-Type: image/").append(fileEnding).append("\n");
+    private boolean waiting() {
+        state.set(IDLE);
+        return !server.isDraining();
+    }
+
+    /**
+     * Closes the connection if it waits for its next request. A request being read or answered is finished first, its
+     * response tells the client that the connection is closed afterwards. An HTTP/2 connection answers its open
+     * streams and is closed then.
+     */
+    void closeIfIdle() {
+        Http2Connection multiplexed = http2;
+        if (multiplexed != null) {
+            // The streams in flight are answered, the client is told to open no further ones.
+            multiplexed.shutdown();
+            return;
         }
-        else if(ArrayUtils.contains(textTypes, fileEnding)){
-            header.append("Content-Type: text/").append(fileEnding).append("\n");
+        if (state.compareAndSet(IDLE, CLOSED)) {
+            close();
         }
-        else if(ArrayUtils.contains(appTypes, fileEnding)){
-            header.append("Content-Type: application/").append(fileEnding).append("\n");
+    }
+
+    /**
+     * Closes the connection if its client missed a deadline while sending a head or a body or reading a response, see
+     * Deadlines. Called periodically by the watchdog of the server.
+     * @param now The current time of System.nanoTime()
+     */
+    void closeIfStalled(long now) {
+        if (state.get() == CLOSED) {
+            return;
         }
-        else if(ArrayUtils.contains(videoTypes, fileEnding)){
-            header.append("Content-Type: video/").append(fileEnding).append("\n");
+        Http2Connection multiplexed = http2;
+        Deadlines.Phase stalled;
+        if (multiplexed != null) {
+            stalled = multiplexed.checkDeadlines(now);
         }
-        // RFC 2046 Fallback
-        else{
-            header.append("Content-Type: application/octet-stream").append("\n");
-            header.append("Content-Disposition: attachment; filename=").append(filename).append("\n");
+        else {
+            Response written = writing;
+            RequestBody read = receiving;
+            long transferred = written != null ? written.getBytesSent() : read != null ? read.getReceived() : 0;
+            stalled = deadlines.check(now, transferred);
+        }
+        if (stalled != null) {
+            server.getMetrics().connectionStalled(stalled);
+            LOGGER.info("Closing stalled connection in phase " + stalled);
+            abort();
         }
     }
 
+    /**
+     * Closes the connection whatever it is doing, used once the drain timeout has run out or the client has stalled.
+     * The socket is shut down first: a file being sent with zero-copy keeps a closed socket open until the transfer
+     * returns, a shutdown ends the transfer at once.
+     */
+    void abort() {
+        state.set(CLOSED);
+        try {
+            socket.shutdownOutput();
+        }
+        catch (IOException e) {
+            LOGGER.fine("The client socket is closed already.");
+        }
+        close();
+    }
 
     /**
-     * Parses the HTTP Request Type.
-     * @param rawRequest the first word of the request.
-     * @return  Type (enum).
+     * Answers a request which could not be parsed.
+     * @param e The reason the request was refused
+     * @return 414 or 431 if the request exceeded a limit of the parser, 505 if it asked for an HTTP version other than
+     *         1.0 and 1.1, 400 Bad Request otherwise
      */
-    private Type parseType(String rawRequest){
-        Type request;
-        request = Type.valueOf(rawRequest.substring(0, rawRequest.indexOf(" ")));
-        return request;
+    static Response badRequest(ParseException e) {
+        int status = e instanceof HttpParser.RejectedException
+                ? ((HttpParser.RejectedException) e).getStatus()
+                : 400;
+        ByteBuffer encoded = new ResponseHead().status(clientError(status))
+                .add(ResponseHead.SERVER)
+                .date()
+                .add(ResponseHead.CONTENT_LENGTH_ZERO)
+                .end(false);
+        return new Response(status, encoded, null, false);
     }
 
     /**
-     * Parses the path, the second argument in the HTTP request.
-     * @param rawRequest the second word of the request.
-     * @return The path to be queried.
+     * @param status A status code a request is refused with before it is served
+     * @return The status line, 400 Bad Request for codes without a line of their own
      */
-    private String parsePath(String rawRequest){
-        return rawRequest.substring(rawRequest.indexOf(" ")+1, rawRequest.indexOf(" ", rawRequest.indexOf(" ")+1));
+    private static byte[] clientError(int status) {
+        switch (status) {
+            case 411:
+                return ResponseHead.LENGTH_REQUIRED;
+            case 413:
+                return ResponseHead.PAYLOAD_TOO_LARGE;
+            case 414:
+                return ResponseHead.URI_TOO_LONG;
+            case 431:
+                return ResponseHead.HEADERS_TOO_LARGE;
+            case 501:
+                return ResponseHead.NOT_IMPLEMENTED;
+            case 505:
+                return ResponseHead.VERSION_NOT_SUPPORTED;
+            default:
+                return ResponseHead.BAD_REQUEST;
+        }
+    }
+
+    /**
+     * Answers a request which the admission control has refused, the connection is closed afterwards.
+     * @param request The refused request
+     * @param refusal The status and the time after which the client may try again
+     * @return 429 Too Many Requests or 503 Service Unavailable with Retry-After
+     */
+    static Response refused(HttpRequest request, AdmissionControl.Refusal refusal) {
+        return new Response(refusal.getStatus(), refusalHead(refusal), null, false).timed(request, 0, 0);
     }
 
+    /**
+     * Answers a connection which the admission control has refused without reading from it, and closes it. Runs on the
+     * accepting thread, the few bytes fit into the send buffer of a fresh socket.
+     * @param socket The accepted socket in blocking mode
+     * @param refusal The status and the time after which the client may try again
+     */
+    static void refuse(Socket socket, AdmissionControl.Refusal refusal) {
+        try {
+            ByteBuffer encoded = refusalHead(refusal);
+            OutputStream out = socket.getOutputStream();
+            out.write(encoded.array(), encoded.position(), encoded.remaining());
+            out.flush();
+        }
+        catch (IOException e) {
+            LOGGER.info("Client has dropped the connection.");
+        }
+        finally {
+            try {
+                socket.close();
+            }
+            catch (IOException e) {
+                LOGGER.info("Could not close the client socket.");
+            }
+        }
+    }
+
+    private static ByteBuffer refusalHead(AdmissionControl.Refusal refusal) {
+        return new ResponseHead().status(refusal.getStatus() == 503
+                        ? ResponseHead.SERVICE_UNAVAILABLE
+                        : ResponseHead.TOO_MANY_REQUESTS)
+                .add(ResponseHead.SERVER)
+                .date()
+                .add(ResponseHead.RETRY_AFTER, refusal.getRetryAfterSeconds())
+                .add(ResponseHead.CONTENT_LENGTH_ZERO)
+                .end(false);
+    }
+
+    /**
+     * Answers the request with 503 Service Unavailable without reading it. Used when no worker is available.
+     */
+    void reject() {
+        try {
+            ByteBuffer encoded = head.status(ResponseHead.SERVICE_UNAVAILABLE)
+                    .add(ResponseHead.SERVER)
+                    .date()
+                    .add(ResponseHead.RETRY_AFTER_ONE)
+                    .add(ResponseHead.CONTENT_LENGTH_ZERO)
+                    .end(false);
+            OutputStream out = socket.getOutputStream();
+            out.write(encoded.array(), encoded.position(), encoded.remaining());
+            out.flush();
+        }
+        catch (IOException e) {
+            LOGGER.info("Client has dropped the connection.");
+        }
+        finally {
+            close();
+        }
+    }
+
+    /**
+     * Closes the socket of this request, the streams are closed along with it. The connection is released from the
+     * admission control once.
+     */
+    private void close() {
+        if (released.compareAndSet(false, true)) {
+            server.getAdmission().disconnect(client);
+        }
+        try {
+            socket.close();
+        }
+        catch (IOException e) {
+            LOGGER.info("Could not close the client socket.");
+        }
+    }
+
+
+    /**
+     * Adds the Content-Type header field of a file, determined by its ending or, if enabled, sniffed from its content.
+     * @param filename The filename we want to guess
+     * @param fileEnding The file ending we use to guess
+     * @param metadata The metadata of the file, identifying the version a sniffed type is remembered for
+     */
+    private void guessMimeType(String filename, String fileEnding, FileMetadata.Entry metadata) {
+        addContentType(head, filename, server.getContentTypes().field(fileEnding, metadata));
+    }
+
+    /**
+     * Adds a Content-Type header field to a head, see guessMimeType.
+     * @param head The head being built
+     * @param filename The filename offered for a download if the type is unknown
+     * @param contentType The encoded Content-Type header field, or null if the type is unknown
+     */
+    static void addContentType(ResponseHead head, String filename, byte[] contentType) {
+        if (contentType != null) {
+            head.add(contentType);
+        }
+        // RFC 2046 Fallback
+        else{
+            head.add(ResponseHead.CONTENT_TYPE_OCTET_STREAM);
+            head.add(ResponseHead.CONTENT_DISPOSITION_ATTACHMENT, filename);
+        }
+    }
+
+
     /**
      * Explores a directory or a file. If it turns out as a directory, return a list of
      * all files and directories within that directory. If it turns out as a file
-     * return the file by guessing its Mime type in a gzipped way. If the Mime type cannot
-     * be determined, fall back to gzip.
+     * return the file by guessing its Mime type, compressed in the best coding the client accepts.
+     * If the Mime type cannot be determined, fall back to a download.
      * @param requestedPath The path the client wants to retrieve
      * @param method The method the client uses to retrieve the content
      * @param tag The provided Etag for comparison
@@ -126,102 +523,157 @@ public class Request implements Runnable{
      * @throws IOException We throw an exception if we have trouble opening the file
      */
     private void exploreDirectoryOrFile(String requestedPath, Type method, String tag, Date threshold, Mode mode) throws IOException {
+        if (respondFromStore(requestedPath, method, tag, mode)) {
+            return;
+        }
         File givenPath = new File(server.servedDirectory + requestedPath);
-        if (!givenPath.exists())
+        // One stat call answers existence, type, size and modification time, and is reused for a short while.
+        FileMetadata.Entry metadata = server.getFileMetadata().get(givenPath);
+        if (!metadata.exists() || !isServed(metadata.getCanonicalPath()))
         {
-            LOGGER.info("404 Requested path was not found");
-            header.append("HTTP/1.1 404 Not Found\n");
-            header.append("Server: Custom Java Webserver\n");
-            header.append("Content-Type: text/html; charset=iso-8859-1\n");
-            header.append("Date: ").append(new Date()).append("\n");
-            body.append("Requested URL does not exist");
-            header.append("Content-Length: ").append(body.toString().length()+1).append("\n").append("\n");
-            writeHeaderToSocket(header.toString());
-            writeBodyToSocket(body.toString().getBytes());
+            LOGGER.fine("404 Requested path was not found");
+            head.status(ResponseHead.NOT_FOUND)
+                    .add(ResponseHead.SERVER)
+                    .add(ResponseHead.CONTENT_TYPE_HTML_LATIN1)
+                    .date()
+                    .add(ResponseHead.CONTENT_LENGTH, NOT_FOUND_BODY.length);
+            respond(method == Type.HEAD ? null : NOT_FOUND_BODY);
         }
         else
         {
-            if (givenPath.isDirectory()) {
-                LOGGER.info("Serving Directory");
-                header.append("HTTP/1.1 200 OK\n");
-                header.append("Server: Custom Java Webserver\n");
-                header.append("Content-Type: text/html; charset=utf-8\n");
-                body.append("<html><a href='..'>> ..</a><br>").append("\n");
-                LOGGER.info("Requested Path" + requestedPath);
-                String offset = "";
-                if (!requestedPath.equals("/")) {
-                    offset = requestedPath;
-                }
-                String finalOffset = offset;
-
-                Files.list(new File(server.servedDirectory + requestedPath).toPath())
-                        .forEach(path -> {
-                            body.append("> <a href='").append(finalOffset).append(path.getFileName()).append("/'><i>").append(path).append("</i></a><br>\n");
-                        });
-                body.append("</html>").append("\n");
-                header.append("Date: ").append(new Date()).append("\n");
-                header.append("Content-Length: ").append(body.toString().getBytes().length).append("\n");
-
-                if (method == Type.GET) {
-                    header.append("\n");
-                    header.append(body);
-                }
-                writeHeaderToSocket(header.toString());
+            if (metadata.isDirectory()) {
+                LOGGER.fine(() -> "Serving directory " + requestedPath);
+                // The listing is read once per version of the directory and of the entries the page shows, the page is
+                // rendered while it is sent.
+                DirectoryListings.Listing listing = server.getDirectoryListings().get(metadata,
+                        server.getFileMetadata(), DirectoryListings.showsAttributes(current));
+                DirectoryListings.Page page = server.getDirectoryListings().page(listing, current);
+                boolean json = "json".equalsIgnoreCase(current.getParameter("format"));
+                head.status(ResponseHead.OK)
+                        .add(ResponseHead.SERVER)
+                        .add(json ? DirectoryListings.CONTENT_TYPE_JSON : ResponseHead.CONTENT_TYPE_HTML_UTF8)
+                        .date()
+                        .add(ResponseHead.CONTENT_LENGTH, page.length());
+                respond(method == Type.GET ? page : null);
             }
-            else if (givenPath.isFile())
+            else if (metadata.isFile())
             {
-                LOGGER.info("Serving File");
+                LOGGER.fine("Serving File");
                 String etag;
-                boolean ifMatch = false;
                 String fileEnding = givenPath.getName().substring(givenPath.getName().lastIndexOf(".")+1).toLowerCase();
-                Date lastModified = new Date(givenPath.lastModified());
-                ByteArrayOutputStream byteStream = readFile(givenPath);
-                byte[] byteBody;
-                byteBody = byteStream.toByteArray();
-                etag = DigestUtils.md5Hex(byteStream.toByteArray());
-
-                // If multiple tags were provided.
-                if(tag.contains(","))
-                {
-                    String[] tags = tag.split(",");
-                    for (String i:tags)
-                    {
-                        if (etag.equals(i)) {
-                            ifMatch = true;
+                Date lastModified = new Date(metadata.getLastModified());
+                long contentLength = metadata.getSize();
+                // The tag is derived from the identity representation, so it is known before anything is compressed.
+                String identityTag = server.getEntityTags().of(givenPath, contentLength, lastModified.getTime());
+                // Ranges are served from the identity representation, so they refer to the bytes of the file.
+                List<long[]> ranges = method == Type.GET ? ByteRanges.parse(range, contentLength) : null;
+                if (ranges != null && !ByteRanges.ifRangeMatches(ifRange, identityTag, lastModified.getTime())) {
+                    ranges = null;
+                }
+                // Prefers a fresh precompressed sidecar, gzip is compressed at request time if there is none.
+                boolean compressible = ContentCodings.isCompressible(fileEnding);
+                ContentCodings.Coding coding = null;
+                FileMetadata.Entry sidecar = null;
+                if (compressible && ranges == null) {
+                    for (ContentCodings.Coding accepted : codings) {
+                        sidecar = ContentCodings.sidecar(server.getFileMetadata(), givenPath, lastModified.getTime(),
+                                accepted);
+                        if (sidecar != null && !isServed(sidecar.getCanonicalPath())) {
+                            // A sidecar is confined like the file it stands for.
+                            sidecar = null;
+                        }
+                        if (sidecar != null || accepted == ContentCodings.Coding.GZIP) {
+                            coding = accepted;
                             break;
                         }
                     }
                 }
+                boolean gzip = coding != null && sidecar == null;
+                etag = coding != null ? EntityTags.forEncoding(identityTag, coding.getToken()) : identityTag;
+                // A single tag or a list of tags may be provided.
+                boolean tagMatches = mode != Mode.IfModifiedSince && EntityTags.matches(tag, etag);
 
                 // Check preconditions for If-Match: check if an asterisk was provided and if the tag does not match
-                if(!etag.equals(tag) && mode== Mode.IfMatch && !tag.equals("*") && !ifMatch) {
-                    header.append("HTTP/1.1 412 Precondition failed\n");
-                    header.append("Date: ").append(new Date()).append("\n");
-                    header.append("Server: Custom Java Webserver\n");
-                    header.append("Etag: " + etag + "\n");
-                    writeHeaderToSocket(header.toString());
+                if(!tagMatches && mode== Mode.IfMatch && !tag.equals("*")) {
+                    head.status(ResponseHead.PRECONDITION_FAILED)
+                            .add(ResponseHead.CONTENT_LENGTH_ZERO)
+                            .date()
+                            .add(ResponseHead.SERVER)
+                            .add(ResponseHead.ETAG, etag);
+                    respond();
                 }
-                // Check preconditions for If-None-Match: check if tag matches or LM date is prior to the threshold.
-                else if((etag.equals(tag) && mode== Mode.IfNoneMatch) || (mode== Mode.IfModifiedSince && threshold.after(lastModified))){
-                    header.append("HTTP/1.1 304 Not Modified\n");
-                    header.append("Server: Custom Java Webserver\n");
-                    header.append("Etag: " + etag + "\n");
-                    guessMimeType(givenPath.getName(), fileEnding);
-                    writeHeaderToSocket(header.toString());
+                // Check preconditions for If-None-Match: check if tag matches or LM date is not after the threshold.
+                // HTTP dates have whole seconds, so the modification time is compared in seconds as well.
+                else if(((tagMatches || tag.equals("*")) && mode== Mode.IfNoneMatch) || (mode== Mode.IfModifiedSince && lastModified.getTime() / 1000 * 1000 <= threshold.getTime())){
+                    head.status(ResponseHead.NOT_MODIFIED)
+                            .add(ResponseHead.SERVER)
+                            .add(ResponseHead.ETAG, etag);
+                    if (compressible) {
+                        head.add(ResponseHead.VARY_ACCEPT_ENCODING);
+                    }
+                    guessMimeType(givenPath.getName(), fileEnding, metadata);
+                    respond();
                 }
                 // Check if etag does not equal the tag provided (default case), check if LM is after threshold, check if-Match has a match.
-                else if(!etag.equals(tag) || lastModified.after(threshold) || (mode==Mode.IfMatch && (etag.equals(tag)||tag.equals("*")||ifMatch))) {
-                    header.append("HTTP/1.1 200 OK\n");
-                    header.append("Last-Modified: " + new Date(givenPath.lastModified()) + "\n");
-                    header.append("Content-Encoding: gzip\n");
-                    header.append("Content-Length: ").append(byteBody.length).append("\n");
-                    guessMimeType(givenPath.getName(), fileEnding);
-                    header.append("Date: ").append(new Date()).append("\n");
-                    header.append("Etag: " + etag + "\n");
-                    header.append("Server: Custom Java Webserver\n");
-                    writeHeaderToSocket(header.toString());
-                    if(method==Type.GET){
-                        writeBodyToSocket(byteBody);
+                else if(!tagMatches || (threshold != null && lastModified.getTime() / 1000 * 1000 > threshold.getTime()) || (mode==Mode.IfMatch && (tagMatches||tag.equals("*")))) {
+                    if (ranges != null) {
+                        respondRanges(givenPath, fileEnding, metadata, ranges, contentLength, etag, lastModified,
+                                compressible);
+                        return;
+                    }
+                    // Small files are compressed once and served from the cache, large ones are compressed while sending.
+                    long started = System.nanoTime();
+                    ByteBuffer compressed = gzip ? server.getCompressionCache().get(metadata) : null;
+                    compressNanos = System.nanoTime() - started;
+                    head.status(ResponseHead.OK)
+                            .add(ResponseHead.LAST_MODIFIED, HttpDates.format(lastModified.getTime()))
+                            .add(ResponseHead.ACCEPT_RANGES_BYTES);
+                    if (compressible) {
+                        head.add(ResponseHead.VARY_ACCEPT_ENCODING);
+                    }
+                    if (sidecar != null) {
+                        contentLength = sidecar.getSize();
+                        head.add(coding.getHeader());
+                        head.add(ResponseHead.CONTENT_LENGTH, contentLength);
+                    }
+                    else if (!gzip) {
+                        head.add(ResponseHead.CONTENT_LENGTH, contentLength);
+                    }
+                    else if (compressed != null) {
+                        head.add(coding.getHeader());
+                        head.add(ResponseHead.CONTENT_LENGTH, compressed.remaining());
+                    }
+                    else {
+                        // The compressed length is unknown until the whole file is compressed, hence it is sent in
+                        // chunks. HTTP/1.0 clients do not know chunks and read until the connection is closed.
+                        head.add(coding.getHeader());
+                        if (chunked) {
+                            head.add(ResponseHead.TRANSFER_ENCODING_CHUNKED);
+                        }
+                        else {
+                            keepAlive = false;
+                        }
+                    }
+                    guessMimeType(givenPath.getName(), fileEnding, metadata);
+                    head.date()
+                            .add(ResponseHead.ETAG, etag)
+                            .add(ResponseHead.SERVER);
+                    if (method != Type.GET) {
+                        respond();
+                    }
+                    else if (compressed != null) {
+                        respond(new Response.BufferBody(compressed));
+                    }
+                    else {
+                        File representation = sidecar != null ? sidecar.getFile() : givenPath;
+                        FileChannel file = FileChannel.open(representation.toPath(), StandardOpenOption.READ);
+                        if (gzip) {
+                            respond(new Response.GzipBody(file, chunked));
+                        }
+                        else {
+                            // Identity content and sidecars go straight from the file to the socket without passing the heap.
+                            respond(new Response.FileBody(file, 0, contentLength));
+                        }
                     }
                 }
             }
@@ -229,109 +681,494 @@ public class Request implements Runnable{
     }
 
     /**
-     * Compresses the FIS into GZIP. Due to Content-Encoding, the browser will decompress it on the fly.
-     * @param givenPath the file we want to compress
-     * @return Bytestream to write to socket
-     * @throws IOException We throw an exception if the file cannot be opened.
+     * Answers the request from the preloaded assets, without touching the file system. Plain and If-None-Match
+     * requests are answered here, ranges and the other preconditions are left to the file path.
+     * @param requestedPath The path the client wants to retrieve
+     * @param method The method the client uses to retrieve the content
+     * @param tag The provided Etag for comparison
+     * @param mode Etag mode
+     * @return true if the response has been set
      */
-    private ByteArrayOutputStream readFile(File givenPath) throws IOException {
-        FileInputStream fis = new FileInputStream(givenPath);
-        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-        GZIPOutputStream zipStream = new GZIPOutputStream(byteStream);
-        int bh;
-        while((bh = fis.read())!=-1) {
-            zipStream.write((byte) bh);
+    private boolean respondFromStore(String requestedPath, Type method, String tag, Mode mode) {
+        if ((mode != null && mode != Mode.IfNoneMatch) || (range != null && method == Type.GET)) {
+            return false;
         }
-        zipStream.flush();
-        byteStream.flush();
-        byteStream.close();
-        zipStream.close();
-        return byteStream;
+        AssetStore.Asset asset = server.getAssetStore().get(requestedPath);
+        if (asset == null) {
+            return false;
+        }
+        AssetStore.Representation representation = asset.select(codings);
+        if (mode == Mode.IfNoneMatch && (tag.equals("*") || EntityTags.matches(tag, representation.getEtag()))) {
+            head.status(representation.getNotModifiedHead());
+            respond();
+        }
+        else {
+            head.status(representation.getOkHead()).date();
+            respond(method == Type.GET ? new Response.BufferBody(representation.content()) : null);
+        }
+        return true;
+    }
+
+    /**
+     * Answers a GET request for parts of a file with 206 Partial Content, or 416 if no part lies within the file. A
+     * single range is sent as it is, several ranges as multipart/byteranges. The parts are transferred straight from
+     * the file starting at their offsets, so only the requested bytes are read.
+     * @param givenPath The requested file
+     * @param fileEnding The lower case file ending
+     * @param metadata The metadata of the file
+     * @param ranges The parsed ranges, see ByteRanges.parse
+     * @param length The length of the file
+     * @param etag The Etag of the identity representation
+     * @param lastModified The modification time of the file
+     * @param compressible true if other requests may receive the file compressed
+     * @throws IOException We throw an exception if we have trouble opening the file
+     */
+    private void respondRanges(File givenPath, String fileEnding, FileMetadata.Entry metadata, List<long[]> ranges,
+                               long length, String etag, Date lastModified, boolean compressible) throws IOException {
+        if (ranges.isEmpty()) {
+            head.status(ResponseHead.RANGE_NOT_SATISFIABLE)
+                    .add(ResponseHead.SERVER)
+                    .date()
+                    .add(ResponseHead.CONTENT_RANGE, "*/" + length)
+                    .add(ResponseHead.CONTENT_LENGTH_ZERO);
+            respond();
+            return;
+        }
+        head.status(ResponseHead.PARTIAL_CONTENT)
+                .add(ResponseHead.LAST_MODIFIED, HttpDates.format(lastModified.getTime()))
+                .add(ResponseHead.ACCEPT_RANGES_BYTES);
+        if (compressible) {
+            head.add(ResponseHead.VARY_ACCEPT_ENCODING);
+        }
+        byte[] contentType = server.getContentTypes().field(fileEnding, metadata);
+        FileChannel file = FileChannel.open(givenPath.toPath(), StandardOpenOption.READ);
+        Response.Body content;
+        if (ranges.size() == 1) {
+            long[] only = ranges.get(0);
+            head.add(ResponseHead.CONTENT_RANGE, ByteRanges.contentRange(only[0], only[1], length))
+                    .add(ResponseHead.CONTENT_LENGTH, only[1] - only[0] + 1);
+            addContentType(head, givenPath.getName(), contentType);
+            content = new Response.FileBody(file, only[0], only[1] - only[0] + 1);
+        }
+        else {
+            if (contentType == null) {
+                contentType = ResponseHead.CONTENT_TYPE_OCTET_STREAM;
+            }
+            Response.Body[] parts = new Response.Body[ranges.size() * 2 + 1];
+            long contentLength = ByteRanges.END_OF_PARTS.length;
+            for (int i = 0; i < ranges.size(); i++) {
+                long[] part = ranges.get(i);
+                byte[] partHead = ByteRanges.partHead(contentType, part, length, i == 0);
+                parts[i * 2] = new Response.BufferBody(ByteBuffer.wrap(partHead));
+                parts[i * 2 + 1] = new Response.FileBody(file, part[0], part[1] - part[0] + 1);
+                contentLength += partHead.length + part[1] - part[0] + 1;
+            }
+            parts[parts.length - 1] = new Response.BufferBody(ByteBuffer.wrap(ByteRanges.END_OF_PARTS));
+            head.add(ByteRanges.CONTENT_TYPE_MULTIPART)
+                    .add(ResponseHead.CONTENT_LENGTH, contentLength);
+            content = new Response.CompositeBody(parts);
+        }
+        head.date()
+                .add(ResponseHead.ETAG, etag)
+                .add(ResponseHead.SERVER);
+        respond(content);
     }
 
     /**
-     * Parses the HTTP Request and calls the methods to query the directory or file.
-     * Currently parses:
+     * Answers the parsed HTTP Request by querying the directory or file.
+     * Currently evaluates:
      * - HTTP Method
      * - Path
      * - If-None-Match
      * - If-Match
      * - If-Modified-Since
-     * @throws IOException We throw an IOException in case we cannot read from the socket
-     * @throws ParseException We throw a ParseException if we cannot parse the given request
+     * @param request The parsed request head
+     * @return The response to be written to the client
+     * @throws IOException We throw an IOException in case we cannot read the requested file
      */
-    private void parseHttp() throws IOException, ParseException {
-        Type request;
-        String s;
-        String path;
+    public Response respond(HttpRequest request) throws IOException {
+        return respond(request, false);
+    }
+
+    /**
+     * Answers the parsed HTTP Request, see respond(HttpRequest).
+     * @param request The parsed request head
+     * @param mayKeepAlive false if the connection is closed after this request anyway, e.g. its request limit is reached
+     * @return The response to be written to the client, isKeepAlive() tells whether the connection may be reused
+     * @throws IOException We throw an IOException in case we cannot read the requested file
+     */
+    public Response respond(HttpRequest request, boolean mayKeepAlive) throws IOException {
+        long started = System.nanoTime();
+        response = null;
+        compressNanos = 0;
+        current = request;
+        keepAlive = mayKeepAlive && isPersistent(request, false) && !server.isDraining();
         String tag = "";
         Mode mode = null;
         Date threshold = null;
-        s = in.readLine();
-        request = parseType(s);
-        LOGGER.info("Received " + request + " request");
-        path = URLDecoder.decode(parsePath(s), String.valueOf(StandardCharsets.UTF_8));
-        LOGGER.info("Requesting " + path);
-        while ((s = this.in.readLine()) != null) {
-            System.out.println(s);
-            if (s.contains("If-None-Match:")){
-                tag = s.substring(s.indexOf(":")+2);
-                mode = Mode.IfNoneMatch;
-            }
-            else if  (s.contains("If-Match:")){
-                tag = s.substring(s.indexOf(":")+2);
-                mode = Mode.IfMatch;
-            }
-            else if  (s.contains("If-Modified-Since:")){
-                tag = s.substring(s.indexOf(":")+2);
-                SimpleDateFormat format = new SimpleDateFormat("E MMM d HH:mm:ss z yyyy");
-                threshold = format.parse(tag);
+        LOGGER.fine(() -> "Received " + request.getMethod() + " request for " + request.getPath());
+        if (request.getHeader("if-match") != null) {
+            tag = request.getHeader("if-match");
+            mode = Mode.IfMatch;
+        }
+        else if (request.getHeader("if-none-match") != null) {
+            tag = request.getHeader("if-none-match");
+            mode = Mode.IfNoneMatch;
+        }
+        else if (request.getHeader("if-modified-since") != null) {
+            tag = request.getHeader("if-modified-since");
+            try {
+                threshold = HttpDates.parse(tag);
                 mode = Mode.IfModifiedSince;
             }
-            if (s.isEmpty()) {
-                break;
+            catch (ParseException e) {
+                // An invalid date is ignored, the full response is sent.
+                tag = "";
             }
         }
-        exploreDirectoryOrFile(path, request, tag, threshold, mode);
+        codings = ContentCodings.accepted(request.getHeader("accept-encoding"));
+        range = request.getHeader("range");
+        ifRange = request.getHeader("if-range");
+        chunked = "HTTP/1.1".equals(request.getVersion());
+        if (isWrite(request.getMethod())) {
+            respondWrite(request);
+        }
+        else if (request.getPath().equals(server.getConfig().getMetricsPath())) {
+            respondMetrics(request.getMethod());
+        }
+        else {
+            exploreDirectoryOrFile(request.getPath(), request.getMethod(), tag, threshold, mode);
+        }
+        return response.timed(request, System.nanoTime() - started - compressNanos, compressNanos);
     }
 
     /**
-     * Writes back the http Header to the clientSocket.
-     * @param message The http Header.
+     * @return true for the methods which change the served directory
      */
-    private void writeHeaderToSocket(String message){
-        InputStream stream = new ByteArrayInputStream(message.getBytes(StandardCharsets.UTF_8));
-        int ch;
-        try {
-            while ((ch = stream.read()) != -1) {
-                rawOutput.write((char) ch);
+    private static boolean isWrite(Type method) {
+        return method == Type.PUT || method == Type.POST || method == Type.DELETE || method == Type.PATCH;
+    }
+
+    /**
+     * Checks whether the body of a request is to be stored, see receive(). Only connections served by a worker read
+     * bodies, the other engines answer uploads through respond().
+     * @param request The parsed request head
+     * @return true for PUT and POST if uploads are enabled
+     */
+    boolean hasUpload(HttpRequest request) {
+        return server.getConfig().isUploads()
+                && (request.getMethod() == Type.PUT || request.getMethod() == Type.POST);
+    }
+
+    /**
+     * Checks whether answering a request may read more than the metadata of a file: a directory listing, or the content
+     * of a file to hash it for its tag or to compress it into the cache. The non-blocking engine hands such requests
+     * to a worker, so its event loop never waits for the disk. Checks with the caches only, nothing is read here.
+     * @param request The parsed request head
+     * @return true if the answer may read a directory or the content of a file up front
+     * @throws IOException We throw an IOException if the requested path cannot be resolved
+     */
+    boolean readsContent(HttpRequest request) throws IOException {
+        Type method = request.getMethod();
+        if (method != Type.GET && method != Type.HEAD || request.getPath().equals(server.getConfig().getMetricsPath())
+                || server.getAssetStore().get(request.getPath()) != null) {
+            return false;
+        }
+        File givenPath = new File(server.servedDirectory + request.getPath());
+        FileMetadata.Entry metadata = server.getFileMetadata().get(givenPath);
+        if (!metadata.exists() || !isServed(metadata.getCanonicalPath())) {
+            return false;
+        }
+        if (metadata.isDirectory() || !server.getEntityTags().isKnown(metadata)) {
+            return true;
+        }
+        String fileEnding = givenPath.getName().substring(givenPath.getName().lastIndexOf(".") + 1).toLowerCase();
+        if (!metadata.isFile() || !ContentCodings.isCompressible(fileEnding)) {
+            return false;
+        }
+        // The same choice as exploreDirectoryOrFile: a sidecar is sent as it is, gzip is taken from the cache.
+        for (ContentCodings.Coding accepted : ContentCodings.accepted(request.getHeader("accept-encoding"))) {
+            FileMetadata.Entry sidecar = ContentCodings.sidecar(server.getFileMetadata(), givenPath,
+                    metadata.getLastModified(), accepted);
+            if (sidecar != null && isServed(sidecar.getCanonicalPath())) {
+                return false;
+            }
+            if (accepted == ContentCodings.Coding.GZIP) {
+                return !server.getCompressionCache().isCompressed(metadata);
             }
         }
-        catch(IOException e)
-        {
-            LOGGER.info("Client has dropped the connection.");
+        return false;
+    }
+
+    /**
+     * Answers the methods which change the served directory without reading a body: DELETE removes a file, the
+     * others are refused with 405 unless uploads are enabled, and with 501 on connections which do not read bodies.
+     * @param request The parsed request head
+     * @throws IOException We throw an IOException in case we cannot delete the file
+     */
+    private void respondWrite(HttpRequest request) throws IOException {
+        Type method = request.getMethod();
+        if (!server.getConfig().isUploads() || method == Type.PATCH) {
+            respondStatus(ResponseHead.METHOD_NOT_ALLOWED);
+            return;
+        }
+        if (method != Type.DELETE) {
+            respondStatus(ResponseHead.NOT_IMPLEMENTED);
+            return;
+        }
+        File target = writableFile(request.getPath());
+        FileMetadata.Entry metadata = target == null ? null : FileMetadata.stat(target);
+        if (metadata == null || metadata.isDirectory()) {
+            respondStatus(target == null ? ResponseHead.BAD_REQUEST : ResponseHead.CONFLICT);
+        }
+        else if (!metadata.exists()) {
+            respondStatus(ResponseHead.NOT_FOUND);
         }
+        else {
+            // Readers which opened the file already keep reading it, the name is gone for new requests at once.
+            Files.deleteIfExists(target.toPath());
+            forget(target);
+            LOGGER.fine(() -> "Deleted " + request.getPath());
+            respondStatus(ResponseHead.NO_CONTENT);
+        }
+    }
 
+    /**
+     * Stores the body of a PUT or POST request as the file named by its path. The body is streamed from the socket into
+     * a temporary file next to the target through a fixed-size buffer, and renamed over the target in one step once it
+     * is complete. Readers of the path therefore see the old or the new file but never a partial one, and a reader
+     * which opened the old file keeps reading it. Expect: 100-continue is answered once the request is acceptable, so
+     * a client does not send a body which would be refused.
+     * @param request The parsed request head
+     * @param buffer The buffer of the connection in write mode, holding the bytes received after the head. Whatever
+     *               follows the body stays in it.
+     * @param input The channel reading from the socket
+     * @param output The channel writing to the socket
+     * @param mayKeepAlive false if the connection is closed after this request anyway
+     * @return 201 Created for a new file, 204 No Content for a replaced one, or the status the upload was refused with
+     * @throws IOException We throw an IOException if the client drops the connection or the file cannot be written
+     */
+    Response receive(HttpRequest request, ByteBuffer buffer, ReadableByteChannel input, WritableByteChannel output,
+                     boolean mayKeepAlive) throws IOException {
+        long started = System.nanoTime();
+        response = null;
+        compressNanos = 0;
+        current = request;
+        // Until the body has been read, the connection cannot be reused.
+        keepAlive = false;
+        File target = writableFile(request.getPath());
+        String expect = request.getHeader("expect");
+        RequestBody body = null;
+        try {
+            body = RequestBody.of(request, buffer, input, server.getConfig().getUploadMaxBytes());
+        }
+        catch (RequestBody.BodyException e) {
+            LOGGER.info("Refused upload: " + e.getMessage());
+            respondStatus(clientError(e.getStatus()));
+        }
+        if (body != null) {
+            FileMetadata.Entry metadata = target == null ? null : FileMetadata.stat(target);
+            if (target == null) {
+                respondStatus(ResponseHead.BAD_REQUEST);
+            }
+            else if (expect != null && !"100-continue".equalsIgnoreCase(expect.trim())) {
+                respondStatus(ResponseHead.EXPECTATION_FAILED);
+            }
+            else if (metadata.isDirectory() || !FileMetadata.stat(target.getParentFile()).isDirectory()) {
+                // Directories are neither replaced nor created on the way.
+                respondStatus(ResponseHead.CONFLICT);
+            }
+            else {
+                if (expect != null && "HTTP/1.1".equals(request.getVersion()) && buffer.position() == 0) {
+                    ByteBuffer interim = ByteBuffer.wrap(ResponseHead.CONTINUE);
+                    while (interim.hasRemaining()) {
+                        output.write(interim);
+                    }
+                }
+                store(request, body, target, metadata.exists(), mayKeepAlive);
+            }
+        }
+        return response.timed(request, System.nanoTime() - started, 0);
     }
 
     /**
-     * Writes back the HTTP body as a bytestream, as we need to transfer files byte by byte.
-     * @param message The file content.
-     * @throws IOException We throw an IOException if we get interrupted while writing to the output socket
+     * Streams the body into a temporary file and renames it over the target, see receive().
+     * @param request The parsed request head
+     * @param body The body of the request
+     * @param target The file to create or replace
+     * @param existed true if the target exists already
+     * @param mayKeepAlive false if the connection is closed after this request anyway
+     * @throws IOException We throw an IOException if the client drops the connection or the file cannot be written
      */
-    private void writeBodyToSocket(byte[] message) throws IOException {
-        rawOutput.write('\n');
-        InputStream stream = new ByteArrayInputStream(message);
-        int ch;
+    private void store(HttpRequest request, RequestBody body, File target, boolean existed, boolean mayKeepAlive)
+            throws IOException {
+        // A hidden name next to the target keeps the rename within one file system. Unlike a temporary file, it is
+        // created with the permissions of the umask, which the stored file keeps.
+        Path temporary = target.getParentFile().toPath().resolve("." + target.getName() + "."
+                + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".upload");
+        FileChannel file = FileChannel.open(temporary, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        boolean stored = false;
         try {
-            while ((ch = stream.read()) != -1) {
-                rawOutput.write((char) ch);
+            // A pause longer than the body timeout ends the upload, so does a rate below the minimum.
+            receiving = body;
+            deadlines.start(Deadlines.Phase.BODY, System.nanoTime());
+            socket.setSoTimeout(server.getConfig().getBodyTimeoutMillis());
+            try (FileChannel written = file) {
+                long position = 0;
+                while (!body.isFinished()) {
+                    position += written.transferFrom(body, position, TRANSFER_CHUNK);
+                }
             }
+            socket.setSoTimeout(server.getConfig().getKeepAliveTimeoutMillis());
+            deadlines.stop();
+            receiving = null;
+            Files.move(temporary, target.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            stored = true;
         }
-        catch (IOException e)
-        {
-            LOGGER.info("Client has dropped the connection.");
+        catch (RequestBody.BodyException e) {
+            LOGGER.info("Refused upload: " + e.getMessage());
+            respondStatus(clientError(e.getStatus()));
+            return;
+        }
+        finally {
+            if (!stored) {
+                Files.deleteIfExists(temporary);
+            }
+        }
+        forget(target);
+        LOGGER.fine(() -> "Stored " + body.getReceived() + " bytes as " + request.getPath());
+        keepAlive = mayKeepAlive && isPersistent(request, true) && !server.isDraining();
+        if (existed) {
+            respondStatus(ResponseHead.NO_CONTENT);
+        }
+        else {
+            StringBuilder location = new StringBuilder();
+            for (String segment : request.getPath().split("/", -1)) {
+                if (location.length() > 0 || !segment.isEmpty()) {
+                    location.append('/').append(DirectoryListings.percentEncode(segment));
+                }
+            }
+            head.status(ResponseHead.CREATED)
+                    .add(ResponseHead.SERVER)
+                    .date()
+                    .add(ResponseHead.LOCATION, location.toString())
+                    .add(ResponseHead.CONTENT_LENGTH_ZERO);
+            respond();
+        }
+    }
+
+    /**
+     * Resolves the path of a request which writes to the served directory.
+     * @param requestedPath The decoded path of the request
+     * @return The file to write or delete, or null if the path leaves the served directory, names the directory itself
+     * or the metrics
+     * @throws IOException We throw an IOException if the path cannot be resolved
+     */
+    private File writableFile(String requestedPath) throws IOException {
+        if (requestedPath.endsWith("/") || requestedPath.equals(server.getConfig().getMetricsPath())) {
+            return null;
         }
+        File target = new File(server.servedDirectory + requestedPath);
+        // Resolved on every write, a link which changed since the last lookup is not followed.
+        String resolved = target.getCanonicalPath();
+        return isServed(resolved) && !resolved.equals(server.getServedRoot()) ? target : null;
+    }
+
+    /**
+     * Checks whether a path lies within the served directory once symbolic links and parent segments are resolved.
+     * Reads and writes are confined the same way, a link pointing out of the served directory is treated as missing.
+     * @param canonicalPath The canonical path of the requested file
+     * @return true for the served directory itself and everything below it
+     * @throws IOException We throw an IOException if the served directory cannot be resolved
+     */
+    private boolean isServed(String canonicalPath) throws IOException {
+        return FileMetadata.isWithin(canonicalPath, server.getServedRoot());
+    }
+
+    /**
+     * Drops the cached metadata of a file the server has just changed, and of its directory, whose listing changed.
+     */
+    private void forget(File target) {
+        server.getFileMetadata().invalidate(target);
+        server.getFileMetadata().invalidate(target.getParentFile());
+    }
+
+    /**
+     * Sets a response without body which consists of the status line only, see respond().
+     * @param statusLine One of the status line constants
+     */
+    private void respondStatus(byte[] statusLine) {
+        head.status(statusLine)
+                .add(ResponseHead.SERVER)
+                .date();
+        if (statusLine == ResponseHead.METHOD_NOT_ALLOWED) {
+            head.add(server.getConfig().isUploads() ? ResponseHead.ALLOW_READ_WRITE : ResponseHead.ALLOW_READ);
+        }
+        if (statusLine != ResponseHead.NO_CONTENT) {
+            head.add(ResponseHead.CONTENT_LENGTH_ZERO);
+        }
+        respond();
+    }
+
+    /**
+     * Answers a scrape of the metrics in the Prometheus text format. The reserved path shadows a file of the same name.
+     * @param method The method the client uses to retrieve the metrics
+     */
+    private void respondMetrics(Type method) {
+        byte[] text = server.getMetrics().scrape(server);
+        head.status(ResponseHead.OK)
+                .add(ResponseHead.SERVER)
+                .add(Metrics.CONTENT_TYPE_PROMETHEUS)
+                .add(ResponseHead.CACHE_CONTROL_NO_STORE)
+                .date()
+                .add(ResponseHead.CONTENT_LENGTH, text.length);
+        respond(method == Type.GET ? text : null);
+    }
+
+    /**
+     * Checks whether the client wants to reuse the connection. HTTP/1.1 connections are persistent unless the client
+     * asks to close them, HTTP/1.0 connections only if the client asks to keep them alive. Bodies of requests other
+     * than uploads are not read, so their connection is closed.
+     * @param request The parsed request head
+     * @param bodyRead true if the body of the request, if any, has been read completely
+     * @return true if the connection may be reused after the response
+     */
+    private static boolean isPersistent(HttpRequest request, boolean bodyRead) {
+        if (!bodyRead && (request.getHeader("content-length") != null && !"0".equals(request.getHeader("content-length"))
+                || request.getHeader("transfer-encoding") != null)) {
+            return false;
+        }
+        String connection = request.getHeader("connection");
+        connection = connection == null ? "" : connection.toLowerCase();
+        if ("HTTP/1.1".equals(request.getVersion())) {
+            return !connection.contains("close");
+        }
+        return connection.contains("keep-alive");
+    }
+
+    /**
+     * Sets a response without body.
+     */
+    private void respond() {
+        respond((Response.Body) null);
+    }
+
+    /**
+     * Sets the response of this request, the head built so far is terminated with the Connection header field.
+     * @param content The body or null if the response has none.
+     */
+    private void respond(byte[] content) {
+        respond(content == null ? null : new Response.BufferBody(ByteBuffer.wrap(content)));
+    }
+
+    /**
+     * Sets the response of this request, the head built so far is terminated with the Connection header field.
+     * @param content The body or null if the response has none.
+     */
+    private void respond(Response.Body content) {
+        ByteBuffer encoded = head.end(keepAlive);
+        response = new Response(head.getStatus(), encoded, content, keepAlive);
     }
 
 }
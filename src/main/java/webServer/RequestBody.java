@@ -0,0 +1,272 @@
+package webServer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The body of a request, read from the connection as it arrives, see RFC 7230 3.3. Bytes which came in along with the
+ * head are taken from the buffer of the connection first, the rest is read from the socket. A body with a
+ * Content-Length is read straight into the buffer of the caller, so it never passes more memory than that. A chunked
+ * body is decoded in the buffer of the connection, which also keeps whatever the client pipelined after the body.
+ * Neither kind is read beyond its end, so the connection can serve its next request afterwards.
+ *  * @author Oguzhan Yigit
+ *  * @email yigit@adobe.com
+ *  * @version 0.1
+ */
+final class RequestBody implements ReadableByteChannel {
+    private final ByteBuffer buffer;
+    private final ReadableByteChannel input;
+    private final boolean chunked;
+    private final long maxBytes;
+    /**
+     * Bytes left of the whole body, or of the current chunk.
+     */
+    private long remaining;
+    private long received;
+    private boolean firstChunk = true;
+    private boolean finished;
+    /**
+     * The error which ended reading. FileChannel.transferFrom() drops an error once it has transferred some bytes, so
+     * the next read reports it again instead of continuing from an unknown position.
+     */
+    private IOException failure;
+
+    /**
+     * A body which cannot be received: an unknown or malformed framing, or more bytes than permitted. The connection
+     * cannot be used any further, as its position within the body is unknown.
+     */
+    static final class BodyException extends IOException {
+        private final int status;
+
+        BodyException(String message, int status) {
+            super(message);
+            this.status = status;
+        }
+
+        /**
+         * @return The status code to answer with: 400, 411, 413 or 501
+         */
+        int getStatus() {
+            return status;
+        }
+    }
+
+    private RequestBody(ByteBuffer buffer, ReadableByteChannel input, boolean chunked, long length, long maxBytes) {
+        this.buffer = buffer;
+        this.input = input;
+        this.chunked = chunked;
+        this.remaining = length;
+        this.maxBytes = maxBytes;
+        this.finished = !chunked && length == 0;
+    }
+
+    /**
+     * Prepares reading the body of a request.
+     * @param request The parsed request head
+     * @param buffer The buffer of the connection in write mode, holding the bytes received after the head
+     * @param input The channel reading from the socket
+     * @param maxBytes Largest body accepted
+     * @return The body, empty if the request has none
+     * @throws BodyException We throw a BodyException with 413 if the announced length exceeds the limit, with 411 if
+     * the request announces neither a length nor chunks, with 501 for other transfer codings, or with 400 if the length
+     * is malformed
+     */
+    static RequestBody of(HttpRequest request, ByteBuffer buffer, ReadableByteChannel input, long maxBytes)
+            throws BodyException {
+        String transferEncoding = request.getHeader("transfer-encoding");
+        String contentLength = request.getHeader("content-length");
+        if (transferEncoding != null) {
+            // A length next to the chunks is the classic way to smuggle a second request past a proxy.
+            if (contentLength != null) {
+                throw new BodyException("Content-Length along with Transfer-Encoding", 400);
+            }
+            if (!"chunked".equalsIgnoreCase(transferEncoding.trim())) {
+                throw new BodyException("Unsupported transfer coding: " + transferEncoding, 501);
+            }
+            return new RequestBody(buffer, input, true, 0, maxBytes);
+        }
+        if (contentLength == null) {
+            throw new BodyException("Request body without a length", 411);
+        }
+        long length = parseLength(contentLength);
+        if (length > maxBytes) {
+            throw new BodyException("Request body exceeds " + maxBytes + " bytes", 413);
+        }
+        return new RequestBody(buffer, input, false, length, maxBytes);
+    }
+
+    /**
+     * Parses a Content-Length, repeated fields combined into a list have to agree.
+     */
+    private static long parseLength(String contentLength) throws BodyException {
+        long length = -1;
+        for (String value : contentLength.split(",")) {
+            String digits = value.trim();
+            if (digits.isEmpty() || digits.length() > 18) {
+                throw new BodyException("Malformed Content-Length: " + contentLength, 400);
+            }
+            for (int i = 0; i < digits.length(); i++) {
+                if (digits.charAt(i) < '0' || digits.charAt(i) > '9') {
+                    throw new BodyException("Malformed Content-Length: " + contentLength, 400);
+                }
+            }
+            long parsed = Long.parseLong(digits);
+            if (length >= 0 && parsed != length) {
+                throw new BodyException("Conflicting Content-Length: " + contentLength, 400);
+            }
+            length = parsed;
+        }
+        return length;
+    }
+
+    /**
+     * @return true once the whole body has been read, i.e. the connection is positioned at the next request
+     */
+    boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * @return Number of body bytes read so far
+     */
+    long getReceived() {
+        return received;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        try {
+            return readBody(dst);
+        }
+        catch (IOException e) {
+            failure = e;
+            throw e;
+        }
+    }
+
+    private int readBody(ByteBuffer dst) throws IOException {
+        if (finished) {
+            return -1;
+        }
+        if (chunked && remaining == 0 && !nextChunk()) {
+            finished = true;
+            return -1;
+        }
+        int count;
+        if (buffer.position() > 0) {
+            buffer.flip();
+            count = (int) Math.min(Math.min(remaining, buffer.remaining()), dst.remaining());
+            ByteBuffer slice = buffer.duplicate();
+            slice.limit(slice.position() + count);
+            dst.put(slice);
+            buffer.position(buffer.position() + count);
+            buffer.compact();
+        }
+        else {
+            // Nothing buffered, the socket reads into the destination directly, never beyond the end of the body.
+            int limit = dst.limit();
+            dst.limit((int) Math.min(limit, dst.position() + remaining));
+            try {
+                count = input.read(dst);
+            }
+            finally {
+                dst.limit(limit);
+            }
+            if (count < 0) {
+                throw new EOFException("Client closed the connection within the request body");
+            }
+        }
+        remaining -= count;
+        received += count;
+        if (!chunked && remaining == 0) {
+            finished = true;
+        }
+        return count;
+    }
+
+    /**
+     * Reads the size line of the next chunk, and the trailer section after the last one.
+     * @return false if the last chunk has been read
+     */
+    private boolean nextChunk() throws IOException {
+        if (!firstChunk && !readLine().isEmpty()) {
+            throw new BodyException("Chunk data is not followed by a line break", 400);
+        }
+        firstChunk = false;
+        String line = readLine();
+        int extension = line.indexOf(';');
+        String size = (extension < 0 ? line : line.substring(0, extension)).trim();
+        if (size.isEmpty() || size.length() > 15) {
+            throw new BodyException("Malformed chunk size: " + line, 400);
+        }
+        long length = 0;
+        for (int i = 0; i < size.length(); i++) {
+            int digit = Character.digit(size.charAt(i), 16);
+            if (digit < 0) {
+                throw new BodyException("Malformed chunk size: " + line, 400);
+            }
+            length = length << 4 | digit;
+        }
+        if (length == 0) {
+            // Trailer fields are read and dropped, they carry nothing the server acts on.
+            int trailers = 0;
+            while (!readLine().isEmpty()) {
+                if (++trailers > HttpParser.MAX_HEADERS) {
+                    throw new BodyException("Request has more than " + HttpParser.MAX_HEADERS + " trailer fields", 400);
+                }
+            }
+            return false;
+        }
+        if (received + length > maxBytes) {
+            throw new BodyException("Request body exceeds " + maxBytes + " bytes", 413);
+        }
+        remaining = length;
+        return true;
+    }
+
+    /**
+     * Reads a line of the chunked framing out of the buffer, reading from the socket until it is complete.
+     * @return The line without its line break
+     */
+    private String readLine() throws IOException {
+        int scanned = 0;
+        while (true) {
+            for (int i = scanned; i < buffer.position(); i++) {
+                if (buffer.get(i) == '\n') {
+                    int end = i > 0 && buffer.get(i - 1) == '\r' ? i - 1 : i;
+                    byte[] line = new byte[end];
+                    buffer.flip();
+                    buffer.get(line);
+                    buffer.position(i + 1);
+                    buffer.compact();
+                    return new String(line, StandardCharsets.ISO_8859_1);
+                }
+            }
+            scanned = buffer.position();
+            if (!buffer.hasRemaining()) {
+                throw new BodyException("Chunk framing line exceeds " + buffer.capacity() + " bytes", 400);
+            }
+            if (input.read(buffer) < 0) {
+                throw new EOFException("Client closed the connection within the request body");
+            }
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return input.isOpen();
+    }
+
+    /**
+     * Leaves the connection as it is, the body is not skipped.
+     */
+    @Override
+    public void close() {
+    }
+}
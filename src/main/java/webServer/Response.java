@@ -0,0 +1,498 @@
+package webServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A response ready to be written to the client: the encoded header and an optional body. Writing is resumable, so the
+ * same response can be written to a blocking socket in one go or piecewise whenever a selector reports the channel as
+ * writable. A body held in memory is written together with the header in one gathering write.
+ *  * @author Oguzhan Yigit
+ *  * @email yigit@adobe.com
+ *  * @version 0.1
+ */
+public class Response {
+    /**
+     * The body of a response, written after the header.
+     */
+    interface Body {
+        /**
+         * Writes as much of the body as the channel accepts.
+         * @param channel The channel of the client
+         * @return true if the body has been written completely
+         * @throws IOException We throw an IOException if the client has dropped the connection
+         */
+        boolean writeTo(WritableByteChannel channel) throws IOException;
+
+        /**
+         * @return Number of bytes written to the channel so far
+         */
+        long getBytesWritten();
+
+        /**
+         * Releases the resources held by the body, e.g. open files.
+         */
+        default void close() {
+        }
+    }
+
+    private final int status;
+    private final ByteBuffer head;
+    private final Body body;
+    private final boolean keepAlive;
+    private HttpRequest request;
+    private long parseNanos;
+    private long fileNanos;
+    private long compressNanos;
+    private long writeStarted;
+    private boolean recorded;
+
+    /**
+     * @param status The status code, e.g. 200
+     * @param head The status line and the header fields including the terminating empty line
+     * @param body The body or null if the response has none
+     * @param keepAlive true if the connection may be reused after this response
+     */
+    Response(int status, ByteBuffer head, Body body, boolean keepAlive) {
+        this.status = status;
+        this.head = head;
+        this.body = body;
+        this.keepAlive = keepAlive;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * Remembers the request and how long it took to be answered, reported once the response has been written.
+     * @param request The request answered by this response
+     * @param fileNanos Time spent looking up and opening files and directories
+     * @param compressNanos Time spent compressing before writing
+     * @return this
+     */
+    Response timed(HttpRequest request, long fileNanos, long compressNanos) {
+        this.request = request;
+        this.fileNanos = fileNanos;
+        this.compressNanos = compressNanos;
+        return this;
+    }
+
+    /**
+     * @param parseNanos Time spent parsing the head of the request
+     * @return this
+     */
+    Response parsed(long parseNanos) {
+        this.parseNanos = parseNanos;
+        return this;
+    }
+
+    /**
+     * Records the request in the metrics and the access log once its response has been written completely, and charges
+     * its bytes to the bandwidth of the client. Further calls do nothing.
+     * @param server The server which answered the request
+     * @param client The address of the client
+     */
+    void record(Server server, String client) {
+        if (recorded) {
+            return;
+        }
+        recorded = true;
+        long writeNanos = writeStarted == 0 ? 0 : System.nanoTime() - writeStarted;
+        long streamedNanos = body instanceof GzipBody ? ((GzipBody) body).compressNanos : 0;
+        long bytes = getBytesSent();
+        Request.Type method = request == null ? null : request.getMethod();
+        server.getMetrics().record(method, status, parseNanos, fileNanos, compressNanos + streamedNanos,
+                writeNanos - streamedNanos, bytes);
+        server.getAccessLog().log(client, request, status, bytes, parseNanos, fileNanos, compressNanos + streamedNanos,
+                writeNanos - streamedNanos);
+        server.getAdmission().sent(client, bytes);
+    }
+
+    /**
+     * @return Number of bytes written to the client so far, head included
+     */
+    public long getBytesSent() {
+        return head.position() + (body == null ? 0 : body.getBytesWritten());
+    }
+
+    /**
+     * @return true if the connection may be reused for the next request after this response
+     */
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * Writes as much of the response as the channel accepts. A blocking channel always takes everything.
+     * @param channel The channel of the client
+     * @return true if the response has been written completely
+     * @throws IOException We throw an IOException if the client has dropped the connection
+     */
+    public boolean writeTo(WritableByteChannel channel) throws IOException {
+        if (writeStarted == 0) {
+            writeStarted = System.nanoTime();
+        }
+        if (head.hasRemaining() && body instanceof BufferBody && channel instanceof GatheringByteChannel) {
+            if (!((BufferBody) body).writeTo((GatheringByteChannel) channel, head)) {
+                return false;
+            }
+        }
+        while (head.hasRemaining()) {
+            if (channel.write(head) == 0) {
+                return false;
+            }
+        }
+        return body == null || body.writeTo(channel);
+    }
+
+    /**
+     * @return The encoded status line and header fields, for protocols which encode them on their own
+     */
+    ByteBuffer getHead() {
+        return head.duplicate();
+    }
+
+    /**
+     * @return true if the response has a body, HEAD requests and 304 responses have none
+     */
+    boolean hasBody() {
+        return body != null;
+    }
+
+    /**
+     * Writes as much of the body as the channel accepts, leaving out the head. Used by protocols which send the head
+     * in a form of their own, e.g. HTTP/2.
+     * @param channel The channel taking the body
+     * @return true if the body has been written completely
+     * @throws IOException We throw an IOException if the body cannot be read
+     */
+    boolean writeBodyTo(WritableByteChannel channel) throws IOException {
+        if (writeStarted == 0) {
+            writeStarted = System.nanoTime();
+        }
+        return body == null || body.writeTo(channel);
+    }
+
+    /**
+     * Releases the resources held by the body.
+     */
+    public void close() {
+        if (body != null) {
+            body.close();
+        }
+    }
+
+    /**
+     * A body held in memory. It is handed to the channel in chunks, as the JDK copies heap buffers into a temporary
+     * direct buffer of the same size on every write.
+     */
+    static class BufferBody implements Body {
+        private final ByteBuffer content;
+        private final int start;
+
+        BufferBody(ByteBuffer content) {
+            this.content = content;
+            this.start = content.position();
+        }
+
+        @Override
+        public long getBytesWritten() {
+            return content.position() - start;
+        }
+
+        @Override
+        public boolean writeTo(WritableByteChannel channel) throws IOException {
+            while (content.hasRemaining()) {
+                ByteBuffer chunk = content.duplicate();
+                chunk.limit(Math.min(content.limit(), content.position() + Request.TRANSFER_CHUNK));
+                int written = channel.write(chunk);
+                if (written == 0) {
+                    return false;
+                }
+                content.position(content.position() + written);
+            }
+            return true;
+        }
+
+        /**
+         * Writes the header and the first chunk of the body with one system call, then the rest of the body.
+         * @param channel The channel of the client
+         * @param head The remaining header
+         * @return true if the header and the body have been written completely
+         * @throws IOException We throw an IOException if the client has dropped the connection
+         */
+        boolean writeTo(GatheringByteChannel channel, ByteBuffer head) throws IOException {
+            ByteBuffer chunk = content.duplicate();
+            chunk.limit(Math.min(content.limit(), content.position() + Request.TRANSFER_CHUNK));
+            ByteBuffer[] buffers = {head, chunk};
+            while (head.hasRemaining()) {
+                long written = channel.write(buffers);
+                content.position(chunk.position());
+                if (written == 0) {
+                    return false;
+                }
+            }
+            return writeTo(channel);
+        }
+    }
+
+    /**
+     * A region of a file, transferred with FileChannel.transferTo. If the client is a socket channel, the kernel
+     * copies the file straight to the socket (sendfile) without passing the heap.
+     */
+    static class FileBody implements Body {
+        private final FileChannel file;
+        private long position;
+        private final long start;
+        private final long end;
+
+        /**
+         * @param file The opened file, closed along with the body
+         * @param position The first byte to be sent
+         * @param count The number of bytes to be sent
+         */
+        FileBody(FileChannel file, long position, long count) {
+            this.file = file;
+            this.position = position;
+            this.start = position;
+            this.end = position + count;
+        }
+
+        @Override
+        public long getBytesWritten() {
+            return position - start;
+        }
+
+        @Override
+        public boolean writeTo(WritableByteChannel channel) throws IOException {
+            while (position < end) {
+                long written = file.transferTo(position, end - position, channel);
+                if (written == 0) {
+                    if (position >= file.size()) {
+                        throw new IOException("File was truncated while sending it");
+                    }
+                    // Channels of the selector engine wait for the next OP_WRITE, HTTP/2 frames for the next frame.
+                    if (!(channel instanceof SelectableChannel) || !((SelectableChannel) channel).isBlocking()) {
+                        return false;
+                    }
+                    written = writeBlocking(channel);
+                }
+                position += written;
+            }
+            return true;
+        }
+
+        /**
+         * A socket whose reads use a timeout is switched to non-blocking mode by the JDK, so sendfile returns as soon
+         * as the socket buffer is full. The next chunk is then written through the channel, which waits until the
+         * client has taken it, and the transfer continues with sendfile.
+         * @param channel The blocking channel of the client
+         * @return Number of bytes written
+         * @throws IOException We throw an IOException if the file cannot be read or the client has dropped the
+         * connection
+         */
+        private long writeBlocking(WritableByteChannel channel) throws IOException {
+            ByteBuffer chunk = ByteBuffer.allocate((int) Math.min(Request.TRANSFER_CHUNK, end - position));
+            while (chunk.hasRemaining()) {
+                int read = file.read(chunk, position + chunk.position());
+                if (read < 0) {
+                    throw new IOException("File was truncated while sending it");
+                }
+            }
+            chunk.flip();
+            while (chunk.hasRemaining()) {
+                channel.write(chunk);
+            }
+            return chunk.limit();
+        }
+
+        @Override
+        public void close() {
+            try {
+                file.close();
+            }
+            catch (IOException e) {
+                // Nothing left to release
+            }
+        }
+    }
+
+    /**
+     * A body made of several bodies written one after another, e.g. the parts of a multipart/byteranges response.
+     */
+    static class CompositeBody implements Body {
+        private final Body[] parts;
+        private int current;
+
+        CompositeBody(Body... parts) {
+            this.parts = parts;
+        }
+
+        @Override
+        public long getBytesWritten() {
+            long written = 0;
+            for (Body part : parts) {
+                written += part.getBytesWritten();
+            }
+            return written;
+        }
+
+        @Override
+        public boolean writeTo(WritableByteChannel channel) throws IOException {
+            while (current < parts.length) {
+                if (!parts[current].writeTo(channel)) {
+                    return false;
+                }
+                current++;
+            }
+            return true;
+        }
+
+        @Override
+        public void close() {
+            for (Body part : parts) {
+                part.close();
+            }
+        }
+    }
+
+    /**
+     * A file compressed on the fly while it is sent. The file is read and compressed one chunk at a time, so the memory
+     * held per request stays the same no matter how large the file is. With chunked transfer encoding every compressed
+     * chunk is framed with its size, otherwise the end of the body is signalled by closing the connection.
+     */
+    static class GzipBody implements Body {
+        private static final byte[] CRLF = {'\r', '\n'};
+        private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+        private final FileChannel file;
+        private final boolean chunked;
+        private final ByteBuffer input = ByteBuffer.allocate(Request.TRANSFER_CHUNK);
+        private final ChunkBuffer compressed = new ChunkBuffer();
+        private final GZIPOutputStream zipStream;
+        private ByteBuffer frame;
+        private ByteBuffer pending;
+        private boolean finished;
+        private boolean handedOut;
+        private long written;
+        private long compressNanos;
+
+        /**
+         * @param file The opened file, closed along with the body
+         * @param chunked true to frame the compressed bytes with chunked transfer encoding
+         * @throws IOException We throw an IOException if the gzip header cannot be written
+         */
+        GzipBody(FileChannel file, boolean chunked) throws IOException {
+            this.file = file;
+            this.chunked = chunked;
+            this.zipStream = new GZIPOutputStream(compressed, Request.TRANSFER_CHUNK);
+        }
+
+        @Override
+        public boolean writeTo(WritableByteChannel channel) throws IOException {
+            while (true) {
+                if (pending != null && pending.hasRemaining()) {
+                    int count = channel.write(pending);
+                    if (count == 0) {
+                        return false;
+                    }
+                    written += count;
+                }
+                else {
+                    long started = System.nanoTime();
+                    boolean refilled = refill();
+                    compressNanos += System.nanoTime() - started;
+                    if (!refilled) {
+                        return true;
+                    }
+                }
+            }
+        }
+
+        @Override
+        public long getBytesWritten() {
+            return written;
+        }
+
+        /**
+         * Compresses the next chunk of the file until the compressor emits bytes.
+         * @return false if the whole body has been handed out already
+         * @throws IOException We throw an IOException if the file cannot be read
+         */
+        private boolean refill() throws IOException {
+            if (finished) {
+                return false;
+            }
+            // The gzip header written by the constructor is still waiting in the buffer before the first chunk.
+            if (handedOut) {
+                compressed.reset();
+            }
+            while (compressed.size() == 0 && !finished) {
+                input.clear();
+                int read = file.read(input);
+                if (read < 0) {
+                    zipStream.finish();
+                    finished = true;
+                }
+                else {
+                    zipStream.write(input.array(), 0, read);
+                }
+            }
+            handedOut = true;
+            if (!chunked) {
+                pending = ByteBuffer.wrap(compressed.array(), 0, compressed.size());
+                return true;
+            }
+            byte[] size = Integer.toHexString(compressed.size()).getBytes(StandardCharsets.US_ASCII);
+            int frameSize = size.length + compressed.size() + CRLF.length * 2 + (finished ? LAST_CHUNK.length : 0);
+            if (frame == null || frame.capacity() < frameSize) {
+                frame = ByteBuffer.allocate(frameSize);
+            }
+            frame.clear();
+            pending = frame;
+            pending.put(size).put(CRLF).put(compressed.array(), 0, compressed.size()).put(CRLF);
+            if (finished) {
+                pending.put(LAST_CHUNK);
+            }
+            pending.flip();
+            return true;
+        }
+
+        @Override
+        public void close() {
+            try {
+                // Releases the native memory of the deflater
+                zipStream.close();
+            }
+            catch (IOException e) {
+                // Nothing left to release
+            }
+            try {
+                file.close();
+            }
+            catch (IOException e) {
+                // Nothing left to release
+            }
+        }
+    }
+
+    /**
+     * A reusable output buffer exposing its backing array, so compressed chunks are not copied.
+     */
+    private static class ChunkBuffer extends ByteArrayOutputStream {
+        ChunkBuffer() {
+            super(Request.TRANSFER_CHUNK);
+        }
+
+        byte[] array() {
+            return buf;
+        }
+    }
+}
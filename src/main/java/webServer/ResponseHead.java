@@ -0,0 +1,195 @@
+package webServer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Builds the status line and header fields of a response directly as bytes. The status lines and the fixed header
+ * fields are encoded once, values are appended without creating intermediate strings. Every connection owns one head
+ * and reuses its array for all of its responses, a response is always written completely before the next one is built.
+ *  * @author Oguzhan Yigit
+ *  * @email yigit@adobe.com
+ *  * @version 0.1
+ */
+final class ResponseHead {
+    static final byte[] OK = statusLine("200 OK");
+    static final byte[] CREATED = statusLine("201 Created");
+    static final byte[] NO_CONTENT = statusLine("204 No Content");
+    static final byte[] PARTIAL_CONTENT = statusLine("206 Partial Content");
+    static final byte[] NOT_MODIFIED = statusLine("304 Not Modified");
+    static final byte[] BAD_REQUEST = statusLine("400 Bad Request");
+    static final byte[] NOT_FOUND = statusLine("404 Not Found");
+    static final byte[] METHOD_NOT_ALLOWED = statusLine("405 Method Not Allowed");
+    static final byte[] CONFLICT = statusLine("409 Conflict");
+    static final byte[] LENGTH_REQUIRED = statusLine("411 Length Required");
+    static final byte[] PRECONDITION_FAILED = statusLine("412 Precondition Failed");
+    static final byte[] PAYLOAD_TOO_LARGE = statusLine("413 Payload Too Large");
+    static final byte[] URI_TOO_LONG = statusLine("414 URI Too Long");
+    static final byte[] RANGE_NOT_SATISFIABLE = statusLine("416 Range Not Satisfiable");
+    static final byte[] EXPECTATION_FAILED = statusLine("417 Expectation Failed");
+    static final byte[] TOO_MANY_REQUESTS = statusLine("429 Too Many Requests");
+    static final byte[] HEADERS_TOO_LARGE = statusLine("431 Request Header Fields Too Large");
+    static final byte[] INTERNAL_SERVER_ERROR = statusLine("500 Internal Server Error");
+    static final byte[] NOT_IMPLEMENTED = statusLine("501 Not Implemented");
+    static final byte[] SERVICE_UNAVAILABLE = statusLine("503 Service Unavailable");
+    static final byte[] VERSION_NOT_SUPPORTED = statusLine("505 HTTP Version Not Supported");
+    /**
+     * The interim response to Expect: 100-continue, a complete head of its own.
+     */
+    static final byte[] CONTINUE = ("HTTP/1.1 100 Continue\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    static final byte[] SERVER = line("Server: Custom Java Webserver");
+    static final byte[] VARY_ACCEPT_ENCODING = line("Vary: Accept-Encoding");
+    static final byte[] ACCEPT_RANGES_BYTES = line("Accept-Ranges: bytes");
+    static final byte[] TRANSFER_ENCODING_CHUNKED = line("Transfer-Encoding: chunked");
+    static final byte[] CONTENT_LENGTH_ZERO = line("Content-Length: 0");
+    static final byte[] CONNECTION_CLOSE = line("Connection: close");
+    static final byte[] CONNECTION_KEEP_ALIVE = line("Connection: keep-alive");
+    static final byte[] RETRY_AFTER_ONE = line("Retry-After: 1");
+    static final byte[] CACHE_CONTROL_NO_STORE = line("Cache-Control: no-store");
+    static final byte[] ALLOW_READ = line("Allow: GET, HEAD");
+    static final byte[] ALLOW_READ_WRITE = line("Allow: GET, HEAD, PUT, POST, DELETE");
+    static final byte[] CONTENT_TYPE_HTML_LATIN1 = line("Content-Type: text/html; charset=iso-8859-1");
+    static final byte[] CONTENT_TYPE_HTML_UTF8 = line("Content-Type: text/html; charset=utf-8");
+    static final byte[] CONTENT_TYPE_OCTET_STREAM = line("Content-Type: application/octet-stream");
+
+    static final byte[] CONTENT_LENGTH = name("Content-Length");
+    static final byte[] CONTENT_TYPE = name("Content-Type");
+    static final byte[] CONTENT_RANGE = name("Content-Range", "bytes ");
+    static final byte[] CONTENT_DISPOSITION_ATTACHMENT = name("Content-Disposition", "attachment; filename=");
+    static final byte[] ETAG = name("Etag");
+    static final byte[] LAST_MODIFIED = name("Last-Modified");
+    static final byte[] LOCATION = name("Location");
+    static final byte[] RETRY_AFTER = name("Retry-After");
+
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    private byte[] bytes = new byte[512];
+    private int size;
+
+    private static byte[] statusLine(String status) {
+        return line("HTTP/1.1 " + status);
+    }
+
+    /**
+     * @param line A header field without the line break
+     * @return The encoded header field including the line break
+     */
+    static byte[] line(String line) {
+        return (line + "\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] name(String name) {
+        return name(name, "");
+    }
+
+    private static byte[] name(String name, String valuePrefix) {
+        return (name + ": " + valuePrefix).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Starts a new head, discarding the previous one.
+     * @param statusLine One of the status line constants
+     * @return this
+     */
+    ResponseHead status(byte[] statusLine) {
+        size = 0;
+        return add(statusLine);
+    }
+
+    /**
+     * @return The status code of the current head
+     */
+    int getStatus() {
+        return (bytes[9] - '0') * 100 + (bytes[10] - '0') * 10 + (bytes[11] - '0');
+    }
+
+    /**
+     * Appends a pre-encoded header field.
+     * @param line One of the header field constants, including the line break
+     * @return this
+     */
+    ResponseHead add(byte[] line) {
+        ensureCapacity(line.length);
+        System.arraycopy(line, 0, bytes, size, line.length);
+        size += line.length;
+        return this;
+    }
+
+    /**
+     * Appends a header field with a textual value. Values outside of US-ASCII, e.g. file names, are sent as UTF-8.
+     * @param name One of the header name constants
+     * @param value The value
+     * @return this
+     */
+    ResponseHead add(byte[] name, String value) {
+        add(name);
+        ensureCapacity(value.length() + CRLF.length);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                size -= i;
+                byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+                add(encoded);
+                return add(CRLF);
+            }
+            bytes[size++] = (byte) c;
+        }
+        return add(CRLF);
+    }
+
+    /**
+     * Appends a header field with a numeric value.
+     * @param name One of the header name constants
+     * @param value The non-negative value
+     * @return this
+     */
+    ResponseHead add(byte[] name, long value) {
+        add(name);
+        ensureCapacity(20 + CRLF.length);
+        int digits = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        for (int i = size + digits - 1; i >= size; i--) {
+            bytes[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        size += digits;
+        return add(CRLF);
+    }
+
+    /**
+     * Appends the Date header field, formatted once per second by the shared clock.
+     * @return this
+     */
+    ResponseHead date() {
+        return add(HttpDates.dateLine());
+    }
+
+    /**
+     * Terminates the head with the Connection header field and the empty line.
+     * @param keepAlive true if the connection may be reused
+     * @return The encoded head, backed by the array of this builder
+     */
+    ByteBuffer end(boolean keepAlive) {
+        add(keepAlive ? CONNECTION_KEEP_ALIVE : CONNECTION_CLOSE);
+        add(CRLF);
+        return ByteBuffer.wrap(bytes, 0, size);
+    }
+
+    /**
+     * Copies the head built so far, e.g. to add it as a whole to later heads with status(byte[]).
+     * @return The status line and header fields, without Connection and the empty line
+     */
+    byte[] toByteArray() {
+        return Arrays.copyOf(bytes, size);
+    }
+
+    private void ensureCapacity(int additional) {
+        if (size + additional > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + additional));
+        }
+    }
+}
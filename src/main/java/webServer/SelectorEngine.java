@@ -0,0 +1,657 @@
+package webServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * A non-blocking connection engine built on a Selector. Acceptor threads, one by default, take the connections and hand
+ * them round robin to a small number of event loops, by default one per core. With several acceptors every acceptor
+ * has sockets of its own and its own share of the event loops. An event loop reads the request head,
+ * asks a Request for the response and writes it whenever the client is able to take more bytes, so a slow client
+ * never occupies a thread of its own. Parsing and the response logic are shared with the blocking engine.
+ * Connections are kept alive between requests until they are idle for longer than the keep-alive timeout. A client
+ * which trickles its request head, or reads its response too slowly, is closed once it misses a deadline, see
+ * Deadlines. When the engine is drained, it stops accepting and every loop exits once its last connection is closed.
+ * Connections switching to HTTP/2 are handed over to a worker, see Http2Connection, as their streams are multiplexed
+ * by a reader and a writer of their own. So are connections sending an upload, whose body is streamed to disk by the
+ * worker, and connections asking for an answer which reads the disk up front: a directory listing, or a file still to
+ * be hashed for its tag or compressed into the cache. The worker serves such a connection from then on.
+ *  * @author Oguzhan Yigit
+ *  * @email yigit@adobe.com
+ *  * @version 0.1
+ */
+public class SelectorEngine implements Runnable {
+    private final Server server;
+    private final List<InetSocketAddress> addresses;
+    private final int acceptorCount;
+    private final EventLoop[] loops;
+    /**
+     * Interval in which the event loops look for idle and stalled connections.
+     */
+    private static final long SWEEP_INTERVAL_MILLIS = 1000;
+    private volatile Acceptor[] acceptors = new Acceptor[0];
+    private volatile boolean accepting = true;
+    private final CountDownLatch finished;
+    private final static Logger LOGGER = Logger.getLogger(Server.class.getName());
+
+    /**
+     * @param server The server whose directory is served
+     * @param addresses The addresses on which the engine listens
+     * @param acceptors Number of acceptor threads
+     * @param eventLoops Number of event loop threads
+     */
+    public SelectorEngine(Server server, List<InetSocketAddress> addresses, int acceptors, int eventLoops) {
+        this.server = server;
+        this.addresses = addresses;
+        this.acceptorCount = acceptors;
+        this.loops = new EventLoop[eventLoops];
+        this.finished = new CountDownLatch(eventLoops);
+    }
+
+    /**
+     * Binds the addresses, starts the event loops and accepts connections until the engine is stopped.
+     */
+    @Override
+    public void run() {
+        try (Listeners bound = Listeners.open(addresses, acceptorCount, server.getConfig().isReusePort())) {
+            for (int i = 0; i < loops.length; i++) {
+                loops[i] = new EventLoop(Selector.open());
+                Thread thread = new Thread(loops[i], "webserver-event-loop-" + (i + 1));
+                thread.setDaemon(true);
+                thread.start();
+            }
+            Acceptor[] created = new Acceptor[acceptorCount];
+            for (int i = 0; i < created.length; i++) {
+                List<EventLoop> share = new ArrayList<>();
+                for (int j = i; j < loops.length; j += created.length) {
+                    share.add(loops[j]);
+                }
+                if (share.isEmpty()) {
+                    share.add(loops[i % loops.length]);
+                }
+                created[i] = new Acceptor(bound.get(i), share.toArray(new EventLoop[0]));
+            }
+            acceptors = created;
+            server.listening(bound.getLocalAddresses());
+            LOGGER.info("Serving " + server.servedDirectory + " on " + bound.getLocalAddresses() + " using "
+                    + created.length + " acceptors and " + loops.length + " event loops");
+            Thread[] threads = new Thread[created.length];
+            for (int i = 1; i < created.length; i++) {
+                threads[i] = new Thread(created[i], "webserver-acceptor-" + (i + 1));
+                threads[i].setDaemon(true);
+                threads[i].start();
+            }
+            created[0].run();
+            for (int i = 1; i < threads.length; i++) {
+                threads[i].join();
+            }
+            LOGGER.info("Stopped accepting connections.");
+        }
+        catch (IOException e) {
+            LOGGER.warning("Could not listen on " + addresses + ", the port may be used already: " + e.getMessage());
+            server.listening(Collections.<InetSocketAddress>emptyList());
+            stop();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stops accepting connections and lets the event loops finish the requests in flight. Connections waiting for
+     * their next request are closed right away, the others after their current response.
+     * @param timeoutMillis Longest time to wait for the connections to finish
+     * @return true if all connections are closed, false if the time ran out
+     * @throws InterruptedException We throw an InterruptedException if the waiting thread is interrupted
+     */
+    public boolean drain(long timeoutMillis) throws InterruptedException {
+        accepting = false;
+        // The acceptors exit and the listening sockets are closed, so the port is released right away.
+        for (Acceptor acceptor : acceptors) {
+            acceptor.selector.wakeup();
+        }
+        for (EventLoop loop : loops) {
+            if (loop != null) {
+                loop.drain();
+            }
+            else {
+                finished.countDown();
+            }
+        }
+        return finished.await(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops accepting connections and closes the event loops along with their connections.
+     */
+    public void stop() {
+        accepting = false;
+        for (Acceptor acceptor : acceptors) {
+            closeQuietly(acceptor.selector);
+        }
+        for (EventLoop loop : loops) {
+            if (loop != null) {
+                loop.stop();
+            }
+        }
+    }
+
+    /**
+     * Closes a selector, ignoring failures.
+     * @param selector The selector or null
+     */
+    private static void closeQuietly(Selector selector) {
+        if (selector == null) {
+            return;
+        }
+        try {
+            selector.close();
+        }
+        catch (IOException e) {
+            LOGGER.info("Could not close the selector.");
+        }
+    }
+
+    /**
+     * A thread accepting connections from its sockets, one per address, and handing them to its event loops.
+     */
+    private class Acceptor implements Runnable {
+        private final Selector selector;
+        private final EventLoop[] loops;
+        private int next;
+
+        /**
+         * @param channels The listening sockets, shared with the other acceptors if SO_REUSEPORT is not available
+         * @param loops The event loops the accepted connections are handed to
+         * @throws IOException We throw an IOException if the selector cannot be opened
+         */
+        Acceptor(ServerSocketChannel[] channels, EventLoop[] loops) throws IOException {
+            this.selector = Selector.open();
+            this.loops = loops;
+            for (ServerSocketChannel channel : channels) {
+                channel.configureBlocking(false);
+                channel.register(selector, SelectionKey.OP_ACCEPT);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (accepting) {
+                    selector.select();
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        accept((ServerSocketChannel) key.channel());
+                    }
+                }
+            }
+            catch (ClosedSelectorException e) {
+                LOGGER.info("Acceptor stopped.");
+            }
+            catch (IOException e) {
+                LOGGER.warning("Acceptor failed: " + e.getMessage());
+            }
+            finally {
+                // Deregisters the listening sockets, so they are closed along with the engine.
+                closeQuietly(selector);
+            }
+        }
+
+        /**
+         * Takes the pending connections of a socket. A shared socket may have been emptied by another acceptor already.
+         * Connections refused by the admission control are answered and closed here, they never reach an event loop.
+         * @param listener The listening socket
+         */
+        private void accept(ServerSocketChannel listener) {
+            try {
+                SocketChannel accepted;
+                while (accepting && (accepted = listener.accept()) != null) {
+                    String client = ((InetSocketAddress) accepted.socket().getRemoteSocketAddress()).getAddress()
+                            .getHostAddress();
+                    AdmissionControl.Refusal refusal = server.getAdmission().connect(client);
+                    if (refusal != null) {
+                        // The accepted channel is still in blocking mode.
+                        Request.refuse(accepted.socket(), refusal);
+                        continue;
+                    }
+                    loops[next].register(new Connection(accepted, client));
+                    next = (next + 1) % loops.length;
+                }
+            }
+            catch (IOException e) {
+                LOGGER.warning("Could not accept a connection: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * A thread multiplexing many connections over one Selector.
+     */
+    private class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<Connection> pending = new ConcurrentLinkedQueue<>();
+        private final List<SelectionKey> handedOver = new ArrayList<>();
+        private volatile boolean running = true;
+        private volatile boolean draining;
+
+        EventLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        /**
+         * Hands an accepted connection to this loop, it is registered on the next wakeup.
+         * @param connection The accepted connection
+         */
+        void register(Connection connection) {
+            pending.add(connection);
+            selector.wakeup();
+        }
+
+        /**
+         * Asks the loop to close its connections and exit.
+         */
+        void stop() {
+            running = false;
+            selector.wakeup();
+        }
+
+        /**
+         * Asks the loop to close its connections once they are waiting for their next request, and to exit when none
+         * is left.
+         */
+        void drain() {
+            draining = true;
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                long lastSweep = System.currentTimeMillis();
+                while (running) {
+                    selector.select(SWEEP_INTERVAL_MILLIS);
+                    registerPending();
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        handle(key);
+                    }
+                    if (!handedOver.isEmpty()) {
+                        handOver();
+                    }
+                    long now = System.currentTimeMillis();
+                    if (now - lastSweep >= SWEEP_INTERVAL_MILLIS) {
+                        closeExpired(now);
+                        lastSweep = now;
+                    }
+                    if (draining && !closeWaiting()) {
+                        break;
+                    }
+                }
+            }
+            catch (ClosedSelectorException e) {
+                LOGGER.info("Event loop stopped.");
+            }
+            catch (IOException e) {
+                LOGGER.warning("Event loop failed: " + e.getMessage());
+            }
+            finally {
+                for (SelectionKey key : selector.keys()) {
+                    close(key);
+                }
+                closeQuietly(selector);
+                finished.countDown();
+            }
+        }
+
+        /**
+         * Closes the connections waiting for their next request.
+         * @return true if connections are left which are still reading or answering a request
+         */
+        private boolean closeWaiting() {
+            boolean busy = !pending.isEmpty();
+            for (SelectionKey key : selector.keys()) {
+                Connection connection = (Connection) key.attachment();
+                if (!key.isValid() || connection == null) {
+                    continue;
+                }
+                if (connection.isWaiting()) {
+                    close(key);
+                }
+                else {
+                    busy = true;
+                }
+            }
+            return busy;
+        }
+
+        /**
+         * Closes the connections which have been waiting for their next request longer than the keep-alive timeout, and
+         * those whose clients missed a deadline.
+         * @param now The current time
+         */
+        private void closeExpired(long now) {
+            long nanos = System.nanoTime();
+            for (SelectionKey key : selector.keys()) {
+                Connection connection = (Connection) key.attachment();
+                if (connection == null) {
+                    continue;
+                }
+                if (connection.isIdle(now)) {
+                    close(key);
+                    continue;
+                }
+                Deadlines.Phase stalled = connection.stalled(nanos);
+                if (stalled != null) {
+                    server.getMetrics().connectionStalled(stalled);
+                    LOGGER.info("Closing stalled connection in phase " + stalled);
+                    close(key);
+                }
+            }
+        }
+
+        private void registerPending() {
+            Connection connection;
+            while ((connection = pending.poll()) != null) {
+                server.getMetrics().connectionOpened();
+                try {
+                    connection.channel.configureBlocking(false);
+                    // A head written before its file region must not wait for the acknowledgement of the client.
+                    connection.channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                    connection.channel.register(selector, SelectionKey.OP_READ, connection);
+                }
+                catch (IOException e) {
+                    LOGGER.info("Client has dropped the connection");
+                    connection.close();
+                }
+            }
+        }
+
+        /**
+         * Reads or writes whatever the selected connection is ready for.
+         * @param key The selected key of the connection
+         */
+        private void handle(SelectionKey key) {
+            Connection connection = (Connection) key.attachment();
+            try {
+                if (key.isReadable()) {
+                    connection.read(key);
+                }
+                else if (key.isWritable()) {
+                    connection.write(key);
+                }
+                if (connection.isHandedOver()) {
+                    handedOver.add(key);
+                }
+                else {
+                    connection.track();
+                }
+            }
+            catch (IOException | RuntimeException e) {
+                LOGGER.info("Client has dropped the connection");
+                close(key);
+            }
+        }
+
+        /**
+         * Hands the connections switching to HTTP/2, or waiting for the disk, to the workers. Their keys are cancelled
+         * first, a channel can be put back into blocking mode only once the selector has dropped its key.
+         * @throws IOException We throw an IOException if the selector fails
+         */
+        private void handOver() throws IOException {
+            for (SelectionKey key : handedOver) {
+                key.cancel();
+            }
+            selector.selectNow();
+            for (SelectionKey key : handedOver) {
+                ((Connection) key.attachment()).handOver();
+            }
+            handedOver.clear();
+        }
+
+        private void close(SelectionKey key) {
+            Connection connection = (Connection) key.attachment();
+            if (connection != null) {
+                connection.close();
+            }
+            key.cancel();
+        }
+    }
+
+    /**
+     * The state of one client connection: the bytes read so far and the response being written. Requests are answered
+     * one after another, pipelined requests wait in the input buffer until the previous response has been written.
+     */
+    private class Connection {
+        private final SocketChannel channel;
+        private final String client;
+        private final ByteBuffer input = ByteBuffer.allocate(server.getParser().getMaxHeadSize());
+        private final Request handler = new Request(server);
+        private final Deadlines deadlines = new Deadlines(server.getConfig());
+        private Response response;
+        private Response tracked;
+        private int served;
+        private long parseNanos;
+        private boolean closed;
+        private boolean handingOver;
+        private HttpRequest pending;
+        private long lastActive = System.currentTimeMillis();
+
+        /**
+         * @param channel The accepted connection
+         * @param client The address of the client, admitted by the admission control
+         */
+        Connection(SocketChannel channel, String client) {
+            this.channel = channel;
+            this.client = client;
+        }
+
+        void read(SelectionKey key) throws IOException {
+            if (channel.read(input) < 0) {
+                close();
+                key.cancel();
+                return;
+            }
+            lastActive = System.currentTimeMillis();
+            if (nextRequest(key)) {
+                write(key);
+            }
+        }
+
+        /**
+         * Parses the next request out of the input buffer and prepares its response.
+         * @param key The selected key of the connection
+         * @return true if a response is ready to be written, false if more bytes have to be read first
+         * @throws IOException We throw an IOException in case we cannot read the requested file
+         */
+        private boolean nextRequest(SelectionKey key) throws IOException {
+            input.flip();
+            boolean http2 = server.getConfig().isHttp2();
+            int preface = http2 && served == 0 ? Http2Connection.matchPreface(input) : -1;
+            if (preface > 0) {
+                input.compact();
+                handOver(key, null);
+                return false;
+            }
+            HttpRequest request;
+            long started = System.nanoTime();
+            try {
+                request = preface == 0 ? null : server.getParser().parse(input);
+            }
+            catch (ParseException e) {
+                LOGGER.info("Malformed request: " + e.getMessage());
+                response = Request.badRequest(e).parsed(parseNanos + System.nanoTime() - started);
+                parseNanos = 0;
+                key.interestOps(SelectionKey.OP_WRITE);
+                return true;
+            }
+            finally {
+                input.compact();
+            }
+            parseNanos += System.nanoTime() - started;
+            if (request == null) {
+                return false;
+            }
+            AdmissionControl.Refusal refusal = server.getAdmission().request(client);
+            if (refusal != null) {
+                served++;
+                response = Request.refused(request, refusal).parsed(parseNanos);
+                parseNanos = 0;
+                key.interestOps(SelectionKey.OP_WRITE);
+                return true;
+            }
+            if (http2 && Http2Connection.isUpgrade(request) || handler.hasUpload(request)
+                    || handler.readsContent(request)) {
+                handOver(key, request);
+                return false;
+            }
+            served++;
+            response = handler.respond(request, served < server.getConfig().getKeepAliveMaxRequests())
+                    .parsed(parseNanos);
+            parseNanos = 0;
+            key.interestOps(SelectionKey.OP_WRITE);
+            return true;
+        }
+
+        void write(SelectionKey key) throws IOException {
+            while (response.writeTo(channel)) {
+                response.record(server, client);
+                lastActive = System.currentTimeMillis();
+                boolean persistent = response.isKeepAlive();
+                response.close();
+                response = null;
+                if (!persistent) {
+                    close();
+                    key.cancel();
+                    return;
+                }
+                key.interestOps(SelectionKey.OP_READ);
+                if (!nextRequest(key)) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Stops serving the connection in this loop, the loop hands it to a worker once the selector has dropped it.
+         * @param key The selected key of the connection
+         * @param pending The request asking for the upgrade to HTTP/2, carrying an upload or reading the disk, or null
+         *                if the client sent the preface
+         */
+        private void handOver(SelectionKey key, HttpRequest pending) {
+            this.pending = pending;
+            handingOver = true;
+            key.interestOps(0);
+        }
+
+        boolean isHandedOver() {
+            return handingOver && !closed;
+        }
+
+        /**
+         * Hands the connection to a worker, which continues it in blocking mode, in HTTP/2 or with the pending request.
+         * The worker counts it as a connection of its own and releases it from the admission control once it is closed.
+         */
+        void handOver() {
+            closed = true;
+            server.getMetrics().connectionClosed();
+            try {
+                channel.configureBlocking(true);
+                input.flip();
+                server.getWorkerPool().execute(new Request(server, channel.socket(), input, pending));
+            }
+            catch (IOException e) {
+                LOGGER.info("Client has dropped the connection");
+                server.getAdmission().disconnect(client);
+                try {
+                    channel.close();
+                }
+                catch (IOException closing) {
+                    LOGGER.info("Could not close the client socket.");
+                }
+            }
+        }
+
+        /**
+         * Marks the phase the connection waits for its client in: writing a response, or reading a head which has
+         * started to arrive. A phase keeps its start until the next one, e.g. while a head arrives in pieces.
+         */
+        void track() {
+            if (response != null) {
+                if (response != tracked) {
+                    tracked = response;
+                    deadlines.start(Deadlines.Phase.WRITE, System.nanoTime());
+                }
+                return;
+            }
+            tracked = null;
+            if (input.position() == 0) {
+                deadlines.stop();
+            }
+            else if (deadlines.getPhase() != Deadlines.Phase.HEAD) {
+                deadlines.start(Deadlines.Phase.HEAD, System.nanoTime());
+            }
+        }
+
+        /**
+         * @param now The current time of System.nanoTime()
+         * @return The phase the client missed its deadline in, or null
+         */
+        Deadlines.Phase stalled(long now) {
+            return deadlines.check(now, response != null ? response.getBytesSent() : 0);
+        }
+
+        /**
+         * @return true if the connection waits for the first byte of its next request
+         */
+        boolean isWaiting() {
+            return response == null && input.position() == 0;
+        }
+
+        /**
+         * @param now The current time
+         * @return true if the connection waits for the next request longer than the keep-alive timeout
+         */
+        boolean isIdle(long now) {
+            return response == null && now - lastActive > server.getConfig().getKeepAliveTimeoutMillis();
+        }
+
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            server.getMetrics().connectionClosed();
+            server.getAdmission().disconnect(client);
+            if (response != null) {
+                response.close();
+            }
+            try {
+                channel.close();
+            }
+            catch (IOException e) {
+                LOGGER.info("Could not close the client socket.");
+            }
+        }
+    }
+}
@@ -1,8 +1,18 @@
 package webServer;
 
+import java.io.File;
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.text.ParseException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -13,36 +23,375 @@ import java.util.logging.Logger;
  *  * @version 0.1
  * */
 public class Server implements Runnable {
+    /**
+     * Connection engines
+     */
+    public enum Engine{BLOCKING, NIO}
     private final int port;
-    private boolean exit = false;
+    private volatile boolean exit = false;
     public final String servedDirectory;
+    private volatile String servedRoot;
+    private final ServerConfig config;
+    private final WorkerPool workers;
+    private final CompressionCache compressionCache;
+    private final EntityTags entityTags;
+    private final HttpParser parser;
+    private final DirectoryListings directoryListings;
+    private final FileMetadata fileMetadata;
+    private final ContentTypes contentTypes;
+    private final AssetStore assetStore;
+    private final Metrics metrics = new Metrics();
+    private final AccessLog accessLog;
+    private final AdmissionControl admission;
+    private volatile SelectorEngine selectorEngine;
+    private volatile Listeners listeners;
+    private final List<Thread> acceptors = new CopyOnWriteArrayList<>();
+    private final Set<Request> connections = ConcurrentHashMap.newKeySet();
+    private final CountDownLatch bound = new CountDownLatch(1);
+    private volatile List<InetSocketAddress> localAddresses = Collections.emptyList();
+    /**
+     * Interval in which the connections served by workers are checked for clients which missed a deadline.
+     */
+    private static final long WATCH_INTERVAL_MILLIS = 500;
     private final static Logger LOGGER = Logger.getLogger(Server.class.getName());
 
     @Override
     public void run() {
-        try {
-            ServerSocket serverSocket = new ServerSocket(this.port);
-            LOGGER.info("Serving " + servedDirectory + " on " + this.port);
-                while(!exit) {
-                    try {
-                        Request request = new Request(this, serverSocket.accept());
-                        Thread require = new Thread(request);
-                        require.start();
-                    }
-                    catch (NullPointerException | ParseException | IOException e)
-                    {
-                        LOGGER.info("Client has dropped the connection");
-                    }
+        // The preloaded assets are in memory before the first connection is accepted.
+        assetStore.start();
+        accessLog.start();
+        Thread watchdog = new Thread(this::watch, "webserver-watchdog");
+        watchdog.setDaemon(true);
+        watchdog.start();
+        if (config.getEngine() == Engine.NIO) {
+            selectorEngine = new SelectorEngine(this, getListenAddresses(), config.getAcceptors(),
+                    config.getEventLoops());
+            selectorEngine.run();
+            return;
+        }
+        // The sockets are opened through channels, so the accepted sockets have channels for zero-copy transfers.
+        List<InetSocketAddress> addresses = getListenAddresses();
+        try (Listeners bound = Listeners.open(addresses, config.getAcceptors(), config.isReusePort())) {
+            listeners = bound;
+            listening(bound.getLocalAddresses());
+            LOGGER.info("Serving " + servedDirectory + " on " + bound.getLocalAddresses() + " using "
+                    + config.getAcceptors() + " acceptors and " + workers.getMode() + " threads");
+            for (int i = 0; i < config.getAcceptors(); i++) {
+                final int group = i;
+                for (ServerSocketChannel channel : bound.get(i)) {
+                    Thread acceptor = new Thread(() -> accept(channel, group), "webserver-acceptor-" + (i + 1));
+                    acceptor.setDaemon(true);
+                    acceptor.start();
+                    acceptors.add(acceptor);
                 }
+            }
+            for (Thread acceptor : acceptors) {
+                acceptor.join();
+            }
         } catch (IOException e) {
-            LOGGER.warning("Port "  + port + " is currently being used, try another one.");
+            LOGGER.warning("Could not listen on " + addresses + ", the port may be used already: " + e.getMessage());
+            listening(Collections.<InetSocketAddress>emptyList());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Accepts connections from one socket until the server stops and hands them to the worker group of the acceptor.
+     * @param channel The listening socket
+     * @param group The index of the acceptor
+     */
+    private void accept(ServerSocketChannel channel, int group) {
+        while (!exit) {
+            try {
+                Socket accepted = channel.accept().socket();
+                // A head written before its file region must not wait for the acknowledgement of the client.
+                accepted.setTcpNoDelay(true);
+                // A refused client is answered right here, before its connection takes a worker or a queue slot.
+                AdmissionControl.Refusal refusal = admission.connect(accepted.getInetAddress().getHostAddress());
+                if (refusal != null) {
+                    Request.refuse(accepted, refusal);
+                    continue;
+                }
+                workers.execute(group, new Request(this, accepted));
+            }
+            catch (ClosedChannelException e) {
+                if (!exit) {
+                    LOGGER.warning("The listening socket has been closed.");
+                }
+                return;
+            }
+            catch (IOException e) {
+                if (!exit) {
+                    LOGGER.info("Client has dropped the connection");
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes the connections served by workers whose clients missed a deadline, see Deadlines. A worker blocked reading
+     * or writing such a connection is released once its socket is closed. Runs until the server has stopped and its
+     * last connection is closed.
+     */
+    private void watch() {
+        while (!exit || !connections.isEmpty()) {
+            try {
+                Thread.sleep(WATCH_INTERVAL_MILLIS);
+            }
+            catch (InterruptedException e) {
+                return;
+            }
+            long now = System.nanoTime();
+            for (Request connection : connections) {
+                connection.closeIfStalled(now);
+            }
+        }
+    }
+
+    /**
+     * @return The configured addresses to listen on, by default the port of the server on all interfaces
+     */
+    List<InetSocketAddress> getListenAddresses() {
+        return config.getListen() != null
+                ? Listeners.parse(config.getListen())
+                : Collections.singletonList(new InetSocketAddress(port));
+    }
+
+    /**
+     * Called by the engines once the sockets are bound, or with an empty list if they could not be bound.
+     * @param localAddresses The addresses the server listens on
+     */
+    void listening(List<InetSocketAddress> localAddresses) {
+        this.localAddresses = localAddresses;
+        bound.countDown();
+    }
+
+    /**
+     * Waits until the server accepts connections. With port 0 the system picks a free port, e.g. for tests and
+     * benchmarks which run next to other servers.
+     * @param timeoutMillis Longest time to wait
+     * @return The port the server listens on, the one of the first address if it listens on several
+     * @throws IOException We throw an IOException if the port could not be bound in time
+     * @throws InterruptedException We throw an InterruptedException if the waiting thread is interrupted
+     */
+    public int awaitListening(long timeoutMillis) throws IOException, InterruptedException {
+        if (!bound.await(timeoutMillis, TimeUnit.MILLISECONDS) || localAddresses.isEmpty()) {
+            throw new IOException("The server is not listening on port " + port);
         }
+        return localAddresses.get(0).getPort();
     }
 
+    /**
+     * @return The addresses the server listens on, with the ports picked by the system, empty before it listens
+     */
+    public List<InetSocketAddress> getLocalAddresses() {
+        return localAddresses;
+    }
+
+
+    /**
+     * Stops the server gracefully within the configured drain timeout, see stop(long).
+     */
+    public void stop() {
+        stop(config.getDrainTimeoutMillis());
+    }
 
-    public void stop(){
-        LOGGER.info("Received shutdown command. Closing for now.");
+    /**
+     * Stops the server gracefully. The port is released before the connections are drained, so a new instance can bind
+     * it once this returns. Connections waiting for their next request are closed, requests in flight are answered with
+     * Connection: close. Connections still busy when the timeout runs out are closed, requests still waiting for a
+     * worker are answered with 503. Further calls do nothing.
+     * @param timeoutMillis Time the requests in flight are given to finish
+     * @return true if all connections finished in time
+     */
+    public synchronized boolean stop(long timeoutMillis) {
+        if (exit) {
+            return true;
+        }
+        LOGGER.info("Received shutdown command. Draining connections for up to " + timeoutMillis + " ms.");
         this.exit = true;
+        boolean drained;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        try {
+            if (selectorEngine != null) {
+                drained = selectorEngine.drain(timeoutMillis);
+            }
+            else {
+                closeListeners();
+                // A listening socket is released only once the acceptor blocked on it has returned.
+                drained = joinAcceptors(deadline);
+            }
+            // The connections served by workers: all of the blocking engine, the HTTP/2 ones of the non-blocking one.
+            for (Request connection : connections) {
+                connection.closeIfIdle();
+            }
+            workers.shutdown();
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            drained = workers.awaitTermination(Math.max(remaining, 0)) && drained;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            drained = false;
+        }
+        if (!drained) {
+            LOGGER.warning("Connections did not finish within " + timeoutMillis + " ms, closing them.");
+            workers.shutdownNow();
+            for (Request connection : connections) {
+                connection.abort();
+            }
+        }
+        if (selectorEngine != null) {
+            selectorEngine.stop();
+        }
+        workers.shutdown();
+        assetStore.stop();
+        accessLog.stop();
+        return drained;
+    }
+
+    /**
+     * Closes the listening sockets of the blocking engine, which ends its accept loops.
+     */
+    private void closeListeners() {
+        Listeners bound = listeners;
+        if (bound != null) {
+            bound.close();
+        }
+    }
+
+    /**
+     * Waits for the accept loops of the blocking engine to return after their listening sockets have been closed.
+     * @param deadline The System.nanoTime() to wait until at most
+     * @return true if all accept loops have returned in time
+     * @throws InterruptedException We throw an InterruptedException if the waiting thread is interrupted
+     */
+    private boolean joinAcceptors(long deadline) throws InterruptedException {
+        for (Thread acceptor : acceptors) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            acceptor.join(Math.max(remaining, 1));
+            if (acceptor.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true once the server is stopping, new requests are answered with Connection: close from then on
+     */
+    public boolean isDraining() {
+        return exit;
+    }
+
+    /**
+     * Called by a connection served by a worker when the worker starts serving it.
+     * @param connection The connection
+     */
+    void opened(Request connection) {
+        connections.add(connection);
+    }
+
+    /**
+     * Called by a connection served by a worker when it is closed.
+     * @param connection The connection
+     */
+    void closed(Request connection) {
+        connections.remove(connection);
+    }
+
+    /**
+     * @return The canonical path of the served directory, resolved once
+     * @throws IOException We throw an IOException if the path cannot be resolved
+     */
+    public String getServedRoot() throws IOException {
+        String root = servedRoot;
+        if (root == null) {
+            root = new File(servedDirectory).getCanonicalPath();
+            servedRoot = root;
+        }
+        return root;
+    }
+
+    /**
+     * @return The pool serving the accepted requests, exposes its size, queue depth and rejections.
+     */
+    public WorkerPool getWorkerPool() {
+        return workers;
+    }
+
+    /**
+     * @return The cache of compressed files, exposes hits, misses, evictions and resident bytes.
+     */
+    public CompressionCache getCompressionCache() {
+        return compressionCache;
+    }
+
+    /**
+     * @return The source of the Etags of the served files.
+     */
+    public EntityTags getEntityTags() {
+        return entityTags;
+    }
+
+    /**
+     * @return The cache of directory listings, exposes hits, misses and invalidations.
+     */
+    public DirectoryListings getDirectoryListings() {
+        return directoryListings;
+    }
+
+    /**
+     * @return The cache of file metadata, exposes hits and misses.
+     */
+    public FileMetadata getFileMetadata() {
+        return fileMetadata;
+    }
+
+    /**
+     * @return The content types by file ending, exposes hits and misses of the sniffed types.
+     */
+    public ContentTypes getContentTypes() {
+        return contentTypes;
+    }
+
+    /**
+     * @return The preloaded assets, exposes their number, resident bytes and reloads.
+     */
+    public AssetStore getAssetStore() {
+        return assetStore;
+    }
+
+    /**
+     * @return The counters and latency histograms of the served requests.
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return The access log, exposes the number of written and dropped records.
+     */
+    public AccessLog getAccessLog() {
+        return accessLog;
+    }
+
+    /**
+     * @return The admission control, exposes the connections held and the refusals by reason.
+     */
+    public AdmissionControl getAdmission() {
+        return admission;
+    }
+
+    /**
+     * @return The parser of the request heads, shared by all connections.
+     */
+    public HttpParser getParser() {
+        return parser;
+    }
+
+    public ServerConfig getConfig() {
+        return config;
     }
 
     /**
@@ -52,11 +401,40 @@ public class Server implements Runnable {
      * @param logLevel The level on which we want to log the application
      */
     public Server(String path, int port, Level logLevel)
+    {
+        this(path, port, logLevel, ServerConfig.fromSystemProperties());
+    }
+
+    /**
+     * Initializes the webserver with an explicit configuration.
+     * @param path The path to be served
+     * @param port  The port on which the server listens
+     * @param logLevel The level on which we want to log the application
+     * @param config The tunables, e.g. size of the worker pool
+     */
+    public Server(String path, int port, Level logLevel, ServerConfig config)
     {
         LOGGER.setLevel(logLevel);
         this.servedDirectory = path;
         this.port = port;
-
+        this.config = config;
+        this.workers = config.getExecutionMode() == WorkerPool.Mode.VIRTUAL
+                ? new WorkerPool(WorkerPool.Mode.VIRTUAL, config.getMaxConnections(), 0)
+                : new WorkerPool(WorkerPool.Mode.PLATFORM, config.getWorkerThreads(), config.getQueueCapacity(),
+                        config.getAcceptors());
+        this.compressionCache = new CompressionCache(config.getCompressionCacheBytes(),
+                config.getCompressionCacheMaxEntryBytes(), config.isCompressionCacheOffHeap());
+        this.entityTags = new EntityTags(config.getEtagMode(), config.getEtagCacheEntries());
+        this.parser = new HttpParser(config.getMaxRequestLine(), config.getMaxHeadSize(), config.getMaxHeaders());
+        this.directoryListings = new DirectoryListings(config.getListingPageSize(), config.getListingCacheEntries());
+        this.fileMetadata = new FileMetadata(config.getFileCacheValidityMillis(), config.getFileCacheEntries());
+        this.contentTypes = new ContentTypes(config.getContentTypesPath(), config.getContentTypeCharset(),
+                config.isContentTypeSniffing(), config.getSniffCacheEntries());
+        this.assetStore = new AssetStore(path, config.getAssetsPath(), config.getAssetsMaxBytes(),
+                config.isAssetsMapped(), config.getAssetsCheckMillis(), entityTags, contentTypes);
+        this.accessLog = new AccessLog(config.getAccessLogPath(), config.getAccessLogBufferRecords(),
+                config.getAccessLogMaxBytes(), config.getAccessLogRollMillis());
+        this.admission = new AdmissionControl(config);
     }
 
     /**
@@ -79,7 +457,10 @@ public class Server implements Runnable {
             }
         }
 
-        Server newServer = new Server(path, port, Level.ALL);
+        // Requests are recorded in the access log, the server log only reports what goes wrong.
+        Server newServer = new Server(path, port, Level.INFO);
+        // SIGTERM drains the connections and flushes the access log before the JVM exits.
+        Runtime.getRuntime().addShutdownHook(new Thread(newServer::stop, "webserver-shutdown"));
         Thread serve = new Thread(newServer);
         serve.start();
     }
@@ -0,0 +1,1008 @@
+package webServer;
+
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.function.Consumer;
+
+/**
+ * Tunables of the webserver. Every value has a sensible default and can be overridden on the command line through a
+ * system property, e.g. -Dwebserver.workers=64, so the server can be sized for the expected load without a rebuild.
+ *  * @author Oguzhan Yigit
+ *  * @email yigit@adobe.com
+ *  * @version 0.1
+ */
+public class ServerConfig {
+    private int workerThreads = Runtime.getRuntime().availableProcessors() * 8;
+    private int queueCapacity = 256;
+    private WorkerPool.Mode executionMode = WorkerPool.Mode.PLATFORM;
+    private int maxConnections = 10000;
+    private Server.Engine engine = Server.Engine.BLOCKING;
+    private int eventLoops = Runtime.getRuntime().availableProcessors();
+    private long compressionCacheBytes = 64L * 1024 * 1024;
+    private long compressionCacheMaxEntryBytes = 1024 * 1024;
+    private boolean compressionCacheOffHeap = false;
+    private EntityTags.Mode etagMode = EntityTags.Mode.METADATA;
+    private int etagCacheEntries = 10000;
+    private int keepAliveTimeoutMillis = 5000;
+    private int keepAliveMaxRequests = 100;
+    private int headTimeoutMillis = 10000;
+    private int bodyTimeoutMillis = 30000;
+    private long minTransferRate = 1024;
+    private int maxRequestLine = HttpParser.MAX_REQUEST_LINE;
+    private int maxHeadSize = HttpParser.MAX_HEAD_SIZE;
+    private int maxHeaders = HttpParser.MAX_HEADERS;
+    private int listingPageSize = 1000;
+    private int listingCacheEntries = 1024;
+    private long fileCacheValidityMillis = 1000;
+    private int fileCacheEntries = 10000;
+    private String assetsPath = null;
+    private long assetsMaxBytes = 256L * 1024 * 1024;
+    private boolean assetsMapped = false;
+    private long assetsCheckMillis = 2000;
+    private String metricsPath = "/server-metrics";
+    private String accessLogPath = null;
+    private int accessLogBufferRecords = 16384;
+    private long accessLogMaxBytes = 100L * 1024 * 1024;
+    private long accessLogRollMillis = 24L * 60 * 60 * 1000;
+    private boolean reusePort = false;
+    private String listen = null;
+    private int acceptors = 1;
+    private long drainTimeoutMillis = 10000;
+    private boolean http2 = true;
+    private int http2MaxConcurrentStreams = 100;
+    private int http2InitialWindowSize = Http2Connection.DEFAULT_WINDOW;
+    private boolean uploads = false;
+    private long uploadMaxBytes = 8L * 1024 * 1024 * 1024;
+    private int maxConnectionsPerClient = 0;
+    private int requestsPerSecond = 0;
+    private int requestBurst = 100;
+    private long bytesPerSecond = 0;
+    private long byteBurst = 16L * 1024 * 1024;
+    private int overloadConnections = 0;
+    private int admissionMaxClients = 65536;
+    private long admissionExpiryMillis = 60000;
+    private String contentTypesPath = null;
+    private String contentTypeCharset = "utf-8";
+    private boolean contentTypeSniffing = false;
+    private int sniffCacheEntries = 10000;
+
+    /**
+     * Reads the configuration from the system properties, falling back to the defaults for missing values. Every value
+     * passes the validation of its setter.
+     * @return The configuration
+     * @throws IllegalArgumentException We throw an IllegalArgumentException naming the property if a value is malformed
+     * or out of range
+     */
+    public static ServerConfig fromSystemProperties() {
+        ServerConfig config = new ServerConfig();
+        property("webserver.workers", value -> config.setWorkerThreads(Integer.parseInt(value)));
+        property("webserver.queue", value -> config.setQueueCapacity(Integer.parseInt(value)));
+        property("webserver.executor", value -> config.setExecutionMode(
+                WorkerPool.Mode.valueOf(value.toUpperCase(Locale.ROOT))));
+        property("webserver.maxConnections", value -> config.setMaxConnections(Integer.parseInt(value)));
+        property("webserver.engine", value -> config.setEngine(Server.Engine.valueOf(value.toUpperCase(Locale.ROOT))));
+        property("webserver.eventLoops", value -> config.setEventLoops(Integer.parseInt(value)));
+        property("webserver.cache.bytes", value -> config.setCompressionCacheBytes(Long.parseLong(value)));
+        property("webserver.cache.maxEntryBytes", value -> config.setCompressionCacheMaxEntryBytes(
+                Long.parseLong(value)));
+        property("webserver.cache.offHeap", value -> config.setCompressionCacheOffHeap(parseBoolean(value)));
+        property("webserver.etag", value -> config.setEtagMode(EntityTags.Mode.valueOf(value.toUpperCase(Locale.ROOT))));
+        property("webserver.etag.cacheEntries", value -> config.setEtagCacheEntries(Integer.parseInt(value)));
+        property("webserver.keepAlive.timeoutMillis", value -> config.setKeepAliveTimeoutMillis(Integer.parseInt(value)));
+        property("webserver.keepAlive.maxRequests", value -> config.setKeepAliveMaxRequests(Integer.parseInt(value)));
+        property("webserver.timeout.headMillis", value -> config.setHeadTimeoutMillis(Integer.parseInt(value)));
+        property("webserver.timeout.bodyMillis", value -> config.setBodyTimeoutMillis(Integer.parseInt(value)));
+        property("webserver.timeout.minBytesPerSecond", value -> config.setMinTransferRate(Long.parseLong(value)));
+        property("webserver.maxRequestLine", value -> config.setMaxRequestLine(Integer.parseInt(value)));
+        property("webserver.maxHeadSize", value -> config.setMaxHeadSize(Integer.parseInt(value)));
+        property("webserver.maxHeaders", value -> config.setMaxHeaders(Integer.parseInt(value)));
+        property("webserver.listing.pageSize", value -> config.setListingPageSize(Integer.parseInt(value)));
+        property("webserver.listing.cacheEntries", value -> config.setListingCacheEntries(Integer.parseInt(value)));
+        property("webserver.fileCache.validityMillis", value -> config.setFileCacheValidityMillis(
+                Long.parseLong(value)));
+        property("webserver.fileCache.entries", value -> config.setFileCacheEntries(Integer.parseInt(value)));
+        property("webserver.assets.path", value -> config.setAssetsPath(value.isEmpty() ? null : value));
+        property("webserver.assets.maxBytes", value -> config.setAssetsMaxBytes(Long.parseLong(value)));
+        property("webserver.assets.mapped", value -> config.setAssetsMapped(parseBoolean(value)));
+        property("webserver.assets.checkMillis", value -> config.setAssetsCheckMillis(Long.parseLong(value)));
+        property("webserver.metrics.path", config::setMetricsPath);
+        property("webserver.accessLog.path", value -> config.setAccessLogPath(value.isEmpty() ? null : value));
+        property("webserver.accessLog.bufferRecords", value -> config.setAccessLogBufferRecords(
+                Integer.parseInt(value)));
+        property("webserver.accessLog.maxBytes", value -> config.setAccessLogMaxBytes(Long.parseLong(value)));
+        property("webserver.accessLog.rollMillis", value -> config.setAccessLogRollMillis(Long.parseLong(value)));
+        property("webserver.reusePort", value -> config.setReusePort(parseBoolean(value)));
+        property("webserver.listen", value -> config.setListen(value.isEmpty() ? null : value));
+        property("webserver.acceptors", value -> config.setAcceptors(Integer.parseInt(value)));
+        property("webserver.drain.timeoutMillis", value -> config.setDrainTimeoutMillis(Long.parseLong(value)));
+        property("webserver.http2", value -> config.setHttp2(parseBoolean(value)));
+        property("webserver.http2.maxConcurrentStreams", value -> config.setHttp2MaxConcurrentStreams(
+                Integer.parseInt(value)));
+        property("webserver.http2.initialWindowSize", value -> config.setHttp2InitialWindowSize(
+                Integer.parseInt(value)));
+        property("webserver.uploads", value -> config.setUploads(parseBoolean(value)));
+        property("webserver.upload.maxBytes", value -> config.setUploadMaxBytes(Long.parseLong(value)));
+        property("webserver.admission.maxConnectionsPerClient", value -> config.setMaxConnectionsPerClient(
+                Integer.parseInt(value)));
+        property("webserver.admission.requestsPerSecond", value -> config.setRequestsPerSecond(
+                Integer.parseInt(value)));
+        property("webserver.admission.requestBurst", value -> config.setRequestBurst(Integer.parseInt(value)));
+        property("webserver.admission.bytesPerSecond", value -> config.setBytesPerSecond(Long.parseLong(value)));
+        property("webserver.admission.byteBurst", value -> config.setByteBurst(Long.parseLong(value)));
+        property("webserver.admission.overloadConnections", value -> config.setOverloadConnections(
+                Integer.parseInt(value)));
+        property("webserver.admission.maxClients", value -> config.setAdmissionMaxClients(Integer.parseInt(value)));
+        property("webserver.admission.expiryMillis", value -> config.setAdmissionExpiryMillis(
+                Long.parseLong(value)));
+        property("webserver.contentTypes.path", value -> config.setContentTypesPath(value.isEmpty() ? null : value));
+        property("webserver.contentTypes.charset", config::setContentTypeCharset);
+        property("webserver.contentTypes.sniff", value -> config.setContentTypeSniffing(parseBoolean(value)));
+        property("webserver.contentTypes.sniffCacheEntries", value -> config.setSniffCacheEntries(
+                Integer.parseInt(value)));
+        return config;
+    }
+
+    /**
+     * Applies a system property through the setter of its value, so it is validated like a value set in code.
+     * @param name The name of the property
+     * @param setter Parses the trimmed value and sets it, not called if the property is missing
+     * @throws IllegalArgumentException We throw an IllegalArgumentException naming the property if the value is
+     * malformed or refused by the setter
+     */
+    static void property(String name, Consumer<String> setter) {
+        String value = System.getProperty(name);
+        if (value == null) {
+            return;
+        }
+        try {
+            setter.accept(value.trim());
+        }
+        catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid value '" + value + "' of " + name + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @param value A boolean property
+     * @return The parsed value
+     * @throws IllegalArgumentException We throw an IllegalArgumentException if the value is neither true nor false
+     */
+    static boolean parseBoolean(String value) {
+        if (!value.equalsIgnoreCase("true") && !value.equalsIgnoreCase("false")) {
+            throw new IllegalArgumentException("Expected true or false");
+        }
+        return Boolean.parseBoolean(value);
+    }
+
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    /**
+     * @param workerThreads Number of threads serving requests
+     * @return this
+     */
+    public ServerConfig setWorkerThreads(int workerThreads) {
+        if (workerThreads < 1) {
+            throw new IllegalArgumentException("At least one worker thread is required");
+        }
+        this.workerThreads = workerThreads;
+        return this;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * @param queueCapacity Number of accepted connections which may wait for a worker before we answer with 503
+     * @return this
+     */
+    public ServerConfig setQueueCapacity(int queueCapacity) {
+        if (queueCapacity < 0) {
+            throw new IllegalArgumentException("The queue capacity must not be negative");
+        }
+        this.queueCapacity = queueCapacity;
+        return this;
+    }
+
+    public WorkerPool.Mode getExecutionMode() {
+        return executionMode;
+    }
+
+    /**
+     * @param executionMode PLATFORM for the bounded thread pool, VIRTUAL for one virtual thread per connection
+     * @return this
+     */
+    public ServerConfig setExecutionMode(WorkerPool.Mode executionMode) {
+        this.executionMode = executionMode;
+        return this;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * @param maxConnections Number of connections served at once in VIRTUAL mode before we answer with 503
+     * @return this
+     */
+    public ServerConfig setMaxConnections(int maxConnections) {
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException("At least one connection is required");
+        }
+        this.maxConnections = maxConnections;
+        return this;
+    }
+
+    public Server.Engine getEngine() {
+        return engine;
+    }
+
+    /**
+     * @param engine BLOCKING for a thread per connection, NIO for the selector based event loops
+     * @return this
+     */
+    public ServerConfig setEngine(Server.Engine engine) {
+        this.engine = engine;
+        return this;
+    }
+
+    public int getEventLoops() {
+        return eventLoops;
+    }
+
+    /**
+     * @param eventLoops Number of event loop threads of the NIO engine
+     * @return this
+     */
+    public ServerConfig setEventLoops(int eventLoops) {
+        if (eventLoops < 1) {
+            throw new IllegalArgumentException("At least one event loop is required");
+        }
+        this.eventLoops = eventLoops;
+        return this;
+    }
+
+    public long getCompressionCacheBytes() {
+        return compressionCacheBytes;
+    }
+
+    /**
+     * @param compressionCacheBytes Total size of the cached compressed files, 0 disables the cache
+     * @return this
+     */
+    public ServerConfig setCompressionCacheBytes(long compressionCacheBytes) {
+        if (compressionCacheBytes < 0) {
+            throw new IllegalArgumentException("The cache size must not be negative");
+        }
+        this.compressionCacheBytes = compressionCacheBytes;
+        return this;
+    }
+
+    public long getCompressionCacheMaxEntryBytes() {
+        return compressionCacheMaxEntryBytes;
+    }
+
+    /**
+     * @param compressionCacheMaxEntryBytes Files larger than this are compressed while streaming instead of cached
+     * @return this
+     */
+    public ServerConfig setCompressionCacheMaxEntryBytes(long compressionCacheMaxEntryBytes) {
+        if (compressionCacheMaxEntryBytes < 0) {
+            throw new IllegalArgumentException("The largest cached file must not be negative");
+        }
+        this.compressionCacheMaxEntryBytes = compressionCacheMaxEntryBytes;
+        return this;
+    }
+
+    public boolean isCompressionCacheOffHeap() {
+        return compressionCacheOffHeap;
+    }
+
+    /**
+     * @param compressionCacheOffHeap true to hold the cached compressed files in direct buffers outside of the heap
+     * @return this
+     */
+    public ServerConfig setCompressionCacheOffHeap(boolean compressionCacheOffHeap) {
+        this.compressionCacheOffHeap = compressionCacheOffHeap;
+        return this;
+    }
+
+    public EntityTags.Mode getEtagMode() {
+        return etagMode;
+    }
+
+    /**
+     * @param etagMode METADATA to derive Etags from modification time and size, CONTENT for a cached MD5 of the file
+     * @return this
+     */
+    public ServerConfig setEtagMode(EntityTags.Mode etagMode) {
+        this.etagMode = etagMode;
+        return this;
+    }
+
+    public int getEtagCacheEntries() {
+        return etagCacheEntries;
+    }
+
+    /**
+     * @param etagCacheEntries Number of content digests remembered in CONTENT mode
+     * @return this
+     */
+    public ServerConfig setEtagCacheEntries(int etagCacheEntries) {
+        if (etagCacheEntries < 0) {
+            throw new IllegalArgumentException("The digest cache size must not be negative");
+        }
+        this.etagCacheEntries = etagCacheEntries;
+        return this;
+    }
+
+    public int getKeepAliveTimeoutMillis() {
+        return keepAliveTimeoutMillis;
+    }
+
+    /**
+     * @param keepAliveTimeoutMillis Time an idle persistent connection is kept open for the next request
+     * @return this
+     */
+    public ServerConfig setKeepAliveTimeoutMillis(int keepAliveTimeoutMillis) {
+        if (keepAliveTimeoutMillis < 1) {
+            throw new IllegalArgumentException("The keep-alive timeout must be positive");
+        }
+        this.keepAliveTimeoutMillis = keepAliveTimeoutMillis;
+        return this;
+    }
+
+    public int getKeepAliveMaxRequests() {
+        return keepAliveMaxRequests;
+    }
+
+    /**
+     * @param keepAliveMaxRequests Number of requests served on one connection before it is closed, 1 disables keep-alive
+     * @return this
+     */
+    public ServerConfig setKeepAliveMaxRequests(int keepAliveMaxRequests) {
+        if (keepAliveMaxRequests < 1) {
+            throw new IllegalArgumentException("At least one request per connection is required");
+        }
+        this.keepAliveMaxRequests = keepAliveMaxRequests;
+        return this;
+    }
+
+    public int getHeadTimeoutMillis() {
+        return headTimeoutMillis;
+    }
+
+    /**
+     * @param headTimeoutMillis Time within which the whole head of a request has to arrive once its first byte has,
+     *                          slower clients are disconnected
+     * @return this
+     */
+    public ServerConfig setHeadTimeoutMillis(int headTimeoutMillis) {
+        if (headTimeoutMillis < 1) {
+            throw new IllegalArgumentException("The head timeout must be positive");
+        }
+        this.headTimeoutMillis = headTimeoutMillis;
+        return this;
+    }
+
+    public int getBodyTimeoutMillis() {
+        return bodyTimeoutMillis;
+    }
+
+    /**
+     * @param bodyTimeoutMillis Longest time to wait for the next bytes of a request body before the client is
+     *                          disconnected
+     * @return this
+     */
+    public ServerConfig setBodyTimeoutMillis(int bodyTimeoutMillis) {
+        if (bodyTimeoutMillis < 1) {
+            throw new IllegalArgumentException("The body timeout must be positive");
+        }
+        this.bodyTimeoutMillis = bodyTimeoutMillis;
+        return this;
+    }
+
+    public long getMinTransferRate() {
+        return minTransferRate;
+    }
+
+    /**
+     * @param minTransferRate Bytes per second a client has to read of its response, or send of its request body, at
+     *                        least, measured over windows of ten seconds. Slower clients are disconnected, 0 for no
+     *                        minimum.
+     * @return this
+     */
+    public ServerConfig setMinTransferRate(long minTransferRate) {
+        if (minTransferRate < 0) {
+            throw new IllegalArgumentException("The minimum transfer rate must not be negative");
+        }
+        this.minTransferRate = minTransferRate;
+        return this;
+    }
+
+    public int getMaxRequestLine() {
+        return maxRequestLine;
+    }
+
+    /**
+     * @param maxRequestLine Maximum size of the request line in bytes, longer lines are answered with 414
+     * @return this
+     */
+    public ServerConfig setMaxRequestLine(int maxRequestLine) {
+        if (maxRequestLine < 16) {
+            throw new IllegalArgumentException("The request line limit must be at least 16 bytes");
+        }
+        this.maxRequestLine = maxRequestLine;
+        return this;
+    }
+
+    public int getMaxHeadSize() {
+        return maxHeadSize;
+    }
+
+    /**
+     * @param maxHeadSize Maximum size of the request head in bytes, larger heads are answered with 431
+     * @return this
+     */
+    public ServerConfig setMaxHeadSize(int maxHeadSize) {
+        if (maxHeadSize < 16) {
+            throw new IllegalArgumentException("The head size limit must be at least 16 bytes");
+        }
+        this.maxHeadSize = maxHeadSize;
+        return this;
+    }
+
+    public int getMaxHeaders() {
+        return maxHeaders;
+    }
+
+    /**
+     * @param maxHeaders Maximum number of header fields of a request, more fields are answered with 431
+     * @return this
+     */
+    public ServerConfig setMaxHeaders(int maxHeaders) {
+        if (maxHeaders < 0) {
+            throw new IllegalArgumentException("The header limit must not be negative");
+        }
+        this.maxHeaders = maxHeaders;
+        return this;
+    }
+
+    public int getListingPageSize() {
+        return listingPageSize;
+    }
+
+    /**
+     * @param listingPageSize Number of entries per page of a directory listing, clients may ask for up to 10000
+     * @return this
+     */
+    public ServerConfig setListingPageSize(int listingPageSize) {
+        if (listingPageSize < 1) {
+            throw new IllegalArgumentException("A listing page needs at least one entry");
+        }
+        this.listingPageSize = listingPageSize;
+        return this;
+    }
+
+    public int getListingCacheEntries() {
+        return listingCacheEntries;
+    }
+
+    /**
+     * @param listingCacheEntries Number of directories whose listings are cached, 0 disables the cache
+     * @return this
+     */
+    public ServerConfig setListingCacheEntries(int listingCacheEntries) {
+        if (listingCacheEntries < 0) {
+            throw new IllegalArgumentException("The listing cache size must not be negative");
+        }
+        this.listingCacheEntries = listingCacheEntries;
+        return this;
+    }
+
+    public long getFileCacheValidityMillis() {
+        return fileCacheValidityMillis;
+    }
+
+    /**
+     * @param fileCacheValidityMillis Time the metadata of a path is reused before it is read again, 0 disables the cache
+     * @return this
+     */
+    public ServerConfig setFileCacheValidityMillis(long fileCacheValidityMillis) {
+        if (fileCacheValidityMillis < 0) {
+            throw new IllegalArgumentException("The validity of cached file metadata must not be negative");
+        }
+        this.fileCacheValidityMillis = fileCacheValidityMillis;
+        return this;
+    }
+
+    public int getFileCacheEntries() {
+        return fileCacheEntries;
+    }
+
+    /**
+     * @param fileCacheEntries Number of paths whose metadata is cached, 0 disables the cache
+     * @return this
+     */
+    public ServerConfig setFileCacheEntries(int fileCacheEntries) {
+        if (fileCacheEntries < 0) {
+            throw new IllegalArgumentException("The file cache size must not be negative");
+        }
+        this.fileCacheEntries = fileCacheEntries;
+        return this;
+    }
+
+    public String getAssetsPath() {
+        return assetsPath;
+    }
+
+    /**
+     * @param assetsPath Request path of the subtree preloaded into memory, e.g. /static, null disables the store
+     * @return this
+     */
+    public ServerConfig setAssetsPath(String assetsPath) {
+        if (assetsPath != null && assetsPath.contains("..")) {
+            throw new IllegalArgumentException("The preloaded subtree must lie within the served directory");
+        }
+        this.assetsPath = assetsPath;
+        return this;
+    }
+
+    public long getAssetsMaxBytes() {
+        return assetsMaxBytes;
+    }
+
+    /**
+     * @param assetsMaxBytes Most bytes the preloaded files and their compressed forms may occupy
+     * @return this
+     */
+    public ServerConfig setAssetsMaxBytes(long assetsMaxBytes) {
+        if (assetsMaxBytes < 0) {
+            throw new IllegalArgumentException("The size of the asset store must not be negative");
+        }
+        this.assetsMaxBytes = assetsMaxBytes;
+        return this;
+    }
+
+    public boolean isAssetsMapped() {
+        return assetsMapped;
+    }
+
+    /**
+     * @param assetsMapped true to map the preloaded files instead of copying them into direct buffers
+     * @return this
+     */
+    public ServerConfig setAssetsMapped(boolean assetsMapped) {
+        this.assetsMapped = assetsMapped;
+        return this;
+    }
+
+    public long getAssetsCheckMillis() {
+        return assetsCheckMillis;
+    }
+
+    /**
+     * @param assetsCheckMillis Interval in which the preloaded files are compared with the disk, 0 disables reloading
+     * @return this
+     */
+    public ServerConfig setAssetsCheckMillis(long assetsCheckMillis) {
+        if (assetsCheckMillis < 0) {
+            throw new IllegalArgumentException("The check interval of the asset store must not be negative");
+        }
+        this.assetsCheckMillis = assetsCheckMillis;
+        return this;
+    }
+
+    public String getMetricsPath() {
+        return metricsPath;
+    }
+
+    /**
+     * @param metricsPath Reserved path the metrics are scraped from, null or empty disables the endpoint
+     * @return this
+     */
+    public ServerConfig setMetricsPath(String metricsPath) {
+        if (metricsPath != null && !metricsPath.isEmpty() && !metricsPath.startsWith("/")) {
+            throw new IllegalArgumentException("The metrics path must start with a slash");
+        }
+        this.metricsPath = metricsPath == null || metricsPath.isEmpty() ? null : metricsPath;
+        return this;
+    }
+
+    public String getAccessLogPath() {
+        return accessLogPath;
+    }
+
+    /**
+     * @param accessLogPath File the access log is written to, null disables the access log
+     * @return this
+     */
+    public ServerConfig setAccessLogPath(String accessLogPath) {
+        this.accessLogPath = accessLogPath;
+        return this;
+    }
+
+    public int getAccessLogBufferRecords() {
+        return accessLogBufferRecords;
+    }
+
+    /**
+     * @param accessLogBufferRecords Records waiting for the writer before further records are dropped
+     * @return this
+     */
+    public ServerConfig setAccessLogBufferRecords(int accessLogBufferRecords) {
+        if (accessLogBufferRecords < 1 || accessLogBufferRecords > 1 << 24) {
+            throw new IllegalArgumentException("The access log buffer must hold between 1 and 16777216 records");
+        }
+        this.accessLogBufferRecords = accessLogBufferRecords;
+        return this;
+    }
+
+    public long getAccessLogMaxBytes() {
+        return accessLogMaxBytes;
+    }
+
+    /**
+     * @param accessLogMaxBytes Size at which the access log is rolled, 0 disables rolling by size
+     * @return this
+     */
+    public ServerConfig setAccessLogMaxBytes(long accessLogMaxBytes) {
+        if (accessLogMaxBytes < 0) {
+            throw new IllegalArgumentException("The size limit of the access log must not be negative");
+        }
+        this.accessLogMaxBytes = accessLogMaxBytes;
+        return this;
+    }
+
+    public long getAccessLogRollMillis() {
+        return accessLogRollMillis;
+    }
+
+    /**
+     * @param accessLogRollMillis Interval at which the access log is rolled, 0 disables rolling by time
+     * @return this
+     */
+    public ServerConfig setAccessLogRollMillis(long accessLogRollMillis) {
+        if (accessLogRollMillis < 0) {
+            throw new IllegalArgumentException("The roll interval of the access log must not be negative");
+        }
+        this.accessLogRollMillis = accessLogRollMillis;
+        return this;
+    }
+
+    public boolean isReusePort() {
+        return reusePort;
+    }
+
+    /**
+     * @param reusePort true to bind the port with SO_REUSEPORT, so a new instance can bind while the old one drains
+     * @return this
+     */
+    public ServerConfig setReusePort(boolean reusePort) {
+        this.reusePort = reusePort;
+        return this;
+    }
+
+    public long getDrainTimeoutMillis() {
+        return drainTimeoutMillis;
+    }
+
+    /**
+     * @param drainTimeoutMillis Time the requests in flight are given to finish when the server is stopped
+     * @return this
+     */
+    public ServerConfig setDrainTimeoutMillis(long drainTimeoutMillis) {
+        if (drainTimeoutMillis < 0) {
+            throw new IllegalArgumentException("The drain timeout must not be negative");
+        }
+        this.drainTimeoutMillis = drainTimeoutMillis;
+        return this;
+    }
+
+    public String getListen() {
+        return listen;
+    }
+
+    /**
+     * @param listen Comma separated addresses to listen on, e.g. "8080,127.0.0.1:8081", or null for the port the
+     *               server was created with on all interfaces
+     * @return this
+     */
+    public ServerConfig setListen(String listen) {
+        if (listen != null) {
+            Listeners.parse(listen);
+        }
+        this.listen = listen;
+        return this;
+    }
+
+    public int getAcceptors() {
+        return acceptors;
+    }
+
+    /**
+     * @param acceptors Number of threads accepting connections, each with its own socket per address and its own group
+     *                  of workers or event loops
+     * @return this
+     */
+    public ServerConfig setAcceptors(int acceptors) {
+        if (acceptors < 1) {
+            throw new IllegalArgumentException("At least one acceptor is required");
+        }
+        this.acceptors = acceptors;
+        return this;
+    }
+
+    public boolean isHttp2() {
+        return http2;
+    }
+
+    /**
+     * @param http2 true to switch to HTTP/2 in cleartext for clients sending its preface or asking for an upgrade
+     * @return this
+     */
+    public ServerConfig setHttp2(boolean http2) {
+        this.http2 = http2;
+        return this;
+    }
+
+    public int getHttp2MaxConcurrentStreams() {
+        return http2MaxConcurrentStreams;
+    }
+
+    /**
+     * @param http2MaxConcurrentStreams Number of streams a client may open at once on one HTTP/2 connection, further
+     *                                  streams are refused
+     * @return this
+     */
+    public ServerConfig setHttp2MaxConcurrentStreams(int http2MaxConcurrentStreams) {
+        if (http2MaxConcurrentStreams < 1) {
+            throw new IllegalArgumentException("At least one concurrent stream is required");
+        }
+        this.http2MaxConcurrentStreams = http2MaxConcurrentStreams;
+        return this;
+    }
+
+    public int getHttp2InitialWindowSize() {
+        return http2InitialWindowSize;
+    }
+
+    /**
+     * @param http2InitialWindowSize Number of bytes a client may send on an HTTP/2 stream before the server asks for
+     *                               more, between 1 and 2^31-1
+     * @return this
+     */
+    public ServerConfig setHttp2InitialWindowSize(int http2InitialWindowSize) {
+        if (http2InitialWindowSize < 1) {
+            throw new IllegalArgumentException("The initial window size must be positive");
+        }
+        this.http2InitialWindowSize = http2InitialWindowSize;
+        return this;
+    }
+
+    public boolean isUploads() {
+        return uploads;
+    }
+
+    /**
+     * @param uploads true to store PUT and POST bodies in the served directory and to delete files on DELETE, false to
+     *                answer those methods with 405
+     * @return this
+     */
+    public ServerConfig setUploads(boolean uploads) {
+        this.uploads = uploads;
+        return this;
+    }
+
+    public long getUploadMaxBytes() {
+        return uploadMaxBytes;
+    }
+
+    /**
+     * @param uploadMaxBytes Largest body accepted by PUT or POST, larger ones are answered with 413
+     * @return this
+     */
+    public ServerConfig setUploadMaxBytes(long uploadMaxBytes) {
+        if (uploadMaxBytes < 0) {
+            throw new IllegalArgumentException("The upload limit must not be negative");
+        }
+        this.uploadMaxBytes = uploadMaxBytes;
+        return this;
+    }
+
+    public int getMaxConnectionsPerClient() {
+        return maxConnectionsPerClient;
+    }
+
+    /**
+     * @param maxConnectionsPerClient Number of connections one client address may hold at once, further ones are
+     *                                answered with 429, 0 for no limit
+     * @return this
+     */
+    public ServerConfig setMaxConnectionsPerClient(int maxConnectionsPerClient) {
+        if (maxConnectionsPerClient < 0) {
+            throw new IllegalArgumentException("The connections per client must not be negative");
+        }
+        this.maxConnectionsPerClient = maxConnectionsPerClient;
+        return this;
+    }
+
+    public int getRequestsPerSecond() {
+        return requestsPerSecond;
+    }
+
+    /**
+     * @param requestsPerSecond Steady rate of requests one client address may send, requests beyond it and the burst
+     *                          are answered with 429, 0 for no limit
+     * @return this
+     */
+    public ServerConfig setRequestsPerSecond(int requestsPerSecond) {
+        if (requestsPerSecond < 0) {
+            throw new IllegalArgumentException("The request rate must not be negative");
+        }
+        this.requestsPerSecond = requestsPerSecond;
+        return this;
+    }
+
+    public int getRequestBurst() {
+        return requestBurst;
+    }
+
+    /**
+     * @param requestBurst Number of requests a client may send at once on top of the steady rate
+     * @return this
+     */
+    public ServerConfig setRequestBurst(int requestBurst) {
+        if (requestBurst < 1) {
+            throw new IllegalArgumentException("The request burst must be at least one");
+        }
+        this.requestBurst = requestBurst;
+        return this;
+    }
+
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * @param bytesPerSecond Steady rate of response bytes one client address may receive, a client beyond it and the
+     *                       burst has its next requests answered with 429, 0 for no limit
+     * @return this
+     */
+    public ServerConfig setBytesPerSecond(long bytesPerSecond) {
+        if (bytesPerSecond < 0) {
+            throw new IllegalArgumentException("The bandwidth must not be negative");
+        }
+        this.bytesPerSecond = bytesPerSecond;
+        return this;
+    }
+
+    public long getByteBurst() {
+        return byteBurst;
+    }
+
+    /**
+     * @param byteBurst Number of response bytes a client may receive at once on top of the steady rate
+     * @return this
+     */
+    public ServerConfig setByteBurst(long byteBurst) {
+        if (byteBurst < 0) {
+            throw new IllegalArgumentException("The byte burst must not be negative");
+        }
+        this.byteBurst = byteBurst;
+        return this;
+    }
+
+    public int getOverloadConnections() {
+        return overloadConnections;
+    }
+
+    /**
+     * @param overloadConnections Number of connections above which new ones are shed with 503 until a tenth of them
+     *                            has closed, 0 to never shed
+     * @return this
+     */
+    public ServerConfig setOverloadConnections(int overloadConnections) {
+        if (overloadConnections < 0) {
+            throw new IllegalArgumentException("The overload threshold must not be negative");
+        }
+        this.overloadConnections = overloadConnections;
+        return this;
+    }
+
+    public int getAdmissionMaxClients() {
+        return admissionMaxClients;
+    }
+
+    /**
+     * @param admissionMaxClients Number of client addresses whose connections and buckets are remembered
+     * @return this
+     */
+    public ServerConfig setAdmissionMaxClients(int admissionMaxClients) {
+        if (admissionMaxClients < 1) {
+            throw new IllegalArgumentException("At least one client has to be remembered");
+        }
+        this.admissionMaxClients = admissionMaxClients;
+        return this;
+    }
+
+    public long getAdmissionExpiryMillis() {
+        return admissionExpiryMillis;
+    }
+
+    /**
+     * @param admissionExpiryMillis Time after which a client without connections is forgotten once room is needed
+     * @return this
+     */
+    public ServerConfig setAdmissionExpiryMillis(long admissionExpiryMillis) {
+        if (admissionExpiryMillis < 0) {
+            throw new IllegalArgumentException("The client expiry must not be negative");
+        }
+        this.admissionExpiryMillis = admissionExpiryMillis;
+        return this;
+    }
+
+    public String getContentTypesPath() {
+        return contentTypesPath;
+    }
+
+    /**
+     * @param contentTypesPath File in the format of /etc/mime.types whose lines override the shipped table, or null
+     * @return this
+     */
+    public ServerConfig setContentTypesPath(String contentTypesPath) {
+        this.contentTypesPath = contentTypesPath;
+        return this;
+    }
+
+    public String getContentTypeCharset() {
+        return contentTypeCharset;
+    }
+
+    /**
+     * @param contentTypeCharset Charset text types are sent with, null or empty to send them without
+     * @return this
+     */
+    public ServerConfig setContentTypeCharset(String contentTypeCharset) {
+        if (contentTypeCharset == null || contentTypeCharset.isEmpty()) {
+            this.contentTypeCharset = null;
+            return this;
+        }
+        if (!Charset.isSupported(contentTypeCharset)) {
+            throw new IllegalArgumentException("Unknown charset " + contentTypeCharset);
+        }
+        this.contentTypeCharset = contentTypeCharset.toLowerCase(Locale.ROOT);
+        return this;
+    }
+
+    public boolean isContentTypeSniffing() {
+        return contentTypeSniffing;
+    }
+
+    /**
+     * @param contentTypeSniffing true to determine the type of files with an unlisted ending from their first bytes
+     * @return this
+     */
+    public ServerConfig setContentTypeSniffing(boolean contentTypeSniffing) {
+        this.contentTypeSniffing = contentTypeSniffing;
+        return this;
+    }
+
+    public int getSniffCacheEntries() {
+        return sniffCacheEntries;
+    }
+
+    /**
+     * @param sniffCacheEntries Number of files whose sniffed type is remembered, 0 sniffs on every request
+     * @return this
+     */
+    public ServerConfig setSniffCacheEntries(int sniffCacheEntries) {
+        if (sniffCacheEntries < 0) {
+            throw new IllegalArgumentException("The sniff cache size must not be negative");
+        }
+        this.sniffCacheEntries = sniffCacheEntries;
+        return this;
+    }
+}
@@ -0,0 +1,332 @@
+package webServer;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Executes the accepted requests. Two modes are supported:
+ * + PLATFORM: a bounded pool of worker threads. Connections which neither find an idle worker nor a free slot in the
+ *   queue are rejected right away with a 503, so a burst of clients cannot pile up unbounded work.
+ * + VIRTUAL: every connection gets its own virtual thread, bounded by the maximum number of concurrent connections.
+ *   Requires a Java 21 runtime, on older runtimes the platform pool is used instead.
+ * The platform threads and the queue can be split into groups, one per acceptor, so the acceptors do not contend on
+ * one queue. The gauges exposed here sum up the groups and allow to size the pool and the queue for the expected load.
+ *  * @author Oguzhan Yigit
+ *  * @email yigit@adobe.com
+ *  * @version 0.1
+ */
+public class WorkerPool {
+    /**
+     * Execution modes
+     */
+    public enum Mode{PLATFORM, VIRTUAL}
+    private final Mode mode;
+    private final ExecutorService[] executors;
+    private final int queueCapacity;
+    private final int maximumConcurrency;
+    private final Semaphore permits;
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final static Logger LOGGER = Logger.getLogger(Server.class.getName());
+
+    /**
+     * Creates a bounded pool of platform threads, all threads are started lazily.
+     * @param threads Number of worker threads
+     * @param queueCapacity Number of requests which may wait for a worker, 0 hands over directly
+     */
+    public WorkerPool(int threads, int queueCapacity) {
+        this(Mode.PLATFORM, threads, queueCapacity);
+    }
+
+    /**
+     * Creates the executor for the given mode.
+     * @param mode The requested execution mode, falls back to PLATFORM if virtual threads are not available
+     * @param threads Number of worker threads, in VIRTUAL mode the maximum number of concurrent connections
+     * @param queueCapacity Number of requests which may wait for a worker, unused in VIRTUAL mode
+     */
+    public WorkerPool(Mode mode, int threads, int queueCapacity) {
+        this(mode, threads, queueCapacity, 1);
+    }
+
+    /**
+     * Creates the executors for the given mode.
+     * @param mode The requested execution mode, falls back to PLATFORM if virtual threads are not available
+     * @param threads Number of worker threads, in VIRTUAL mode the maximum number of concurrent connections
+     * @param queueCapacity Number of requests which may wait for a worker, unused in VIRTUAL mode
+     * @param groups Number of groups the threads and the queue are split into, rounded up per group. In VIRTUAL mode
+     *               all connections share one executor.
+     */
+    public WorkerPool(Mode mode, int threads, int queueCapacity, int groups) {
+        ExecutorService virtual = mode == Mode.VIRTUAL ? newVirtualThreadExecutor() : null;
+        if (virtual != null) {
+            this.mode = Mode.VIRTUAL;
+            this.executors = new ExecutorService[]{virtual};
+            this.queueCapacity = 0;
+            this.permits = new Semaphore(threads);
+            this.maximumConcurrency = threads;
+        }
+        else {
+            if (mode == Mode.VIRTUAL) {
+                LOGGER.warning("Virtual threads require Java 21, falling back to the platform thread pool.");
+            }
+            int groupThreads = (threads + groups - 1) / groups;
+            int groupQueueCapacity = (queueCapacity + groups - 1) / groups;
+            this.executors = new ExecutorService[groups];
+            for (int i = 0; i < groups; i++) {
+                BlockingQueue<Runnable> queue = groupQueueCapacity > 0
+                        ? new ArrayBlockingQueue<>(groupQueueCapacity)
+                        : new SynchronousQueue<>();
+                ThreadPoolExecutor pool = new ThreadPoolExecutor(groupThreads, groupThreads, 60L, TimeUnit.SECONDS,
+                        queue, new WorkerThreadFactory(groups > 1 ? (i + 1) + "-" : ""), new Reject());
+                pool.allowCoreThreadTimeOut(true);
+                this.executors[i] = pool;
+            }
+            this.mode = Mode.PLATFORM;
+            this.queueCapacity = groupQueueCapacity * groups;
+            this.permits = null;
+            this.maximumConcurrency = groupThreads * groups;
+        }
+    }
+
+    /**
+     * Looks up Executors.newVirtualThreadPerTaskExecutor() reflectively, so the server still compiles for Java 8.
+     * @return The executor or null if the runtime does not support virtual threads
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        }
+        catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Hands a request to the executor of the first group, see execute(int, Request).
+     * @param request The request to be served
+     */
+    public void execute(Request request) {
+        execute(0, request);
+    }
+
+    /**
+     * Hands a request to the executor of a group. If the group is saturated, the request is answered with 503 on the
+     * calling thread.
+     * @param group The group of the acceptor which accepted the connection
+     * @param request The request to be served
+     */
+    public void execute(int group, Request request) {
+        if (permits != null && !permits.tryAcquire()) {
+            reject(request);
+            return;
+        }
+        try {
+            executors[group % executors.length].execute(new RequestTask(request));
+        }
+        catch (RejectedExecutionException e) {
+            // Only reached in VIRTUAL mode after shutdown, the platform pool rejects through its handler.
+            if (permits != null) {
+                permits.release();
+            }
+            reject(request);
+        }
+    }
+
+    /**
+     * Answers a request which does not fit into the pool with 503 Service Unavailable.
+     * @param request The request to reject
+     */
+    private void reject(Request request) {
+        rejected.incrementAndGet();
+        LOGGER.warning("Worker pool saturated, rejecting request.");
+        request.reject();
+    }
+
+    /**
+     * Stops taking new requests and lets the queued ones finish.
+     */
+    public void shutdown() {
+        for (ExecutorService executor : executors) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Waits for the requests taken before the shutdown to finish.
+     * @param timeoutMillis Longest time to wait
+     * @return true if all requests have finished, false if the time ran out
+     * @throws InterruptedException We throw an InterruptedException if the waiting thread is interrupted
+     */
+    public boolean awaitTermination(long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        for (ExecutorService executor : executors) {
+            if (!executor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gives up on the requests still waiting for a worker, they are answered with 503 Service Unavailable.
+     */
+    public void shutdownNow() {
+        for (ExecutorService executor : executors) {
+            for (Runnable task : executor.shutdownNow()) {
+                if (task instanceof RequestTask) {
+                    reject(((RequestTask) task).request);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The mode actually in use, which is PLATFORM if virtual threads were requested but are not available
+     */
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * @return Number of threads currently alive in the pool, in VIRTUAL mode the number of live connections
+     */
+    public int getPoolSize() {
+        if (permits != null) {
+            return maximumConcurrency - permits.availablePermits();
+        }
+        int size = 0;
+        for (ExecutorService executor : executors) {
+            size += ((ThreadPoolExecutor) executor).getPoolSize();
+        }
+        return size;
+    }
+
+    /**
+     * @return Maximum number of worker threads, in VIRTUAL mode the maximum number of concurrent connections
+     */
+    public int getMaximumPoolSize() {
+        return maximumConcurrency;
+    }
+
+    /**
+     * @return Number of workers currently serving a request
+     */
+    public int getActiveWorkers() {
+        return active.get();
+    }
+
+    /**
+     * @return Number of requests waiting for a worker
+     */
+    public int getQueueDepth() {
+        int depth = 0;
+        for (ExecutorService executor : executors) {
+            if (executor instanceof ThreadPoolExecutor) {
+                depth += ((ThreadPoolExecutor) executor).getQueue().size();
+            }
+        }
+        return depth;
+    }
+
+    /**
+     * @return Number of groups the platform threads are split into, 1 in VIRTUAL mode
+     */
+    public int getGroups() {
+        return executors.length;
+    }
+
+    /**
+     * @return Number of requests which may wait for a worker
+     */
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * @return Number of requests answered with 503 because the pool was saturated
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * @return Number of requests the workers have finished
+     */
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    /**
+     * Answers requests which do not fit into the platform pool with 503 Service Unavailable.
+     */
+    private class Reject implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+            if (task instanceof RequestTask) {
+                reject(((RequestTask) task).request);
+            }
+        }
+    }
+
+    /**
+     * Runs a request and keeps track of the active and completed counts.
+     */
+    private class RequestTask implements Runnable {
+        private final Request request;
+
+        RequestTask(Request request) {
+            this.request = request;
+        }
+
+        @Override
+        public void run() {
+            active.incrementAndGet();
+            try {
+                request.run();
+            }
+            finally {
+                active.decrementAndGet();
+                completed.incrementAndGet();
+                if (permits != null) {
+                    permits.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Names the worker threads, so they can be told apart in thread dumps.
+     */
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+        private final String group;
+
+        /**
+         * @param group The prefix of the thread numbers telling the group apart, empty for a single group
+         */
+        WorkerThreadFactory(String group) {
+            this.group = group;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "webserver-worker-" + group + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
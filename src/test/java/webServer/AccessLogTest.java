@@ -0,0 +1,92 @@
+package webServer;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.List;
+
+/**
+ * This test determines whether the access log hands records through its ring buffer in order, drops records instead
+ * of blocking once the buffer is full, writes one line of JSON per request and rolls its file.
+ */
+class AccessLogTest {
+    @TempDir
+    Path directory;
+
+    private static HttpRequest request(String path) {
+        return new HttpRequest(Request.Type.GET, path, "a=1", "HTTP/1.1", new String[0], new String[0], 0);
+    }
+
+    private static AccessLog.Entry entry(int status) {
+        return new AccessLog.Entry(0, "127.0.0.1", null, status, 0, 0, 0, 0, 0);
+    }
+
+    @org.junit.jupiter.api.Test
+    void ringKeepsTheOrderAndRejectsWhenFull() {
+        AccessLog log = new AccessLog(directory.resolve("access.log").toString(), 3, 0, 0);
+        // The capacity is rounded up to four records.
+        for (int i = 0; i < 4; i++) {
+            Assertions.assertTrue(log.offer(entry(200 + i)));
+        }
+        Assertions.assertFalse(log.offer(entry(300)));
+        StringBuilder line = new StringBuilder();
+        log.poll().appendTo(line, new SimpleDateFormat("yyyy"));
+        Assertions.assertTrue(line.toString().contains("\"status\":200"));
+        Assertions.assertTrue(log.offer(entry(304)));
+        for (int i = 0; i < 4; i++) {
+            Assertions.assertNotNull(log.poll());
+        }
+        Assertions.assertNull(log.poll());
+    }
+
+    @org.junit.jupiter.api.Test
+    void requestsAreWrittenAsJsonLines() throws IOException {
+        File file = directory.resolve("logs").resolve("access.log").toFile();
+        AccessLog log = new AccessLog(file.getPath(), 64, 0, 0);
+        log.log("10.0.0.7", request("/index.html"), 200, 2114, 9_000, 41_000, 0, 134_000);
+        Assertions.assertEquals(0, log.getWritten());
+        log.start();
+        log.log("10.0.0.7", request("/say \"hi\""), 404, 28, 1_000, 2_000, 0, 3_000);
+        log.log("10.0.0.8", null, 400, 0, 1_000, 0, 0, 1_000);
+        log.stop();
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        Assertions.assertEquals(2, lines.size());
+        Assertions.assertEquals(2, log.getWritten());
+        Assertions.assertTrue(lines.get(0).startsWith("{\"time\":\""));
+        Assertions.assertTrue(lines.get(0).endsWith("\"client\":\"10.0.0.7\",\"method\":\"GET\","
+                + "\"path\":\"/say \\\"hi\\\"\",\"query\":\"a=1\",\"version\":\"HTTP/1.1\",\"status\":404,\"bytes\":28,"
+                + "\"duration_us\":6,\"parse_us\":1,\"file_us\":2,\"compress_us\":0,\"write_us\":3}"));
+        Assertions.assertTrue(lines.get(1).contains("\"method\":null,\"path\":null"));
+    }
+
+    @org.junit.jupiter.api.Test
+    void fullLogIsRolledBySize() throws IOException {
+        File file = directory.resolve("access.log").toFile();
+        Files.write(file.toPath(), new byte[100]);
+        AccessLog log = new AccessLog(file.getPath(), 64, 150, 0);
+        log.start();
+        log.log("10.0.0.7", request("/index.html"), 200, 2114, 0, 0, 0, 0);
+        log.stop();
+        Assertions.assertEquals(1, log.getRolls());
+        File[] files = directory.toFile().listFiles();
+        Assertions.assertNotNull(files);
+        Assertions.assertEquals(2, files.length);
+        Assertions.assertEquals(1, Files.readAllLines(file.toPath(), StandardCharsets.UTF_8).size());
+    }
+
+    @org.junit.jupiter.api.Test
+    void disabledLogIgnoresRequests() {
+        AccessLog log = new AccessLog(null, 64, 0, 0);
+        log.start();
+        log.log("10.0.0.7", request("/"), 200, 0, 0, 0, 0, 0);
+        Assertions.assertFalse(log.isEnabled());
+        Assertions.assertEquals(0, log.getWritten());
+        Assertions.assertEquals(0, log.getDropped());
+    }
+}
@@ -0,0 +1,115 @@
+package webServer;
+
+import org.junit.jupiter.api.Assertions;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This test determines whether clients are held to their connections, requests and bandwidth without affecting other
+ * clients, whether an overloaded server sheds new connections until the load has dropped, and whether the state of the
+ * clients stays within its bounds.
+ */
+class AdmissionControlTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @org.junit.jupiter.api.Test
+    void everythingIsAdmittedWithoutLimits() {
+        AdmissionControl admission = new AdmissionControl(new ServerConfig());
+        Assertions.assertFalse(admission.isEnabled());
+        for (int i = 0; i < 1000; i++) {
+            Assertions.assertNull(admission.connect("10.0.0.1", 0));
+            Assertions.assertNull(admission.request("10.0.0.1", 0));
+        }
+        Assertions.assertEquals(0, admission.getClientCount());
+    }
+
+    @org.junit.jupiter.api.Test
+    void connectionsArePerClient() {
+        AdmissionControl admission = new AdmissionControl(new ServerConfig().setMaxConnectionsPerClient(2));
+        Assertions.assertNull(admission.connect("10.0.0.1", 0));
+        Assertions.assertNull(admission.connect("10.0.0.1", 0));
+        AdmissionControl.Refusal refusal = admission.connect("10.0.0.1", 0);
+        Assertions.assertEquals(429, refusal.getStatus());
+        Assertions.assertEquals(AdmissionControl.Reason.CONNECTIONS, refusal.getReason());
+        Assertions.assertNull(admission.connect("10.0.0.2", 0));
+
+        admission.disconnect("10.0.0.1", 0);
+        Assertions.assertNull(admission.connect("10.0.0.1", 0));
+        Assertions.assertEquals(3, admission.getConnections());
+        Assertions.assertEquals(1, admission.getRefused(AdmissionControl.Reason.CONNECTIONS));
+    }
+
+    @org.junit.jupiter.api.Test
+    void requestsRefillAtTheirRate() {
+        AdmissionControl admission = new AdmissionControl(new ServerConfig().setRequestsPerSecond(2)
+                .setRequestBurst(3));
+        Assertions.assertNull(admission.connect("10.0.0.1", 0));
+        for (int i = 0; i < 3; i++) {
+            Assertions.assertNull(admission.request("10.0.0.1", 0));
+        }
+        AdmissionControl.Refusal refusal = admission.request("10.0.0.1", 0);
+        Assertions.assertEquals(429, refusal.getStatus());
+        Assertions.assertEquals(AdmissionControl.Reason.REQUESTS, refusal.getReason());
+        Assertions.assertEquals(1, refusal.getRetryAfterSeconds());
+
+        // Half a second brings one token back, not two.
+        Assertions.assertNull(admission.request("10.0.0.1", SECOND / 2));
+        Assertions.assertNotNull(admission.request("10.0.0.1", SECOND / 2));
+        // A long pause refills no more than the burst.
+        for (int i = 0; i < 3; i++) {
+            Assertions.assertNull(admission.request("10.0.0.1", 60 * SECOND));
+        }
+        Assertions.assertNotNull(admission.request("10.0.0.1", 60 * SECOND));
+    }
+
+    @org.junit.jupiter.api.Test
+    void bandwidthDebtIsPaidBeforeTheNextRequest() {
+        AdmissionControl admission = new AdmissionControl(new ServerConfig().setBytesPerSecond(1000)
+                .setByteBurst(1000));
+        Assertions.assertNull(admission.connect("10.0.0.1", 0));
+        Assertions.assertNull(admission.request("10.0.0.1", 0));
+        // One response is never cut short, it leaves the client 4000 bytes in debt.
+        admission.sent("10.0.0.1", 5000, 0);
+        AdmissionControl.Refusal refusal = admission.request("10.0.0.1", SECOND);
+        Assertions.assertEquals(AdmissionControl.Reason.BANDWIDTH, refusal.getReason());
+        Assertions.assertEquals(3, refusal.getRetryAfterSeconds());
+        Assertions.assertNull(admission.request("10.0.0.1", 4 * SECOND));
+    }
+
+    @org.junit.jupiter.api.Test
+    void overloadShedsUntilATenthHasClosed() {
+        AdmissionControl admission = new AdmissionControl(new ServerConfig().setOverloadConnections(20));
+        for (int i = 0; i < 20; i++) {
+            Assertions.assertNull(admission.connect("10.0.0." + i, 0));
+        }
+        AdmissionControl.Refusal refusal = admission.connect("10.0.1.1", 0);
+        Assertions.assertEquals(503, refusal.getStatus());
+        Assertions.assertTrue(admission.isOverloaded());
+        // One closed connection is not enough to leave the overload mode.
+        admission.disconnect("10.0.0.0", 0);
+        Assertions.assertNotNull(admission.connect("10.0.1.1", 0));
+        admission.disconnect("10.0.0.1", 0);
+        admission.disconnect("10.0.0.2", 0);
+        Assertions.assertNull(admission.connect("10.0.1.1", 0));
+        Assertions.assertFalse(admission.isOverloaded());
+        Assertions.assertEquals(2, admission.getRefused(AdmissionControl.Reason.OVERLOAD));
+    }
+
+    @org.junit.jupiter.api.Test
+    void clientsWithoutConnectionsAreForgotten() {
+        AdmissionControl admission = new AdmissionControl(new ServerConfig().setMaxConnectionsPerClient(1)
+                .setAdmissionMaxClients(10).setAdmissionExpiryMillis(1000));
+        for (int i = 0; i < 10; i++) {
+            Assertions.assertNull(admission.connect("10.0.0." + i, 0));
+        }
+        // Every known client holds a connection, so a new client cannot be accounted for.
+        Assertions.assertEquals(503, admission.connect("10.0.1.1", 0).getStatus());
+        for (int i = 0; i < 5; i++) {
+            admission.disconnect("10.0.0." + i, 0);
+        }
+        Assertions.assertNull(admission.connect("10.0.1.1", 2 * SECOND));
+        Assertions.assertTrue(admission.getClientCount() <= 10);
+        // The clients which still hold connections are remembered along with them.
+        Assertions.assertEquals(429, admission.connect("10.0.0.9", 2 * SECOND).getStatus());
+    }
+}
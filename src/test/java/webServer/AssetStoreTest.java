@@ -0,0 +1,154 @@
+package webServer;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * This test determines whether the preloaded subtree is held with its compressed forms and ready-made heads, stays
+ * within its budget and is replaced as a whole once a file changes on disk.
+ */
+class AssetStoreTest {
+    @TempDir
+    Path directory;
+
+    private AssetStore store(long maxBytes) {
+        return new AssetStore(directory.toString(), "static/", maxBytes, false, 0,
+                new EntityTags(EntityTags.Mode.METADATA, 16), new ContentTypes());
+    }
+
+    private File write(String name, String content) throws IOException {
+        Path path = directory.resolve("static").resolve(name);
+        Files.createDirectories(path.getParent());
+        Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+        return path.toFile();
+    }
+
+    private static String repeat(String text, int times) {
+        StringBuilder repeated = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            repeated.append(text);
+        }
+        return repeated.toString();
+    }
+
+    private static byte[] bytes(ByteBuffer content) {
+        byte[] bytes = new byte[content.remaining()];
+        content.get(bytes);
+        return bytes;
+    }
+
+    private static String gunzip(ByteBuffer content) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes(content)))) {
+            byte[] chunk = new byte[4096];
+            int read;
+            while ((read = in.read(chunk)) != -1) {
+                out.write(chunk, 0, read);
+            }
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @org.junit.jupiter.api.Test
+    void filesAreStoredWithTheirCompressedForms() throws IOException {
+        String script = repeat("console.log('asset');\n", 200);
+        write("js/app.js", script);
+        write("archive.zip", script);
+        AssetStore store = store(1024 * 1024);
+        store.start();
+        Assertions.assertEquals(2, store.getAssetCount());
+        AssetStore.Asset asset = store.get("/static/js/app.js");
+        AssetStore.Representation gzip = asset.select(Collections.singletonList(ContentCodings.Coding.GZIP));
+        Assertions.assertEquals(ContentCodings.Coding.GZIP, gzip.getCoding());
+        Assertions.assertEquals(script, gunzip(gzip.content()));
+        String head = new String(gzip.getOkHead(), StandardCharsets.ISO_8859_1);
+        Assertions.assertTrue(head.startsWith("HTTP/1.1 200 OK\r\n"));
+        Assertions.assertTrue(head.contains("Content-Encoding: gzip\r\n"));
+        Assertions.assertTrue(head.contains("Etag: " + gzip.getEtag() + "\r\n"));
+        AssetStore.Representation identity = asset.select(Collections.emptyList());
+        Assertions.assertNull(identity.getCoding());
+        Assertions.assertEquals(script, new String(bytes(identity.content()), StandardCharsets.UTF_8));
+        Assertions.assertNull(store.get("/static/archive.zip")
+                .select(Collections.singletonList(ContentCodings.Coding.GZIP)).getCoding());
+        Assertions.assertNull(store.get("/other/app.js"));
+        Assertions.assertEquals(script.length() * 2 + gzip.content().remaining(), store.getResidentBytes());
+    }
+
+    @org.junit.jupiter.api.Test
+    void sidecarsAreStoredWithTheirFile() throws IOException {
+        File file = write("style.css", repeat("body { color: red; }\n", 100));
+        File sidecar = write("style.css.br", "brotli");
+        Assertions.assertTrue(file.setLastModified(100_000));
+        Assertions.assertTrue(sidecar.setLastModified(200_000));
+        AssetStore store = store(1024 * 1024);
+        store.start();
+        Assertions.assertEquals(1, store.getAssetCount());
+        AssetStore.Representation br = store.get("/static/style.css")
+                .select(Collections.singletonList(ContentCodings.Coding.BR));
+        Assertions.assertEquals(ContentCodings.Coding.BR, br.getCoding());
+        Assertions.assertEquals("brotli", new String(bytes(br.content()), StandardCharsets.UTF_8));
+    }
+
+    @org.junit.jupiter.api.Test
+    void filesBeyondTheBudgetAreLeftOnDisk() throws IOException {
+        write("a.png", repeat("a", 600));
+        write("b.png", repeat("b", 600));
+        AssetStore store = store(1000);
+        store.start();
+        Assertions.assertEquals(1, store.getAssetCount());
+        Assertions.assertEquals(600, store.getResidentBytes());
+        Assertions.assertNotNull(store.get("/static/a.png"));
+        Assertions.assertNull(store.get("/static/b.png"));
+    }
+
+    @org.junit.jupiter.api.Test
+    void changedFilesReplaceTheWholeStore() throws IOException {
+        File file = write("index.html", "old");
+        write("other.png", "unchanged");
+        Assertions.assertTrue(file.setLastModified(100_000));
+        AssetStore store = store(1024 * 1024);
+        store.start();
+        AssetStore.Asset old = store.get("/static/index.html");
+        AssetStore.Asset unchanged = store.get("/static/other.png");
+        Assertions.assertFalse(store.reload());
+        Assertions.assertEquals(1, store.getReloads());
+
+        Files.write(file.toPath(), "new!".getBytes(StandardCharsets.UTF_8));
+        Assertions.assertTrue(file.setLastModified(200_000));
+        Assertions.assertTrue(store.reload());
+        Assertions.assertEquals(2, store.getReloads());
+        Assertions.assertEquals("new!", new String(bytes(store.get("/static/index.html")
+                .select(Collections.emptyList()).content()), StandardCharsets.UTF_8));
+        // Responses still being sent keep the version they started with.
+        Assertions.assertEquals("old", new String(bytes(old.select(Collections.emptyList()).content()),
+                StandardCharsets.UTF_8));
+        Assertions.assertSame(unchanged, store.get("/static/other.png"));
+
+        Assertions.assertTrue(file.delete());
+        Assertions.assertTrue(store.reload());
+        Assertions.assertNull(store.get("/static/index.html"));
+        Assertions.assertEquals(1, store.getAssetCount());
+    }
+
+    @org.junit.jupiter.api.Test
+    void disabledStoreHoldsNothing() {
+        AssetStore store = new AssetStore(directory.toString(), null, 1024, false, 0,
+                new EntityTags(EntityTags.Mode.METADATA, 16), new ContentTypes());
+        store.start();
+        Assertions.assertFalse(store.isEnabled());
+        Assertions.assertEquals(0, store.getAssetCount());
+        Assertions.assertNull(store.get("/index.html"));
+    }
+}
@@ -0,0 +1,59 @@
+package webServer;
+
+import org.junit.jupiter.api.Assertions;
+
+import java.util.List;
+
+/**
+ * This test determines whether Range and If-Range headers are interpreted as RFC 7233 describes them.
+ */
+class ByteRangesTest {
+
+    @org.junit.jupiter.api.Test
+    void parsesBoundedOpenAndSuffixRanges() {
+        List<long[]> ranges = ByteRanges.parse("bytes=0-9, 50-, -5", 100);
+        Assertions.assertEquals(2, ranges.size());
+        Assertions.assertArrayEquals(new long[]{0, 9}, ranges.get(0));
+        // 50- and the last five bytes overlap and are merged
+        Assertions.assertArrayEquals(new long[]{50, 99}, ranges.get(1));
+        Assertions.assertArrayEquals(new long[]{90, 99}, ByteRanges.parse("bytes=90-1000", 100).get(0));
+        Assertions.assertArrayEquals(new long[]{0, 99}, ByteRanges.parse("bytes=-500", 100).get(0));
+    }
+
+    @org.junit.jupiter.api.Test
+    void adjacentRangesAreMerged() {
+        List<long[]> ranges = ByteRanges.parse("bytes=10-19,0-9", 100);
+        Assertions.assertEquals(1, ranges.size());
+        Assertions.assertArrayEquals(new long[]{0, 19}, ranges.get(0));
+    }
+
+    @org.junit.jupiter.api.Test
+    void rangesBehindTheEndAreUnsatisfiable() {
+        Assertions.assertTrue(ByteRanges.parse("bytes=100-", 100).isEmpty());
+        Assertions.assertTrue(ByteRanges.parse("bytes=-0", 100).isEmpty());
+        Assertions.assertTrue(ByteRanges.parse("bytes=0-", 0).isEmpty());
+    }
+
+    @org.junit.jupiter.api.Test
+    void invalidHeadersAreIgnored() {
+        Assertions.assertNull(ByteRanges.parse(null, 100));
+        Assertions.assertNull(ByteRanges.parse("items=0-1", 100));
+        Assertions.assertNull(ByteRanges.parse("bytes=5-1", 100));
+        Assertions.assertNull(ByteRanges.parse("bytes=a-b", 100));
+        StringBuilder many = new StringBuilder("bytes=0-0");
+        for (int i = 1; i <= ByteRanges.MAX_RANGES; i++) {
+            many.append(',').append(i * 2).append('-').append(i * 2);
+        }
+        Assertions.assertNull(ByteRanges.parse(many.toString(), 100));
+    }
+
+    @org.junit.jupiter.api.Test
+    void ifRangeComparesStrongTagsAndDates() {
+        Assertions.assertTrue(ByteRanges.ifRangeMatches(null, "\"64-a\"", 0));
+        Assertions.assertTrue(ByteRanges.ifRangeMatches("\"64-a\"", "\"64-a\"", 0));
+        Assertions.assertFalse(ByteRanges.ifRangeMatches("W/\"64-a\"", "\"64-a\"", 0));
+        Assertions.assertFalse(ByteRanges.ifRangeMatches("\"65-a\"", "\"64-a\"", 0));
+        Assertions.assertTrue(ByteRanges.ifRangeMatches("Sun, 06 Nov 1994 08:49:37 GMT", "\"x\"", 784111777123L));
+        Assertions.assertFalse(ByteRanges.ifRangeMatches("Sun, 06 Nov 1994 08:49:37 GMT", "\"x\"", 784111778000L));
+    }
+}
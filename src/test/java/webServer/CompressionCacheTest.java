@@ -0,0 +1,87 @@
+package webServer;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * This test determines whether compressed files are cached, invalidated when they change on disk and evicted once the
+ * cache exceeds its capacity.
+ */
+class CompressionCacheTest {
+    @TempDir
+    Path directory;
+
+    private File write(String name, String content) throws IOException {
+        Path file = directory.resolve(name);
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        return file.toFile();
+    }
+
+    private static String gunzip(ByteBuffer compressed) throws IOException {
+        byte[] bytes = new byte[compressed.remaining()];
+        compressed.get(bytes);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+            byte[] chunk = new byte[1024];
+            int read;
+            while ((read = in.read(chunk)) != -1) {
+                out.write(chunk, 0, read);
+            }
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @org.junit.jupiter.api.Test
+    void secondRequestIsHit() throws IOException {
+        CompressionCache cache = new CompressionCache(1024 * 1024, 1024 * 1024, false);
+        File file = write("a.txt", "hello hello hello");
+        Assertions.assertEquals("hello hello hello", gunzip(cache.get(file)));
+        Assertions.assertEquals("hello hello hello", gunzip(cache.get(file)));
+        Assertions.assertEquals(1, cache.getMisses());
+        Assertions.assertEquals(1, cache.getHits());
+        Assertions.assertTrue(cache.getResidentBytes() > 0);
+    }
+
+    @org.junit.jupiter.api.Test
+    void changedFileIsCompressedAgain() throws IOException {
+        CompressionCache cache = new CompressionCache(1024 * 1024, 1024 * 1024, true);
+        File file = write("a.txt", "first");
+        cache.get(file);
+        write("a.txt", "second version");
+        Assertions.assertTrue(file.setLastModified(file.lastModified() + 2000));
+        Assertions.assertEquals("second version", gunzip(cache.get(file)));
+        Assertions.assertEquals(1, cache.getInvalidations());
+        Assertions.assertEquals(1, cache.getEntryCount());
+    }
+
+    @org.junit.jupiter.api.Test
+    void leastRecentlyUsedIsEvicted() throws IOException {
+        File a = write("a.txt", "aaaa");
+        File b = write("b.txt", "bbbb");
+        CompressionCache cache = new CompressionCache(30, 30, false);
+        cache.get(a);
+        cache.get(b);
+        Assertions.assertEquals(1, cache.getEvictions());
+        Assertions.assertTrue(cache.getResidentBytes() <= 30);
+        cache.get(b);
+        Assertions.assertEquals(1, cache.getHits());
+    }
+
+    @org.junit.jupiter.api.Test
+    void largeFilesAreNotCached() throws IOException {
+        CompressionCache cache = new CompressionCache(1024, 4, false);
+        Assertions.assertNull(cache.get(write("a.txt", "longer than four bytes")));
+        Assertions.assertEquals(0, cache.getEntryCount());
+    }
+}
@@ -0,0 +1,94 @@
+package webServer;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.stream.Stream;
+
+/**
+ * This test determines whether content codings are negotiated the way clients ask for them and whether precompressed
+ * sidecars are found, generated and ignored once they are stale.
+ */
+class ContentCodingsTest {
+    @TempDir
+    Path directory;
+
+    @org.junit.jupiter.api.Test
+    void acceptedCodingsFollowQualityThenServerPreference() {
+        Assertions.assertEquals(Arrays.asList(ContentCodings.Coding.BR, ContentCodings.Coding.GZIP),
+                ContentCodings.accepted("gzip, deflate, br"));
+        Assertions.assertEquals(Arrays.asList(ContentCodings.Coding.GZIP, ContentCodings.Coding.BR),
+                ContentCodings.accepted("br;q=0.5, GZIP"));
+        Assertions.assertEquals(Collections.singletonList(ContentCodings.Coding.GZIP),
+                ContentCodings.accepted("x-gzip"));
+    }
+
+    @org.junit.jupiter.api.Test
+    void refusedAndUnknownCodingsAreLeftOut() {
+        Assertions.assertEquals(Collections.emptyList(), ContentCodings.accepted(null));
+        Assertions.assertEquals(Collections.emptyList(), ContentCodings.accepted("identity, deflate"));
+        Assertions.assertEquals(Collections.emptyList(), ContentCodings.accepted("gzip;q=0"));
+        Assertions.assertEquals(Arrays.asList(ContentCodings.Coding.BR, ContentCodings.Coding.ZSTD),
+                ContentCodings.accepted("*, gzip;q=0"));
+    }
+
+    @org.junit.jupiter.api.Test
+    void compressedFormatsAreNotCompressedAgain() {
+        Assertions.assertFalse(ContentCodings.isCompressible("zip"));
+        Assertions.assertFalse(ContentCodings.isCompressible("mp4"));
+        Assertions.assertTrue(ContentCodings.isCompressible("css"));
+    }
+
+    @org.junit.jupiter.api.Test
+    void staleSidecarIsIgnored() throws IOException {
+        File file = directory.resolve("style.css").toFile();
+        File sidecar = directory.resolve("style.css.gz").toFile();
+        Files.write(file.toPath(), "body {}".getBytes(StandardCharsets.UTF_8));
+        Files.write(sidecar.toPath(), new byte[]{1});
+        Assertions.assertTrue(sidecar.setLastModified(100_000));
+        Assertions.assertTrue(file.setLastModified(200_000));
+        Assertions.assertNull(ContentCodings.sidecar(FileMetadata.UNCACHED, file, file.lastModified(),
+                ContentCodings.Coding.GZIP));
+        Assertions.assertTrue(sidecar.setLastModified(300_000));
+        Assertions.assertEquals(sidecar, ContentCodings.sidecar(FileMetadata.UNCACHED, file, file.lastModified(),
+                ContentCodings.Coding.GZIP).getFile());
+        Assertions.assertNull(ContentCodings.sidecar(FileMetadata.UNCACHED, file, file.lastModified(),
+                ContentCodings.Coding.BR));
+    }
+
+    @org.junit.jupiter.api.Test
+    void precompressorWritesSmallerGzipSidecars() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            text.append("repetitive text ");
+        }
+        File file = directory.resolve("page.html").toFile();
+        Files.write(file.toPath(), text.toString().getBytes(StandardCharsets.UTF_8));
+        Files.write(directory.resolve("archive.zip"), text.toString().getBytes(StandardCharsets.UTF_8));
+        // A stale sidecar is replaced as a whole.
+        Path stale = directory.resolve("page.html.gz");
+        Files.write(stale, "stale".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(stale, FileTime.fromMillis(file.lastModified() - 60_000));
+        new Precompressor(Precompressor.MIN_SIZE).precompress(directory);
+        FileMetadata.Entry sidecar = ContentCodings.sidecar(FileMetadata.UNCACHED, file, file.lastModified(),
+                ContentCodings.Coding.GZIP);
+        Assertions.assertNotNull(sidecar);
+        Assertions.assertTrue(sidecar.getSize() < file.length());
+        Assertions.assertFalse(directory.resolve("archive.zip.gz").toFile().exists());
+        byte[] written = Files.readAllBytes(sidecar.getFile().toPath());
+        Assertions.assertEquals((byte) 0x1f, written[0]);
+        Assertions.assertEquals((byte) 0x8b, written[1]);
+        // The temporary files the sidecars are written to are renamed into place, none is left behind.
+        try (Stream<Path> files = Files.list(directory)) {
+            Assertions.assertFalse(files.anyMatch(path -> path.toString().endsWith(".tmp")));
+        }
+    }
+}
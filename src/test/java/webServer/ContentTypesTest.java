@@ -0,0 +1,112 @@
+package webServer;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * This test determines whether file endings resolve to valid content types with their charset, whether a table of the
+ * operator overrides the shipped one, and whether files of unlisted endings are sniffed from their first bytes once
+ * per version.
+ */
+class ContentTypesTest {
+    private static final byte[] PNG = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n', 0, 0, 0, 13};
+
+    @TempDir
+    Path directory;
+
+    private static String sniff(byte[] content) {
+        return ContentTypes.sniff(ByteBuffer.wrap(content));
+    }
+
+    private static String sniff(String content) {
+        return sniff(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String field(byte[] field) {
+        return field == null ? null : new String(field, StandardCharsets.US_ASCII);
+    }
+
+    @org.junit.jupiter.api.Test
+    void endingsAreLookedUpInTheTable() {
+        ContentTypes types = new ContentTypes();
+        Assertions.assertEquals("text/plain; charset=utf-8", types.get("txt"));
+        Assertions.assertEquals("text/csv; charset=utf-8", types.get("csv"));
+        Assertions.assertEquals("application/rtf", types.get("rtf"));
+        Assertions.assertEquals("image/jpeg", types.get("jpg"));
+        Assertions.assertEquals("image/svg+xml", types.get("svg"));
+        Assertions.assertEquals("application/json", types.get("json"));
+        Assertions.assertNull(types.get("unknown"));
+        Assertions.assertEquals("Content-Type: text/html; charset=utf-8\r\n", field(types.field("html")));
+        Assertions.assertNull(types.field("unknown"));
+
+        ContentTypes withoutCharset = new ContentTypes(null, null, false, 0);
+        Assertions.assertEquals("text/plain", withoutCharset.get("txt"));
+    }
+
+    @org.junit.jupiter.api.Test
+    void operatorTableOverridesTheShippedOne() throws IOException {
+        Path table = directory.resolve("mime.types");
+        Files.write(table, ("# Local types\n"
+                + "text/x-readme    readme\n"
+                + "application/octet-stream  TXT   # downloads\n"
+                + "application/no-endings\n").getBytes(StandardCharsets.UTF_8));
+        ContentTypes types = new ContentTypes(table.toString(), "iso-8859-1", false, 0);
+        Assertions.assertEquals("text/x-readme; charset=iso-8859-1", types.get("readme"));
+        Assertions.assertEquals("application/octet-stream", types.get("txt"));
+        Assertions.assertEquals("image/png", types.get("png"));
+
+        // A table which cannot be read leaves the shipped one.
+        ContentTypes missing = new ContentTypes(directory.resolve("missing").toString(), "utf-8", false, 0);
+        Assertions.assertEquals("text/plain; charset=utf-8", missing.get("txt"));
+    }
+
+    @org.junit.jupiter.api.Test
+    void contentIsSniffedFromItsFirstBytes() {
+        Assertions.assertEquals("image/png", sniff(PNG));
+        Assertions.assertEquals("application/pdf", sniff("%PDF-1.7\n"));
+        Assertions.assertEquals("video/mp4", sniff(new byte[]{0, 0, 0, 0x20, 'f', 't', 'y', 'p', 'i', 's', 'o', 'm'}));
+        Assertions.assertEquals("text/html", sniff("\r\n  <!DOCTYPE html>\n<html>"));
+        Assertions.assertEquals("text/html", sniff("<HTML lang=\"en\">"));
+        Assertions.assertEquals("text/xml", sniff("<?xml version=\"1.0\"?>"));
+        Assertions.assertEquals("image/svg+xml", sniff("<svg xmlns=\"http://www.w3.org/2000/svg\">"));
+        Assertions.assertEquals("text/plain", sniff("Read me first\n\tthen the rest\n"));
+        Assertions.assertEquals("text/plain; charset=utf-16le", sniff(new byte[]{(byte) 0xFF, (byte) 0xFE, 'a', 0}));
+        // A tag has to end where the markup says, binary control bytes are no text.
+        Assertions.assertEquals("text/plain", sniff("<htmlish>"));
+        Assertions.assertNull(sniff(new byte[]{'a', 'b', 0, 1, 2}));
+        Assertions.assertNull(sniff(new byte[0]));
+    }
+
+    @org.junit.jupiter.api.Test
+    void sniffedTypesAreRememberedPerVersion() throws IOException {
+        File readme = directory.resolve("README").toFile();
+        Files.write(readme.toPath(), "Read me first\n".getBytes(StandardCharsets.UTF_8));
+        ContentTypes types = new ContentTypes(null, "utf-8", true, 16);
+        Assertions.assertEquals("Content-Type: text/plain; charset=utf-8\r\n",
+                field(types.field("readme", FileMetadata.stat(readme))));
+        Assertions.assertEquals("Content-Type: text/plain; charset=utf-8\r\n",
+                field(types.field("readme", FileMetadata.stat(readme))));
+        Assertions.assertEquals(1, types.getMisses());
+        Assertions.assertEquals(1, types.getHits());
+
+        // A new version of the file is sniffed again.
+        Files.write(readme.toPath(), PNG);
+        Assertions.assertEquals("Content-Type: image/png\r\n", field(types.field("readme", FileMetadata.stat(readme))));
+        Assertions.assertEquals(2, types.getMisses());
+
+        // Listed endings are never sniffed, and nothing is sniffed unless enabled.
+        File page = directory.resolve("page.txt").toFile();
+        Files.write(page.toPath(), "<html>".getBytes(StandardCharsets.UTF_8));
+        Assertions.assertEquals("Content-Type: text/plain; charset=utf-8\r\n",
+                field(types.field("txt", FileMetadata.stat(page))));
+        Assertions.assertNull(new ContentTypes().field("readme", FileMetadata.stat(readme)));
+        Assertions.assertEquals("Content-Type: image/png\r\n", field(types.field("readme", ByteBuffer.wrap(PNG))));
+    }
+}
@@ -0,0 +1,62 @@
+package webServer;
+
+import org.junit.jupiter.api.Assertions;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This test determines whether a head which does not arrive in time is detected however it trickles in, whether a
+ * transfer below the minimum rate is detected once a window has passed, and whether clients which keep up are left
+ * alone.
+ */
+class DeadlinesTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private static Deadlines deadlines() {
+        return new Deadlines(new ServerConfig().setHeadTimeoutMillis(2000).setMinTransferRate(100));
+    }
+
+    @org.junit.jupiter.api.Test
+    void noPhaseNoDeadline() {
+        Deadlines deadlines = deadlines();
+        Assertions.assertNull(deadlines.check(Long.MAX_VALUE / 2, 0));
+        deadlines.start(Deadlines.Phase.HEAD, 0);
+        deadlines.stop();
+        Assertions.assertNull(deadlines.check(60 * SECOND, 0));
+    }
+
+    @org.junit.jupiter.api.Test
+    void headHasToArriveInTime() {
+        Deadlines deadlines = deadlines();
+        deadlines.start(Deadlines.Phase.HEAD, 0);
+        // Bytes arriving in between do not extend the deadline.
+        Assertions.assertNull(deadlines.check(SECOND, 1000));
+        Assertions.assertNull(deadlines.check(2 * SECOND, 2000));
+        Assertions.assertEquals(Deadlines.Phase.HEAD, deadlines.check(2 * SECOND + 1, 3000));
+    }
+
+    @org.junit.jupiter.api.Test
+    void transfersKeepTheMinimumRate() {
+        long window = TimeUnit.MILLISECONDS.toNanos(Deadlines.RATE_WINDOW_MILLIS);
+        Deadlines deadlines = deadlines();
+        deadlines.start(Deadlines.Phase.WRITE, 0);
+        // Nothing written within the first window is tolerated until the window is over.
+        Assertions.assertNull(deadlines.check(window - 1, 0));
+        // 100 bytes per second over ten seconds.
+        Assertions.assertNull(deadlines.check(window, 1000));
+        Assertions.assertNull(deadlines.check(2 * window, 2000));
+        Assertions.assertEquals(Deadlines.Phase.WRITE, deadlines.check(3 * window, 2999));
+
+        // The next response starts its own window.
+        deadlines.start(Deadlines.Phase.BODY, 3 * window);
+        Assertions.assertNull(deadlines.check(3 * window + 1, 0));
+        Assertions.assertEquals(Deadlines.Phase.BODY, deadlines.check(4 * window, 10));
+    }
+
+    @org.junit.jupiter.api.Test
+    void noMinimumRate() {
+        Deadlines deadlines = new Deadlines(new ServerConfig().setMinTransferRate(0));
+        deadlines.start(Deadlines.Phase.WRITE, 0);
+        Assertions.assertNull(deadlines.check(3600 * SECOND, 0));
+    }
+}
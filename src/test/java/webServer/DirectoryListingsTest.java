@@ -0,0 +1,109 @@
+package webServer;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+
+/**
+ * This test determines whether directory listings are cached per version of the directory and rendered in pages
+ * whose announced length matches the bytes sent.
+ */
+class DirectoryListingsTest {
+    @TempDir
+    Path directory;
+
+    private static HttpRequest request(String target) throws ParseException {
+        return new HttpParser().parse(ByteBuffer.wrap(("GET " + target + " HTTP/1.1\r\n\r\n")
+                .getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static String render(DirectoryListings.Page page) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Assertions.assertTrue(page.writeTo(Channels.newChannel(out)));
+        Assertions.assertEquals(page.length(), out.size());
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @org.junit.jupiter.api.Test
+    void listingIsCachedUntilDirectoryChanges() throws IOException {
+        DirectoryListings listings = new DirectoryListings(10, 4);
+        Files.write(directory.resolve("a.txt"), new byte[]{1});
+        Assertions.assertEquals(1, listings.get(directory.toFile()).size());
+        Assertions.assertEquals(1, listings.get(directory.toFile()).size());
+        Assertions.assertEquals(1, listings.getHits());
+        Files.write(directory.resolve("b.txt"), new byte[]{1});
+        Assertions.assertTrue(directory.toFile().setLastModified(directory.toFile().lastModified() + 2000));
+        Assertions.assertEquals(2, listings.get(directory.toFile()).size());
+        Assertions.assertEquals(1, listings.getInvalidations());
+    }
+
+    @org.junit.jupiter.api.Test
+    void attributesAreCheckedWhenThePageShowsThem() throws IOException, ParseException {
+        DirectoryListings listings = new DirectoryListings(10, 4);
+        Path a = Files.write(directory.resolve("a.txt"), new byte[1]);
+        Files.write(directory.resolve("b.txt"), new byte[2]);
+        long directoryModified = directory.toFile().lastModified();
+        FileMetadata.Entry metadata = FileMetadata.stat(directory.toFile());
+        Assertions.assertEquals(2, listings.get(metadata, FileMetadata.UNCACHED, true).size());
+
+        // Writing a file in place leaves its directory as it was.
+        Files.write(a, new byte[5]);
+        Assertions.assertTrue(a.toFile().setLastModified(a.toFile().lastModified() + 2000));
+        Assertions.assertTrue(directory.toFile().setLastModified(directoryModified));
+        metadata = FileMetadata.stat(directory.toFile());
+        Assertions.assertSame(listings.get(metadata), listings.get(metadata, FileMetadata.UNCACHED, false));
+        Assertions.assertEquals(0, listings.getInvalidations());
+        DirectoryListings.Listing listing = listings.get(metadata, FileMetadata.UNCACHED, true);
+        Assertions.assertEquals(1, listings.getInvalidations());
+        HttpRequest bySize = request("/?sort=size&format=json");
+        Assertions.assertTrue(DirectoryListings.showsAttributes(bySize));
+        Assertions.assertFalse(DirectoryListings.showsAttributes(request("/?sort=name&page=2")));
+        String page = render(listings.page(listing, bySize));
+        Assertions.assertTrue(page.contains("{\"name\":\"b.txt\",\"directory\":false,\"size\":2,"), page);
+        Assertions.assertTrue(page.contains("{\"name\":\"a.txt\",\"directory\":false,\"size\":5,\"modified\":"
+                + a.toFile().lastModified() + "}]"), page);
+        // Unchanged entries keep the listing.
+        Assertions.assertSame(listing, listings.get(metadata, FileMetadata.UNCACHED, true));
+    }
+
+    @org.junit.jupiter.api.Test
+    void pagesAreSortedAndEscaped() throws IOException, ParseException {
+        DirectoryListings listings = new DirectoryListings(2, 4);
+        Files.write(directory.resolve("b.txt"), new byte[3]);
+        Files.write(directory.resolve("A'<.txt"), new byte[1]);
+        Files.write(directory.resolve("c d.txt"), new byte[2]);
+        Files.createDirectory(directory.resolve("sub"));
+        DirectoryListings.Listing listing = listings.get(directory.toFile());
+
+        String first = render(listings.page(listing, request("/dir")));
+        Assertions.assertTrue(first.contains("<a href='/dir/A%27%3C.txt'><i>A&#39;&lt;.txt</i></a>"), first);
+        Assertions.assertTrue(first.contains("<a href='/dir/b.txt'>"), first);
+        Assertions.assertFalse(first.contains("c d.txt"), first);
+        Assertions.assertTrue(first.contains("page 1 of 2"), first);
+
+        String second = render(listings.page(listing, request("/dir/?page=2")));
+        Assertions.assertTrue(second.contains("<a href='/dir/c%20d.txt'><i>c d.txt</i></a>"), second);
+        Assertions.assertTrue(second.contains("<a href='/dir/sub/'><i>sub</i></a>"), second);
+
+        String bySize = render(listings.page(listing, request("/dir/?sort=size&order=desc&size=1&format=json")));
+        Assertions.assertTrue(bySize.startsWith("{\"path\":\"/dir/\",\"page\":1,\"pages\":4,\"pageSize\":1,\"total\":4,"
+                + "\"entries\":[{\"name\":\"b.txt\",\"directory\":false,\"size\":3,"), bySize);
+        Assertions.assertTrue(bySize.endsWith("}]}\n"), bySize);
+    }
+
+    @org.junit.jupiter.api.Test
+    void emptyDirectoryHasOnePage() throws IOException, ParseException {
+        DirectoryListings listings = new DirectoryListings(2, 4);
+        DirectoryListings.Listing listing = listings.get(directory.toFile());
+        Assertions.assertEquals("{\"path\":\"/\",\"page\":1,\"pages\":1,\"pageSize\":2,\"total\":0,\"entries\":[]}\n",
+                render(listings.page(listing, request("/?format=json"))));
+    }
+}
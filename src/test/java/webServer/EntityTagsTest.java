@@ -0,0 +1,53 @@
+package webServer;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * This test determines whether Etags are derived from the file version and compared the way clients send them.
+ */
+class EntityTagsTest {
+    @TempDir
+    Path directory;
+
+    @org.junit.jupiter.api.Test
+    void metadataTagDoesNotNeedContent() throws IOException {
+        EntityTags tags = new EntityTags(EntityTags.Mode.METADATA, 16);
+        File missing = directory.resolve("missing.txt").toFile();
+        Assertions.assertEquals("\"64-a\"", tags.of(missing, 10, 100));
+        Assertions.assertNotEquals(tags.of(missing, 10, 100), tags.of(missing, 11, 100));
+    }
+
+    @org.junit.jupiter.api.Test
+    void contentTagIsCachedPerVersion() throws IOException {
+        EntityTags tags = new EntityTags(EntityTags.Mode.CONTENT, 16);
+        File file = directory.resolve("a.txt").toFile();
+        Files.write(file.toPath(), "hello\n".getBytes(StandardCharsets.UTF_8));
+        long lastModified = file.lastModified();
+        String tag = tags.of(file, file.length(), lastModified);
+        Assertions.assertEquals("\"b1946ac92492d2347c6235b4d2611184\"", tag);
+        Files.delete(file.toPath());
+        // The same version is answered from the cache without reading the deleted file.
+        Assertions.assertEquals(tag, tags.of(file, 6, lastModified));
+    }
+
+    @org.junit.jupiter.api.Test
+    void encodedRepresentationHasOwnTag() {
+        Assertions.assertEquals("\"64-a-gzip\"", EntityTags.forEncoding("\"64-a\"", "gzip"));
+    }
+
+    @org.junit.jupiter.api.Test
+    void matchesListsWeakAndUnquotedTags() {
+        Assertions.assertTrue(EntityTags.matches("\"64-a\"", "\"64-a\""));
+        Assertions.assertTrue(EntityTags.matches("64-a", "\"64-a\""));
+        Assertions.assertTrue(EntityTags.matches("\"x\", W/\"64-a\"", "\"64-a\""));
+        Assertions.assertFalse(EntityTags.matches("\"x\",\"y\"", "\"64-a\""));
+        Assertions.assertFalse(EntityTags.matches("", "\"64-a\""));
+    }
+}
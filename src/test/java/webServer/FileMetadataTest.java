@@ -0,0 +1,64 @@
+package webServer;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * This test determines whether file metadata is read with one lookup, reused within its validity window and read
+ * again once the window has passed, for missing files as well.
+ */
+class FileMetadataTest {
+    @TempDir
+    Path directory;
+
+    @org.junit.jupiter.api.Test
+    void statReadsTypeSizeAndModificationTime() throws IOException {
+        File file = directory.resolve("a.txt").toFile();
+        Files.write(file.toPath(), new byte[]{1, 2, 3});
+        Assertions.assertTrue(file.setLastModified(100_000));
+        FileMetadata.Entry entry = FileMetadata.stat(file);
+        Assertions.assertTrue(entry.exists());
+        Assertions.assertTrue(entry.isFile());
+        Assertions.assertFalse(entry.isDirectory());
+        Assertions.assertEquals(3, entry.getSize());
+        Assertions.assertEquals(100_000, entry.getLastModified());
+        Assertions.assertEquals(file.getCanonicalPath(), entry.getCanonicalPath());
+        Assertions.assertTrue(FileMetadata.stat(directory.toFile()).isDirectory());
+        Assertions.assertFalse(FileMetadata.stat(directory.resolve("missing").toFile()).exists());
+    }
+
+    @org.junit.jupiter.api.Test
+    void missingFilesAreCachedWithinTheWindow() throws IOException {
+        FileMetadata metadata = new FileMetadata(60_000, 16);
+        File file = directory.resolve("late.txt").toFile();
+        Assertions.assertFalse(metadata.get(file).exists());
+        Files.write(file.toPath(), new byte[]{1});
+        Assertions.assertFalse(metadata.get(file).exists());
+        Assertions.assertEquals(1, metadata.getHits());
+        Assertions.assertEquals(1, metadata.getMisses());
+    }
+
+    @org.junit.jupiter.api.Test
+    void expiredEntriesAreReadAgain() throws IOException, InterruptedException {
+        FileMetadata metadata = new FileMetadata(1, 16);
+        File file = directory.resolve("late.txt").toFile();
+        Assertions.assertFalse(metadata.get(file).exists());
+        Files.write(file.toPath(), new byte[]{1});
+        Thread.sleep(5);
+        Assertions.assertTrue(metadata.get(file).exists());
+    }
+
+    @org.junit.jupiter.api.Test
+    void cacheStaysWithinItsCapacity() {
+        FileMetadata metadata = new FileMetadata(60_000, 10);
+        for (int i = 0; i < 100; i++) {
+            metadata.get(directory.resolve("missing" + i).toFile());
+        }
+        Assertions.assertTrue(metadata.getEntryCount() <= 10);
+    }
+}
@@ -0,0 +1,134 @@
+package webServer;
+
+import org.junit.jupiter.api.Assertions;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This test determines whether header blocks are decoded the way RFC 7541 shows in its examples, whether the encoder
+ * and the decoder keep their tables in step, and whether malformed blocks are rejected.
+ */
+class HpackTest {
+    private static ByteBuffer hex(String hex) {
+        hex = hex.replace(" ", "");
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return ByteBuffer.wrap(bytes);
+    }
+
+    private static List<String> decode(Hpack.Decoder decoder, ByteBuffer block) throws ParseException {
+        List<String> fields = new ArrayList<>();
+        decoder.decode(block, fields);
+        return fields;
+    }
+
+    @org.junit.jupiter.api.Test
+    void integers() throws ParseException {
+        // RFC 7541 C.1
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Hpack.encodeInteger(out, 0, 5, 10);
+        Hpack.encodeInteger(out, 0, 5, 1337);
+        Hpack.encodeInteger(out, 0, 8, 42);
+        Assertions.assertArrayEquals(new byte[]{0x0a, 0x1f, (byte) 0x9a, 0x0a, 0x2a}, out.toByteArray());
+        ByteBuffer encoded = ByteBuffer.wrap(out.toByteArray());
+        Assertions.assertEquals(10, Hpack.decodeInteger(encoded, 5));
+        Assertions.assertEquals(1337, Hpack.decodeInteger(encoded, 5));
+        Assertions.assertEquals(42, Hpack.decodeInteger(encoded, 8));
+        Assertions.assertThrows(ParseException.class, () -> Hpack.decodeInteger(hex("1f ff ff ff ff 0f"), 5));
+        Assertions.assertThrows(ParseException.class, () -> Hpack.decodeInteger(hex("1f 9a"), 5));
+    }
+
+    @org.junit.jupiter.api.Test
+    void requestsWithHuffmanCoding() throws ParseException {
+        // RFC 7541 C.4, three requests on one connection
+        Hpack.Decoder decoder = new Hpack.Decoder(16384);
+        Assertions.assertEquals(Arrays.asList(":method", "GET", ":scheme", "http", ":path", "/", ":authority",
+                "www.example.com"), decode(decoder, hex("8286 8441 8cf1 e3c2 e5f2 3a6b a0ab 90f4 ff")));
+        Assertions.assertEquals(57, decoder.getTable().getSize());
+        Assertions.assertEquals(Arrays.asList(":method", "GET", ":scheme", "http", ":path", "/", ":authority",
+                "www.example.com", "cache-control", "no-cache"), decode(decoder, hex("8286 84be 5886 a8eb 1064 9cbf")));
+        Assertions.assertEquals(110, decoder.getTable().getSize());
+        Assertions.assertEquals(Arrays.asList(":method", "GET", ":scheme", "https", ":path", "/index.html",
+                ":authority", "www.example.com", "custom-key", "custom-value"),
+                decode(decoder, hex("8287 85bf 4088 25a8 49e9 5ba9 7d7f 8925 a849 e95b b8e8 b4bf")));
+        Assertions.assertEquals(164, decoder.getTable().getSize());
+        Assertions.assertEquals(3, decoder.getTable().length());
+    }
+
+    @org.junit.jupiter.api.Test
+    void encoderAndDecoderStayInStep() throws ParseException {
+        Hpack.Encoder encoder = new Hpack.Encoder();
+        Hpack.Decoder decoder = new Hpack.Decoder(16384);
+        List<String> sent = Arrays.asList(":status", "200", "content-type", "text/html; charset=UTF-8",
+                "server", "webServer", "etag", "\"64-a\"", "x-\u00fcnicode", "caf\u00e9 \u00ff\u0000");
+        int previous = Integer.MAX_VALUE;
+        for (int round = 0; round < 3; round++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            encoder.start(out);
+            for (int i = 0; i < sent.size(); i += 2) {
+                encoder.encode(out, sent.get(i), sent.get(i + 1));
+            }
+            Assertions.assertEquals(sent, decode(decoder, ByteBuffer.wrap(out.toByteArray())));
+            Assertions.assertEquals(encoder.getTable().getSize(), decoder.getTable().getSize());
+            // Once the stable fields are indexed, the block shrinks.
+            Assertions.assertTrue(out.size() <= previous);
+            previous = out.size();
+        }
+        // The etag varies from response to response and is never indexed.
+        Assertions.assertEquals(0, encoder.getTable().indexOf("etag", "\"64-a\""));
+    }
+
+    @org.junit.jupiter.api.Test
+    void smallerTableIsAnnouncedAndEvicts() throws ParseException {
+        Hpack.Encoder encoder = new Hpack.Encoder();
+        Hpack.Decoder decoder = new Hpack.Decoder(16384);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.start(out);
+        encoder.encode(out, "content-type", "text/plain");
+        encoder.encode(out, "server", "webServer");
+        decode(decoder, ByteBuffer.wrap(out.toByteArray()));
+        Assertions.assertEquals(2, decoder.getTable().length());
+
+        encoder.setMaxTableSize(50);
+        out = new ByteArrayOutputStream();
+        encoder.start(out);
+        encoder.encode(out, "server", "webServer");
+        decode(decoder, ByteBuffer.wrap(out.toByteArray()));
+        Assertions.assertEquals(50, decoder.getTable().getMaxSize());
+        Assertions.assertEquals(1, decoder.getTable().length());
+        Assertions.assertArrayEquals(new String[]{"server", "webServer"}, decoder.getTable().get(1));
+        Assertions.assertEquals(encoder.getTable().getSize(), decoder.getTable().getSize());
+    }
+
+    @org.junit.jupiter.api.Test
+    void rejectMalformedBlocks() {
+        Hpack.Decoder decoder = new Hpack.Decoder(16384);
+        // Index 0, an index beyond both tables, a string longer than the block
+        Assertions.assertThrows(ParseException.class, () -> decode(decoder, hex("80")));
+        Assertions.assertThrows(ParseException.class, () -> decode(decoder, hex("be")));
+        Assertions.assertThrows(ParseException.class, () -> decode(decoder, hex("4005 6e61 6d65")));
+        // Huffman padding which is not all ones, and padding longer than 7 bits
+        Assertions.assertThrows(ParseException.class, () -> decode(decoder, hex("4081 f081 00")));
+        Assertions.assertThrows(ParseException.class, () -> decode(decoder, hex("4082 f1ff 8100")));
+        // A table larger than the settings allow, and a size update after a field
+        Assertions.assertThrows(ParseException.class, () -> decode(decoder, hex("3fe2 1f")));
+        Assertions.assertThrows(ParseException.class, () -> decode(decoder, hex("82 20")));
+    }
+
+    @org.junit.jupiter.api.Test
+    void tooLargeListIsDecodedBeforeItIsRefused() {
+        Hpack.Decoder decoder = new Hpack.Decoder(40);
+        HttpParser.LimitExceededException e = Assertions.assertThrows(HttpParser.LimitExceededException.class,
+                () -> decode(decoder, hex("4088 25a8 49e9 5ba9 7d7f 8925 a849 e95b b8e8 b4bf")));
+        Assertions.assertEquals(431, e.getStatus());
+        // The field still entered the table, so later blocks which refer to it decode.
+        Assertions.assertEquals(1, decoder.getTable().length());
+    }
+}
@@ -0,0 +1,229 @@
+package webServer;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+
+/**
+ * This test determines whether a server speaks HTTP/2 to clients which know it in advance and to clients which upgrade
+ * from HTTP/1.1, whether several streams are answered on one connection, whether a protocol error ends the
+ * connection with GOAWAY and whether a client which stops taking its responses is disconnected.
+ */
+class Http2ConnectionTest {
+    private static Server server;
+    private static int port;
+
+    @BeforeAll
+    public static void setUpClass() throws IOException, InterruptedException {
+        Path directory = Files.createTempDirectory("http2-test");
+        Files.write(directory.resolve("hello.txt"), "hello".getBytes(StandardCharsets.US_ASCII));
+        server = new Server(directory.toString(), 0, Level.ALL, new ServerConfig());
+        Thread serve = new Thread(server);
+        serve.setDaemon(true);
+        serve.start();
+        port = server.awaitListening(10000);
+    }
+
+    @AfterAll
+    public static void shutDown() {
+        server.stop();
+    }
+
+    private static void writeFrame(OutputStream out, int type, int flags, int streamId, byte[] payload)
+            throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(9);
+        header.put((byte) (payload.length >>> 16)).put((byte) (payload.length >>> 8)).put((byte) payload.length);
+        header.put((byte) type).put((byte) flags).putInt(streamId);
+        out.write(header.array());
+        out.write(payload);
+        out.flush();
+    }
+
+    private static byte[] request(String path) {
+        Hpack.Encoder encoder = new Hpack.Encoder();
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        encoder.encode(block, ":method", "GET");
+        encoder.encode(block, ":scheme", "http");
+        encoder.encode(block, ":path", path);
+        encoder.encode(block, ":authority", "localhost");
+        return block.toByteArray();
+    }
+
+    /**
+     * Reads frames until every stream asked for has ended, answering nothing but collecting the responses.
+     * @return The status and the body by stream
+     */
+    private static Map<Integer, String[]> readResponses(DataInputStream in, int streams) throws IOException,
+            ParseException {
+        Hpack.Decoder decoder = new Hpack.Decoder(65536);
+        Map<Integer, String[]> responses = new HashMap<>();
+        int ended = 0;
+        while (ended < streams) {
+            int length = in.readUnsignedByte() << 16 | in.readUnsignedShort();
+            int type = in.readUnsignedByte();
+            int flags = in.readUnsignedByte();
+            int streamId = in.readInt() & 0x7fffffff;
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            if (type == 0x1) {
+                List<String> fields = new ArrayList<>();
+                decoder.decode(ByteBuffer.wrap(payload), fields);
+                Assertions.assertEquals(":status", fields.get(0));
+                responses.put(streamId, new String[]{fields.get(1), ""});
+            }
+            else if (type == 0x0) {
+                String[] response = responses.get(streamId);
+                response[1] += new String(payload, StandardCharsets.ISO_8859_1);
+            }
+            else if (type == 0x7) {
+                Assertions.fail("GOAWAY before all streams ended");
+            }
+            if ((type == 0x0 || type == 0x1) && (flags & 0x1) != 0) {
+                ended++;
+            }
+        }
+        return responses;
+    }
+
+    @org.junit.jupiter.api.Test
+    void matchPreface() {
+        Assertions.assertEquals(1, Http2Connection.matchPreface(ByteBuffer.wrap(Http2Connection.PREFACE)));
+        Assertions.assertEquals(0, Http2Connection.matchPreface(
+                ByteBuffer.wrap("PRI * HT".getBytes(StandardCharsets.US_ASCII))));
+        Assertions.assertEquals(-1, Http2Connection.matchPreface(
+                ByteBuffer.wrap("GET / HTTP/1.1\r\n".getBytes(StandardCharsets.US_ASCII))));
+    }
+
+    @org.junit.jupiter.api.Test
+    void priorKnowledgeServesStreamsOnOneConnection() throws IOException, ParseException {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(10000);
+            OutputStream out = socket.getOutputStream();
+            out.write(Http2Connection.PREFACE);
+            writeFrame(out, 0x4, 0, 0, new byte[0]);
+            writeFrame(out, 0x1, 0x5, 1, request("/hello.txt"));
+            writeFrame(out, 0x1, 0x5, 3, request("/missing.txt"));
+            Map<Integer, String[]> responses = readResponses(new DataInputStream(socket.getInputStream()), 2);
+            Assertions.assertEquals("200", responses.get(1)[0]);
+            Assertions.assertEquals("hello", responses.get(1)[1]);
+            Assertions.assertEquals("404", responses.get(3)[0]);
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void upgradeAnswersTheFirstRequestOnStreamOne() throws IOException, ParseException {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(10000);
+            OutputStream out = socket.getOutputStream();
+            out.write(("GET /hello.txt HTTP/1.1\r\nHost: localhost\r\nConnection: Upgrade, HTTP2-Settings\r\n"
+                    + "Upgrade: h2c\r\nHTTP2-Settings: AAMAAABk\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            StringBuilder head = new StringBuilder();
+            while (!head.toString().endsWith("\r\n\r\n")) {
+                head.append((char) in.readUnsignedByte());
+            }
+            Assertions.assertTrue(head.toString().startsWith("HTTP/1.1 101"));
+            out.write(Http2Connection.PREFACE);
+            writeFrame(out, 0x4, 0, 0, new byte[0]);
+            Map<Integer, String[]> responses = readResponses(in, 1);
+            Assertions.assertEquals("200", responses.get(1)[0]);
+            Assertions.assertEquals("hello", responses.get(1)[1]);
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void protocolErrorEndsTheConnection() throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(10000);
+            OutputStream out = socket.getOutputStream();
+            out.write(Http2Connection.PREFACE);
+            writeFrame(out, 0x4, 0, 0, new byte[0]);
+            // DATA on stream 0 is a connection error.
+            writeFrame(out, 0x0, 0, 0, new byte[]{1});
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            int type;
+            byte[] payload;
+            do {
+                int length = in.readUnsignedByte() << 16 | in.readUnsignedShort();
+                type = in.readUnsignedByte();
+                in.readUnsignedByte();
+                in.readInt();
+                payload = new byte[length];
+                in.readFully(payload);
+            } while (type != 0x7);
+            Assertions.assertEquals(0x1, ByteBuffer.wrap(payload).getInt(4));
+            Assertions.assertEquals(-1, in.read());
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void stalledStreamsCloseTheConnection() throws IOException, InterruptedException {
+        Path directory = Files.createTempDirectory("http2-test");
+        Files.write(directory.resolve("big.bin"), new byte[32 * 1024 * 1024]);
+        Server guarded = new Server(directory.toString(), 0, Level.ALL,
+                new ServerConfig().setKeepAliveTimeoutMillis(500));
+        Thread serve = new Thread(guarded);
+        serve.setDaemon(true);
+        serve.start();
+        int guardedPort = guarded.awaitListening(10000);
+        try {
+            // The first client never opens the flow control window, the second one opens it and stops reading.
+            ByteBuffer largeWindow = ByteBuffer.allocate(6).putShort((short) 0x4).putInt(Integer.MAX_VALUE);
+            byte[][] settings = {new byte[0], largeWindow.array()};
+            for (int i = 0; i < settings.length; i++) {
+                try (Socket socket = new Socket("localhost", guardedPort)) {
+                    socket.setSoTimeout(10000);
+                    socket.setReceiveBufferSize(64 * 1024);
+                    OutputStream out = socket.getOutputStream();
+                    out.write(Http2Connection.PREFACE);
+                    writeFrame(out, 0x4, 0, 0, settings[i]);
+                    if (i == 1) {
+                        writeFrame(out, 0x8, 0, 0, ByteBuffer.allocate(4).putInt(Integer.MAX_VALUE - 65535).array());
+                    }
+                    writeFrame(out, 0x1, 0x5, 1, request("/big.bin"));
+                    long started = System.nanoTime();
+                    long deadline = System.currentTimeMillis() + 10000;
+                    while (guarded.getMetrics().getStalledConnections(Deadlines.Phase.WRITE) < i + 1
+                            && System.currentTimeMillis() < deadline) {
+                        Thread.sleep(50);
+                    }
+                    Assertions.assertEquals(i + 1, guarded.getMetrics().getStalledConnections(Deadlines.Phase.WRITE));
+                    Assertions.assertTrue(System.nanoTime() - started < 5_000_000_000L);
+                    // The connection is closed, whatever was sent before ends there.
+                    InputStream in = socket.getInputStream();
+                    byte[] sink = new byte[65536];
+                    long received = 0;
+                    try {
+                        for (int read = in.read(sink); read >= 0; read = in.read(sink)) {
+                            received += read;
+                        }
+                    }
+                    catch (IOException e) {
+                        // Reset by the server
+                    }
+                    Assertions.assertTrue(received < 32 * 1024 * 1024, "received " + received);
+                }
+            }
+        }
+        finally {
+            guarded.stop();
+        }
+    }
+}
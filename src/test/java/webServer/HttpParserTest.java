@@ -0,0 +1,166 @@
+package webServer;
+
+import org.junit.jupiter.api.Assertions;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+
+/**
+ * This test determines whether request heads are parsed correctly out of buffers, no matter how the bytes arrive.
+ */
+class HttpParserTest {
+    private static final HttpParser PARSER = new HttpParser(64, 128, 4);
+
+    private static ByteBuffer buffer(String raw) {
+        return ByteBuffer.wrap(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @org.junit.jupiter.api.Test
+    void parsesRequestLineAndHeaders() throws ParseException {
+        HttpRequest request = PARSER.parse(buffer("GET /New%20folder/ HTTP/1.1\r\nHost: localhost\r\nIf-None-Match: abc\r\n\r\n"));
+        Assertions.assertNotNull(request);
+        Assertions.assertEquals(Request.Type.GET, request.getMethod());
+        Assertions.assertEquals("/New folder/", request.getPath());
+        Assertions.assertEquals("HTTP/1.1", request.getVersion());
+        Assertions.assertEquals("abc", request.getHeader("if-none-match"));
+    }
+
+    @org.junit.jupiter.api.Test
+    void acceptsBareLineFeeds() throws ParseException {
+        HttpRequest request = PARSER.parse(buffer("HEAD / HTTP/1.0\nHost: localhost\n\n"));
+        Assertions.assertNotNull(request);
+        Assertions.assertEquals(Request.Type.HEAD, request.getMethod());
+        Assertions.assertEquals("localhost", request.getHeader("host"));
+    }
+
+    @org.junit.jupiter.api.Test
+    void incompleteHeadReturnsNull() throws ParseException {
+        ByteBuffer buffer = buffer("GET / HTTP/1.1\r\nHost: loc");
+        Assertions.assertNull(PARSER.parse(buffer));
+        Assertions.assertEquals(0, buffer.position());
+    }
+
+    @org.junit.jupiter.api.Test
+    void leavesFollowingBytesInBuffer() throws ParseException {
+        ByteBuffer buffer = buffer("GET /a HTTP/1.1\r\n\r\nGET /b HTTP/1.1\r\n\r\n");
+        Assertions.assertEquals("/a", PARSER.parse(buffer).getPath());
+        Assertions.assertEquals("/b", PARSER.parse(buffer).getPath());
+        Assertions.assertFalse(buffer.hasRemaining());
+    }
+
+    @org.junit.jupiter.api.Test
+    void unknownMethodIsRejected() {
+        Assertions.assertThrows(ParseException.class, () -> PARSER.parse(buffer("FOO / HTTP/1.1\r\n\r\n")));
+    }
+
+    @org.junit.jupiter.api.Test
+    void malformedRequestLineIsRejected() {
+        Assertions.assertThrows(ParseException.class, () -> PARSER.parse(buffer("GET\r\n\r\n")));
+    }
+
+    @org.junit.jupiter.api.Test
+    void knownHeaderNamesAreInterned() throws ParseException {
+        HttpRequest request = PARSER.parse(buffer("GET / HTTP/1.1\r\nAccept-Encoding: gzip\r\nX-Custom:  a \r\nX-Custom: b\r\n\r\n"));
+        Assertions.assertSame("accept-encoding", request.getHeaderName(0));
+        Assertions.assertEquals("x-custom", request.getHeaderName(1));
+        Assertions.assertEquals("a, b", request.getHeader("x-custom"));
+        Assertions.assertEquals(2, request.getHeaderCount());
+    }
+
+    @org.junit.jupiter.api.Test
+    void queryStringIsSeparatedFromPath() throws ParseException {
+        HttpRequest request = PARSER.parse(buffer("GET /a%20b+c?x=1&y=a+b%21&z HTTP/1.1\r\n\r\n"));
+        Assertions.assertEquals("/a b+c", request.getPath());
+        Assertions.assertEquals("x=1&y=a+b%21&z", request.getQuery());
+        Assertions.assertEquals("1", request.getParameter("x"));
+        Assertions.assertEquals("a b!", request.getParameter("y"));
+        Assertions.assertEquals("", request.getParameter("z"));
+        Assertions.assertNull(request.getParameter("w"));
+        Assertions.assertNull(PARSER.parse(buffer("GET / HTTP/1.1\r\n\r\n")).getQuery());
+        Assertions.assertThrows(ParseException.class, () -> PARSER.parse(buffer("GET /a%2 HTTP/1.1\r\n\r\n")));
+    }
+
+    @org.junit.jupiter.api.Test
+    void longRequestLineFailsBeforeItIsComplete() {
+        char[] path = new char[100];
+        java.util.Arrays.fill(path, 'a');
+        HttpParser.LimitExceededException e = Assertions.assertThrows(HttpParser.LimitExceededException.class,
+                () -> PARSER.parse(buffer("GET /" + new String(path))));
+        Assertions.assertEquals(414, e.getStatus());
+    }
+
+    @org.junit.jupiter.api.Test
+    void headerLimitsAreEnforced() {
+        HttpParser.LimitExceededException e = Assertions.assertThrows(HttpParser.LimitExceededException.class,
+                () -> PARSER.parse(buffer("GET / HTTP/1.1\r\nA: 1\r\nB: 2\r\nC: 3\r\nD: 4\r\nE: 5\r\n\r\n")));
+        Assertions.assertEquals(431, e.getStatus());
+        char[] value = new char[200];
+        java.util.Arrays.fill(value, 'v');
+        e = Assertions.assertThrows(HttpParser.LimitExceededException.class,
+                () -> PARSER.parse(buffer("GET / HTTP/1.1\r\nA: " + new String(value))));
+        Assertions.assertEquals(431, e.getStatus());
+    }
+
+    @org.junit.jupiter.api.Test
+    void fullBufferWithoutEndOfHeadIsRejected() throws ParseException {
+        // A buffer of the size of the limit cannot take more bytes, the head is too large.
+        String head = "GET / HTTP/1.1\r\nA: ";
+        char[] value = new char[128 - head.length()];
+        java.util.Arrays.fill(value, 'v');
+        HttpParser.LimitExceededException e = Assertions.assertThrows(HttpParser.LimitExceededException.class,
+                () -> PARSER.parse(buffer(head + new String(value))));
+        Assertions.assertEquals(431, e.getStatus());
+        // A complete head of exactly the limit is accepted.
+        char[] fits = new char[128 - head.length() - 4];
+        java.util.Arrays.fill(fits, 'v');
+        Assertions.assertNotNull(PARSER.parse(buffer(head + new String(fits) + "\r\n\r\n")));
+        HttpParser equalLimits = new HttpParser(128, 128, 4);
+        e = Assertions.assertThrows(HttpParser.LimitExceededException.class,
+                () -> equalLimits.parse(buffer("GET /" + new String(new char[123]).replace('\0', 'a'))));
+        Assertions.assertEquals(414, e.getStatus());
+    }
+
+    @org.junit.jupiter.api.Test
+    void targetHasToBeAnAbsolutePathWithinTheRoot() throws ParseException {
+        for (String target : new String[]{"hello.txt", "*", "http://localhost/", "/../etc/hostname", "/a/../../b",
+                "/a/..", "/%2e%2e/etc", "/a%2F..%2F..%2Fb"}) {
+            Assertions.assertThrows(ParseException.class,
+                    () -> PARSER.parse(buffer("GET " + target + " HTTP/1.1\r\n\r\n")), target);
+        }
+        Assertions.assertThrows(ParseException.class,
+                () -> PARSER.request("GET", "/../etc/hostname", "HTTP/2.0", java.util.Collections.emptyList()));
+        // Dots within a segment are part of a name.
+        Assertions.assertEquals("/a..b/...", PARSER.parse(buffer("GET /a..b/... HTTP/1.1\r\n\r\n")).getPath());
+        Assertions.assertEquals("/..a/", PARSER.parse(buffer("GET /..a/?x=.. HTTP/1.1\r\n\r\n")).getPath());
+    }
+
+    @org.junit.jupiter.api.Test
+    void onlyHttp1VersionsAreAccepted() throws ParseException {
+        Assertions.assertSame("HTTP/1.0", PARSER.parse(buffer("GET / HTTP/1.0\r\n\r\n")).getVersion());
+        Assertions.assertSame("HTTP/1.1", PARSER.parse(buffer("GET / HTTP/1.1\r\n\r\n")).getVersion());
+        for (String version : new String[]{"HXXXX1X1", "http/1.1", "HTTP/1.10", "HTTP/1.x", "H"}) {
+            ParseException e = Assertions.assertThrows(ParseException.class,
+                    () -> PARSER.parse(buffer("GET / " + version + "\r\n\r\n")), version);
+            Assertions.assertFalse(e instanceof HttpParser.RejectedException, version);
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void otherHttpVersionsAreAnsweredWith505() {
+        for (String version : new String[]{"HTTP/2.0", "HTTP/1.2", "HTTP/0.9"}) {
+            HttpParser.RejectedException e = Assertions.assertThrows(HttpParser.RejectedException.class,
+                    () -> PARSER.parse(buffer("GET / " + version + "\r\n\r\n")), version);
+            Assertions.assertEquals(505, e.getStatus(), version);
+            Assertions.assertEquals(505, Request.badRequest(e).getStatus(), version);
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void foldedHeaderIsRejected() {
+        Assertions.assertThrows(ParseException.class,
+                () -> PARSER.parse(buffer("GET / HTTP/1.1\r\nA: 1\r\n continued\r\n\r\n")));
+        Assertions.assertThrows(ParseException.class,
+                () -> PARSER.parse(buffer("GET / HTTP/1.1\r\nA : 1\r\n\r\n")));
+    }
+}
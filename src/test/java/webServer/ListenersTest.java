@@ -0,0 +1,78 @@
+package webServer;
+
+import org.junit.jupiter.api.Assertions;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.channels.ServerSocketChannel;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This test determines whether the addresses to listen on are parsed, whether the acceptors of one address listen on
+ * the same port, also when the system picks it, and whether a port which is taken already fails the whole bind.
+ */
+class ListenersTest {
+    @org.junit.jupiter.api.Test
+    void parseAddresses() {
+        List<InetSocketAddress> addresses = Listeners.parse("8080, 127.0.0.1:8081,[::1]:8082,*:8083");
+        Assertions.assertEquals(4, addresses.size());
+        Assertions.assertTrue(addresses.get(0).getAddress().isAnyLocalAddress());
+        Assertions.assertEquals(8080, addresses.get(0).getPort());
+        Assertions.assertEquals("127.0.0.1", addresses.get(1).getAddress().getHostAddress());
+        Assertions.assertTrue(addresses.get(2).getAddress().isLoopbackAddress());
+        Assertions.assertEquals(8082, addresses.get(2).getPort());
+        Assertions.assertTrue(addresses.get(3).getAddress().isAnyLocalAddress());
+    }
+
+    @org.junit.jupiter.api.Test
+    void rejectMalformedAddresses() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> Listeners.parse("localhost:http"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> Listeners.parse("70000"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> Listeners.parse(" , "));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new ServerConfig().setListen("8080,x:"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new ServerConfig().setAcceptors(0));
+    }
+
+    @org.junit.jupiter.api.Test
+    void acceptorsShareThePickedPort() throws IOException {
+        List<InetSocketAddress> addresses = Arrays.asList(new InetSocketAddress("127.0.0.1", 0),
+                new InetSocketAddress("127.0.0.1", 0));
+        try (Listeners listeners = Listeners.open(addresses, 3, false)) {
+            List<InetSocketAddress> local = listeners.getLocalAddresses();
+            Assertions.assertEquals(2, local.size());
+            Assertions.assertNotEquals(local.get(0).getPort(), local.get(1).getPort());
+            for (int acceptor = 0; acceptor < 3; acceptor++) {
+                ServerSocketChannel[] channels = listeners.get(acceptor);
+                Assertions.assertEquals(2, channels.length);
+                for (int i = 0; i < channels.length; i++) {
+                    Assertions.assertEquals(local.get(i), channels[i].getLocalAddress());
+                }
+            }
+            // Without SO_REUSEPORT the acceptors take turns on one socket per address.
+            Assertions.assertEquals(listeners.isSharded(), listeners.get(0)[0] != listeners.get(1)[0]);
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void singleAcceptorIsNotSharded() throws IOException {
+        try (Listeners listeners = Listeners.open(
+                Collections.singletonList(new InetSocketAddress("127.0.0.1", 0)), 1, false)) {
+            Assertions.assertFalse(listeners.isSharded());
+            Assertions.assertEquals(1, listeners.get(0).length);
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void takenPortFails() throws IOException {
+        try (ServerSocket taken = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"))) {
+            InetSocketAddress free = new InetSocketAddress("127.0.0.1", 0);
+            InetSocketAddress occupied = new InetSocketAddress("127.0.0.1", taken.getLocalPort());
+            Assertions.assertThrows(IOException.class,
+                    () -> Listeners.open(Arrays.asList(free, occupied), 1, false));
+        }
+    }
+}
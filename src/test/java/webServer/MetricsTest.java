@@ -0,0 +1,97 @@
+package webServer;
+
+import org.junit.jupiter.api.Assertions;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.logging.Level;
+
+/**
+ * This test determines whether requests are counted by method and status, latencies land in the right buckets and
+ * everything is rendered in the Prometheus text format.
+ */
+class MetricsTest {
+
+    @org.junit.jupiter.api.Test
+    void bucketsGrowByHalfPowersOfTwo() {
+        Assertions.assertEquals(1, Metrics.Histogram.BOUNDS[0]);
+        Assertions.assertEquals(2, Metrics.Histogram.BOUNDS[1]);
+        Assertions.assertEquals(3, Metrics.Histogram.BOUNDS[2]);
+        Assertions.assertEquals(4, Metrics.Histogram.BOUNDS[3]);
+        Assertions.assertEquals(6, Metrics.Histogram.BOUNDS[4]);
+        Assertions.assertEquals(0, Metrics.Histogram.bucket(0));
+        Assertions.assertEquals(0, Metrics.Histogram.bucket(1));
+        Assertions.assertEquals(3, Metrics.Histogram.bucket(4));
+        Assertions.assertEquals(4, Metrics.Histogram.bucket(5));
+        Assertions.assertEquals(Metrics.Histogram.BOUNDS.length, Metrics.Histogram.bucket(Long.MAX_VALUE));
+    }
+
+    @org.junit.jupiter.api.Test
+    void percentilesAreReadFromTheBuckets() {
+        Metrics.Histogram histogram = new Metrics.Histogram();
+        Assertions.assertEquals(0, histogram.getPercentileMicros(99));
+        for (int i = 0; i < 99; i++) {
+            histogram.record(5_000);
+        }
+        histogram.record(1_000_000);
+        Assertions.assertEquals(100, histogram.getCount());
+        Assertions.assertEquals(6, histogram.getPercentileMicros(50));
+        Assertions.assertEquals(6, histogram.getPercentileMicros(99));
+        Assertions.assertEquals(1024, histogram.getPercentileMicros(100));
+    }
+
+    @org.junit.jupiter.api.Test
+    void requestsAreCountedAndScraped() {
+        Metrics metrics = new Metrics();
+        metrics.record(Request.Type.GET, 200, 1_000, 2_000, 0, 3_000, 500);
+        metrics.record(Request.Type.GET, 200, 1_000, 2_000, 0, 3_000, 500);
+        metrics.record(null, 400, 1_000, 0, 0, 1_000, 100);
+        metrics.connectionOpened();
+        Assertions.assertEquals(2, metrics.getRequests(Request.Type.GET, 200));
+        Assertions.assertEquals(1, metrics.getRequests(null, 400));
+        Assertions.assertEquals(0, metrics.getRequests(Request.Type.HEAD, 200));
+        Assertions.assertEquals(1_100, metrics.getBytesSent());
+        Assertions.assertEquals(1, metrics.getActiveConnections());
+        Assertions.assertEquals(3, metrics.getHistogram(Metrics.Phase.PARSE).getCount());
+
+        Server server = new Server(".", 0, Level.OFF, new ServerConfig());
+        String text = new String(metrics.scrape(server), StandardCharsets.UTF_8);
+        Assertions.assertTrue(text.contains("webserver_requests_total{method=\"GET\",status=\"200\"} 2\n"));
+        Assertions.assertTrue(text.contains("webserver_requests_total{method=\"UNKNOWN\",status=\"400\"} 1\n"));
+        Assertions.assertTrue(text.contains("webserver_request_duration_seconds_bucket{le=\"0.000002\"} 1\n"));
+        Assertions.assertTrue(text.contains("webserver_request_duration_seconds_bucket{le=\"0.000006\"} 3\n"));
+        Assertions.assertTrue(text.contains("webserver_request_duration_seconds_bucket{le=\"+Inf\"} 3\n"));
+        Assertions.assertTrue(text.contains("webserver_request_phase_seconds_count{phase=\"file\"} 3\n"));
+        Assertions.assertTrue(text.contains("webserver_request_phase_seconds_sum{phase=\"parse\"} 0.000003000\n"));
+        Assertions.assertTrue(text.contains("webserver_sent_bytes_total 1100\n"));
+        Assertions.assertTrue(text.contains("# TYPE webserver_workers_active gauge\n"));
+        server.stop();
+    }
+
+    @org.junit.jupiter.api.Test
+    void compressionCacheChurnIsScraped() throws IOException {
+        Path directory = Files.createTempDirectory("metrics-test");
+        byte[] content = new byte[60];
+        Arrays.fill(content, (byte) 'a');
+        Server server = new Server(directory.toString(), 0, Level.OFF, new ServerConfig().setCompressionCacheBytes(64));
+        CompressionCache cache = server.getCompressionCache();
+        // Three files of about 24 compressed bytes do not fit into 64 bytes, the least recently used one is dropped.
+        for (String name : new String[]{"a.txt", "b.txt", "c.txt"}) {
+            Files.write(directory.resolve(name), content);
+            cache.get(directory.resolve(name).toFile());
+        }
+        Path changed = directory.resolve("c.txt");
+        Files.setLastModifiedTime(changed, FileTime.fromMillis(Files.getLastModifiedTime(changed).toMillis() + 60_000));
+        cache.get(changed.toFile());
+
+        String text = new String(server.getMetrics().scrape(server), StandardCharsets.UTF_8);
+        Assertions.assertTrue(text.contains("# TYPE webserver_compression_cache_evictions_total counter\n"));
+        Assertions.assertTrue(text.contains("webserver_compression_cache_evictions_total 1\n"), text);
+        Assertions.assertTrue(text.contains("webserver_compression_cache_invalidations_total 1\n"), text);
+        server.stop();
+    }
+}
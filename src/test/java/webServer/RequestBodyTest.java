@@ -0,0 +1,118 @@
+package webServer;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+
+/**
+ * This test determines whether request bodies are read up to their end and not beyond, no matter how the bytes are
+ * split between the buffer of the connection and the socket, and whether malformed or too large bodies are refused.
+ */
+class RequestBodyTest {
+    @TempDir
+    Path directory;
+
+    private static HttpRequest head(String fields) throws ParseException {
+        return new HttpParser().parse(ByteBuffer.wrap(("PUT /upload.txt HTTP/1.1\r\nHost: localhost\r\n" + fields
+                + "\r\n").getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    /**
+     * Reads a body whose first bytes arrived with the head, the rest is left to the socket.
+     * @return The body, followed by whatever remains in the buffer of the connection
+     */
+    private static String read(HttpRequest request, String sent, int buffered, long maxBytes) throws IOException {
+        byte[] bytes = sent.getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        buffer.put(bytes, 0, buffered);
+        RequestBody body = RequestBody.of(request, buffer,
+                Channels.newChannel(new ByteArrayInputStream(bytes, buffered, bytes.length - buffered)), maxBytes);
+        ByteBuffer received = ByteBuffer.allocate(1024);
+        while (body.read(received) >= 0) {
+            continue;
+        }
+        Assertions.assertTrue(body.isFinished());
+        buffer.flip();
+        return new String(received.array(), 0, received.position(), StandardCharsets.US_ASCII) + "|"
+                + StandardCharsets.US_ASCII.decode(buffer);
+    }
+
+    @org.junit.jupiter.api.Test
+    void contentLengthStopsAtTheEnd() throws IOException, ParseException {
+        String sent = "hello worldGET / HTTP/1.1\r\n";
+        for (int buffered = 0; buffered <= sent.length(); buffered++) {
+            String read = read(head("Content-Length: 11\r\n"), sent, buffered, 100);
+            // The next request stays with the connection if it arrived along with the body.
+            Assertions.assertEquals("hello world|" + sent.substring(11, Math.max(11, buffered)), read);
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void chunksAreDecoded() throws IOException, ParseException {
+        String sent = "5;name=value\r\nhello\r\n6\r\n world\r\n0\r\nTrailer: 1\r\n\r\nGET";
+        for (int buffered = 0; buffered <= sent.length(); buffered++) {
+            String read = read(head("Transfer-Encoding: chunked\r\n"), sent, buffered, 100);
+            Assertions.assertTrue(read.startsWith("hello world|"), read);
+        }
+        Assertions.assertEquals("hello world|GET",
+                read(head("Transfer-Encoding: chunked\r\n"), sent, sent.length(), 100));
+    }
+
+    @org.junit.jupiter.api.Test
+    void refuseFramingBeforeReading() throws ParseException {
+        assertRefused(411, head(""), 100);
+        assertRefused(413, head("Content-Length: 101\r\n"), 100);
+        assertRefused(400, head("Content-Length: 1x\r\n"), 100);
+        assertRefused(400, head("Content-Length: 3\r\nContent-Length: 4\r\n"), 100);
+        assertRefused(400, head("Content-Length: 3\r\nTransfer-Encoding: chunked\r\n"), 100);
+        assertRefused(501, head("Transfer-Encoding: gzip, chunked\r\n"), 100);
+    }
+
+    private static void assertRefused(int status, HttpRequest request, long maxBytes) {
+        RequestBody.BodyException e = Assertions.assertThrows(RequestBody.BodyException.class,
+                () -> RequestBody.of(request, ByteBuffer.allocate(16), Channels.newChannel(
+                        new ByteArrayInputStream(new byte[0])), maxBytes));
+        Assertions.assertEquals(status, e.getStatus());
+    }
+
+    @org.junit.jupiter.api.Test
+    void refuseMalformedAndTooLargeChunks() throws ParseException {
+        HttpRequest chunked = head("Transfer-Encoding: chunked\r\n");
+        Assertions.assertEquals(400, Assertions.assertThrows(RequestBody.BodyException.class,
+                () -> read(chunked, "zz\r\n", 4, 100)).getStatus());
+        Assertions.assertEquals(400, Assertions.assertThrows(RequestBody.BodyException.class,
+                () -> read(chunked, "3\r\nabcdef\r\n0\r\n\r\n", 0, 100)).getStatus());
+        Assertions.assertEquals(413, Assertions.assertThrows(RequestBody.BodyException.class,
+                () -> read(chunked, "40\r\n" + new String(new char[64]) + "\r\n40\r\n", 0, 100)).getStatus());
+        // A body which ends early is a dropped connection.
+        Assertions.assertThrows(IOException.class, () -> read(head("Content-Length: 10\r\n"), "short", 0, 100));
+    }
+
+    @org.junit.jupiter.api.Test
+    void failureSurvivesTransferFrom() throws IOException, ParseException {
+        String sent = "3\r\nabc\r\n200\r\n";
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        buffer.put(sent.getBytes(StandardCharsets.US_ASCII));
+        RequestBody body = RequestBody.of(head("Transfer-Encoding: chunked\r\n"), buffer,
+                Channels.newChannel(new ByteArrayInputStream(new byte[0])), 100);
+        try (FileChannel file = FileChannel.open(directory.resolve("upload.txt"), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE)) {
+            // The transfer keeps the bytes it moved and drops the error, the next one has to see it again.
+            Assertions.assertEquals(3, file.transferFrom(body, 0, 1024));
+            Assertions.assertEquals(413, Assertions.assertThrows(RequestBody.BodyException.class,
+                    () -> file.transferFrom(body, 3, 1024)).getStatus());
+        }
+        Assertions.assertArrayEquals("abc".getBytes(StandardCharsets.US_ASCII),
+                Files.readAllBytes(directory.resolve("upload.txt")));
+    }
+}
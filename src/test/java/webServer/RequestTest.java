@@ -171,7 +171,7 @@ class RequestTest {
     void checkMimeTypeText() throws IOException {
         URL url = new URL("http://localhost:1337/heas.txt");
         HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-        Assertions.assertEquals("text/txt", connection.getHeaderField("Content-Type"));
+        Assertions.assertEquals("text/plain; charset=utf-8", connection.getHeaderField("Content-Type"));
     }
 
     @org.junit.jupiter.api.Test
@@ -0,0 +1,64 @@
+package webServer;
+
+import org.junit.jupiter.api.Assertions;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This test determines whether response heads are encoded correctly from the pre-encoded constants and reused safely.
+ */
+class ResponseHeadTest {
+
+    private static String decode(ByteBuffer encoded) {
+        return new String(encoded.array(), encoded.position(), encoded.remaining(), StandardCharsets.UTF_8);
+    }
+
+    @org.junit.jupiter.api.Test
+    void encodesStatusLineAndFields() {
+        ResponseHead head = new ResponseHead();
+        ByteBuffer encoded = head.status(ResponseHead.NOT_FOUND)
+                .add(ResponseHead.SERVER)
+                .add(ResponseHead.CONTENT_LENGTH, 1234567890123L)
+                .add(ResponseHead.ETAG, "\"64-a\"")
+                .end(true);
+        Assertions.assertEquals(404, head.getStatus());
+        Assertions.assertEquals("HTTP/1.1 404 Not Found\r\n"
+                + "Server: Custom Java Webserver\r\n"
+                + "Content-Length: 1234567890123\r\n"
+                + "Etag: \"64-a\"\r\n"
+                + "Connection: keep-alive\r\n\r\n", decode(encoded));
+    }
+
+    @org.junit.jupiter.api.Test
+    void encodesZeroAndNonAsciiValues() {
+        String encoded = decode(new ResponseHead().status(ResponseHead.OK)
+                .add(ResponseHead.CONTENT_LENGTH, 0)
+                .add(ResponseHead.CONTENT_DISPOSITION_ATTACHMENT, "Dügün.bin")
+                .end(false));
+        Assertions.assertEquals("HTTP/1.1 200 OK\r\n"
+                + "Content-Length: 0\r\n"
+                + "Content-Disposition: attachment; filename=Dügün.bin\r\n"
+                + "Connection: close\r\n\r\n", encoded);
+    }
+
+    @org.junit.jupiter.api.Test
+    void growsAndRestartsOnNextStatus() {
+        ResponseHead head = new ResponseHead();
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            value.append('x');
+        }
+        Assertions.assertTrue(decode(head.status(ResponseHead.OK).add(ResponseHead.ETAG, value.toString()).end(false))
+                .contains(value));
+        Assertions.assertEquals("HTTP/1.1 304 Not Modified\r\nConnection: close\r\n\r\n",
+                decode(head.status(ResponseHead.NOT_MODIFIED).end(false)));
+        Assertions.assertEquals(304, head.getStatus());
+    }
+
+    @org.junit.jupiter.api.Test
+    void dateLineIsImfFixdate() {
+        String line = new String(HttpDates.dateLine(), StandardCharsets.US_ASCII);
+        Assertions.assertTrue(line.matches("Date: \\w{3}, \\d{2} \\w{3} \\d{4} \\d{2}:\\d{2}:\\d{2} GMT\r\n"), line);
+    }
+}
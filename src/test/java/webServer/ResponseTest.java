@@ -0,0 +1,183 @@
+package webServer;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * This test determines whether file bodies send exactly their region, resume where a full channel stopped them, and
+ * fail instead of hanging if the file is truncated while it is sent, and whether gzip bodies decode to the file, framed
+ * in chunks or not.
+ */
+class ResponseTest {
+    @TempDir
+    Path directory;
+
+    private FileChannel file(byte[] content) throws IOException {
+        Path path = directory.resolve("file.bin");
+        Files.write(path, content);
+        return FileChannel.open(path, StandardOpenOption.READ);
+    }
+
+    private static byte[] content(int length) {
+        byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            content[i] = (byte) (i * 31);
+        }
+        return content;
+    }
+
+    @org.junit.jupiter.api.Test
+    void fileBodySendsItsRegion() throws IOException {
+        byte[] content = content(300000);
+        ByteArrayOutputStream sent = new ByteArrayOutputStream();
+        Response.FileBody body = new Response.FileBody(file(content), 1000, 250000);
+        Assertions.assertTrue(body.writeTo(Channels.newChannel(sent)));
+        body.close();
+        Assertions.assertEquals(250000, body.getBytesWritten());
+        byte[] expected = new byte[250000];
+        System.arraycopy(content, 1000, expected, 0, expected.length);
+        Assertions.assertArrayEquals(expected, sent.toByteArray());
+    }
+
+    @org.junit.jupiter.api.Test
+    void fileBodyResumesAfterAFullChannel() throws IOException {
+        byte[] content = content(100000);
+        Response.FileBody body = new Response.FileBody(file(content), 0, content.length);
+        // A channel taking a few bytes at a time, and nothing every other call, like a socket in non-blocking mode.
+        ByteArrayOutputStream sent = new ByteArrayOutputStream();
+        WritableByteChannel trickle = new WritableByteChannel() {
+            private boolean full;
+
+            @Override
+            public int write(ByteBuffer source) {
+                full = !full;
+                if (full) {
+                    return 0;
+                }
+                int count = Math.min(source.remaining(), 4096);
+                for (int i = 0; i < count; i++) {
+                    sent.write(source.get());
+                }
+                return count;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        int calls = 0;
+        while (!body.writeTo(trickle)) {
+            calls++;
+        }
+        body.close();
+        Assertions.assertTrue(calls > 0);
+        Assertions.assertArrayEquals(content, sent.toByteArray());
+    }
+
+    @org.junit.jupiter.api.Test
+    void truncatedFileFails() throws IOException {
+        byte[] content = content(1000);
+        FileChannel file = file(content);
+        // The length was taken before the file shrank.
+        Response.FileBody body = new Response.FileBody(file, 0, 5000);
+        IOException e = Assertions.assertThrows(IOException.class,
+                () -> body.writeTo(Channels.newChannel(new ByteArrayOutputStream())));
+        Assertions.assertTrue(e.getMessage().contains("truncated"), e.getMessage());
+        Assertions.assertEquals(1000, body.getBytesWritten());
+        body.close();
+    }
+
+    @org.junit.jupiter.api.Test
+    void chunkedGzipBodyDecodes() throws IOException {
+        // Several chunks of the file, compressible and not.
+        byte[] content = new byte[5 * Request.TRANSFER_CHUNK + 123];
+        byte[] noise = content(content.length);
+        for (int i = 0; i < content.length; i++) {
+            content[i] = i % 3 == 0 ? noise[i] : (byte) 'a';
+        }
+        ByteArrayOutputStream sent = new ByteArrayOutputStream();
+        Response.GzipBody body = new Response.GzipBody(file(content), true);
+        Assertions.assertTrue(body.writeTo(Channels.newChannel(sent)));
+        body.close();
+        Assertions.assertEquals(sent.size(), body.getBytesWritten());
+        Assertions.assertArrayEquals(content, gunzip(dechunk(sent.toByteArray())));
+    }
+
+    @org.junit.jupiter.api.Test
+    void gzipBodyWithoutChunksDecodes() throws IOException {
+        byte[] content = content(3 * Request.TRANSFER_CHUNK);
+        ByteArrayOutputStream sent = new ByteArrayOutputStream();
+        Response.GzipBody body = new Response.GzipBody(file(content), false);
+        Assertions.assertTrue(body.writeTo(Channels.newChannel(sent)));
+        body.close();
+        Assertions.assertArrayEquals(content, gunzip(sent.toByteArray()));
+        // An empty file still yields a complete gzip stream.
+        sent.reset();
+        Response.GzipBody empty = new Response.GzipBody(file(new byte[0]), true);
+        Assertions.assertTrue(empty.writeTo(Channels.newChannel(sent)));
+        empty.close();
+        Assertions.assertArrayEquals(new byte[0], gunzip(dechunk(sent.toByteArray())));
+    }
+
+    /**
+     * Removes the chunked transfer encoding, checking the size of every chunk and the last chunk.
+     */
+    private static byte[] dechunk(byte[] chunked) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        int position = 0;
+        while (true) {
+            int lineEnd = indexOfCrlf(chunked, position);
+            int size = Integer.parseInt(new String(chunked, position, lineEnd - position,
+                    StandardCharsets.US_ASCII), 16);
+            position = lineEnd + 2;
+            if (size == 0) {
+                Assertions.assertEquals(position + 2, chunked.length, "Nothing may follow the last chunk");
+                return body.toByteArray();
+            }
+            body.write(chunked, position, size);
+            position += size;
+            Assertions.assertEquals('\r', chunked[position]);
+            Assertions.assertEquals('\n', chunked[position + 1]);
+            position += 2;
+        }
+    }
+
+    private static int indexOfCrlf(byte[] bytes, int from) {
+        for (int i = from; i + 1 < bytes.length; i++) {
+            if (bytes[i] == '\r' && bytes[i + 1] == '\n') {
+                return i;
+            }
+        }
+        throw new AssertionError("Missing line break");
+    }
+
+    private static byte[] gunzip(byte[] compressed) throws IOException {
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            byte[] buffer = new byte[8192];
+            for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                decoded.write(buffer, 0, read);
+            }
+        }
+        return decoded.toByteArray();
+    }
+}
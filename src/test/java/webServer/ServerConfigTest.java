@@ -0,0 +1,55 @@
+package webServer;
+
+import org.junit.jupiter.api.Assertions;
+
+/**
+ * This test determines whether system properties pass the validation of their setters, and whether a malformed or
+ * refused value is reported along with the name of its property.
+ */
+class ServerConfigTest {
+    private static IllegalArgumentException refused(String name, String value) {
+        System.setProperty(name, value);
+        try {
+            return Assertions.assertThrows(IllegalArgumentException.class, ServerConfig::fromSystemProperties);
+        }
+        finally {
+            System.clearProperty(name);
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void propertiesAreValidatedBySetters() {
+        Assertions.assertTrue(refused("webserver.workers", "0").getMessage().contains("webserver.workers"));
+        Assertions.assertTrue(refused("webserver.queue", "-1").getMessage().contains("webserver.queue"));
+        Assertions.assertTrue(refused("webserver.keepAlive.timeoutMillis", "0").getMessage()
+                .contains("webserver.keepAlive.timeoutMillis"));
+        Assertions.assertTrue(refused("webserver.metrics.path", "metrics").getMessage()
+                .contains("webserver.metrics.path"));
+    }
+
+    @org.junit.jupiter.api.Test
+    void malformedPropertiesAreReported() {
+        Assertions.assertTrue(refused("webserver.eventLoops", "four").getMessage().contains("webserver.eventLoops"));
+        Assertions.assertTrue(refused("webserver.engine", "async").getMessage().contains("webserver.engine"));
+        Assertions.assertTrue(refused("webserver.uploads", "yes").getMessage().contains("webserver.uploads"));
+    }
+
+    @org.junit.jupiter.api.Test
+    void propertiesAreApplied() {
+        System.setProperty("webserver.workers", " 3 ");
+        System.setProperty("webserver.engine", "nio");
+        System.setProperty("webserver.metrics.path", "");
+        try {
+            ServerConfig config = ServerConfig.fromSystemProperties();
+            Assertions.assertEquals(3, config.getWorkerThreads());
+            Assertions.assertEquals(Server.Engine.NIO, config.getEngine());
+            Assertions.assertNull(config.getMetricsPath());
+            Assertions.assertEquals(new ServerConfig().getQueueCapacity(), config.getQueueCapacity());
+        }
+        finally {
+            System.clearProperty("webserver.workers");
+            System.clearProperty("webserver.engine");
+            System.clearProperty("webserver.metrics.path");
+        }
+    }
+}
@@ -4,9 +4,19 @@ import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Assertions;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.Socket;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.text.ParseException;
 import java.util.logging.Level;
+import java.util.stream.Stream;
 
 /**
  * This Test determines the stability, reliability of the Server overall. Hence, this test covers general availability of
@@ -14,12 +24,16 @@ import java.util.logging.Level;
  */
 class ServerTest {
     private static Server server;
+    private static int port;
 
     @BeforeAll
-    public static void setUpClass() {
-        server = new Server("C:\\Users\\yigit\\Desktop", 1337, Level.ALL);
+    public static void setUpClass() throws IOException, InterruptedException {
+        // The system picks a free port, so the test runs next to other servers.
+        server = new Server(Files.createTempDirectory("server-test").toString(), 0, Level.ALL, new ServerConfig());
         Thread serve = new Thread(server);
+        serve.setDaemon(true);
         serve.start();
+        port = server.awaitListening(10000);
     }
 
     @AfterAll
@@ -29,11 +43,409 @@ class ServerTest {
 
     @org.junit.jupiter.api.Test
     void StatusCodeTest() throws IOException {
-        URL url = new URL("http://localhost:1337/");
+        URL url = new URL("http://localhost:" + port + "/");
         HttpURLConnection connection = (HttpURLConnection) url.openConnection();
         connection.setRequestProperty("accept", "text/html");
         int status = connection.getResponseCode();
         Assertions.assertEquals(HttpURLConnection.HTTP_OK, status);
     }
 
-}
\ No newline at end of file
+    @org.junit.jupiter.api.Test
+    void stopClosesIdleConnectionsAndReleasesPort() throws IOException, InterruptedException {
+        Path directory = Files.createTempDirectory("server-test");
+        Files.write(directory.resolve("hello.txt"), "hello".getBytes(StandardCharsets.US_ASCII));
+        Server stopped = new Server(directory.toString(), 0, Level.ALL, new ServerConfig());
+        Thread serve = new Thread(stopped);
+        serve.setDaemon(true);
+        serve.start();
+        int stoppedPort = stopped.awaitListening(10000);
+        try (Socket idle = new Socket("localhost", stoppedPort)) {
+            idle.setSoTimeout(10000);
+            idle.getOutputStream().write("GET /hello.txt HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                    .getBytes(StandardCharsets.US_ASCII));
+            InputStream in = idle.getInputStream();
+            StringBuilder response = new StringBuilder();
+            while (!response.toString().endsWith("hello")) {
+                response.append((char) in.read());
+            }
+            Assertions.assertTrue(response.toString().startsWith("HTTP/1.1 200"));
+
+            // The connection waits for its next request, stopping does not wait for it.
+            Assertions.assertTrue(stopped.stop(5000));
+            Assertions.assertEquals(-1, in.read());
+        }
+        try (ServerSocket rebound = new ServerSocket(stoppedPort)) {
+            Assertions.assertEquals(stoppedPort, rebound.getLocalPort());
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void uploadsReplaceFilesAtomically() throws IOException, InterruptedException {
+        Path directory = Files.createTempDirectory("server-test");
+        Files.write(directory.resolve("hello.txt"), "hello".getBytes(StandardCharsets.US_ASCII));
+        Server writable = new Server(directory.toString(), 0, Level.ALL, new ServerConfig().setUploads(true));
+        Thread serve = new Thread(writable);
+        serve.setDaemon(true);
+        serve.start();
+        int writablePort = writable.awaitListening(10000);
+        try {
+            URL url = new URL("http://localhost:" + writablePort + "/hello.txt");
+            HttpURLConnection put = (HttpURLConnection) url.openConnection();
+            put.setRequestMethod("PUT");
+            put.setDoOutput(true);
+            put.setChunkedStreamingMode(3);
+            put.getOutputStream().write("replaced".getBytes(StandardCharsets.US_ASCII));
+            Assertions.assertEquals(HttpURLConnection.HTTP_NO_CONTENT, put.getResponseCode());
+            Assertions.assertEquals("replaced",
+                    new String(Files.readAllBytes(directory.resolve("hello.txt")), StandardCharsets.US_ASCII));
+
+            HttpURLConnection create = (HttpURLConnection) new URL("http://localhost:" + writablePort + "/new.txt")
+                    .openConnection();
+            create.setRequestMethod("PUT");
+            create.setDoOutput(true);
+            create.setFixedLengthStreamingMode(3);
+            create.getOutputStream().write("new".getBytes(StandardCharsets.US_ASCII));
+            Assertions.assertEquals(HttpURLConnection.HTTP_CREATED, create.getResponseCode());
+            Assertions.assertEquals("/new.txt", create.getHeaderField("Location"));
+
+            HttpURLConnection delete = (HttpURLConnection) url.openConnection();
+            delete.setRequestMethod("DELETE");
+            Assertions.assertEquals(HttpURLConnection.HTTP_NO_CONTENT, delete.getResponseCode());
+            Assertions.assertFalse(Files.exists(directory.resolve("hello.txt")));
+            // Only the stored files are left, no temporary file.
+            try (Stream<Path> files = Files.list(directory)) {
+                Assertions.assertEquals(1, files.count());
+            }
+        }
+        finally {
+            writable.stop();
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void uploadsAreRefusedByDefault() throws IOException {
+        HttpURLConnection put = (HttpURLConnection) new URL("http://localhost:" + port + "/upload.txt")
+                .openConnection();
+        put.setRequestMethod("PUT");
+        put.setDoOutput(true);
+        put.getOutputStream().write("data".getBytes(StandardCharsets.US_ASCII));
+        Assertions.assertEquals(HttpURLConnection.HTTP_BAD_METHOD, put.getResponseCode());
+        Assertions.assertEquals("GET, HEAD", put.getHeaderField("Allow"));
+    }
+
+    @org.junit.jupiter.api.Test
+    void clientsBeyondTheirLimitsAreAnsweredWith429() throws IOException, InterruptedException {
+        Path directory = Files.createTempDirectory("server-test");
+        Files.write(directory.resolve("hello.txt"), "hello".getBytes(StandardCharsets.US_ASCII));
+        Server limited = new Server(directory.toString(), 0, Level.ALL, new ServerConfig()
+                .setMaxConnectionsPerClient(1).setRequestsPerSecond(1).setRequestBurst(2));
+        Thread serve = new Thread(limited);
+        serve.setDaemon(true);
+        serve.start();
+        int limitedPort = limited.awaitListening(10000);
+        try (Socket first = new Socket("localhost", limitedPort)) {
+            first.setSoTimeout(10000);
+            Assertions.assertTrue(get(first).startsWith("HTTP/1.1 200"));
+            // The client holds its only connection, a second one is refused before it is read.
+            try (Socket second = new Socket("localhost", limitedPort)) {
+                second.setSoTimeout(10000);
+                String refused = readAll(second.getInputStream());
+                Assertions.assertTrue(refused.startsWith("HTTP/1.1 429"), refused);
+                Assertions.assertTrue(refused.contains("Retry-After: 1\r\n"), refused);
+            }
+            Assertions.assertTrue(get(first).startsWith("HTTP/1.1 200"));
+            // The burst of two requests is used up.
+            first.getOutputStream().write("GET /hello.txt HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                    .getBytes(StandardCharsets.US_ASCII));
+            String limitedResponse = readAll(first.getInputStream());
+            Assertions.assertTrue(limitedResponse.startsWith("HTTP/1.1 429"), limitedResponse);
+            Assertions.assertTrue(limitedResponse.contains("Retry-After: 1\r\n"), limitedResponse);
+        }
+        finally {
+            limited.stop();
+        }
+        Assertions.assertEquals(1, limited.getAdmission().getRefused(AdmissionControl.Reason.CONNECTIONS));
+        Assertions.assertEquals(1, limited.getAdmission().getRefused(AdmissionControl.Reason.REQUESTS));
+    }
+
+    @org.junit.jupiter.api.Test
+    void tricklingHeadsAreCut() throws IOException, InterruptedException {
+        for (Server.Engine engine : Server.Engine.values()) {
+            Server guarded = new Server(Files.createTempDirectory("server-test").toString(), 0, Level.ALL,
+                    new ServerConfig().setEngine(engine).setHeadTimeoutMillis(500));
+            Thread serve = new Thread(guarded);
+            serve.setDaemon(true);
+            serve.start();
+            int guardedPort = guarded.awaitListening(10000);
+            try (Socket slow = new Socket("localhost", guardedPort)) {
+                slow.setSoTimeout(10000);
+                slow.getOutputStream().write("GET / HTTP/1.1\r\n".getBytes(StandardCharsets.US_ASCII));
+                long started = System.nanoTime();
+                // A header field every 100 ms keeps the connection from ever being idle.
+                try {
+                    for (int i = 0; i < 100; i++) {
+                        Thread.sleep(100);
+                        slow.getOutputStream().write(("X-Field-" + i + ": 1\r\n")
+                                .getBytes(StandardCharsets.US_ASCII));
+                    }
+                    Assertions.assertEquals(-1, slow.getInputStream().read());
+                }
+                catch (IOException e) {
+                    // The server has closed the connection while the client was still sending.
+                }
+                Assertions.assertTrue(System.nanoTime() - started < 5_000_000_000L, engine.name());
+                Assertions.assertEquals(1, guarded.getMetrics().getStalledConnections(Deadlines.Phase.HEAD),
+                        engine.name());
+            }
+            finally {
+                guarded.stop();
+            }
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void pipelinedRequestsShareTheConnection() throws IOException, InterruptedException {
+        Path directory = Files.createTempDirectory("server-test");
+        Files.write(directory.resolve("hello.txt"), "hello".getBytes(StandardCharsets.US_ASCII));
+        for (Server.Engine engine : Server.Engine.values()) {
+            Server persistent = new Server(directory.toString(), 0, Level.ALL,
+                    new ServerConfig().setEngine(engine).setKeepAliveMaxRequests(3));
+            Thread serve = new Thread(persistent);
+            serve.setDaemon(true);
+            serve.start();
+            int persistentPort = persistent.awaitListening(10000);
+            try (Socket socket = new Socket("localhost", persistentPort)) {
+                socket.setSoTimeout(10000);
+                // All requests in one write, each is answered in order on the same connection.
+                String request = "GET /hello.txt HTTP/1.1\r\nHost: localhost\r\n\r\n";
+                socket.getOutputStream().write((request + "HEAD /hello.txt HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                        + request).getBytes(StandardCharsets.US_ASCII));
+                String responses = readAll(socket.getInputStream());
+                String[] answers = responses.split("(?=HTTP/1\\.1 )");
+                Assertions.assertEquals(3, answers.length, engine.name() + ": " + responses);
+                for (String answer : answers) {
+                    Assertions.assertTrue(answer.startsWith("HTTP/1.1 200"), engine.name() + ": " + answer);
+                }
+                Assertions.assertTrue(answers[0].endsWith("\r\n\r\nhello"), engine.name());
+                Assertions.assertTrue(answers[1].endsWith("\r\n\r\n"), engine.name());
+                // The last request allowed on the connection closes it.
+                Assertions.assertTrue(answers[0].contains("Connection: keep-alive\r\n"), engine.name());
+                Assertions.assertTrue(answers[2].contains("Connection: close\r\n"), engine.name());
+                Assertions.assertTrue(answers[2].endsWith("\r\n\r\nhello"), engine.name());
+            }
+            finally {
+                persistent.stop();
+            }
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void oversizedHeadsAreAnsweredWith431() throws IOException, InterruptedException {
+        for (Server.Engine engine : Server.Engine.values()) {
+            Server limited = new Server(Files.createTempDirectory("server-test").toString(), 0, Level.ALL,
+                    new ServerConfig().setEngine(engine));
+            Thread serve = new Thread(limited);
+            serve.setDaemon(true);
+            serve.start();
+            int limitedPort = limited.awaitListening(10000);
+            try (Socket socket = new Socket("localhost", limitedPort)) {
+                socket.setSoTimeout(10000);
+                // Exactly as many bytes as the buffer of the connection holds, without the end of the head.
+                StringBuilder head = new StringBuilder("GET / HTTP/1.1\r\nX-Padding: ");
+                while (head.length() < HttpParser.MAX_HEAD_SIZE) {
+                    head.append('p');
+                }
+                socket.getOutputStream().write(head.toString().getBytes(StandardCharsets.US_ASCII));
+                String response = readAll(socket.getInputStream());
+                Assertions.assertTrue(response.startsWith("HTTP/1.1 431"), engine.name() + ": " + response);
+            }
+            finally {
+                limited.stop();
+            }
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void pathsOutsideTheServedDirectoryAreNotServed() throws IOException, InterruptedException {
+        Path parent = Files.createTempDirectory("server-test");
+        Path directory = Files.createDirectory(parent.resolve("served"));
+        Path outside = Files.createDirectory(parent.resolve("outside"));
+        Files.write(outside.resolve("secret.txt"), "secret".getBytes(StandardCharsets.US_ASCII));
+        Files.write(directory.resolve("hello.txt"), "hello".getBytes(StandardCharsets.US_ASCII));
+        Files.createSymbolicLink(directory.resolve("link"), outside);
+        // A fresh sidecar leading out of the served directory.
+        Files.createSymbolicLink(directory.resolve("hello.txt.gz"), outside.resolve("secret.txt"));
+        Files.setLastModifiedTime(outside.resolve("secret.txt"),
+                FileTime.fromMillis(System.currentTimeMillis() + 60000));
+        Server confined = new Server(directory.toString(), 0, Level.ALL, new ServerConfig().setUploads(true));
+        Thread serve = new Thread(confined);
+        serve.setDaemon(true);
+        serve.start();
+        int confinedPort = confined.awaitListening(10000);
+        try {
+            for (String target : new String[]{"/../outside/secret.txt", "/%2e%2e/outside/secret.txt"}) {
+                try (Socket socket = new Socket("localhost", confinedPort)) {
+                    socket.setSoTimeout(10000);
+                    socket.getOutputStream().write(("GET " + target + " HTTP/1.1\r\nHost: localhost\r\n"
+                            + "Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                    String response = readAll(socket.getInputStream());
+                    Assertions.assertTrue(response.startsWith("HTTP/1.1 400"), target + ": " + response);
+                }
+            }
+            // A link within the served directory is resolved before the file is read or written.
+            HttpURLConnection read = (HttpURLConnection) new URL("http://localhost:" + confinedPort
+                    + "/link/secret.txt").openConnection();
+            Assertions.assertEquals(HttpURLConnection.HTTP_NOT_FOUND, read.getResponseCode());
+            HttpURLConnection listing = (HttpURLConnection) new URL("http://localhost:" + confinedPort
+                    + "/link/").openConnection();
+            Assertions.assertEquals(HttpURLConnection.HTTP_NOT_FOUND, listing.getResponseCode());
+            HttpURLConnection delete = (HttpURLConnection) new URL("http://localhost:" + confinedPort
+                    + "/link/secret.txt").openConnection();
+            delete.setRequestMethod("DELETE");
+            Assertions.assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, delete.getResponseCode());
+            Assertions.assertTrue(Files.exists(outside.resolve("secret.txt")));
+            HttpURLConnection hello = (HttpURLConnection) new URL("http://localhost:" + confinedPort
+                    + "/hello.txt").openConnection();
+            hello.setRequestProperty("Accept-Encoding", "gzip");
+            Assertions.assertEquals(HttpURLConnection.HTTP_OK, hello.getResponseCode());
+            Assertions.assertNotEquals("secret", readAll(hello.getInputStream()));
+        }
+        finally {
+            confined.stop();
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void preloadedAssetsStayInTheServedDirectory() throws IOException, InterruptedException {
+        Path parent = Files.createTempDirectory("server-test");
+        Path directory = Files.createDirectory(parent.resolve("served"));
+        Path outside = Files.createDirectory(parent.resolve("outside"));
+        Files.write(outside.resolve("secret.js"), "secret".getBytes(StandardCharsets.US_ASCII));
+        Path assets = Files.createDirectory(directory.resolve("static"));
+        byte[] script = new byte[1000];
+        java.util.Arrays.fill(script, (byte) 'a');
+        Files.write(assets.resolve("app.js"), script);
+        Files.createSymbolicLink(assets.resolve("secret.js"), outside.resolve("secret.js"));
+        Files.createSymbolicLink(assets.resolve("app.js.gz"), outside.resolve("secret.js"));
+        // Newer than the file, so the link would pass as its sidecar.
+        Files.setLastModifiedTime(outside.resolve("secret.js"),
+                FileTime.fromMillis(System.currentTimeMillis() + 60000));
+        Server confined = new Server(directory.toString(), 0, Level.ALL, new ServerConfig().setAssetsPath("/static"));
+        Thread serve = new Thread(confined);
+        serve.setDaemon(true);
+        serve.start();
+        int confinedPort = confined.awaitListening(10000);
+        try {
+            Assertions.assertNotNull(confined.getAssetStore().get("/static/app.js"));
+            Assertions.assertNull(confined.getAssetStore().get("/static/secret.js"));
+            // The file behind the link is not served from the store, nor from disk.
+            HttpURLConnection secret = (HttpURLConnection) new URL("http://localhost:" + confinedPort
+                    + "/static/secret.js").openConnection();
+            Assertions.assertEquals(HttpURLConnection.HTTP_NOT_FOUND, secret.getResponseCode());
+            // A sidecar leading out of the served directory is not taken as the gzipped file.
+            HttpURLConnection app = (HttpURLConnection) new URL("http://localhost:" + confinedPort
+                    + "/static/app.js").openConnection();
+            app.setRequestProperty("Accept-Encoding", "gzip");
+            Assertions.assertEquals(HttpURLConnection.HTTP_OK, app.getResponseCode());
+            Assertions.assertNotEquals("secret", readAll(app.getInputStream()));
+        }
+        finally {
+            confined.stop();
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void lastModifiedIsAcceptedAsIfModifiedSince() throws IOException, InterruptedException {
+        Path directory = Files.createTempDirectory("server-test");
+        Path hello = Files.write(directory.resolve("hello.txt"), "hello".getBytes(StandardCharsets.US_ASCII));
+        // The file system keeps milliseconds, the header only whole seconds.
+        Files.setLastModifiedTime(hello, FileTime.fromMillis(1_600_000_000_537L));
+        Server cached = new Server(directory.toString(), 0, Level.ALL, new ServerConfig());
+        Thread serve = new Thread(cached);
+        serve.setDaemon(true);
+        serve.start();
+        int cachedPort = cached.awaitListening(10000);
+        try {
+            URL url = new URL("http://localhost:" + cachedPort + "/hello.txt");
+            HttpURLConnection first = (HttpURLConnection) url.openConnection();
+            Assertions.assertEquals(HttpURLConnection.HTTP_OK, first.getResponseCode());
+            String lastModified = first.getHeaderField("Last-Modified");
+            Assertions.assertNotNull(lastModified);
+
+            HttpURLConnection revalidated = (HttpURLConnection) url.openConnection();
+            revalidated.setRequestProperty("If-Modified-Since", lastModified);
+            Assertions.assertEquals(HttpURLConnection.HTTP_NOT_MODIFIED, revalidated.getResponseCode());
+
+            HttpURLConnection older = (HttpURLConnection) url.openConnection();
+            older.setRequestProperty("If-Modified-Since", HttpDates.format(1_599_999_999_000L));
+            Assertions.assertEquals(HttpURLConnection.HTTP_OK, older.getResponseCode());
+        }
+        finally {
+            cached.stop();
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void answersReadingTheDiskAreLeftToTheWorkers() throws IOException, InterruptedException, ParseException {
+        Path directory = Files.createTempDirectory("server-test");
+        Files.write(directory.resolve("hello.txt"), "hello".getBytes(StandardCharsets.US_ASCII));
+        Files.createDirectory(directory.resolve("sub"));
+        Server disk = new Server(directory.toString(), 0, Level.ALL,
+                new ServerConfig().setEngine(Server.Engine.NIO).setEtagMode(EntityTags.Mode.CONTENT));
+        Request handler = new Request(disk);
+        HttpRequest plain = parse(disk, "GET /hello.txt HTTP/1.1\r\nHost: localhost\r\n\r\n");
+        HttpRequest gzip = parse(disk, "GET /hello.txt HTTP/1.1\r\nHost: localhost\r\nAccept-Encoding: gzip\r\n\r\n");
+        Assertions.assertTrue(handler.readsContent(parse(disk, "GET /sub/ HTTP/1.1\r\nHost: localhost\r\n\r\n")));
+        Assertions.assertFalse(handler.readsContent(parse(disk, "GET /none.txt HTTP/1.1\r\nHost: localhost\r\n\r\n")));
+        // The file has to be hashed once for its tag, and compressed once into the cache.
+        Assertions.assertTrue(handler.readsContent(plain));
+        handler.respond(plain).close();
+        Assertions.assertFalse(handler.readsContent(plain));
+        Assertions.assertTrue(handler.readsContent(gzip));
+        handler.respond(gzip).close();
+        Assertions.assertFalse(handler.readsContent(gzip));
+
+        // A connection handed to a worker keeps serving the requests pipelined behind the one it was handed over for.
+        Thread serve = new Thread(disk);
+        serve.setDaemon(true);
+        serve.start();
+        int diskPort = disk.awaitListening(10000);
+        try (Socket socket = new Socket("localhost", diskPort)) {
+            socket.setSoTimeout(10000);
+            socket.getOutputStream().write(("GET /sub/ HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                    + "GET /hello.txt HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            String[] answers = readAll(socket.getInputStream()).split("(?=HTTP/1\\.1 )");
+            Assertions.assertEquals(2, answers.length);
+            Assertions.assertTrue(answers[0].startsWith("HTTP/1.1 200"), answers[0]);
+            Assertions.assertTrue(answers[1].startsWith("HTTP/1.1 200"), answers[1]);
+            Assertions.assertTrue(answers[1].endsWith("\r\n\r\nhello"), answers[1]);
+        }
+        finally {
+            disk.stop();
+        }
+    }
+
+    private static HttpRequest parse(Server server, String head) throws ParseException {
+        return server.getParser().parse(ByteBuffer.wrap(head.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    private static String get(Socket socket) throws IOException {
+        socket.getOutputStream().write("GET /hello.txt HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                .getBytes(StandardCharsets.US_ASCII));
+        InputStream in = socket.getInputStream();
+        StringBuilder response = new StringBuilder();
+        while (!response.toString().endsWith("hello")) {
+            response.append((char) in.read());
+        }
+        return response.toString();
+    }
+
+    private static String readAll(InputStream in) throws IOException {
+        StringBuilder response = new StringBuilder();
+        for (int read = in.read(); read >= 0; read = in.read()) {
+            response.append((char) read);
+        }
+        return response.toString();
+    }
+}
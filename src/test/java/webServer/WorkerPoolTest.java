@@ -0,0 +1,115 @@
+package webServer;
+
+import org.junit.jupiter.api.Assertions;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.logging.Level;
+
+/**
+ * This test determines whether the worker pool is sized as configured, split into groups or not, and whether
+ * connections which find neither a worker nor a place in the queue are answered with 503 right away. Virtual threads
+ * are used where the runtime offers them, the platform pool otherwise.
+ */
+class WorkerPoolTest {
+    @org.junit.jupiter.api.Test
+    void groupsSplitThreadsAndQueue() {
+        WorkerPool single = new WorkerPool(4, 8);
+        Assertions.assertEquals(WorkerPool.Mode.PLATFORM, single.getMode());
+        Assertions.assertEquals(1, single.getGroups());
+        Assertions.assertEquals(4, single.getMaximumPoolSize());
+        Assertions.assertEquals(8, single.getQueueCapacity());
+        Assertions.assertEquals(0, single.getPoolSize());
+        single.shutdown();
+
+        // Threads and queue places are rounded up per group.
+        WorkerPool grouped = new WorkerPool(WorkerPool.Mode.PLATFORM, 10, 5, 3);
+        Assertions.assertEquals(3, grouped.getGroups());
+        Assertions.assertEquals(12, grouped.getMaximumPoolSize());
+        Assertions.assertEquals(6, grouped.getQueueCapacity());
+        grouped.shutdown();
+    }
+
+    @org.junit.jupiter.api.Test
+    void saturatedPoolAnswers503() throws IOException, InterruptedException {
+        assertSaturated(new ServerConfig().setWorkerThreads(1).setQueueCapacity(0));
+    }
+
+    @org.junit.jupiter.api.Test
+    void virtualModeFallsBackOnOlderRuntimes() {
+        WorkerPool pool = new WorkerPool(WorkerPool.Mode.VIRTUAL, 4, 8, 2);
+        if (supportsVirtualThreads()) {
+            // One executor for all connections, bounded by the permits instead of a queue.
+            Assertions.assertEquals(WorkerPool.Mode.VIRTUAL, pool.getMode());
+            Assertions.assertEquals(1, pool.getGroups());
+            Assertions.assertEquals(0, pool.getQueueCapacity());
+        }
+        else {
+            Assertions.assertEquals(WorkerPool.Mode.PLATFORM, pool.getMode());
+            Assertions.assertEquals(2, pool.getGroups());
+            Assertions.assertEquals(8, pool.getQueueCapacity());
+        }
+        Assertions.assertEquals(4, pool.getMaximumPoolSize());
+        pool.shutdown();
+    }
+
+    @org.junit.jupiter.api.Test
+    void virtualModeIsBoundedByTheConnectionLimit() throws IOException, InterruptedException {
+        // Virtual threads are limited by maxConnections, the fallback by the worker threads and the queue.
+        Server server = assertSaturated(new ServerConfig().setExecutionMode(WorkerPool.Mode.VIRTUAL)
+                .setMaxConnections(1).setWorkerThreads(1).setQueueCapacity(0));
+        Assertions.assertEquals(supportsVirtualThreads() ? WorkerPool.Mode.VIRTUAL : WorkerPool.Mode.PLATFORM,
+                server.getWorkerPool().getMode());
+    }
+
+    private static boolean supportsVirtualThreads() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        }
+        catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Occupies the only worker with an idle connection, the next connection has to be rejected.
+     * @param config A configuration which serves one connection at a time
+     * @return The server, stopped
+     */
+    static Server assertSaturated(ServerConfig config) throws IOException, InterruptedException {
+        Server server = new Server(Files.createTempDirectory("server-test").toString(), 0, Level.ALL, config);
+        Thread serve = new Thread(server);
+        serve.setDaemon(true);
+        serve.start();
+        int port = server.awaitListening(10000);
+        try (Socket busy = new Socket("localhost", port)) {
+            // The worker waits for the first request of the connection until the keep-alive timeout.
+            long deadline = System.currentTimeMillis() + 10000;
+            while (server.getWorkerPool().getActiveWorkers() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            try (Socket rejected = new Socket("localhost", port)) {
+                rejected.setSoTimeout(10000);
+                String response = readAll(rejected.getInputStream());
+                Assertions.assertTrue(response.startsWith("HTTP/1.1 503"), response);
+                Assertions.assertTrue(response.contains("Retry-After: 1\r\n"), response);
+            }
+        }
+        finally {
+            server.stop();
+        }
+        Assertions.assertEquals(1, server.getWorkerPool().getRejectedCount());
+        return server;
+    }
+
+    private static String readAll(InputStream in) throws IOException {
+        StringBuilder response = new StringBuilder();
+        for (int read = in.read(); read >= 0; read = in.read()) {
+            response.append((char) read);
+        }
+        return response.toString();
+    }
+}